@@ -27,7 +27,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -40,6 +43,7 @@ import com.dynamo.bob.archive.ArchiveEntry;
 import com.dynamo.bob.archive.ArchiveBuilder;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ManifestBuilder;
+import com.dynamo.bob.cache.LocalResourceCache;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.util.FileUtil;
 import com.dynamo.bob.fs.DefaultFileSystem;
@@ -472,5 +476,106 @@ public class ArchiveTest {
         assertEquals("/main.collectionc", instance.getArchiveEntry(1).getRelativeFilename());         // b32b3904944e63ed5a269caa47904645
     }
 
+    private ArchiveBuilder createArchiveBuilder(List<String> filepaths, int maxThreads, LocalResourceCache compressionCache) throws IOException {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 16);
+        instance.setMaxThreads(maxThreads);
+        instance.setCompressionCache(compressionCache);
+        for (int i = 0; i < filepaths.size(); ++i) {
+            instance.add(filepaths.get(i), true, i % 3 == 0);
+        }
+        return instance;
+    }
+
+    private byte[][] writeArchive(ArchiveBuilder instance) throws IOException, CompileExceptionError {
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        instance.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        archiveIndex.close();
+        archiveData.close();
+        return new byte[][] { Files.readAllBytes(outputIndex.toPath()), Files.readAllBytes(outputData.toPath()) };
+    }
+
+    private List<String> createResources() throws IOException {
+        List<String> filepaths = new ArrayList<String>();
+        for (int i = 0; i < 200; ++i) {
+            // a mix of compressible and incompressible resources of different sizes
+            byte[] content = new byte[(i * 997) % 20000];
+            for (int j = 0; j < content.length; ++j) {
+                content[j] = (byte) (i % 2 == 0 ? j / 64 : (j * 31 + i) ^ (j >> 3));
+            }
+            filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "dir" + (i % 7) + "/resource" + i, content)));
+        }
+        return filepaths;
+    }
+
+    @Test
+    public void testParallelWriteIsDeterministic() throws Exception {
+        List<String> filepaths = createResources();
+        byte[][] serial = writeArchive(createArchiveBuilder(filepaths, 1, null));
+        byte[][] parallel = writeArchive(createArchiveBuilder(filepaths, 8, null));
+        assertArrayEquals(serial[0], parallel[0]);
+        assertArrayEquals(serial[1], parallel[1]);
+    }
+
+    @Test
+    public void testMemoryMappedReader() throws Exception {
+        List<String> filepaths = createResources();
+        writeArchive(createArchiveBuilder(filepaths, 4, null));
+
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null, true);
+        ar.read();
+        List<ArchiveEntry> entries = ar.getEntries();
+        assertEquals(filepaths.size(), entries.size());
+
+        Set<String> contents = new HashSet<String>();
+        for (String filepath : filepaths) {
+            contents.add(Arrays.toString(Files.readAllBytes(Paths.get(filepath))));
+        }
+        for (ArchiveEntry entry : entries) {
+            assertTrue(entry == ar.findEntry(entry.getHash()));
+            assertEquals(ar.getEntryContent(entry).length, entry.isEncrypted() ? ar.getEntryData(entry).remaining() : entry.getSize());
+            if (!entry.isEncrypted()) {
+                assertTrue(contents.contains(Arrays.toString(ar.getEntryContent(entry))));
+            }
+        }
+        assertEquals(null, ar.findEntry(new byte[ArchiveBuilder.HASH_LENGTH]));
+
+        // the extracted entries are the same as the ones read directly
+        File extractDir = Files.createTempDirectory("tmp.defold.extract_").toFile();
+        try {
+            ar.extractAll(extractDir.getAbsolutePath(), 4);
+            assertEquals(entries.size(), FileUtils.listFiles(extractDir, null, false).size());
+        } finally {
+            FileUtils.deleteDirectory(extractDir);
+        }
+        ar.close();
+    }
+
+    @Test
+    public void testCompressionCache() throws Exception {
+        List<String> filepaths = createResources();
+        File cacheDir = Files.createTempDirectory("tmp.defold.compressioncache_").toFile();
+        try {
+            byte[][] uncached = writeArchive(createArchiveBuilder(filepaths, 4, null));
+            ArchiveBuilder instance = createArchiveBuilder(filepaths, 4, new LocalResourceCache(cacheDir, 0));
+            byte[][] first = writeArchive(instance);
+            assertEquals(0, instance.getCompressionCacheHits());
+            assertArrayEquals(uncached[0], first[0]);
+            assertArrayEquals(uncached[1], first[1]);
+
+            // all resources are reused from the cache on the next build
+            instance = createArchiveBuilder(filepaths, 4, new LocalResourceCache(cacheDir, 0));
+            byte[][] second = writeArchive(instance);
+            assertEquals(filepaths.size(), instance.getCompressionCacheHits());
+            assertArrayEquals(uncached[0], second[0]);
+            assertArrayEquals(uncached[1], second[1]);
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
 
 }
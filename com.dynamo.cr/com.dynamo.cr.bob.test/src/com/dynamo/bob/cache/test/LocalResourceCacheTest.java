@@ -0,0 +1,93 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.cache.LocalResourceCache;
+import com.dynamo.bob.util.SignatureStore;
+
+public class LocalResourceCacheTest {
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = Files.createTempDirectory("resource-cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(cacheDir);
+    }
+
+    private static String key(int cache, int round) {
+        return String.format("%08x%08x", cache, round);
+    }
+
+    @Test
+    public void testSharedDirectory() throws Exception {
+        final int rounds = 200;
+        // the same directory through two different paths
+        LocalResourceCache[] caches = {
+            new LocalResourceCache(cacheDir, 0),
+            new LocalResourceCache(new File(cacheDir, "."), 0),
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(caches.length);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < caches.length; ++i) {
+                final int c = i;
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < rounds; ++round) {
+                        // both instances update the index at the same time
+                        caches[c].put(key(c, round), new byte[] { (byte) c, (byte) round });
+                        caches[c].flush();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                // throws if an index update failed, e.g. with an OverlappingFileLockException
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // the index has the resources from both instances
+        SignatureStore index = SignatureStore.open(new File(cacheDir, "index"), 16);
+        for (int c = 0; c < caches.length; ++c) {
+            for (int round = 0; round < rounds; ++round) {
+                assertNotNull(key(c, round), index.get(key(c, round)));
+                assertArrayEquals(new byte[] { (byte) c, (byte) round }, caches[1 - c].get(key(c, round)));
+            }
+        }
+    }
+}
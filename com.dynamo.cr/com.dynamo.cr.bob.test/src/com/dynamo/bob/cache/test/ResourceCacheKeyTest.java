@@ -14,11 +14,13 @@
 
 package com.dynamo.bob.cache.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -39,6 +41,7 @@ public class ResourceCacheKeyTest {
 
 	private class DummyBuilder extends Builder<Void> {
 		private TaskBuilder<Void> builder;
+		int signatureCount = 0;
 
 		public DummyBuilder() {
 			builder = Task.<Void> newBuilder(this);
@@ -52,6 +55,10 @@ public class ResourceCacheKeyTest {
 			return this;
 		}
 		@Override
+		public void signature(MessageDigest digest) {
+			signatureCount++;
+		}
+		@Override
 		public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
 			if (input != null) {
 				builder.addInput(input);
@@ -196,4 +203,22 @@ public class ResourceCacheKeyTest {
 
 		assertEquals(key1, key2);
 	}
+
+	// the task signature is only calculated once per task
+	@Test
+	public void testSignatureCalculatedOnce() throws CompileExceptionError, IOException {
+		IResource input = createResource("someInput");
+		IResource output1 = createResource("someOutput").output();
+		IResource output2 = createResource("someOutput").output();
+
+		DummyBuilder builder = new DummyBuilder();
+		Task<?> task = builder.addInput(input).addOutput(output1).addOutput(output2).create(null);
+		byte[] signature = task.calculateSignature();
+		String key1 = ResourceCacheKey.calculate(task, createEmptyOptions(), output1);
+		String key2 = ResourceCacheKey.calculate(task, createEmptyOptions(), output2);
+		assertNotEquals(key1, key2);
+		assertEquals(key1, ResourceCacheKey.calculate(task, createEmptyOptions(), output1));
+		assertArrayEquals(signature, task.calculateSignature());
+		assertEquals(1, builder.signatureCount);
+	}
 }
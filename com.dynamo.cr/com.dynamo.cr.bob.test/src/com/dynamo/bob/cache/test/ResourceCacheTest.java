@@ -15,12 +15,26 @@
 package com.dynamo.bob.cache.test;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -37,14 +51,56 @@ public class ResourceCacheTest {
 
 	private ResourceCache resourceCache = null;
 
+	private Server httpServer = null;
+
+	private String remoteCacheUrl = null;
+
+	// remote cache stand-in, keeping resources in memory
+	private static class RemoteCacheHandler extends AbstractHandler {
+		Map<String, byte[]> resources = new ConcurrentHashMap<>();
+		AtomicInteger requestCount = new AtomicInteger();
+
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+			requestCount.incrementAndGet();
+			String method = request.getMethod();
+			if (method.equals("PUT")) {
+				resources.put(target, IOUtils.toByteArray(request.getInputStream()));
+				response.setStatus(201);
+			}
+			else if (resources.containsKey(target)) {
+				response.setStatus(200);
+				if (method.equals("GET")) {
+					response.getOutputStream().write(resources.get(target));
+				}
+			}
+			else {
+				response.setStatus(404);
+			}
+			baseRequest.setHandled(true);
+		}
+	}
+
+	private RemoteCacheHandler remoteCache = new RemoteCacheHandler();
+
 	@Before
 	public void setUp() throws Exception {
 		cacheDir = Files.createTempDirectory(null);
 		resourceCache = new ResourceCache();
+
+		httpServer = new Server();
+		SocketConnector connector = new SocketConnector();
+		connector.setPort(0);
+		httpServer.addConnector(connector);
+		httpServer.setHandler(remoteCache);
+		httpServer.start();
+		remoteCacheUrl = "http://localhost:" + connector.getLocalPort();
 	}
 
 	@After
-	public void tearDown() throws IOException {
+	public void tearDown() throws Exception {
+		resourceCache.flush();
+		httpServer.stop();
 	}
 
 	// nothing should happen if the resource cache is disabled
@@ -69,4 +125,112 @@ public class ResourceCacheTest {
 		assertArrayEquals(data, resourceCache.get(key));
 	}
 
+	// resources put in the cache are uploaded to the remote cache
+	@Test
+	public void testRemoteUpload() throws Exception {
+		resourceCache.init(cacheDir.toString(), remoteCacheUrl);
+		final byte[] data = "somedata".getBytes();
+		resourceCache.put("somekey", data);
+		resourceCache.flush();
+		assertArrayEquals(data, remoteCache.resources.get("/somekey"));
+		assertEquals(1, resourceCache.getRemoteUploads());
+	}
+
+	// resources found in the remote cache are downloaded with a single request
+	@Test
+	public void testRemoteDownload() throws Exception {
+		final byte[] data = "somedata".getBytes();
+		remoteCache.resources.put("/somekey", data);
+		resourceCache.init(cacheDir.toString(), remoteCacheUrl);
+		assertTrue(resourceCache.contains("somekey"));
+		assertArrayEquals(data, resourceCache.get("somekey"));
+		assertEquals(1, remoteCache.requestCount.get());
+		assertTrue(cacheDir.resolve("so/me/somekey").toFile().exists());
+	}
+
+	// missing resources are only looked up once per build
+	@Test
+	public void testRemoteNegativeLookup() throws Exception {
+		resourceCache.init(cacheDir.toString(), remoteCacheUrl);
+		assertFalse(resourceCache.contains("missing"));
+		assertFalse(resourceCache.contains("missing"));
+		assertTrue(resourceCache.get("missing") == null);
+		assertEquals(1, remoteCache.requestCount.get());
+		assertEquals(1, resourceCache.getRemoteMisses());
+
+		// a new build looks it up again
+		resourceCache.init(cacheDir.toString(), remoteCacheUrl);
+		assertFalse(resourceCache.contains("missing"));
+		assertEquals(2, remoteCache.requestCount.get());
+	}
+
+	// several resources are looked up at once
+	@Test
+	public void testRemoteContainsAll() throws Exception {
+		remoteCache.resources.put("/key1", "data1".getBytes());
+		remoteCache.resources.put("/key2", "data2".getBytes());
+		resourceCache.init(cacheDir.toString(), remoteCacheUrl);
+		resourceCache.prefetch(Arrays.asList("key1"));
+		assertTrue(resourceCache.containsAll(Arrays.asList("key1", "key2")));
+		assertFalse(resourceCache.containsAll(Arrays.asList("key1", "key3")));
+		assertEquals(3, remoteCache.requestCount.get());
+		assertArrayEquals("data2".getBytes(), resourceCache.get("key2"));
+	}
+
+	// a resource known to be missing is uploaded without checking the remote cache again
+	@Test
+	public void testRemoteUploadAfterMiss() throws Exception {
+		resourceCache.init(cacheDir.toString(), remoteCacheUrl);
+		assertFalse(resourceCache.contains("somekey"));
+		resourceCache.put("somekey", "somedata".getBytes());
+		resourceCache.flush();
+		// one lookup and one upload
+		assertEquals(2, remoteCache.requestCount.get());
+		assertTrue(remoteCache.resources.containsKey("/somekey"));
+	}
+
+	// resources are stored in a sharded layout without leaving temporary files
+	@Test
+	public void testLocalCacheLayout() throws Exception {
+		resourceCache.init(cacheDir.toString(), null);
+		resourceCache.put("abcdef", "somedata".getBytes());
+		assertArrayEquals(new String[] { "abcdef" }, cacheDir.resolve("ab/cd").toFile().list());
+		assertTrue(resourceCache.contains("abcdef"));
+		assertFalse(resourceCache.contains("fedcba"));
+		assertEquals(1, resourceCache.getLocalHits());
+		assertEquals(1, resourceCache.getLocalMisses());
+		assertEquals(8, resourceCache.getLocalBytesWritten());
+	}
+
+	// the least recently used resources are evicted when the cache grows too large
+	@Test
+	public void testLocalCacheEviction() throws Exception {
+		final byte[] data = new byte[30];
+		resourceCache.init(cacheDir.toString(), null);
+		for (int i = 0; i < 5; ++i) {
+			resourceCache.put("key" + i, data);
+		}
+		resourceCache.flush();
+		Thread.sleep(10);
+
+		resourceCache.init(cacheDir.toString(), null);
+		assertTrue(resourceCache.contains("key0"));
+		for (int i = 5; i < 10; ++i) {
+			resourceCache.put("key" + i, data);
+		}
+		resourceCache.flush();
+
+		resourceCache.setLocalCacheMaxSize(200);
+		resourceCache.init(cacheDir.toString(), null);
+		resourceCache.flush();
+		assertEquals(4, resourceCache.getLocalEvictedCount());
+		assertEquals(120, resourceCache.getLocalEvictedBytes());
+		assertTrue(resourceCache.contains("key0"));
+		for (int i = 1; i < 5; ++i) {
+			assertFalse(resourceCache.contains("key" + i));
+		}
+		for (int i = 5; i < 10; ++i) {
+			assertTrue(resourceCache.contains("key" + i));
+		}
+	}
 }
@@ -14,13 +14,23 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -29,6 +39,7 @@ import org.junit.Test;
 
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.FileSystemWalker;
+import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.IFileSystem.IWalker;
 import com.dynamo.bob.test.TestLibrariesRule;
 
@@ -62,6 +73,80 @@ public class FileSystemTest {
         assertTrue(results.contains("test_lib4.zip"));
     }
 
+    private static byte[] sha1(String content) throws Exception {
+        return MessageDigest.getInstance("SHA1").digest(content.getBytes());
+    }
+
+    @Test
+    public void testDigestCache() throws Exception {
+        File root = Files.createTempDirectory(null).toFile();
+        try {
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+            fs.loadCache();
+
+            File file = new File(root, "test.txt");
+            FileUtils.writeStringToFile(file, "a");
+            long lastModified = file.lastModified();
+            IResource resource = fs.get("test.txt");
+            assertArrayEquals(sha1("a"), resource.sha1());
+
+            // a change in size is detected even if the modification time is the same
+            FileUtils.writeStringToFile(file, "bb");
+            file.setLastModified(lastModified);
+            assertArrayEquals(sha1("bb"), resource.sha1());
+
+            FileUtils.writeStringToFile(file, "ccc");
+            assertArrayEquals(sha1("ccc"), resource.sha1());
+
+            // the cache is persisted
+            fs.saveCache();
+            fs.close();
+            fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+            fs.loadCache();
+            assertArrayEquals(sha1("ccc"), fs.get("test.txt").sha1());
+            fs.close();
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        File root = Files.createTempDirectory(null).toFile();
+        try {
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+
+            IResource resource = fs.get("build/sub/test.txt");
+            assertNull(resource.openInputStream());
+            assertNull(resource.getByteBuffer());
+
+            // parent directories are created
+            try (OutputStream os = resource.openOutputStream()) {
+                os.write("content".getBytes());
+            }
+            assertArrayEquals("content".getBytes(), resource.getContent());
+            try (InputStream is = resource.openInputStream()) {
+                assertArrayEquals("content".getBytes(), is.readAllBytes());
+            }
+            ByteBuffer buffer = resource.getByteBuffer();
+            assertTrue(buffer.isReadOnly());
+            assertEquals(7, buffer.remaining());
+            byte[] content = new byte[buffer.remaining()];
+            buffer.get(content);
+            assertArrayEquals("content".getBytes(), content);
+            assertArrayEquals(sha1("content"), resource.sha1());
+            fs.close();
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
     private static class ZipWalker extends FileSystemWalker {
         @Override
         public void handleFile(String path, Collection<String> results) {
@@ -14,12 +14,19 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -102,5 +109,87 @@ public class ZipMountPointTest {
         assertEquals(1, results.size());
         assertTrue(results.contains("test_lib4/file4.in"));
     }
-}
 
+    @Test
+    public void testIndexed() throws Exception {
+        File archive = new File("server_root/test_lib3.zip");
+        File indexFile = ZipMountPoint.getIndexFile(archive);
+        assertTrue(!indexFile.exists());
+
+        ZipMountPoint mp = new ZipMountPoint(null, archive.getPath(), true, true);
+        mp.mount();
+        assertTrue(indexFile.isFile());
+        IResource resource = mp.get("test_lib3/file3.in");
+        assertTrue(resource != null);
+        assertTrue(mp.get("test_lib3/missing.in") == null);
+        FileSystemWalker walker = new FileSystemWalker();
+        Collection<String> results = new ArrayList<String>();
+        mp.walk(".", walker, results);
+        mp.unmount();
+        assertTrue(mp.get("test_lib3/file3.in") == null);
+        assertEquals(1, results.size());
+        assertTrue(results.contains("test_lib3/file3.in"));
+
+        // mount again using the saved index and compare with the non indexed mount point
+        long indexModified = indexFile.lastModified();
+        ZipMountPoint plain = new ZipMountPoint(null, archive.getPath());
+        plain.mount();
+        mp.mount();
+        resource = mp.get("test_lib3/file3.in");
+        IResource expected = plain.get("test_lib3/file3.in");
+        assertEquals(indexModified, indexFile.lastModified());
+        assertArrayEquals(expected.getContent(), resource.getContent());
+        // inflated content is cached
+        assertArrayEquals(expected.getContent(), resource.getContent());
+        assertArrayEquals(expected.sha1(), resource.sha1());
+        assertEquals(expected.getLastModified(), resource.getLastModified());
+        assertEquals(expected.isFile(), resource.isFile());
+        try (InputStream is = resource.openInputStream()) {
+            assertArrayEquals(expected.getContent(), is.readAllBytes());
+        }
+        try (InputStream is = expected.openInputStream()) {
+            assertArrayEquals(expected.getContent(), is.readAllBytes());
+        }
+        ByteBuffer buffer = resource.getByteBuffer();
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        assertArrayEquals(expected.getContent(), content);
+        mp.unmount();
+        plain.unmount();
+    }
+
+    // Libraries are replaced and deleted while mounted when they are updated
+    @Test
+    public void testReplaceMounted() throws Exception {
+        File dir = Files.createTempDirectory(null).toFile();
+        try {
+            File archive = new File(dir, "lib.zip");
+            FileUtils.copyFile(new File("server_root/test_lib1.zip"), archive);
+            ZipMountPoint mp = new ZipMountPoint(null, archive.getPath(), true, true);
+            mp.mount();
+            IResource resource = mp.get("test_lib1/file1.in");
+            assertEquals("file1", new String(resource.getContent()));
+
+            // replace the library and remove its index
+            File replacement = new File(dir, "lib.zip.tmp");
+            FileUtils.copyFile(new File("server_root/test_lib2.zip"), replacement);
+            Files.move(replacement.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            assertTrue(ZipMountPoint.getIndexFile(archive).delete());
+            // the mounted content is unchanged
+            assertEquals("file1", new String(resource.getContent()));
+
+            ZipMountPoint replaced = new ZipMountPoint(null, archive.getPath(), true, true);
+            replaced.mount();
+            assertTrue(replaced.get("test_lib1/file1.in") == null);
+            assertEquals("file2", new String(replaced.get("test_lib2/file2.in").getContent()));
+            replaced.unmount();
+
+            // and the replacement can be deleted while the old library is still mounted
+            assertTrue(archive.delete());
+            assertTrue(ZipMountPoint.getIndexFile(archive).delete());
+            mp.unmount();
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -14,14 +14,24 @@
 
 package com.dynamo.bob.pipeline;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
+import com.dynamo.bob.Platform;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Task;
 import com.dynamo.bob.test.util.PropertiesTestUtil;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.lua.proto.Lua.LuaModule;
@@ -31,6 +41,27 @@ import com.dynamo.properties.proto.PropertiesProto.PropertyDeclarationEntry;
 
 public class LuaBuilderTest extends AbstractProtoBuilderTest {
 
+    private static final String[] LUAJIT_SCRIPTS = {
+        "function foo() print('foo') end",
+        "local t = { a = 1, b = 'b', [3] = 3.5 }\nlocal function f(x)\n    return function() return x + t.a end\nend\nreturn f(2)()\n",
+        "go.property(\"speed\", 10)\n\nfunction update(self, dt)\n    for i = 1, 10 do\n        self.x = (self.x or 0) + i * dt * 0x7fffffff\n    end\nend\n",
+    };
+
+    private static final String[] LUAJIT_ERROR_SCRIPTS = {
+        "function foo()\n    print('foo')\n",
+        "local a = 1\nlocal b = = 2\n",
+        "\n\nreturn 1 +\n",
+    };
+
+    private static String getLuaJITExe() {
+        return Platform.getHostPlatform().is64bit() ? "luajit-64" : "luajit-32";
+    }
+
+    private Task<Void> createLuaTask(LuaBuilder builder, String path, String source) {
+        addFile(path, source);
+        return Task.newBuilder(builder).addInput(GetProject().getResource(path)).build();
+    }
+
     private static void assertSubElementsV3(PropertyDeclarationEntry entry) {
         assertEquals(MurmurHash.hash64(entry.getKey() + ".x"), entry.getElementIds(0));
         assertEquals(MurmurHash.hash64(entry.getKey() + ".y"), entry.getElementIds(1));
@@ -287,4 +318,98 @@ public class LuaBuilderTest extends AbstractProtoBuilderTest {
         // byte - the last diffing byte
         assertTrue(delta[261] == 99);
     }
+
+    @Test
+    public void testLuaJITWorkerBytecode() throws Exception {
+        LuaBuilder builder = new LuaBuilder() {};
+        String luajitExe = getLuaJITExe();
+        for (int i = 0; i < LUAJIT_SCRIPTS.length; ++i) {
+            String source = LUAJIT_SCRIPTS[i];
+            Task<Void> task = createLuaTask(builder, String.format("/main/script%d.script", i), source);
+            byte[] expected32 = builder.constructLuaJITBytecode(task, luajitExe, source, true);
+            byte[] expected64 = builder.constructLuaJITBytecode(task, luajitExe, source, false);
+
+            // both bit widths in one request
+            LuaJITCompiler.Result result = LuaJITCompiler.compile(luajitExe, "@" + task.input(0).getPath(), source.getBytes(), true, false);
+            assertEquals(null, result.error);
+            assertEquals(2, result.bytecode.size());
+            assertArrayEquals(expected32, result.bytecode.get(0));
+            assertArrayEquals(expected64, result.bytecode.get(1));
+
+            // one bit width at a time, reusing the worker
+            result = LuaJITCompiler.compile(luajitExe, "@" + task.input(0).getPath(), source.getBytes(), false);
+            assertArrayEquals(expected64, result.bytecode.get(0));
+            result = LuaJITCompiler.compile(luajitExe, "@" + task.input(0).getPath(), source.getBytes(), true);
+            assertArrayEquals(expected32, result.bytecode.get(0));
+        }
+    }
+
+    @Test
+    public void testLuaJITWorkerError() throws Exception {
+        LuaBuilder builder = new LuaBuilder() {};
+        String luajitExe = getLuaJITExe();
+        for (int i = 0; i < LUAJIT_ERROR_SCRIPTS.length; ++i) {
+            String source = LUAJIT_ERROR_SCRIPTS[i];
+            Task<Void> task = createLuaTask(builder, String.format("/main/error%d.script", i), source);
+            for (boolean is32bit : new boolean[] { true, false }) {
+                CompileExceptionError expected = null;
+                try {
+                    builder.constructLuaJITBytecode(task, luajitExe, source, is32bit);
+                    fail("Expected a CompileExceptionError");
+                } catch (CompileExceptionError e) {
+                    expected = e;
+                }
+
+                LuaJITCompiler.Result result = LuaJITCompiler.compile(luajitExe, "@" + task.input(0).getPath(), source.getBytes(), is32bit);
+                assertEquals(null, result.bytecode);
+                assertTrue(result.error, result.error.startsWith("luajit: main/error" + i + ".script:"));
+                CompileExceptionError actual = builder.createCompileError(task, result.error);
+                assertEquals(expected.getMessage(), actual.getMessage());
+                assertEquals(expected.getLineNumber(), actual.getLineNumber());
+            }
+        }
+    }
+
+    @Test
+    public void testLuaJITWorkerExit() throws Exception {
+        LuaBuilder builder = new LuaBuilder() {};
+        String luajitExe = getLuaJITExe();
+        String source = LUAJIT_SCRIPTS[1];
+        Task<Void> task = createLuaTask(builder, "/main/exit.script", source);
+        byte[] expected32 = builder.constructLuaJITBytecode(task, luajitExe, source, true);
+        byte[] expected64 = builder.constructLuaJITBytecode(task, luajitExe, source, false);
+
+        // workers exiting while reading the request and while writing the response
+        String[] workers = {
+            "io.stdin:read('*l')\nos.exit(1)\n",
+            "io.stdin:read('*l')\nio.stdout:write('ok 100\\nabc')\nio.stdout:flush()\nos.exit(1)\n",
+        };
+        File workerFile = File.createTempFile("luajit_worker", ".lua");
+        try {
+            for (String worker : workers) {
+                FileUtils.writeStringToFile(workerFile, worker, StandardCharsets.UTF_8);
+                LuaJITCompiler.setWorkerScript(workerFile);
+                try {
+                    LuaJITCompiler.compile(luajitExe, "@" + task.input(0).getPath(), source.getBytes(), true, false);
+                    fail("Expected an IOException");
+                } catch (IOException e) {
+                    // the worker is stopped
+                }
+
+                // the builder runs luajit instead
+                List<byte[]> bytecode = builder.compileLuaJITBytecode(task, luajitExe, source, true, true);
+                assertEquals(2, bytecode.size());
+                assertArrayEquals(expected32, bytecode.get(0));
+                assertArrayEquals(expected64, bytecode.get(1));
+            }
+        } finally {
+            LuaJITCompiler.setWorkerScript(null);
+            workerFile.delete();
+        }
+
+        // the failed workers are not reused
+        LuaJITCompiler.Result result = LuaJITCompiler.compile(luajitExe, "@" + task.input(0).getPath(), source.getBytes(), true, false);
+        assertArrayEquals(expected32, result.bytecode.get(0));
+        assertArrayEquals(expected64, result.bytecode.get(1));
+    }
 }
@@ -0,0 +1,101 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+
+public class ProtoUtilTest {
+
+    private MockFileSystem fileSystem;
+
+    @Before
+    public void setUp() {
+        fileSystem = new MockFileSystem();
+        ProtoUtil.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        ProtoUtil.clearCache();
+    }
+
+    @Test
+    public void testParseCached() throws Exception {
+        IResource a = fileSystem.addFile("/a.proto_text", "name: \"a\" message_type { name: \"M\" }".getBytes());
+        IResource b = fileSystem.addFile("/b.proto_text", "name: \"a\" message_type { name: \"M\" }".getBytes());
+
+        FileDescriptorProto first = ProtoUtil.parse(a, FileDescriptorProto.getDefaultInstance());
+        assertEquals("a", first.getName());
+        assertEquals("M", first.getMessageType(0).getName());
+
+        // same content, same message
+        assertSame(first, ProtoUtil.parse(a, FileDescriptorProto.getDefaultInstance()));
+        assertSame(first, ProtoUtil.parse(b, FileDescriptorProto.getDefaultInstance()));
+        assertEquals(1, ProtoUtil.getCacheMisses());
+        assertEquals(2, ProtoUtil.getCacheHits());
+
+        // modifying a copy doesn't change the cached message
+        FileDescriptorProto.Builder builder = first.toBuilder().setName("b");
+        assertEquals("b", builder.getName());
+        assertEquals("a", ProtoUtil.parse(a, FileDescriptorProto.getDefaultInstance()).getName());
+
+        // changed content is parsed again
+        a.setContent("name: \"c\"".getBytes());
+        assertEquals("c", ProtoUtil.parse(a, FileDescriptorProto.getDefaultInstance()).getName());
+        assertEquals(2, ProtoUtil.getCacheMisses());
+    }
+
+    @Test
+    public void testMergeIntoBuilder() throws Exception {
+        IResource a = fileSystem.addFile("/a.proto_text", "message_type { name: \"M2\" }".getBytes());
+
+        FileDescriptorProto.Builder builder = FileDescriptorProto.newBuilder();
+        builder.setName("a").addMessageType(DescriptorProto.newBuilder().setName("M1"));
+        ProtoUtil.merge(a, builder);
+        assertEquals("a", builder.getName());
+        assertEquals(2, builder.getMessageTypeCount());
+        assertEquals("M2", builder.getMessageType(1).getName());
+
+        // the message type is part of the key
+        DescriptorProto other = ProtoUtil.parse(fileSystem.addFile("/b.proto_text", "name: \"M2\"".getBytes()), DescriptorProto.getDefaultInstance());
+        assertEquals("M2", other.getName());
+        assertEquals(2, ProtoUtil.getCacheMisses());
+    }
+
+    @Test
+    public void testParseError() throws Exception {
+        IResource a = fileSystem.addFile("/a.proto_text", "name: \"a\"\nunknown_field: 1".getBytes());
+        try {
+            ProtoUtil.parse(a, FileDescriptorProto.getDefaultInstance());
+            assertTrue(false);
+        } catch (CompileExceptionError e) {
+            assertSame(a, e.getResource());
+        }
+        // errors are not cached
+        assertEquals(0, ProtoUtil.getCacheHits());
+    }
+}
@@ -14,15 +14,33 @@
 
 package com.dynamo.bob.pipeline;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.dynamo.bob.pipeline.shader.ShaderCompilePipelineLegacy;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Platform;
+import com.dynamo.bob.cache.LocalResourceCache;
 import com.dynamo.bob.pipeline.shader.ShaderCompilePipeline;
+import com.dynamo.bob.pipeline.shader.ShaderCompileTools;
 import com.dynamo.bob.pipeline.shader.SPIRVReflector;
+import com.dynamo.bob.util.Exec;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 
 public class ShaderCompilePipelineTest {
@@ -39,6 +57,42 @@ public class ShaderCompilePipelineTest {
         allLanguages.add(ShaderDesc.Language.LANGUAGE_SPIRV);
     }
 
+    private static final String FS_SHADER =
+            """
+            #version 140
+            out vec4 color;
+            uniform fs_uniforms
+            {
+                vec4 tint;
+            };
+            void main() {
+                color = vec4(1.0) + tint;
+            }
+            """;
+
+    // Run a shader tool the way the pipelines did before ShaderCompileTools,
+    // with the input and output in files
+    private static Exec.Result execWithFiles(String tool, byte[] input, String... args) throws Exception {
+        File inputFile = File.createTempFile("shader", ".in");
+        File outputFile = File.createTempFile("shader", ".out");
+        try {
+            FileUtils.writeByteArrayToFile(inputFile, input);
+            List<String> command = new ArrayList<>();
+            command.add(Bob.getExe(Platform.getHostPlatform(), tool));
+            for (String arg : args) {
+                command.add(arg.replace("$in", inputFile.getAbsolutePath()).replace("$out", outputFile.getAbsolutePath()));
+            }
+            Exec.Result result = Exec.execResult(command.toArray(new String[0]));
+            if (result.ret == 0) {
+                result.stdOutErr = FileUtils.readFileToByteArray(outputFile);
+            }
+            return result;
+        } finally {
+            inputFile.delete();
+            outputFile.delete();
+        }
+    }
+
     @Test
     public void testSimple() throws Exception {
 
@@ -190,4 +244,150 @@ public class ShaderCompilePipelineTest {
         assertEquals("_DMENGINE_GENERATED_UB_FS_0", ubos.get(0).name);
         assertEquals("tint", types.get(0).members.get(0).name);
     }
+
+    @Test
+    public void testShaderCache() throws Exception {
+        String fsShader =
+                """
+                #version 140
+                out vec4 color;
+                uniform fs_uniforms
+                {
+                    vec4 tint;
+                };
+                void main() {
+                    color = vec4(1.0) + tint;
+                }
+                """;
+
+        File cacheDir = Files.createTempDirectory("shader-cache").toFile();
+        try {
+            ShaderCompileTools.clearCache();
+            ShaderCompileTools.setPersistentCache(new LocalResourceCache(cacheDir, 0));
+
+            ShaderCompilePipeline pipeline = new ShaderCompilePipeline("testShaderCache");
+            ShaderCompilePipeline.createShaderPipeline(pipeline, fsShader, ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT);
+            byte[] spirv = pipeline.crossCompile(ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT, ShaderDesc.Language.LANGUAGE_SPIRV);
+            byte[] glsl = pipeline.crossCompile(ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT, ShaderDesc.Language.LANGUAGE_GLES_SM300);
+            // glslang, spirv-opt, spirv-cross reflection and cross compilation
+            assertEquals(4, ShaderCompileTools.getToolRuns());
+
+            // the same shader compiled by another pipeline within the build reuses the results
+            ShaderCompilePipeline pipeline2 = new ShaderCompilePipeline("testShaderCache2");
+            ShaderCompilePipeline.createShaderPipeline(pipeline2, fsShader, ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT);
+            assertEquals(4, ShaderCompileTools.getToolRuns());
+            assertTrue(ShaderCompileTools.getReusedResults() > 0);
+
+            // the next build reads the results from the persistent cache
+            ShaderCompileTools.clearCache();
+            ShaderCompileTools.setPersistentCache(new LocalResourceCache(cacheDir, 0));
+            pipeline = new ShaderCompilePipeline("testShaderCache");
+            ShaderCompilePipeline.createShaderPipeline(pipeline, fsShader, ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT);
+            assertArrayEquals(spirv, pipeline.crossCompile(ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT, ShaderDesc.Language.LANGUAGE_SPIRV));
+            assertArrayEquals(glsl, pipeline.crossCompile(ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT, ShaderDesc.Language.LANGUAGE_GLES_SM300));
+            assertEquals("fs_uniforms", pipeline.getReflectionData().getUBOs().get(0).name);
+            assertEquals(0, ShaderCompileTools.getToolRuns());
+            assertEquals(4, ShaderCompileTools.getPersistentCacheHits());
+        } finally {
+            ShaderCompileTools.setPersistentCache(null);
+            ShaderCompileTools.clearCache();
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testToolsMatchFileBasedInvocation() throws Exception {
+        ShaderCompileTools.clearCache();
+        byte[] source = FS_SHADER.getBytes();
+
+        Exec.Result expected = execWithFiles("glslang", source, "-w", "--auto-map-bindings", "--auto-map-locations", "-Os",
+            "--resource-set-binding", "frag", "1", "-S", "frag", "-o", "$out", "-V", "$in");
+        assertEquals(0, expected.ret);
+        ShaderCompileTools.ToolResult result = ShaderCompileTools.glslang(FS_SHADER, "frag", "-w", "--auto-map-bindings", "--auto-map-locations", "-Os",
+            "--resource-set-binding", "frag", "1", "-V");
+        assertEquals(0, result.ret);
+        assertArrayEquals(expected.stdOutErr, result.output);
+        byte[] spirv = result.output;
+
+        expected = execWithFiles("spirv-opt", spirv, "-O", "$in", "-o", "$out");
+        assertEquals(0, expected.ret);
+        result = ShaderCompileTools.spirvOpt(spirv, "-O");
+        assertEquals(0, result.ret);
+        assertArrayEquals(expected.stdOutErr, result.output);
+        byte[] spirvOpt = result.output;
+
+        expected = execWithFiles("spirv-cross", spirvOpt, "$in", "--output", "$out", "--reflect");
+        assertEquals(0, expected.ret);
+        result = ShaderCompileTools.spirvCross(spirvOpt, "--reflect");
+        assertEquals(0, result.ret);
+        assertEquals(new String(expected.stdOutErr, StandardCharsets.UTF_8), new String(result.output, StandardCharsets.UTF_8));
+
+        expected = execWithFiles("spirv-cross", spirvOpt, "$in", "--version", "300", "--output", "$out", "--stage", "frag", "--remove-unused-variables", "--es");
+        assertEquals(0, expected.ret);
+        result = ShaderCompileTools.spirvCross(spirvOpt, "--version", "300", "--stage", "frag", "--remove-unused-variables", "--es");
+        assertEquals(0, result.ret);
+        assertEquals(new String(expected.stdOutErr, StandardCharsets.UTF_8), new String(result.output, StandardCharsets.UTF_8));
+
+        ShaderCompileTools.clearCache();
+    }
+
+    @Test
+    public void testConcurrentIdenticalInvocations() throws Exception {
+        final int threads = 8;
+        ShaderCompileTools.clearCache();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(threads);
+            List<Future<ShaderCompileTools.ToolResult>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    return ShaderCompileTools.glslang(FS_SHADER, "frag", "-w", "-Os", "-V");
+                }));
+            }
+            byte[] spirv = futures.get(0).get().output;
+            assertTrue(spirv.length > 0);
+            for (Future<ShaderCompileTools.ToolResult> future : futures) {
+                assertArrayEquals(spirv, future.get().output);
+            }
+            // glslang is started once, the other invocations wait for its result
+            assertEquals(1, ShaderCompileTools.getToolRuns());
+            assertEquals(threads - 1, ShaderCompileTools.getReusedResults());
+        } finally {
+            executor.shutdown();
+            ShaderCompileTools.clearCache();
+        }
+    }
+
+    @Test
+    public void testCompileError() throws Exception {
+        String fsShader =
+                """
+                #version 140
+                out vec4 color;
+                void main() {
+                    color = vec4(1.0) + undeclared;
+                }
+                """;
+
+        ShaderCompileTools.clearCache();
+        Exec.Result expected = execWithFiles("glslang", fsShader.getBytes(), "-w", "--auto-map-bindings", "--auto-map-locations", "-Os",
+            "--resource-set-binding", "frag", "1", "-S", "frag", "-o", "$out", "-V", "$in");
+        assertTrue(expected.ret != 0);
+        // the output starts with the name of the input file, a temporary file
+        // before and "stdin" now, and the message is the text after the first ':'
+        String output = new String(expected.stdOutErr);
+        String expectedMessage = output.substring(output.indexOf('\n') + 1).split(":", 2)[1];
+        assertTrue(expectedMessage, expectedMessage.contains("undeclared"));
+
+        ShaderCompilePipeline pipeline = new ShaderCompilePipeline("testCompileError");
+        try {
+            ShaderCompilePipeline.createShaderPipeline(pipeline, fsShader, ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT);
+            fail("Expected a CompileExceptionError");
+        } catch (CompileExceptionError e) {
+            assertEquals(expectedMessage, e.getMessage());
+        } finally {
+            ShaderCompileTools.clearCache();
+        }
+    }
 }
@@ -0,0 +1,202 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline.graph.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.ProtoBuilder;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.pipeline.ProtoUtil;
+import com.dynamo.bob.pipeline.graph.ResourceWalker;
+import com.dynamo.bob.pipeline.graph.ResourceWalker.IResourceVisitor;
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.ComponentDesc;
+import com.dynamo.gameobject.proto.GameObject.InstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+import com.dynamo.gamesys.proto.GameSystem.CollectionProxyDesc;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Message;
+
+public class ResourceWalkerTest {
+
+    private String contentRoot;
+    private Project project;
+
+    // Records the calls in order, and visits each resource once
+    private static class RecordingVisitor implements IResourceVisitor {
+        List<String> calls = new ArrayList<>();
+        Set<IResource> visited = new HashSet<>();
+
+        @Override
+        public boolean shouldVisit(IResource resource, IResource parentResource) {
+            return visited.add(resource);
+        }
+
+        @Override
+        public void visit(IResource resource, IResource parentResource) throws CompileExceptionError {
+            calls.add("visit " + resource.getPath());
+        }
+
+        @Override
+        public void visitMessage(Message message, IResource resource, IResource parentResource) throws CompileExceptionError {
+            calls.add("message " + resource.getPath());
+        }
+
+        @Override
+        public void leave(IResource resource, IResource parentResource) throws CompileExceptionError {
+            calls.add("leave " + resource.getPath());
+        }
+
+        @Override
+        public boolean shouldVisitMessage(Descriptor descriptor) {
+            return descriptor == CollectionProxyDesc.getDescriptor();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        contentRoot = Files.createTempDirectory(null).toFile().getAbsolutePath();
+        project = new Project(new DefaultFileSystem(), contentRoot, "build");
+        ProtoBuilder.addMessageClass(".collectionc", CollectionDesc.class);
+        ProtoBuilder.addMessageClass(".goc", PrototypeDesc.class);
+        ProtoBuilder.addMessageClass(".collectionproxyc", CollectionProxyDesc.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ProtoUtil.setKeepBuiltMessages(false);
+        ProtoUtil.clearBuiltMessages();
+        FileUtils.deleteDirectory(new File(contentRoot));
+    }
+
+    private void writeOutput(String path, Message message) throws IOException {
+        project.getResource(path).output().setContent(message.toByteArray());
+    }
+
+    private static ComponentDesc component(String id, String path) {
+        return ComponentDesc.newBuilder().setId(id).setComponent(path).build();
+    }
+
+    private static InstanceDesc instance(String id, String prototype) {
+        return InstanceDesc.newBuilder().setId(id).setPrototype(prototype).build();
+    }
+
+    private void createProject() throws IOException {
+        writeOutput("/main/main.collectionc", CollectionDesc.newBuilder().setName("main")
+            .addInstances(instance("a", "/main/a.goc"))
+            .addInstances(instance("b", "/main/b.goc"))
+            .build());
+        writeOutput("/main/a.goc", PrototypeDesc.newBuilder()
+            .addComponents(component("script", "/main/a.scriptc"))
+            .addComponents(component("proxy", "/main/level.collectionproxyc"))
+            .build());
+        writeOutput("/main/b.goc", PrototypeDesc.newBuilder()
+            .addComponents(component("script", "/main/a.scriptc"))
+            .build());
+        writeOutput("/main/level.collectionproxyc", CollectionProxyDesc.newBuilder()
+            .setCollection("/main/level.collectionc")
+            .build());
+        writeOutput("/main/level.collectionc", CollectionDesc.newBuilder().setName("level")
+            .addInstances(instance("b", "/main/b.goc"))
+            .build());
+    }
+
+    @Test
+    public void testVisitOrder() throws Exception {
+        createProject();
+        RecordingVisitor visitor = new RecordingVisitor();
+        ResourceWalker.walk(project, project.getResource("/main/main.collectionc"), visitor);
+
+        // depth first, in field order, and only the proxy message is visited
+        List<String> expected = Arrays.asList(
+            "visit main/main.collectionc",
+            "visit main/a.goc",
+            "visit main/a.scriptc",
+            "leave main/a.scriptc",
+            "visit main/level.collectionproxyc",
+            "message main/level.collectionproxyc",
+            "visit main/level.collectionc",
+            "visit main/b.goc",
+            "leave main/b.goc",
+            "leave main/level.collectionc",
+            "leave main/level.collectionproxyc",
+            "leave main/a.goc",
+            "leave main/main.collectionc");
+        assertEquals(expected, visitor.calls);
+    }
+
+    @Test
+    public void testMultipleRoots() throws Exception {
+        createProject();
+        RecordingVisitor separate = new RecordingVisitor();
+        ResourceWalker.walk(project, project.getResource("/main/b.goc"), separate);
+        ResourceWalker.walk(project, project.getResource("/main/main.collectionc"), separate);
+
+        RecordingVisitor combined = new RecordingVisitor();
+        ResourceWalker.walk(project, Arrays.asList(project.getResource("/main/b.goc"), project.getResource("/main/main.collectionc")), combined);
+        assertEquals(separate.calls, combined.calls);
+    }
+
+    @Test
+    public void testBuiltMessage() throws Exception {
+        createProject();
+        // the output of the proxy is missing, but it was built in this build
+        IResource proxy = project.getResource("/main/level.collectionproxyc");
+        proxy.output().remove();
+        ProtoUtil.setKeepBuiltMessages(true);
+        CollectionProxyDesc desc = CollectionProxyDesc.newBuilder().setCollection("/main/level.collectionc").build();
+        ProtoUtil.putBuiltMessage(proxy.output(), desc, desc.getSerializedSize());
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        ResourceWalker.walk(project, project.getResource("/main/main.collectionc"), visitor);
+        assertTrue(visitor.calls.contains("visit main/level.collectionc"));
+        assertEquals(1, ProtoUtil.getBuiltMessageHits());
+    }
+
+    @Test
+    public void testMissingOutput() throws Exception {
+        createProject();
+        project.getResource("/main/level.collectionc").output().remove();
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        try {
+            ResourceWalker.walk(project, project.getResource("/main/main.collectionc"), visitor);
+            fail("Expected a CompileExceptionError");
+        } catch (CompileExceptionError e) {
+            assertTrue(e.getMessage().contains("main/level.collectionc"));
+        }
+        // the resources before the missing one are visited
+        assertEquals("visit main/level.collectionc", visitor.calls.get(visitor.calls.size() - 1));
+    }
+}
@@ -0,0 +1,207 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.BuildDaemon;
+import com.dynamo.bob.ClassLoaderScanner;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.TaskResult;
+import com.dynamo.bob.fs.DefaultFileSystem;
+
+public class BuildDaemonTest {
+
+    // long enough for file systems where changes are polled
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private File contentRoot;
+    private Project project;
+    private BuildDaemon daemon;
+    private Thread daemonThread;
+    private int port;
+    private BlockingQueue<List<TaskResult>> builds = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        contentRoot = Files.createTempDirectory(null).toFile();
+        writeFile("a.in", "a");
+        writeFile("b.in", "b");
+        project = new Project(new DefaultFileSystem(), contentRoot.getAbsolutePath(), "build");
+        project.setResident(true);
+        project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        daemon = new BuildDaemon(project, ".", new HashSet<String>(Arrays.asList(".git", "build", ".internal")), new String[] {"build"}, false);
+        daemon.setBuildListener(builds::add);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (daemon != null) {
+            daemon.stop();
+        }
+        if (daemonThread != null) {
+            daemonThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        }
+        project.dispose();
+        FileUtils.deleteDirectory(contentRoot);
+    }
+
+    private void writeFile(String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(contentRoot, path), content, StandardCharsets.UTF_8);
+    }
+
+    private String readOutput(String path) throws IOException {
+        return FileUtils.readFileToString(new File(new File(contentRoot, "build"), path), StandardCharsets.UTF_8);
+    }
+
+    // Start the daemon and wait for the initial build
+    private void startDaemon(boolean watch) throws Exception {
+        port = daemon.listen(0);
+        daemonThread = new Thread(() -> {
+            try {
+                daemon.run(0, watch);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        daemonThread.start();
+        List<TaskResult> result = builds.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertEquals(2, result.size());
+    }
+
+    // Send a request and return the response lines, up to and including the DONE line
+    private List<String> request(String request) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            out.println(request);
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+                if (line.startsWith("DONE ")) {
+                    break;
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> getInputs(List<TaskResult> result) {
+        List<String> inputs = new ArrayList<>();
+        for (TaskResult taskResult : result) {
+            inputs.add(taskResult.getTask().input(0).getPath());
+        }
+        return inputs;
+    }
+
+    @Test
+    public void testBuildRequest() throws Exception {
+        startDaemon(false);
+
+        writeFile("a.in", "a2");
+        writeFile("c.in_err", "c");
+        List<String> lines = request("build");
+        assertEquals(lines.toString(), 3, lines.size());
+        assertTrue(lines.toString(), lines.contains("OK a.in"));
+        String error = lines.get(lines.indexOf("OK a.in") == 0 ? 1 : 0);
+        assertTrue(error, error.startsWith("ERROR c.in_err"));
+        assertTrue(error, error.contains("Failed to build"));
+        assertEquals("DONE FAILED", lines.get(2));
+        assertEquals("a2", readOutput("a.out"));
+
+        // the removed file is no longer built
+        new File(contentRoot, "c.in_err").delete();
+        lines = request("build");
+        assertEquals(Arrays.asList("DONE OK"), lines);
+    }
+
+    @Test
+    public void testUnknownRequest() throws Exception {
+        startDaemon(false);
+        List<String> lines = request("unknown");
+        assertEquals(Arrays.asList("ERROR Unknown request 'unknown'", "DONE FAILED"), lines);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        startDaemon(false);
+        assertEquals(Arrays.asList("DONE OK"), request("stop"));
+        daemonThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertFalse(daemonThread.isAlive());
+    }
+
+    @Test
+    public void testRebuildAfterChange() throws Exception {
+        startDaemon(true);
+
+        // only the task of the changed file is built
+        writeFile("b.in", "b2");
+        List<TaskResult> result = builds.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertEquals(Arrays.asList("b.in"), getInputs(result));
+        assertTrue(result.get(0).isOk());
+        assertEquals("b2", readOutput("b.out"));
+        assertEquals("a", readOutput("a.out"));
+    }
+
+    @Test
+    public void testWatchQuietPeriod() throws Exception {
+        startDaemon(true);
+
+        // changes in quick succession, e.g. a save-all, are built once
+        for (int i = 0; i < 5; ++i) {
+            writeFile("a.in", "a" + i);
+            writeFile("b.in", "b" + i);
+            Thread.sleep(50);
+        }
+        List<TaskResult> result = builds.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertEquals(2, result.size());
+        assertEquals("a4", readOutput("a.out"));
+        assertEquals("b4", readOutput("b.out"));
+        assertNull(builds.poll(2, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.dynamo.bob.ClassIndex;
+import com.dynamo.bob.ClassLoaderScanner;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.plugin.IPlugin;
+
+public class ClassIndexTest {
+
+    public static class TestPlugin implements IPlugin {
+        @Override
+        public void init(Project project) {
+        }
+
+        @Override
+        public void exit(Project project) {
+        }
+    }
+
+    public static abstract class AbstractTestPlugin implements IPlugin {
+    }
+
+    private static ClassIndex.Entry find(Collection<ClassIndex.Entry> entries, Class<?> klass) {
+        for (ClassIndex.Entry entry : entries) {
+            if (entry.getClassName().equals(klass.getName())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testCreateReadWrite() throws Exception {
+        ClassIndex index = ClassIndex.create(getClass().getClassLoader(),
+                Arrays.asList(TestPlugin.class.getName(), AbstractTestPlugin.class.getName(), "com.dynamo.bob.test.DoesNotExist"));
+        // classes that can't be loaded are left out
+        assertEquals(2, index.size());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        index.write(os);
+        ClassIndex read = ClassIndex.read(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(2, read.size());
+
+        ClassIndex.Entry plugin = find(read.getEntries(), TestPlugin.class);
+        assertNotNull(plugin);
+        assertTrue(plugin.isSubtypeOf(IPlugin.class));
+        assertTrue(plugin.isSubtypeOf(Object.class));
+        assertFalse(plugin.isSubtypeOf(TestPlugin.class));
+        assertFalse(plugin.isBuilder());
+        assertTrue(plugin.isInstantiable());
+
+        ClassIndex.Entry abstractPlugin = find(read.getEntries(), AbstractTestPlugin.class);
+        assertNotNull(abstractPlugin);
+        assertTrue(abstractPlugin.isSubtypeOf(IPlugin.class));
+        assertFalse(abstractPlugin.isInstantiable());
+    }
+
+    @Test
+    public void testJarIndexCache() throws Exception {
+        File dir = Files.createTempDirectory(null).toFile();
+        try {
+            // a plugin jar without an embedded index
+            String classPath = TestPlugin.class.getName().replace('.', '/') + ".class";
+            File jar = new File(dir, "plugin.jar");
+            try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+                 InputStream is = getClass().getClassLoader().getResourceAsStream(classPath)) {
+                jos.putNextEntry(new JarEntry("com/dynamo/bob/test/"));
+                jos.closeEntry();
+                jos.putNextEntry(new JarEntry(classPath));
+                jos.write(is.readAllBytes());
+                jos.closeEntry();
+            }
+
+            File cacheDir = new File(dir, "classindex");
+            ClassLoaderScanner scanner = new ClassLoaderScanner(getClass().getClassLoader());
+            scanner.setIndexCacheDirectory(cacheDir);
+            scanner.addUrl(jar);
+            assertNotNull(find(scanner.scanIndex("com.dynamo.bob.test"), TestPlugin.class));
+
+            // the index is cached by the hash of the jar
+            Collection<File> cached = FileUtils.listFiles(cacheDir, new String[] {"txt"}, false);
+            assertEquals(1, cached.size());
+            try (InputStream is = new FileInputStream(cached.iterator().next())) {
+                assertNotNull(find(ClassIndex.read(is).getEntries(), TestPlugin.class));
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -210,6 +211,125 @@ public class JBobTest {
         }
     }
 
+    @BuilderParams(name = "SerialBuilder", inExts = ".serial", outExt = ".serialc", concurrency = BuilderParams.Concurrency.SERIAL)
+    public static class SerialBuilder extends Builder<Void> {
+        static AtomicInteger running = new AtomicInteger();
+        static AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override
+        public Task<Void> create(IResource input) {
+            return defaultTask(input);
+        }
+
+        @Override
+        public void build(Task<Void> task) throws CompileExceptionError, IOException {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            task.output(0).setContent(task.input(0).getContent());
+            running.decrementAndGet();
+        }
+    }
+
+    @BuilderParams(name = "CreateCountBuilder", inExts = ".createcount", outExt = ".createcountc")
+    public static class CreateCountBuilder extends CopyBuilder {
+        static AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
+            created.incrementAndGet();
+            return super.create(input);
+        }
+    }
+
+    // Creates a generated .number resource per line, shared between all inputs with the same line
+    @BuilderParams(name = "GeneratedBuilder", inExts = ".generated", outExt = ".generatedc")
+    public static class GeneratedBuilder extends Builder<Void> {
+        @Override
+        public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
+            TaskBuilder<Void> builder = Task.<Void>newBuilder(this)
+                    .setName(params.name())
+                    .addInput(input)
+                    .addOutput(input.changeExt(params.outExt()));
+            List<Task<?>> numberTasks = new ArrayList<Task<?>>();
+            for (String line : new String(input.getContent()).split("\n")) {
+                long hash = line.hashCode();
+                IResource genResource = project.getGeneratedResource(hash, "number");
+                if (genResource == null) {
+                    genResource = project.createGeneratedResource(hash, "number");
+                    genResource.setContent(line.getBytes());
+                }
+                numberTasks.add(project.createTask(genResource));
+            }
+            Task<Void> t = builder.build();
+            for (Task<?> task : numberTasks) {
+                task.setProductOf(t);
+            }
+            return t;
+        }
+
+        @Override
+        public void build(Task<Void> task) throws CompileExceptionError, IOException {
+            task.output(0).setContent(task.input(0).getContent());
+        }
+    }
+
+    // Adds the file named in the input as an input if it exists, like the image and collision of a tile source
+    @BuilderParams(name = "OptionalInputBuilder", inExts = ".optional", outExt = ".optionalc")
+    public static class OptionalInputBuilder extends Builder<Void> {
+        @Override
+        public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
+            TaskBuilder<Void> builder = Task.<Void>newBuilder(this)
+                    .setName(params.name())
+                    .addInput(input)
+                    .addOutput(input.changeExt(params.outExt()));
+            IResource optional = project.getResource(new String(input.getContent()).trim());
+            if (optional.exists()) {
+                builder.addInput(optional);
+            }
+            return builder.build();
+        }
+
+        @Override
+        public void build(Task<Void> task) throws CompileExceptionError, IOException {
+            StringBuilder content = new StringBuilder();
+            for (IResource input : task.getInputs()) {
+                content.append(new String(input.getContent()));
+            }
+            task.output(0).setContent(content.toString().getBytes());
+        }
+    }
+
+    // CycleABuilder and CycleBBuilder each take the output of the other as an input
+    @BuilderParams(name = "CycleABuilder", inExts = ".cyclea", outExt = ".cycleac")
+    public static class CycleABuilder extends CopyBuilder {
+        @Override
+        public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
+            return Task.<Void>newBuilder(this)
+                    .setName(params.name())
+                    .addInput(input)
+                    .addInput(input.changeExt(".cyclebc"))
+                    .addOutput(input.changeExt(params.outExt()))
+                    .build();
+        }
+    }
+
+    @BuilderParams(name = "CycleBBuilder", inExts = ".cycleb", outExt = ".cyclebc")
+    public static class CycleBBuilder extends CopyBuilder {
+        @Override
+        public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
+            return Task.<Void>newBuilder(this)
+                    .setName(params.name())
+                    .addInput(input)
+                    .addInput(input.changeExt(".cycleac"))
+                    .addOutput(input.changeExt(params.outExt()))
+                    .build();
+        }
+    }
+
     private MockFileSystem fileSystem;
     private Project project;
 
@@ -280,6 +400,85 @@ public class JBobTest {
         assertThat(result.get(0).isOk(), is(false));
     }
 
+    @Test
+    public void testTaskOutputAsInputFailingIndependent() throws Exception {
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test2.in", "B".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in_err", "test2.in"));
+        List<TaskResult> result = build();
+        // the independent task is built, the dependent arc task is never run
+        assertThat(result.size(), is(2));
+        int failed = 0;
+        for (TaskResult r : result) {
+            assertThat(r.getTask().getName().equals("ArcBuilder"), is(false));
+            failed += r.isOk() ? 0 : 1;
+        }
+        assertThat(failed, is(1));
+        assertThat(new String(fileSystem.get("test2.out").output().getContent()), is("B"));
+    }
+
+    @Test
+    public void testParallelBuild() throws Exception {
+        project.setOption("max-cpu-threads", "4");
+        List<String> inputs = new ArrayList<String>();
+        inputs.add("test.proj");
+        fileSystem.addFile("test.proj", "".getBytes());
+        for (int i = 0; i < 64; ++i) {
+            String name = String.format("test%d.in", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+        }
+        project.setInputs(inputs);
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(65));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+        // the task depending on all other tasks is always last
+        assertThat(result.get(64).getTask().getName(), is("ArcBuilder"));
+        for (int i = 0; i < 64; ++i) {
+            assertThat(getResourceString(String.format("test%d.out", i)), is(Integer.toString(i)));
+        }
+
+        // the order of the results is the same between builds
+        fileSystem.addFile("test.proj", " ".getBytes());
+        for (int i = 0; i < 64; ++i) {
+            fileSystem.addFile(String.format("test%d.in", i), Integer.toString(i + 1).getBytes());
+        }
+        List<TaskResult> rebuildResult = build();
+        assertThat(rebuildResult.size(), is(65));
+        for (int i = 0; i < 65; ++i) {
+            assertThat(rebuildResult.get(i).getTask().getOutputsString(), is(result.get(i).getTask().getOutputsString()));
+        }
+    }
+
+    @Test
+    public void testSerialBuilder() throws Exception {
+        project.setOption("max-cpu-threads", "4");
+        SerialBuilder.maxRunning.set(0);
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < 16; ++i) {
+            String name = String.format("test%d.serial", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+            name = String.format("test%d.in", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+        }
+        project.setInputs(inputs);
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(32));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+        // tasks of a serial builder are never built at the same time
+        assertThat(SerialBuilder.maxRunning.get(), is(1));
+        for (int i = 0; i < 16; ++i) {
+            assertThat(getResourceString(String.format("test%d.serialc", i)), is(Integer.toString(i)));
+        }
+    }
+
     @Test
     public void testAbsPath() throws Exception {
         fileSystem.addFile("/root/test.in", "test data".getBytes());
@@ -438,6 +637,148 @@ public class JBobTest {
         assertThat("gcc -O0 -c b.c -o x.o", is(StringUtils.join(lst2, " ")));
     }
 
+    @Test
+    public void testRestoreTasks() throws Exception {
+        CreateCountBuilder.created.set(0);
+        fileSystem.addFile("test.createcount", "test data".getBytes());
+        fileSystem.addFile("test.dynamic", "1\n2\n".getBytes());
+        project.setInputs(Arrays.asList("test.createcount", "test.dynamic"));
+        List<TaskResult> result;
+
+        // build
+        result = build();
+        assertThat(result.size(), is(4));
+        assertThat(CreateCountBuilder.created.get(), is(1));
+
+        // rebuild, the task is restored from the task graph
+        result = build();
+        assertThat(result.size(), is(0));
+        assertThat(CreateCountBuilder.created.get(), is(1));
+
+        // a restored task is created by the builder when it's built
+        fileSystem.get("test.createcountc").output().remove();
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(CreateCountBuilder.created.get(), is(2));
+        assertThat(getResourceString("test.createcountc"), is("test data"));
+
+        // tasks created while creating a restored task are restored as well
+        fileSystem.get("test_1.numberc").output().remove();
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("test_1.numberc"), is("20"));
+
+        // rebuild with new input
+        fileSystem.addFile("test.createcount", "test data prim".getBytes());
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(CreateCountBuilder.created.get(), is(3));
+        assertThat(getResourceString("test.createcountc"), is("test data prim"));
+
+        // all tasks are created by their builders if the options change
+        project.setOption("COPTIM", "-O2");
+        result = build();
+        assertThat(result.size(), is(0));
+        assertThat(CreateCountBuilder.created.get(), is(4));
+    }
+
+    @Test
+    public void testRestoreTasksWithGeneratedResources() throws Exception {
+        project.setOption("max-cpu-threads", "8");
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < 64; ++i) {
+            String name = String.format("test%d.generated", i);
+            fileSystem.addFile(name, String.format("%d\n%d", i % 4, 10 + i % 8).getBytes());
+            inputs.add(name);
+        }
+        project.setInputs(inputs);
+        List<TaskResult> result;
+
+        // 64 inputs and 4 + 8 shared generated resources
+        result = build();
+        assertThat(result.size(), is(76));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+
+        // all restored tasks are created by their builders at the same time, on the worker threads
+        for (int i = 0; i < 64; ++i) {
+            fileSystem.get(String.format("test%d.generatedc", i)).output().remove();
+        }
+        result = build();
+        assertThat(result.size(), is(64));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+        for (int i = 0; i < 64; ++i) {
+            String content = String.format("%d\n%d", i % 4, 10 + i % 8);
+            assertThat(getResourceString(String.format("test%d.generatedc", i)), is(content));
+        }
+        for (int i = 0; i < 4; ++i) {
+            String name = String.format("_generated_%x.numberc", (long) Integer.toString(i).hashCode());
+            assertThat(getResourceString(name), is(Integer.toString(i * 10)));
+        }
+
+        // the generated resources are still shared, so nothing more is built
+        result = build();
+        assertThat(result.size(), is(0));
+    }
+
+    @Test
+    public void testRestoreTaskWithOptionalInput() throws Exception {
+        fileSystem.addFile("test.optional", "extra.txt".getBytes());
+        project.setInputs(Arrays.asList("test.optional"));
+        List<TaskResult> result;
+
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("test.optionalc"), is("extra.txt"));
+
+        result = build();
+        assertThat(result.size(), is(0));
+
+        // the missing file is added, so the task isn't restored and gets the file as an input
+        fileSystem.addFile("extra.txt", "extra".getBytes());
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("test.optionalc"), is("extra.txtextra"));
+
+        result = build();
+        assertThat(result.size(), is(0));
+
+        // and removed again
+        fileSystem.get("extra.txt").remove();
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("test.optionalc"), is("extra.txt"));
+    }
+
+    @Test
+    public void testCyclicDependency() throws Exception {
+        fileSystem.addFile("test.cyclea", "a".getBytes());
+        fileSystem.addFile("test.cycleb", "b".getBytes());
+        fileSystem.addFile("test.in", "in".getBytes());
+        project.setInputs(Arrays.asList("test.cyclea", "test.cycleb", "test.in"));
+        List<TaskResult> result = build();
+
+        // the tasks in the cycle fail, the other tasks are built
+        assertThat(result.size(), is(3));
+        int failed = 0;
+        for (TaskResult r : result) {
+            if (r.isOk()) {
+                assertThat(r.getTask().getName(), is("InCopyBuilder"));
+                continue;
+            }
+            failed++;
+            assertTrue(r.getMessage(), r.getMessage().startsWith("Cyclic dependency between tasks: "));
+            assertTrue(r.getMessage(), r.getMessage().contains("CycleABuilder"));
+            assertTrue(r.getMessage(), r.getMessage().contains("CycleBBuilder"));
+        }
+        assertThat(failed, is(2));
+        assertFalse(fileSystem.get("test.cycleac").output().exists());
+        assertFalse(fileSystem.get("test.cyclebc").output().exists());
+    }
+
     @Test
     public void testCompileErrorOutputCreated() throws Exception {
         fileSystem.addFile("test.foeao", "test".getBytes());
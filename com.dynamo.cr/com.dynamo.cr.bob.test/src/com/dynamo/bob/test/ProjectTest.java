@@ -14,9 +14,11 @@
 
 package com.dynamo.bob.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -24,6 +26,7 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -49,6 +52,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.LibraryException;
 import com.dynamo.bob.ClassLoaderScanner;
 import com.dynamo.bob.ClassLoaderResourceScanner;
 import com.dynamo.bob.MultipleCompileException;
@@ -88,6 +92,10 @@ public class ProjectTest {
     private ArrayList<URL> libraryUrls = new ArrayList<URL>();
 
     private AtomicInteger _304Count = new AtomicInteger();
+    // "<status> <target>" of the responses sent by the file handler itself
+    private List<String> responses = Collections.synchronizedList(new ArrayList<String>());
+    // answer with a login page instead of the library
+    private volatile boolean serveHtml = false;
 
     @Rule
     public TestLibrariesRule testLibs = new TestLibrariesRule();
@@ -198,6 +206,98 @@ public class ProjectTest {
         System.out.printf("testResolve end");
     }
 
+    @Test
+    public void testResumePartialDownload() throws Exception {
+        File libDir = new File(project.getLibPath());
+        FileUtils.forceMkdir(libDir);
+        FileUtils.cleanDirectory(libDir);
+
+        // a download of the first library that was interrupted halfway
+        URL url = libraryUrls.get(0);
+        File source = new File(testLibs.getServerLocation(), "test_lib1.zip");
+        byte[] content = FileUtils.readFileToByteArray(source);
+        ZipFile zip = new ZipFile(source);
+        String etag = String.format("\"%s\"", zip.getComment());
+        zip.close();
+        File partialFile = new File(libDir, LibraryUtil.getPartialFileName(url, etag));
+        FileUtils.writeByteArrayToFile(partialFile, Arrays.copyOf(content, content.length / 2));
+
+        project.resolveLibUrls(new NullProgress());
+
+        // only the rest of the library was downloaded
+        assertTrue(responses.toString(), responses.contains("206 /test_lib1.zip"));
+        assertEquals(content.length / 2, project.getLibResumedBytes());
+        assertFalse(partialFile.exists());
+        File libFile = new File(libDir, LibraryUtil.getFileName(url, etag));
+        assertTrue(libFile.exists());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(libFile));
+        for (URL libraryUrl : libraryUrls) {
+            assertEquals(null, LibraryUtil.findPartialFile(project.getLibPath(), libraryUrl));
+        }
+    }
+
+    @Test
+    public void testRejectNonZipResponse() throws Exception {
+        File libDir = new File(project.getLibPath());
+        FileUtils.forceMkdir(libDir);
+        FileUtils.cleanDirectory(libDir);
+
+        // a working library from a previous resolve, with an etag the server doesn't match
+        URL url = libraryUrls.get(0);
+        project.setLibUrls(Arrays.asList(url));
+        File source = new File(testLibs.getServerLocation(), "test_lib1.zip");
+        File oldFile = new File(libDir, LibraryUtil.getFileName(url, "\"old\""));
+        FileUtils.copyFile(source, oldFile);
+
+        serveHtml = true;
+        try {
+            project.resolveLibUrls(new NullProgress());
+            fail("Expected a LibraryException");
+        } catch (LibraryException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not a valid zip file"));
+        }
+        assertTrue(responses.toString(), responses.contains("200 /test_lib1.zip"));
+
+        // the working library is kept, and nothing else is left behind
+        assertTrue(oldFile.exists());
+        assertArrayEquals(FileUtils.readFileToByteArray(source), FileUtils.readFileToByteArray(oldFile));
+        assertEquals(null, LibraryUtil.findPartialFile(project.getLibPath(), url));
+        assertEquals(1, libDir.listFiles(File::isFile).length);
+
+        // the old library is replaced once the new one has been downloaded
+        serveHtml = false;
+        project.resolveLibUrls(new NullProgress());
+        assertFalse(oldFile.exists());
+        ZipFile zip = new ZipFile(source);
+        String etag = String.format("\"%s\"", zip.getComment());
+        zip.close();
+        assertArrayEquals(FileUtils.readFileToByteArray(source), FileUtils.readFileToByteArray(new File(libDir, LibraryUtil.getFileName(url, etag))));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        File libDir = new File(project.getLibPath());
+        FileUtils.forceMkdir(libDir);
+        FileUtils.cleanDirectory(libDir);
+        project.resolveLibUrls(new NullProgress());
+        File[] files = libDir.listFiles(File::isFile);
+        Arrays.sort(files);
+        List<byte[]> contents = new ArrayList<>();
+        for (File file : files) {
+            contents.add(FileUtils.readFileToByteArray(file));
+        }
+
+        // all libraries are up to date, and the files are left as they are
+        project.resolveLibUrls(new NullProgress());
+        assertEquals(libraryUrls.size(), _304Count.get());
+        File[] currentFiles = libDir.listFiles(File::isFile);
+        Arrays.sort(currentFiles);
+        assertArrayEquals(files, currentFiles);
+        for (int i = 0; i < files.length; ++i) {
+            assertArrayEquals(contents.get(i), FileUtils.readFileToByteArray(currentFiles[i]));
+        }
+    }
+
     @Test
     public void testMountPoints() throws Exception {
         System.out.printf("testMountPoints start");
@@ -320,10 +420,36 @@ public class ProjectTest {
                         sha1 = "";
                     }
 
+                    String range = request.getHeader("Range");
+                    String ifRange = request.getHeader("If-Range");
                     if (etag != null && etag.equals(String.format("\"%s\"", sha1))) {
                         _304Count.incrementAndGet();
+                        responses.add("304 " + target);
                         response.setStatus(304);
                         baseRequest.setHandled(true);
+                    } else if (serveHtml) {
+                        // e.g. a login page of a private repository
+                        responses.add("200 " + target);
+                        byte[] page = "<html><body>Sign in</body></html>".getBytes();
+                        response.setStatus(200);
+                        response.setContentType("text/html");
+                        response.setContentLength(page.length);
+                        response.getOutputStream().write(page);
+                        baseRequest.setHandled(true);
+                    } else if (range != null && range.startsWith("bytes=") && range.endsWith("-") && String.format("\"%s\"", sha1).equals(ifRange)) {
+                        byte[] content = FileUtils.readFileToByteArray(file);
+                        int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                        if (offset >= content.length) {
+                            responses.add("416 " + target);
+                            response.setStatus(416);
+                        } else {
+                            responses.add("206 " + target);
+                            response.setStatus(206);
+                            response.setHeader("Content-Range", String.format("bytes %d-%d/%d", offset, content.length - 1, content.length));
+                            response.setContentLength(content.length - offset);
+                            response.getOutputStream().write(content, offset, content.length - offset);
+                        }
+                        baseRequest.setHandled(true);
                     } else {
                         super.handle(target, baseRequest, request, response);
                     }
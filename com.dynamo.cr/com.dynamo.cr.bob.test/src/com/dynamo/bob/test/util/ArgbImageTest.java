@@ -0,0 +1,137 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import com.dynamo.bob.util.ArgbImage;
+
+public class ArgbImageTest {
+
+    // Opaque pixels, except for a transparent pixel with a colour
+    private static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, 0xff000000 | (x * 40) << 16 | (y * 40) << 8 | 0x80);
+            }
+        }
+        image.setRGB(width - 1, 0, 0x00ffffff);
+        return image;
+    }
+
+    // Pad, extrude and rotate the image the way it was done with intermediate images
+    private static BufferedImage createReference(BufferedImage src, int innerPadding, int extrudeBorders, boolean rotate) {
+        int paddedWidth = src.getWidth() + innerPadding * 2;
+        int paddedHeight = src.getHeight() + innerPadding * 2;
+        BufferedImage padded = new BufferedImage(paddedWidth, paddedHeight, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = padded.createGraphics();
+        g.drawImage(src, innerPadding, innerPadding, null);
+        g.dispose();
+
+        int width = paddedWidth + extrudeBorders * 2;
+        int height = paddedHeight + extrudeBorders * 2;
+        BufferedImage extruded = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int sx = Math.min(Math.max(x - extrudeBorders, 0), paddedWidth - 1);
+                int sy = Math.min(Math.max(y - extrudeBorders, 0), paddedHeight - 1);
+                extruded.setRGB(x, y, padded.getRGB(sx, sy));
+            }
+        }
+        if (!rotate) {
+            return extruded;
+        }
+        BufferedImage rotated = new BufferedImage(height, width, BufferedImage.TYPE_INT_ARGB);
+        AffineTransform tx = new AffineTransform();
+        tx.translate(height / 2.0, width / 2.0);
+        tx.rotate(Math.PI / 2.0);
+        tx.translate(-width / 2.0, -height / 2.0);
+        g = rotated.createGraphics();
+        g.drawImage(extruded, tx, null);
+        g.dispose();
+        return rotated;
+    }
+
+    @Test
+    public void testBlit() {
+        int[] types = {BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR};
+        for (int type : types) {
+            BufferedImage src = createImage(5, 3, type);
+            for (int innerPadding = 0; innerPadding < 3; ++innerPadding) {
+                for (int extrudeBorders = 0; extrudeBorders < 3; ++extrudeBorders) {
+                    for (boolean rotate : new boolean[] {false, true}) {
+                        BufferedImage expected = createReference(src, innerPadding, extrudeBorders, rotate);
+                        int offsetX = 2;
+                        int offsetY = 3;
+                        ArgbImage page = new ArgbImage(expected.getWidth() + 4, expected.getHeight() + 5);
+                        page.blit(src, offsetX, offsetY, innerPadding, extrudeBorders, rotate);
+                        ArgbImage pageFromArgb = new ArgbImage(page.getWidth(), page.getHeight());
+                        pageFromArgb.blit(ArgbImage.fromBufferedImage(src), offsetX, offsetY, innerPadding, extrudeBorders, rotate);
+
+                        for (int y = 0; y < page.getHeight(); ++y) {
+                            for (int x = 0; x < page.getWidth(); ++x) {
+                                int ex = x - offsetX;
+                                int ey = y - offsetY;
+                                boolean inside = ex >= 0 && ey >= 0 && ex < expected.getWidth() && ey < expected.getHeight();
+                                int expectedPixel = inside ? expected.getRGB(ex, ey) : 0;
+                                String message = String.format("type %d padding %d extrude %d rotate %b at (%d, %d)", type, innerPadding, extrudeBorders, rotate, x, y);
+                                assertEquals(message, expectedPixel, page.getPixel(x, y));
+                                assertEquals(message, expectedPixel, pageFromArgb.getPixel(x, y));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlitOutside() {
+        ArgbImage page = new ArgbImage(8, 8);
+        page.blit(new ArgbImage(4, 4), 3, 0, 1, 0, false);
+    }
+
+    @Test
+    public void testToBufferedImage() {
+        BufferedImage src = createImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+        ArgbImage image = ArgbImage.fromBufferedImage(src);
+        BufferedImage full = image.toBufferedImage();
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, full.getType());
+        for (int y = 0; y < 4; ++y) {
+            for (int x = 0; x < 4; ++x) {
+                int expected = (src.getRGB(x, y) >>> 24) == 0 ? 0 : src.getRGB(x, y);
+                assertEquals(expected, full.getRGB(x, y));
+            }
+        }
+
+        // The parts of the area outside of the image are transparent
+        BufferedImage area = image.toBufferedImage(2, 1, 3, 4);
+        for (int y = 0; y < 4; ++y) {
+            for (int x = 0; x < 3; ++x) {
+                int sx = x + 2;
+                int sy = y + 1;
+                int expected = sx < 4 && sy < 4 ? full.getRGB(sx, sy) : 0;
+                assertEquals(expected, area.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.util.DecodedImageCache;
+
+public class DecodedImageCacheTest {
+
+    @Before
+    public void setUp() throws Exception {
+        DecodedImageCache.clear();
+        DecodedImageCache.setMaxSize(256 * 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DecodedImageCache.clear();
+    }
+
+    private static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, (x * 31 + y * 17) | ((x + y) << 24) | 0x10000000);
+            }
+        }
+        return image;
+    }
+
+    private static void assertImageEquals(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getColorModel(), actual.getColorModel());
+        for (int y = 0; y < expected.getHeight(); ++y) {
+            for (int x = 0; x < expected.getWidth(); ++x) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testImageTypes() throws Exception {
+        int[] types = {BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB,
+                       BufferedImage.TYPE_USHORT_565_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED};
+        for (int type : types) {
+            String key = "image" + type;
+            BufferedImage image = createImage(7, 5, type);
+            assertNull(DecodedImageCache.get(key));
+            DecodedImageCache.put(key, image);
+            BufferedImage cached = DecodedImageCache.get(key);
+            assertNotNull(cached);
+            assertNotSame(image, cached);
+            assertImageEquals(image, cached);
+
+            // the cached copy isn't affected by changes to a returned image
+            cached.setRGB(0, 0, 0);
+            assertImageEquals(image, DecodedImageCache.get(key));
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // 4 bytes per pixel
+        DecodedImageCache.setMaxSize(2 * 16 * 16 * 4);
+        DecodedImageCache.put("a", createImage(16, 16, BufferedImage.TYPE_4BYTE_ABGR));
+        DecodedImageCache.put("b", createImage(16, 16, BufferedImage.TYPE_4BYTE_ABGR));
+        // "a" is now the most recently used
+        assertNotNull(DecodedImageCache.get("a"));
+        DecodedImageCache.put("c", createImage(16, 16, BufferedImage.TYPE_4BYTE_ABGR));
+        assertNotNull(DecodedImageCache.get("a"));
+        assertNull(DecodedImageCache.get("b"));
+        assertNotNull(DecodedImageCache.get("c"));
+        assertEquals(2 * 16 * 16 * 4, DecodedImageCache.getSize());
+
+        // images larger than the cache are not cached
+        DecodedImageCache.put("d", createImage(64, 64, BufferedImage.TYPE_4BYTE_ABGR));
+        assertNull(DecodedImageCache.get("d"));
+    }
+}
@@ -61,7 +61,11 @@ public class MockResource extends AbstractResource<MockFileSystem> {
 
     @Override
     public void setContent(InputStream stream) throws IOException {
-        throw new RuntimeException("Not implemented");
+        try {
+            this.content = stream.readAllBytes();
+        } finally {
+            stream.close();
+        }
     }
 
     @Override
@@ -0,0 +1,121 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.util.ParallelUtil;
+
+public class ParallelUtilTest {
+
+    @Test
+    public void testMapOrder() throws Exception {
+        List<Integer> result = ParallelUtil.map(1000, i -> i * 2);
+        assertEquals(1000, result.size());
+        for (int i = 0; i < result.size(); ++i) {
+            assertEquals(i * 2, (int) result.get(i));
+        }
+    }
+
+    @Test
+    public void testFirstErrorIsReported() throws Exception {
+        // several items fail, the first one in index order is always reported
+        for (int n = 0; n < 10; ++n) {
+            try {
+                ParallelUtil.map(100, i -> {
+                    if (i % 10 == 3) {
+                        throw new CompileExceptionError("item " + i);
+                    }
+                    return i;
+                });
+                fail();
+            } catch (CompileExceptionError e) {
+                assertEquals("item 3", e.getMessage());
+            }
+        }
+        try {
+            ParallelUtil.map(10, i -> {
+                throw new IOException("io");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("io", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMapBatched() throws Exception {
+        int count = ParallelUtil.getBatchSize() * 3 + 1;
+        List<Integer> consumed = new ArrayList<>();
+        ParallelUtil.mapBatched(count, i -> i + 1, (i, result) -> {
+            assertEquals(i + 1, (int) result);
+            consumed.add(i);
+        });
+        assertEquals(count, consumed.size());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i, (int) consumed.get(i));
+        }
+    }
+
+    @Test
+    public void testMaxThreads() throws Exception {
+        ParallelUtil.setMaxThreads(2);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            List<Boolean> inCommonPool = ParallelUtil.map(20, i -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(10);
+                running.decrementAndGet();
+                return ForkJoinPool.commonPool() == ForkJoinTask.getPool();
+            });
+            assertTrue(maxRunning.get() <= 2);
+            assertFalse(inCommonPool.contains(true));
+            assertEquals(4, ParallelUtil.getBatchSize());
+        } finally {
+            ParallelUtil.setMaxThreads(Project.getDefaultMaxCpuThreads());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testNestedMap() throws Exception {
+        // work items may use the pool themselves, also when it has a single thread
+        ParallelUtil.setMaxThreads(1);
+        try {
+            List<List<Integer>> result = ParallelUtil.map(4, i -> ParallelUtil.map(4, j -> i * 4 + j));
+            for (int i = 0; i < 4; ++i) {
+                for (int j = 0; j < 4; ++j) {
+                    assertEquals(i * 4 + j, (int) result.get(i).get(j));
+                }
+            }
+        } finally {
+            ParallelUtil.setMaxThreads(Project.getDefaultMaxCpuThreads());
+        }
+    }
+}
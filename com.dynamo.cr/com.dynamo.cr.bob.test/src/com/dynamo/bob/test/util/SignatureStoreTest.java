@@ -0,0 +1,192 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.util.SignatureStore;
+
+public class SignatureStoreTest {
+
+    private File dir;
+    private File file;
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory(null).toFile();
+        file = new File(dir, "signatures");
+        journal = new File(dir, "signatures.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static byte[] sig(int value) {
+        byte[] sig = new byte[20];
+        for (int i = 0; i < sig.length; ++i) {
+            sig[i] = (byte) (value + i);
+        }
+        return sig;
+    }
+
+    @Test
+    public void testGetPutRemove() throws Exception {
+        SignatureStore store = new SignatureStore(20);
+        assertNull(store.get("/a"));
+        store.put("/a", sig(1));
+        store.put("/b", new byte[0]);
+        assertArrayEquals(sig(1), store.get("/a"));
+        assertArrayEquals(new byte[0], store.get("/b"));
+        store.remove("/a");
+        assertNull(store.get("/a"));
+        assertEquals(1, store.getPaths().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueTooLarge() throws Exception {
+        new SignatureStore(20).put("/a", new byte[21]);
+    }
+
+    @Test
+    public void testByteArray() throws Exception {
+        SignatureStore store = new SignatureStore(20);
+        for (int i = 0; i < 100; ++i) {
+            store.put("/path/" + i, sig(i));
+        }
+        byte[] content = store.toByteArray();
+        assertTrue(SignatureStore.isSnapshot(content));
+
+        SignatureStore loaded = SignatureStore.fromBytes(content, 20);
+        for (int i = 0; i < 100; ++i) {
+            assertArrayEquals(sig(i), loaded.get("/path/" + i));
+        }
+        assertNull(loaded.get("/path/100"));
+        assertEquals(100, loaded.getPaths().size());
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        SignatureStore store = SignatureStore.open(file, 20);
+        store.put("/a", sig(1));
+        store.compact();
+        assertTrue(file.isFile());
+        assertFalse(journal.exists());
+
+        // small changes are appended to the journal
+        store = SignatureStore.open(file, 20);
+        store.put("/b", sig(2));
+        store.remove("/a");
+        store.save();
+        assertTrue(journal.isFile());
+
+        store = SignatureStore.open(file, 20);
+        assertNull(store.get("/a"));
+        assertArrayEquals(sig(2), store.get("/b"));
+        assertEquals(1, store.getPaths().size());
+
+        // nothing is written if nothing changed
+        long journalLength = journal.length();
+        store.put("/b", sig(2));
+        store.save();
+        assertEquals(journalLength, journal.length());
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        SignatureStore store = SignatureStore.open(file, 20);
+        for (int i = 0; i < 10000; ++i) {
+            store.put("/path/" + i, sig(i));
+        }
+        // too many changes for the journal
+        store.save();
+        assertTrue(file.isFile());
+        assertFalse(journal.exists());
+
+        store = SignatureStore.open(file, 20);
+        HashSet<String> paths = new HashSet<>(store.getPaths());
+        assertEquals(10000, paths.size());
+        for (int i = 0; i < 10000; ++i) {
+            assertTrue(paths.contains("/path/" + i));
+            assertArrayEquals(sig(i), store.get("/path/" + i));
+        }
+    }
+
+    @Test
+    public void testDamagedJournal() throws Exception {
+        SignatureStore store = SignatureStore.open(file, 20);
+        store.put("/a", sig(1));
+        store.compact();
+        store.put("/b", sig(2));
+        store.save();
+
+        // a record cut short is ignored
+        try (FileOutputStream os = new FileOutputStream(journal, true)) {
+            os.write(new byte[] { 0, 0, 0, 10, 'a' });
+        }
+        store = SignatureStore.open(file, 20);
+        assertArrayEquals(sig(1), store.get("/a"));
+        assertArrayEquals(sig(2), store.get("/b"));
+        store.save();
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    public void testUnknownFormat() throws Exception {
+        FileUtils.writeByteArrayToFile(file, new byte[] { (byte) 0xac, (byte) 0xed, 0, 5 });
+        SignatureStore store = SignatureStore.open(file, 20);
+        List<String> paths = store.getPaths();
+        assertTrue(paths.isEmpty());
+        store.put("/a", sig(1));
+        store.save();
+
+        store = SignatureStore.open(file, 20);
+        assertArrayEquals(sig(1), store.get("/a"));
+    }
+
+    @Test
+    public void testRemovedFiles() throws Exception {
+        SignatureStore store = SignatureStore.open(file, 20);
+        store.put("/a", sig(1));
+        store.compact();
+        store.put("/b", sig(2));
+        store.save();
+
+        FileUtils.deleteDirectory(dir);
+        store.save();
+
+        store = SignatureStore.open(file, 20);
+        assertArrayEquals(sig(1), store.get("/a"));
+        assertArrayEquals(sig(2), store.get("/b"));
+    }
+}
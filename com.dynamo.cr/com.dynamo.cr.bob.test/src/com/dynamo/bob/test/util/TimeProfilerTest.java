@@ -0,0 +1,74 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.util.TimeProfiler;
+
+public class TimeProfilerTest {
+
+    private File directory;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory(null).toFile();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private String profile(String scopeName, boolean stop) throws Exception {
+        File reportFile = new File(directory, scopeName + ".json");
+        TimeProfiler.init(Arrays.asList(reportFile), true);
+        executor.submit(() -> {
+            TimeProfiler.start(scopeName);
+            if (stop) {
+                TimeProfiler.stop();
+            }
+        }).get();
+        TimeProfiler.createReport(true);
+        return new String(Files.readAllBytes(new File(directory, scopeName + "_time.json").toPath()));
+    }
+
+    @Test
+    public void testThreadLanesAreResetBetweenSessions() throws Exception {
+        // the scope is left open on the worker thread, which outlives the session
+        String first = profile("firstScope", false);
+        assertTrue(first.contains("firstScope"));
+
+        // the scopes of the same thread in the next session end up in the new report
+        String second = profile("secondScope", true);
+        assertTrue(second.contains("secondScope"));
+        assertFalse(second.contains("firstScope"));
+    }
+}
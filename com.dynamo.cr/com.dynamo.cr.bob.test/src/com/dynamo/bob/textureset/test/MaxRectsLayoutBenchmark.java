@@ -0,0 +1,155 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.textureset.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.dynamo.bob.textureset.TextureSetLayout;
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+
+/**
+ * Benchmark of the atlas layout, on synthetic rect sets and optionally on the
+ * sizes of the images in a directory, e.g. the images of a game project.
+ *
+ * Usage: MaxRectsLayoutBenchmark [image directory] [iterations]
+ *
+ * Each set is laid out a few times to warm up the JIT, then timed. The time of
+ * each iteration is printed as min/median/max, along with the page count and the
+ * occupancy of the layout, so that speed and quality can be compared between changes.
+ */
+public class MaxRectsLayoutBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MARGIN = 2;
+
+    private static List<Rect> createRects(long seed, int count, int minSize, int maxSize) {
+        Random random = new Random(seed);
+        List<Rect> rects = new ArrayList<Rect>(count);
+        for (int i = 0; i < count; ++i) {
+            int width = minSize + random.nextInt(maxSize - minSize + 1);
+            int height = minSize + random.nextInt(maxSize - minSize + 1);
+            rects.add(new Rect("rect" + i, i, width, height));
+        }
+        return rects;
+    }
+
+    // Mostly small sprites, with a few large backgrounds
+    private static List<Rect> createMixedRects(long seed, int count) {
+        List<Rect> rects = createRects(seed, count, 4, 96);
+        Random random = new Random(seed);
+        for (int i = 0; i < count / 100; ++i) {
+            rects.add(new Rect("large" + i, rects.size(), 256 + random.nextInt(256), 128 + random.nextInt(256)));
+        }
+        return rects;
+    }
+
+    private static List<Rect> readImageRects(File directory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(directory.toPath())) {
+            paths = stream.filter(p -> p.toString().toLowerCase().matches(".*\\.(png|jpg|jpeg)$")).sorted().collect(Collectors.toList());
+        }
+        List<Rect> rects = new ArrayList<Rect>();
+        for (Path path : paths) {
+            // Only the image header is read
+            try (ImageInputStream input = ImageIO.createImageInputStream(path.toFile())) {
+                Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+                if (readers == null || !readers.hasNext()) {
+                    continue;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input);
+                    rects.add(new Rect(path.toString(), rects.size(), reader.getWidth(0), reader.getHeight(0)));
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+        return rects;
+    }
+
+    private static List<Rect> copyRects(List<Rect> rects) {
+        List<Rect> copy = new ArrayList<Rect>(rects.size());
+        for (Rect r : rects) {
+            copy.add(new Rect(r));
+        }
+        return copy;
+    }
+
+    private static void run(String name, List<Rect> rects, int iterations) {
+        long[] times = new long[iterations];
+        List<Layout> layouts = null;
+        for (int i = 0; i < WARMUP_ITERATIONS + iterations; ++i) {
+            List<Rect> input = copyRects(rects);
+            long start = System.nanoTime();
+            layouts = TextureSetLayout.packedLayout(MARGIN, input, true, 0, 0);
+            long time = System.nanoTime() - start;
+            if (i >= WARMUP_ITERATIONS) {
+                times[i - WARMUP_ITERATIONS] = time;
+            }
+        }
+        Arrays.sort(times);
+
+        long usedArea = 0;
+        long pageArea = 0;
+        for (Layout layout : layouts) {
+            pageArea += (long) layout.getWidth() * layout.getHeight();
+            for (Rect r : layout.getRectangles()) {
+                usedArea += r.getArea();
+            }
+        }
+        System.out.println(String.format("%-24s rects: %6d  ms min/median/max: %8.1f %8.1f %8.1f  pages: %d  occupancy: %.3f",
+            name, rects.size(), times[0] / 1e6, times[times.length / 2] / 1e6, times[times.length - 1] / 1e6,
+            layouts.size(), (double) usedArea / pageArea));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Map<String, List<Rect>> sets = new LinkedHashMap<String, List<Rect>>();
+        sets.put("small-500", createRects(1, 500, 8, 64));
+        sets.put("small-5000", createRects(2, 5000, 8, 64));
+        sets.put("tiles-4096", createRects(3, 4096, 32, 32));
+        sets.put("mixed-2000", createMixedRects(4, 2000));
+        if (args.length > 0) {
+            sets.put(new File(args[0]).getName(), readImageRects(new File(args[0])));
+        }
+
+        for (Map.Entry<String, List<Rect>> entry : sets.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                System.out.println(String.format("%-24s no images", entry.getKey()));
+                continue;
+            }
+            run(entry.getKey(), entry.getValue(), iterations);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.textureset.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.dynamo.bob.textureset.MaxRectsLayoutStrategy;
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+
+public class MaxRectsLayoutStrategyTest {
+
+    private static List<Rect> createRects(long seed, int count, int maxSize) {
+        Random random = new Random(seed);
+        List<Rect> rects = new ArrayList<Rect>();
+        for (int i = 0; i < count; ++i) {
+            rects.add(new Rect("rect" + i, i, 1 + random.nextInt(maxSize), 1 + random.nextInt(maxSize)));
+        }
+        rects.sort((a, b) -> b.getArea() - a.getArea());
+        return rects;
+    }
+
+    private static MaxRectsLayoutStrategy.Settings createSettings(int maxPageSize, int padding) {
+        MaxRectsLayoutStrategy.Settings settings = new MaxRectsLayoutStrategy.Settings();
+        settings.maxPageWidth = maxPageSize;
+        settings.maxPageHeight = maxPageSize;
+        settings.minPageWidth = 16;
+        settings.minPageHeight = 16;
+        settings.paddingX = padding;
+        settings.paddingY = padding;
+        settings.rotation = true;
+        return settings;
+    }
+
+    private static boolean overlaps(Rect a, Rect b) {
+        return a.getX() < b.getX() + b.getWidth() && b.getX() < a.getX() + a.getWidth()
+            && a.getY() < b.getY() + b.getHeight() && b.getY() < a.getY() + a.getHeight();
+    }
+
+    // All rects are placed once, inside the page, without overlapping and with the original size
+    private static void assertValidLayouts(List<Rect> srcRects, List<Layout> layouts) {
+        Set<Integer> placed = new HashSet<Integer>();
+        for (Layout layout : layouts) {
+            List<Rect> rects = layout.getRectangles();
+            for (int i = 0; i < rects.size(); ++i) {
+                Rect r = rects.get(i);
+                assertTrue(placed.add(r.getIndex()));
+                Rect src = srcRects.stream().filter(s -> s.getIndex() == r.getIndex()).findFirst().get();
+                if (r.getRotated()) {
+                    assertEquals(src.getWidth(), r.getHeight());
+                    assertEquals(src.getHeight(), r.getWidth());
+                } else {
+                    assertEquals(src.getWidth(), r.getWidth());
+                    assertEquals(src.getHeight(), r.getHeight());
+                }
+                assertTrue(r.getX() >= 0 && r.getY() >= 0);
+                assertTrue(r.getX() + r.getWidth() <= layout.getWidth());
+                assertTrue(r.getY() + r.getHeight() <= layout.getHeight());
+                for (int j = 0; j < i; ++j) {
+                    assertFalse(overlaps(r, rects.get(j)));
+                }
+            }
+        }
+        assertEquals(srcRects.size(), placed.size());
+    }
+
+    private static String toString(List<Layout> layouts) {
+        StringBuilder sb = new StringBuilder();
+        for (Layout layout : layouts) {
+            sb.append(layout.getWidth()).append("x").append(layout.getHeight()).append("\n");
+            for (Rect r : layout.getRectangles()) {
+                sb.append(r.toString()).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testManyRects() {
+        List<Rect> rects = createRects(1, 2000, 48);
+        List<Layout> layouts = new MaxRectsLayoutStrategy(createSettings(2048, 2)).createLayout(rects);
+        assertValidLayouts(rects, layouts);
+    }
+
+    @Test
+    public void testMultiplePages() {
+        List<Rect> rects = createRects(2, 300, 100);
+        List<Layout> layouts = new MaxRectsLayoutStrategy(createSettings(256, 1)).createLayout(rects);
+        assertTrue(layouts.size() > 1);
+        assertValidLayouts(rects, layouts);
+    }
+
+    @Test
+    public void testDeterministic() {
+        List<Rect> rects = createRects(3, 500, 64);
+        String expected = toString(new MaxRectsLayoutStrategy(createSettings(1024, 0)).createLayout(rects));
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(expected, toString(new MaxRectsLayoutStrategy(createSettings(1024, 0)).createLayout(rects)));
+        }
+    }
+
+    @Test
+    public void testTargetOccupancy() {
+        List<Rect> rects = createRects(4, 200, 32);
+        MaxRectsLayoutStrategy.Settings settings = createSettings(4096, 0);
+        List<Layout> best = new MaxRectsLayoutStrategy(settings).createLayout(rects);
+        // Any page where all rects fit is good enough
+        settings.targetOccupancy = 0.01f;
+        List<Layout> early = new MaxRectsLayoutStrategy(settings).createLayout(rects);
+        assertValidLayouts(rects, early);
+        assertEquals(1, early.size());
+        assertTrue(early.get(0).getWidth() * early.get(0).getHeight() >= best.get(0).getWidth() * best.get(0).getHeight());
+    }
+}
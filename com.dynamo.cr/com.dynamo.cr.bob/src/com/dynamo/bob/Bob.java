@@ -103,7 +103,7 @@ public class Bob {
         }));
       }
 
-    public static void init() {
+    public static synchronized void init() {
         if (rootFolder != null) {
             return;
         }
@@ -130,7 +130,7 @@ public class Bob {
         TimeProfiler.stop();
     }
 
-    public static void initLua() {
+    public static synchronized void initLua() {
         if (luaInitialized) {
             return;
         }
@@ -530,6 +530,11 @@ public class Bob {
         addOption(options, null, "ne-output-name", true, "Specify a library target name", false);
 
         addOption(options, null, "resource-cache-local", true, "Path to local resource cache.", false);
+        addOption(options, null, "resource-cache-local-max-size", true, "Max size of the local resource cache in megabytes. Least recently used resources are removed when the cache grows larger.", false);
+        addOption(options, null, "archive-cache-max-size", true, "Max size of the cache of compressed archive resources in megabytes. Defaults to 512. Set to 0 for no limit.", false);
+        addOption(options, null, "shader-cache", true, "Path to the cache of compiled shaders. The cache can be shared between projects. Defaults to a directory in the project build cache.", false);
+        addOption(options, null, "shader-cache-max-size", true, "Max size of the cache of compiled shaders in megabytes. Defaults to 256. Set to 0 for no limit.", false);
+        addOption(options, null, "image-cache-max-size", true, "Max size of the in-memory cache of decoded images shared by the atlases of a build, in megabytes. Defaults to 256. Set to 0 to disable.", false);
         addOption(options, null, "resource-cache-remote", true, "URL to remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-user", true, "Username to authenticate access to the remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-pass", true, "Password/token to authenticate access to the remote resource cache.", false);
@@ -539,6 +544,10 @@ public class Bob {
 
         addOption(options, null, "max-cpu-threads", true, "Max count of threads that bob.jar can use", false);
 
+        addOption(options, null, "daemon", true, "Keep running as a build daemon after the first build, accepting build requests from --daemon-client on the given local port", false);
+        addOption(options, null, "daemon-client", true, "Run the commands using the build daemon listening on the given local port, see --daemon", false);
+        addOption(options, null, "watch", false, "Keep running after the first build and build again whenever a file in the project changes", false);
+
         // debug options
         addOption(options, null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip", false);
         addOption(options, null, "debug-output-spirv", true, "Force build SPIR-V shaders", false);
@@ -610,12 +619,15 @@ public class Bob {
         }
         project.mount(new ClassLoaderResourceScanner());
 
-        Set<String> skipDirs = new HashSet<String>(Arrays.asList(".git", project.getBuildDirectory(), ".internal", "build"));
         TimeProfiler.start("findSources");
-        project.findSources(sourceDirectory, skipDirs);
+        project.findSources(sourceDirectory, getSkipDirs(project));
         TimeProfiler.stop();
     }
 
+    private static Set<String> getSkipDirs(Project project) {
+        return new HashSet<String>(Arrays.asList(".git", project.getBuildDirectory(), ".internal", "build"));
+    }
+
     private static void validateChoices(String optionName, String value, List<String> validChoices) {
         if (!validChoices.contains(value)) {
             System.out.printf("%s option must be one of: ", optionName);
@@ -659,6 +671,49 @@ public class Bob {
         return errors;
     }
 
+    static String getTaskResultError(TaskResult taskResult, boolean verbose) {
+        StringBuilder errors = new StringBuilder();
+        String message = taskResult.getMessage();
+        if (message == null || message.isEmpty()) {
+            if (taskResult.getException() != null) {
+                message = taskResult.getException().getMessage();
+            } else {
+                message = "undefined";
+            }
+        }
+        errors.append(String.format("ERROR %s%s %s\n", taskResult.getTask().input(0),
+                (taskResult.getLineNumber() != -1) ? String.format(":%d", taskResult.getLineNumber()) : "",
+                message));
+        if (verbose) {
+            if (taskResult.getException() != null) {
+                errors.append("  ")
+                        .append(taskResult.getException().toString())
+                        .append("\n");
+                StackTraceElement[] elements = taskResult
+                        .getException().getStackTrace();
+                for (StackTraceElement element : elements) {
+                    errors.append("  ").append(element.toString())
+                            .append("\n");
+                }
+            }
+        }
+        return errors.toString();
+    }
+
+    private static int parsePort(CommandLine cmd, String option) {
+        try {
+            int port = Integer.parseInt(cmd.getOptionValue(option));
+            if (port > 0 && port <= 0xffff) {
+                return port;
+            }
+        }
+        catch (NumberFormatException ex) {
+        }
+        System.out.println(String.format("`--%s` expects a port number.", option));
+        System.exit(1);
+        return 0;
+    }
+
     public static boolean isCause(Class<? extends Throwable> expected, Throwable exc) {
        return expected.isInstance(exc) || (exc != null && isCause(expected, exc.getCause()));
     }
@@ -729,6 +784,13 @@ public class Bob {
         LogHelper.setVerboseLogging(verbose);  // It doesn't iterate over all loggers (including the bob logger)
         LogHelper.configureLogger(logger);     // It was created before the log helper was set to be verbose
 
+        if (cmd.hasOption("daemon-client")) {
+            boolean ok = BuildDaemon.runClient(parsePort(cmd, "daemon-client"), commands, verbose);
+            System.exit(ok ? 0 : 1);
+            return;
+        }
+        int daemonPort = cmd.hasOption("daemon") ? parsePort(cmd, "daemon") : 0;
+
         String email = getOptionsValue(cmd, 'e', null);
         String auth = getOptionsValue(cmd, 'u', null);
         Project project = createProject(rootDirectory, buildDirectory, email, auth);
@@ -785,6 +847,54 @@ public class Bob {
             }
         }
 
+        if (cmd.hasOption("archive-cache-max-size")) {
+            try {
+                Long.parseLong(cmd.getOptionValue("archive-cache-max-size"));
+            }
+            catch (NumberFormatException ex) {
+                System.out.println("`--archive-cache-max-size` expects integer value.");
+                ex.printStackTrace();
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (cmd.hasOption("shader-cache-max-size")) {
+            try {
+                Long.parseLong(cmd.getOptionValue("shader-cache-max-size"));
+            }
+            catch (NumberFormatException ex) {
+                System.out.println("`--shader-cache-max-size` expects integer value.");
+                ex.printStackTrace();
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (cmd.hasOption("image-cache-max-size")) {
+            try {
+                Long.parseLong(cmd.getOptionValue("image-cache-max-size"));
+            }
+            catch (NumberFormatException ex) {
+                System.out.println("`--image-cache-max-size` expects integer value.");
+                ex.printStackTrace();
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (cmd.hasOption("resource-cache-local-max-size")) {
+            try {
+                Long.parseLong(cmd.getOptionValue("resource-cache-local-max-size"));
+            }
+            catch (NumberFormatException ex) {
+                System.out.println("`--resource-cache-local-max-size` expects integer value.");
+                ex.printStackTrace();
+                System.exit(1);
+                return;
+            }
+        }
+
         Option[] options = cmd.getOptions();
         for (Option o : options) {
             if (cmd.hasOption(o.getLongOpt())) {
@@ -881,6 +991,15 @@ public class Bob {
             validateChoicesList(project, "build-artifacts", validArtifacts);
         }
 
+        if (daemonPort != 0 || cmd.hasOption("watch")) {
+            project.setResident(true);
+            BuildDaemon daemon = new BuildDaemon(project, sourceDirectory, getSkipDirs(project), commands, verbose);
+            daemon.run(daemonPort, cmd.hasOption("watch"));
+            project.dispose();
+            System.exit(0);
+            return;
+        }
+
         boolean ret = true;
         StringBuilder errors = new StringBuilder();
 
@@ -901,30 +1020,7 @@ public class Bob {
         for (TaskResult taskResult : result) {
             if (!taskResult.isOk()) {
                 ret = false;
-                String message = taskResult.getMessage();
-                if (message == null || message.isEmpty()) {
-                    if (taskResult.getException() != null) {
-                        message = taskResult.getException().getMessage();
-                    } else {
-                        message = "undefined";
-                    }
-                }
-                errors.append(String.format("ERROR %s%s %s\n", taskResult.getTask().input(0),
-                        (taskResult.getLineNumber() != -1) ? String.format(":%d", taskResult.getLineNumber()) : "",
-                        message));
-                if (verbose) {
-                    if (taskResult.getException() != null) {
-                        errors.append("  ")
-                                .append(taskResult.getException().toString())
-                                .append("\n");
-                        StackTraceElement[] elements = taskResult
-                                .getException().getStackTrace();
-                        for (StackTraceElement element : elements) {
-                            errors.append("  ").append(element.toString())
-                                    .append("\n");
-                        }
-                    }
-                }
+                errors.append(getTaskResultError(taskResult, verbose));
             }
         }
         if (!ret) {
@@ -0,0 +1,468 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.dynamo.bob.logging.Logger;
+
+/**
+ * Build daemon that keeps a project resident between builds, so that JVM startup,
+ * class scanning, library mounting and loading of the build state is only done once
+ * and the caches of the project (see {@link Project#setResident(boolean)}) are kept.
+ * Only the tasks affected by a change are built again, see {@link TaskGraphState}.
+ *
+ * Builds are triggered by changes to the project files (watch mode) and/or by clients
+ * connecting to a local port. The client protocol is line based (UTF-8). The client
+ * sends a single request line, either "build [command ...]" or "stop". The daemon
+ * answers with one line per built task, "OK &lt;input&gt;" or "ERROR &lt;input&gt;[:line] &lt;message&gt;",
+ * possibly followed by lines starting with whitespace with details, and ends with
+ * "DONE OK" or "DONE FAILED".
+ *
+ * Changes to the library dependencies of the project require a restart of the daemon.
+ */
+public class BuildDaemon {
+
+    private static Logger logger = Logger.getLogger(BuildDaemon.class.getName());
+
+    static final String REQUEST_BUILD = "build";
+    static final String REQUEST_STOP = "stop";
+    static final String RESPONSE_OK = "OK";
+    static final String RESPONSE_ERROR = "ERROR";
+    static final String RESPONSE_DONE = "DONE";
+    static final String RESPONSE_DONE_OK = RESPONSE_DONE + " " + RESPONSE_OK;
+    static final String RESPONSE_DONE_FAILED = RESPONSE_DONE + " FAILED";
+
+    // changes are collected until no file has changed for a while, to build once for e.g. a save-all
+    private static final long WATCH_QUIET_PERIOD_MS = 200;
+    private static final long WATCH_POLL_PERIOD_MS = 500;
+
+    private final Project project;
+    private final String sourceDirectory;
+    private final Set<String> skipDirs;
+    private final String[] defaultCommands;
+    private final boolean verbose;
+    private final Path rootPath;
+    private final String dependencies;
+
+    private final Object buildLock = new Object();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+    // set when files are added or removed, and the sources have to be found again
+    private volatile boolean sourcesChanged = true;
+    private List<String> sources;
+
+    private ServerSocket serverSocket;
+    private WatchService watchService;
+    private volatile Consumer<List<TaskResult>> buildListener;
+    private Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    /**
+     * Create a build daemon
+     * @param project the project, set up (with libraries mounted) and ready to build
+     * @param sourceDirectory source directory, relative to the project root
+     * @param skipDirs directories to ignore when finding sources, relative to the project root
+     * @param defaultCommands commands to run when no commands are given, e.g. build
+     * @param verbose print stack traces of failing tasks
+     */
+    public BuildDaemon(Project project, String sourceDirectory, Set<String> skipDirs, String[] defaultCommands, boolean verbose) {
+        this.project = project;
+        this.sourceDirectory = sourceDirectory;
+        this.skipDirs = skipDirs;
+        this.defaultCommands = defaultCommands;
+        this.verbose = verbose;
+        this.rootPath = Paths.get(project.getRootDirectory()).toAbsolutePath().normalize();
+        this.dependencies = project.getProjectProperties().getStringValue("project", "dependencies", "");
+    }
+
+    /**
+     * Set a listener to call with the results of each build, including the builds
+     * triggered by changes to the project files
+     * @param buildListener listener, or null
+     */
+    public void setBuildListener(Consumer<List<TaskResult>> buildListener) {
+        this.buildListener = buildListener;
+    }
+
+    /**
+     * Build the project, one build at a time
+     * @param commands commands to run, e.g. build or bundle
+     * @param resultListener called with the result of each task as soon as the task has been built
+     * @param errorListener called with errors not belonging to a task, e.g. a failure to create the tasks
+     * @return true if the build succeeded
+     */
+    boolean build(String[] commands, Consumer<TaskResult> resultListener, Consumer<String> errorListener) {
+        synchronized (buildLock) {
+            try {
+                // without watching, the files that were added or removed aren't known
+                if (sourcesChanged || sources == null || watchService == null) {
+                    sourcesChanged = false;
+                    project.findSources(sourceDirectory, skipDirs);
+                    sources = new ArrayList<>(project.getInputs());
+                } else {
+                    project.setInputs(sources);
+                }
+                project.setTaskResultListener(resultListener);
+                List<TaskResult> result = project.build(new ConsoleProgress(), commands);
+                Consumer<List<TaskResult>> listener = buildListener;
+                if (listener != null) {
+                    listener.accept(result);
+                }
+                boolean ok = true;
+                for (TaskResult taskResult : result) {
+                    ok = ok && taskResult.isOk();
+                }
+                return ok;
+            } catch (MultipleCompileException e) {
+                for (MultipleCompileException.Info info : e.issues) {
+                    errorListener.accept(Bob.logExceptionToString(info.getSeverity(), info.getResource(), info.getLineNumber(), info.getMessage()).trim());
+                }
+            } catch (CompileExceptionError e) {
+                errorListener.accept(Bob.logExceptionToString(MultipleCompileException.Info.SEVERITY_ERROR, e.getResource(), e.getLineNumber(), e.getMessage()).trim());
+            } catch (Exception e) {
+                logger.severe("Build failed", e);
+                errorListener.accept(String.format("%s: %s", RESPONSE_ERROR, e.getMessage()));
+            } finally {
+                project.setTaskResultListener(null);
+                String currentDependencies = project.getProjectProperties().getStringValue("project", "dependencies", "");
+                if (!currentDependencies.equals(dependencies)) {
+                    System.out.println("\nThe project dependencies have changed. Restart the build daemon to resolve them.");
+                }
+            }
+            return false;
+        }
+    }
+
+    private void buildAndPrint(String[] commands) {
+        long start = System.currentTimeMillis();
+        StringBuilder errors = new StringBuilder();
+        boolean ok = build(commands, result -> {
+            if (!result.isOk()) {
+                errors.append(Bob.getTaskResultError(result, verbose));
+            }
+        }, error -> errors.append(error).append("\n"));
+        if (ok) {
+            System.out.println(String.format("\nBuild succeeded in %.2f s", (System.currentTimeMillis() - start) / 1000.0));
+        } else {
+            System.out.println("\nThe build failed for the following reasons:");
+            System.out.println(errors.toString());
+        }
+    }
+
+    /**
+     * Run the daemon until a client sends a stop request, or forever if there is no
+     * client port. The project is built once before any changes or requests are handled.
+     * @param port local port to accept client requests on, or 0 to not accept any (other) clients
+     * @param watch build whenever a file in the project changes
+     * @throws IOException
+     */
+    public void run(int port, boolean watch) throws IOException {
+        if (port != 0) {
+            listen(port);
+        }
+        if (watch) {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerDirectories(rootPath.resolve(sourceDirectory).normalize());
+        }
+
+        buildAndPrint(defaultCommands);
+        if (serverSocket != null) {
+            System.out.println(String.format("Build daemon listening on port %d", serverSocket.getLocalPort()));
+        }
+        if (watch) {
+            System.out.println("Watching for changes...");
+        }
+
+        try {
+            if (watch) {
+                watch();
+            } else {
+                stopped.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Start accepting client requests. Called by {@link #run(int, boolean)}, or
+     * before it to listen on any free port. The builds are run one at a time.
+     * @param port local port to accept client requests on, or 0 for any free port
+     * @return the local port
+     * @throws IOException
+     */
+    public int listen(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread serverThread = new Thread(this::serve, "bob-daemon-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop the daemon. A build in progress is completed first.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to stop the build daemon: %s", e.getMessage());
+        }
+        stopped.countDown();
+    }
+
+    private String getRelativePath(Path path) {
+        return FilenameUtils.separatorsToUnix(rootPath.relativize(path).toString());
+    }
+
+    // same rules as the walker used to find the sources, see Project#findSources()
+    private boolean isIgnored(Path path) {
+        String relativePath = getRelativePath(path);
+        for (String skipDir : skipDirs) {
+            if (relativePath.equals(skipDir) || relativePath.startsWith(skipDir + "/")) {
+                return true;
+            }
+        }
+        return FilenameUtils.getBaseName(relativePath).isEmpty();
+    }
+
+    private void registerDirectories(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(rootPath) && isIgnored(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // e.g. removed while walking
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Handle the events of a watched directory
+     * @param key watch key of the directory
+     * @return true if a project file has changed
+     */
+    private boolean handleEvents(WatchKey key) throws IOException {
+        Path dir = watchedDirectories.get(key);
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                sourcesChanged = true;
+                changed = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (isIgnored(path)) {
+                continue;
+            }
+            changed = true;
+            if (event.kind() == ENTRY_CREATE || event.kind() == ENTRY_DELETE) {
+                sourcesChanged = true;
+            }
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                registerDirectories(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return changed;
+    }
+
+    private void watch() throws IOException, InterruptedException {
+        try {
+            while (running) {
+                WatchKey key = watchService.poll(WATCH_POLL_PERIOD_MS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                boolean changed = handleEvents(key);
+                while ((key = watchService.poll(WATCH_QUIET_PERIOD_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= handleEvents(key);
+                }
+                if (changed && running) {
+                    System.out.println("\nChanges detected, building...");
+                    buildAndPrint(defaultCommands);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private void serve() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread clientThread = new Thread(() -> handleClient(socket), "bob-daemon-client");
+                clientThread.setDaemon(true);
+                clientThread.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.warning("Failed to accept client: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    // each line of a multi line message but the first is indented, see the protocol description
+    private static void printResponse(PrintWriter out, String message) {
+        String[] lines = message.trim().split("\\r?\\n");
+        synchronized (out) {
+            for (int i = 0; i < lines.length; ++i) {
+                if (i > 0 && !lines[i].startsWith(" ")) {
+                    out.print("  ");
+                }
+                out.println(lines[i]);
+            }
+            out.flush();
+        }
+    }
+
+    private void handleClient(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String request = in.readLine();
+            if (request == null || request.trim().isEmpty()) {
+                return;
+            }
+            String[] parts = request.trim().split("\\s+");
+            switch (parts[0]) {
+                case REQUEST_BUILD: {
+                    String[] commands = parts.length > 1 ? Arrays.copyOfRange(parts, 1, parts.length) : defaultCommands;
+                    boolean ok = build(commands, result -> {
+                        if (result.isOk()) {
+                            printResponse(out, String.format("%s %s", RESPONSE_OK, result.getTask().input(0)));
+                        } else {
+                            printResponse(out, Bob.getTaskResultError(result, verbose));
+                        }
+                    }, error -> printResponse(out, error.startsWith(RESPONSE_ERROR) ? error : RESPONSE_ERROR + " " + error));
+                    printResponse(out, ok ? RESPONSE_DONE_OK : RESPONSE_DONE_FAILED);
+                    break;
+                }
+                case REQUEST_STOP: {
+                    printResponse(out, RESPONSE_DONE_OK);
+                    stop();
+                    break;
+                }
+                default: {
+                    printResponse(out, String.format("%s Unknown request '%s'", RESPONSE_ERROR, parts[0]));
+                    printResponse(out, RESPONSE_DONE_FAILED);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Client request failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Send commands to a build daemon and print the response
+     * @param port local port of the build daemon
+     * @param commands commands to run, or "stop" to stop the daemon
+     * @param verbose print the tasks that were built successfully as well
+     * @return true if the build succeeded
+     * @throws IOException if the build daemon can't be reached
+     */
+    public static boolean runClient(int port, String[] commands, boolean verbose) throws IOException {
+        String request;
+        if (commands.length == 1 && commands[0].equals(REQUEST_STOP)) {
+            request = REQUEST_STOP;
+        } else {
+            request = REQUEST_BUILD + " " + String.join(" ", commands);
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            out.println(request);
+            out.flush();
+            boolean printDetails = false;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(RESPONSE_DONE + " ")) {
+                    return line.equals(RESPONSE_DONE_OK);
+                }
+                if (line.startsWith(" ")) {
+                    if (printDetails) {
+                        System.out.println(line);
+                    }
+                    continue;
+                }
+                printDetails = verbose || !line.startsWith(RESPONSE_OK + " ");
+                if (printDetails) {
+                    System.out.println(line);
+                }
+            }
+        }
+        // the connection was closed before the build completed
+        return false;
+    }
+}
@@ -21,6 +21,10 @@ import com.dynamo.bob.fs.IResource;
 
 /**
  * Abstract builder class. Extend this class to create a builder
+ *
+ * A new builder instance is created for each task. Tasks are built in parallel
+ * and a builder must not share mutable state with other builder instances unless
+ * it declares a different {@link BuilderParams#concurrency()}.
  * @author Christian Murray
  *
  * @param <T> currently not used. The idea is to pass data directly. TODO: Remove?
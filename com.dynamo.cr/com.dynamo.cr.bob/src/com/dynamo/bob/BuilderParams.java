@@ -27,6 +27,26 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 public @interface BuilderParams {
+
+    /**
+     * How tasks created by a builder may run in parallel with other tasks
+     */
+    enum Concurrency {
+        /**
+         * Tasks can run in parallel with any other task. The builder must not
+         * share mutable state between builder instances.
+         */
+        THREAD_SAFE,
+        /**
+         * At most one task created by the builder runs at any given time.
+         */
+        SERIAL,
+        /**
+         * The builder is thread safe but spawns native threads or processes of
+         * its own. Tasks of all heavy-native builders share a smaller parallel budget.
+         */
+        HEAVY_NATIVE
+    }
     /**
      * Get builder name
      * @return builder name
@@ -61,4 +81,27 @@ public @interface BuilderParams {
      * @return if task should be ignored
      */
     boolean ignoreTaskAutoCreation() default false;
+
+    /**
+     * Get how tasks created by the builder may run in parallel
+     * @return concurrency of the builder
+     */
+    Concurrency concurrency() default Concurrency.THREAD_SAFE;
+
+    /**
+     * Max number of tasks created by the builder that may run at the same time.
+     * 0 means no limit other than the number of build threads.
+     * @return max number of parallel tasks
+     */
+    int maxParallel() default 0;
+
+    /**
+     * Get bool that shows if tasks created by the builder may be restored from
+     * the task graph of the previous build instead of being created again, as long
+     * as the task inputs are unchanged. Must be false if the task depends on more
+     * than its inputs, e.g. on files found by scanning directories, or if creating
+     * the task has side effects on the project.
+     * @return if tasks may be restored
+     */
+    boolean restorable() default true;
 }
@@ -0,0 +1,281 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import com.dynamo.bob.logging.Logger;
+
+/**
+ * Index of the classes found by a class scan, with the modifiers and all super
+ * classes and interfaces of each class. The index lets the builders, bundlers,
+ * plugins etc be found without loading and initializing every class on the class
+ * path. Only the classes that are actually used are loaded.
+ *
+ * The index of the built-in classes is generated when bob.jar is built (see {@link #main(String[])})
+ * and the index of extension plugin jars is created on first use and cached by the
+ * hash of the jar, see {@link ClassLoaderScanner}.
+ */
+public class ClassIndex {
+
+    private static Logger logger = Logger.getLogger(ClassIndex.class.getName());
+
+    /**
+     * Path of the index embedded in a jar
+     */
+    public static final String RESOURCE_NAME = "META-INF/bob-class-index.txt";
+
+    private static final String HEADER = "# bob class index 1";
+
+    public static class Entry {
+        private final String className;
+        private final int modifiers;
+        private final boolean builder;
+        private final Set<String> supertypes;
+
+        Entry(String className, int modifiers, boolean builder, Set<String> supertypes) {
+            this.className = className;
+            this.modifiers = modifiers;
+            this.builder = builder;
+            this.supertypes = supertypes;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public int getModifiers() {
+            return modifiers;
+        }
+
+        /**
+         * Check if the class is a builder, i.e. annotated with {@link BuilderParams}
+         * @return true if the class is a builder
+         */
+        public boolean isBuilder() {
+            return builder;
+        }
+
+        /**
+         * Check if the class is a subclass or an implementation of a type. Like
+         * {@link Class#isAssignableFrom(Class)} but false for the type itself.
+         * @param type super class or interface
+         * @return true if the class extends or implements the type
+         */
+        public boolean isSubtypeOf(Class<?> type) {
+            return supertypes.contains(type.getName());
+        }
+
+        /**
+         * Check if the class may be instantiated, i.e. that it is neither abstract,
+         * private nor an interface
+         * @return true if the class may be instantiated
+         */
+        public boolean isInstantiable() {
+            return !Modifier.isAbstract(modifiers) && !Modifier.isPrivate(modifiers) && !Modifier.isInterface(modifiers);
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private ClassIndex(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Get the entries of the classes in a package, including sub packages
+     * @param pkg package name
+     * @return the entries
+     */
+    public List<Entry> getEntries(String pkg) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.className.startsWith(pkg)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static void addSupertypes(Class<?> klass, Set<String> supertypes) {
+        for (Class<?> i : klass.getInterfaces()) {
+            if (supertypes.add(i.getName())) {
+                addSupertypes(i, supertypes);
+            }
+        }
+        Class<?> superclass = klass.getSuperclass();
+        if (superclass != null && supertypes.add(superclass.getName())) {
+            addSupertypes(superclass, supertypes);
+        }
+    }
+
+    /**
+     * Create an index entry for a class. The class is loaded but not initialized.
+     * @param classLoader class loader to load the class with
+     * @param className name of the class
+     * @return the entry, or null if the class can't be loaded
+     */
+    static Entry createEntry(ClassLoader classLoader, String className) {
+        try {
+            Class<?> klass = Class.forName(className, false, classLoader);
+            Set<String> supertypes = new TreeSet<>();
+            addSupertypes(klass, supertypes);
+            return new Entry(className, klass.getModifiers(), klass.isAnnotationPresent(BuilderParams.class), supertypes);
+        } catch (ClassNotFoundException | LinkageError e) {
+            // e.g. classes depending on libraries not included in bob-light
+            logger.fine("Unable to index class %s: %s", className, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Create an index of classes. The classes are loaded but not initialized.
+     * Classes that can't be loaded are left out of the index.
+     * @param classLoader class loader to load the classes with
+     * @param classNames classes to index
+     * @return the index
+     */
+    public static ClassIndex create(ClassLoader classLoader, Collection<String> classNames) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (String className : new TreeSet<>(classNames)) {
+            Entry entry = createEntry(classLoader, className);
+            if (entry != null) {
+                entries.put(className, entry);
+            }
+        }
+        return new ClassIndex(entries);
+    }
+
+    /**
+     * Merge indices. Classes in the first index take precedence, like on a class path.
+     * @param indices indices to merge
+     * @return the merged index
+     */
+    public static ClassIndex merge(List<ClassIndex> indices) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (ClassIndex index : indices) {
+            for (Entry entry : index.entries.values()) {
+                entries.putIfAbsent(entry.className, entry);
+            }
+        }
+        return new ClassIndex(entries);
+    }
+
+    /**
+     * Read an index. Each line holds the class name, the modifiers, 1 if the class
+     * is a builder and the comma separated supertypes, separated by spaces.
+     * @param in stream to read the index from
+     * @return the index
+     * @throws IOException if the index is malformed or can't be read
+     */
+    public static ClassIndex read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (!HEADER.equals(line)) {
+            throw new IOException("Unsupported class index: " + line);
+        }
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(" ", -1);
+            if (parts.length != 4) {
+                throw new IOException("Malformed class index line: " + line);
+            }
+            Set<String> supertypes = new TreeSet<>();
+            for (String supertype : parts[3].split(",")) {
+                if (!supertype.isEmpty()) {
+                    supertypes.add(supertype);
+                }
+            }
+            try {
+                entries.put(parts[0], new Entry(parts[0], Integer.parseInt(parts[1]), parts[2].equals("1"), supertypes));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed class index line: " + line, e);
+            }
+        }
+        return new ClassIndex(entries);
+    }
+
+    /**
+     * Write the index, see {@link #read(InputStream)}
+     * @param out stream to write the index to
+     */
+    public void write(OutputStream out) {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.print(HEADER + "\n");
+        for (Entry entry : entries.values()) {
+            writer.print(String.format("%s %d %s %s\n", entry.className, entry.modifiers, entry.builder ? "1" : "0", String.join(",", entry.supertypes)));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Generate the index of the built-in classes when building bob.jar
+     * Usage: ClassIndex &lt;classes directory&gt; &lt;output file&gt;
+     * The classes directory must be on the class path.
+     * @param args arguments
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ClassIndex <classes directory> <output file>");
+            System.exit(1);
+        }
+        File classesDir = new File(args[0]);
+        List<String> classNames = new ArrayList<>();
+        for (File file : FileUtils.listFiles(classesDir, new String[] {"class"}, true)) {
+            String path = FilenameUtils.separatorsToUnix(classesDir.toURI().relativize(file.toURI()).getPath());
+            classNames.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+        }
+        ClassIndex index = create(ClassIndex.class.getClassLoader(), classNames);
+        File output = new File(args[1]);
+        output.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(output)) {
+            index.write(out);
+        }
+        System.out.println(String.format("Indexed %d classes in %s", index.size(), output));
+    }
+}
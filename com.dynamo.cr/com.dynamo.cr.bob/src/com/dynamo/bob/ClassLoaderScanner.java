@@ -15,12 +15,22 @@
 package com.dynamo.bob;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -28,14 +38,23 @@ import java.lang.ClassLoader;
 import java.net.URL;
 import java.net.URLClassLoader;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.logging.Logger;
+
 public class ClassLoaderScanner implements IClassScanner {
 
+    private static Logger logger = Logger.getLogger(ClassLoaderScanner.class.getName());
+
+    // class index per jar and package, keyed by path, size and modification time of the jar
+    private static Map<String, ClassIndex> jarIndices = new HashMap<>();
+
     private List<URL> extraJars = new ArrayList<>();
     URLClassLoader classLoader = null;
     private boolean dirty = true;
     private ClassLoader baseClassLoader = null;
+    private File indexCacheDirectory = null;
 
     public ClassLoaderScanner() {
         baseClassLoader = this.getClass().getClassLoader();
@@ -56,11 +75,15 @@ public class ClassLoaderScanner implements IClassScanner {
             }
         }
     }
-    private static void scanJar(URL resource, String pkgname, Set<String> classes) throws IOException {
-        String relPath = pkgname.replace('.', '/');
+    private static String getJarPath(URL resource) throws IOException {
         String resPath = resource.getPath();
         String jarPath = resPath.replaceFirst("[.]jar[!].*", ".jar").replaceFirst("file:", "");
-        JarFile jarFile = new JarFile(URLDecoder.decode(jarPath, "UTF-8"));
+        return URLDecoder.decode(jarPath, "UTF-8");
+    }
+
+    private static void scanJar(URL resource, String pkgname, Set<String> classes) throws IOException {
+        String relPath = pkgname.replace('.', '/');
+        JarFile jarFile = new JarFile(getJarPath(resource));
         try {
             Enumeration<JarEntry> entries = jarFile.entries();
             while(entries.hasMoreElements()) {
@@ -134,4 +157,126 @@ public class ClassLoaderScanner implements IClassScanner {
         ClassLoader classLoader = getClassLoader();
         return scanClassLoader(classLoader, pkg);
     }
+
+    /**
+     * Set the directory to cache the class indices of jars without an embedded index in
+     * @param indexCacheDirectory cache directory or null to not cache the indices on disk
+     */
+    public void setIndexCacheDirectory(File indexCacheDirectory) {
+        this.indexCacheDirectory = indexCacheDirectory;
+    }
+
+    private ClassIndex readCachedIndex(File cacheFile) {
+        try (InputStream is = new FileInputStream(cacheFile)) {
+            return ClassIndex.read(is);
+        } catch (IOException e) {
+            logger.warning("Unable to read class index %s: %s", cacheFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeCachedIndex(ClassIndex index, File cacheFile) {
+        try {
+            cacheFile.getParentFile().mkdirs();
+            File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+            try (OutputStream os = new FileOutputStream(tmpFile)) {
+                index.write(os);
+            }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Unable to write class index %s: %s", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Get the class index of the classes in a package of a jar. The index embedded in
+     * the jar is used if there is one, otherwise the index is created by loading the
+     * classes of the package and cached by the hash of the jar.
+     */
+    private ClassIndex getJarIndex(ClassLoader classLoader, File file, String pkg) throws IOException {
+        String prefix = pkg + ".";
+        String key = String.format("%s:%d:%d", file.getAbsolutePath(), file.length(), file.lastModified());
+        synchronized (jarIndices) {
+            ClassIndex index = jarIndices.get(key);
+            if (index == null) {
+                index = jarIndices.get(key + ":" + pkg);
+            }
+            if (index != null) {
+                return index;
+            }
+            List<String> classNames = new ArrayList<>();
+            try (JarFile jarFile = new JarFile(file)) {
+                JarEntry indexEntry = jarFile.getJarEntry(ClassIndex.RESOURCE_NAME);
+                if (indexEntry != null) {
+                    try (InputStream is = jarFile.getInputStream(indexEntry)) {
+                        index = ClassIndex.read(is);
+                    }
+                    // the embedded index covers all packages
+                    jarIndices.put(key, index);
+                    return index;
+                }
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    String entryName = entries.nextElement().getName();
+                    if (entryName.endsWith(".class")) {
+                        String className = entryName.replace('/', '.').replace('\\', '.').replace(".class", "");
+                        if (className.startsWith(prefix)) {
+                            classNames.add(className);
+                        }
+                    }
+                }
+            }
+            File cacheFile = null;
+            if (indexCacheDirectory != null) {
+                String sha1;
+                try (InputStream is = new FileInputStream(file)) {
+                    sha1 = DigestUtils.sha1Hex(is);
+                }
+                cacheFile = new File(indexCacheDirectory, String.format("%s-%s.txt", sha1, pkg));
+                if (cacheFile.isFile()) {
+                    index = readCachedIndex(cacheFile);
+                }
+            }
+            if (index == null) {
+                logger.fine("Indexing %d classes in %s", classNames.size(), file);
+                index = ClassIndex.create(classLoader, classNames);
+                if (cacheFile != null) {
+                    writeCachedIndex(index, cacheFile);
+                }
+            }
+            jarIndices.put(key + ":" + pkg, index);
+            return index;
+        }
+    }
+
+    @Override
+    public Collection<ClassIndex.Entry> scanIndex(String pkg) {
+        ClassLoader classLoader = getClassLoader();
+        // classes found first take precedence, like when loading them
+        Map<String, ClassIndex.Entry> result = new LinkedHashMap<>();
+        try {
+            Enumeration<URL> e = classLoader.getResources(pkg.replace(".", "/"));
+            while (e.hasMoreElements()) {
+                URL url = e.nextElement();
+                String protocol = url.getProtocol();
+                List<ClassIndex.Entry> entries;
+                if (protocol.equals("file")) {
+                    // class directories change during development and are never cached
+                    Set<String> classes = new HashSet<>();
+                    scanDir(new File(url.getFile()), pkg, classes);
+                    entries = new ArrayList<>(ClassIndex.create(classLoader, classes).getEntries());
+                } else if (protocol.equals("jar")) {
+                    entries = getJarIndex(classLoader, new File(getJarPath(url)), pkg).getEntries(pkg + ".");
+                } else {
+                    continue;
+                }
+                for (ClassIndex.Entry entry : entries) {
+                    result.putIfAbsent(entry.getClassName(), entry);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return result.values();
+    }
 }
@@ -15,6 +15,7 @@
 package com.dynamo.bob;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import com.dynamo.bob.fs.IResource;
 
@@ -41,6 +42,8 @@ public abstract class CopyBuilder extends Builder<Void> {
     public void build(Task<Void> task) throws IOException {
         IResource in = task.input(0);
         IResource out = task.output(0);
-        out.setContent(in.getContent());
+        try (InputStream is = in.openInputStream()) {
+            out.setContent(is);
+        }
     }
 }
@@ -15,6 +15,7 @@
 package com.dynamo.bob;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -56,7 +57,9 @@ public class CopyCustomResourcesBuilder extends Builder<Void> {
         final List<IResource> inputs = task.getInputs();
         final int n = inputs.size();
         for (int i = 0; i < n; i++) {
-            outputs.get(i).setContent(inputs.get(i).getContent());
+            try (InputStream is = inputs.get(i).openInputStream()) {
+                outputs.get(i).setContent(is);
+            }
         }
     }
 }
@@ -16,6 +16,7 @@ package com.dynamo.bob;
 
 import java.lang.ClassLoader;
 import java.io.File;
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -31,6 +32,15 @@ public interface IClassScanner {
      */
     public Set<String> scan(String pkg);
 
+    /**
+     * Scan after classes in package and get their index entries, without initializing the classes
+     * @param pkg package to list classes
+     * @return {@link Collection} of index entries
+     */
+    public default Collection<ClassIndex.Entry> scanIndex(String pkg) {
+        return ClassIndex.create(getClassLoader(), scan(pkg)).getEntries();
+    }
+
     public ClassLoader getClassLoader();
 
     public void addUrl(File file);
@@ -17,6 +17,7 @@ package com.dynamo.bob;
 import static org.apache.commons.io.FilenameUtils.normalizeNoEndSeparator;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -25,15 +26,20 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URI;
 import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -44,18 +50,30 @@ import java.util.Enumeration;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -93,18 +111,25 @@ import com.dynamo.bob.bundle.IBundler;
 import com.dynamo.bob.bundle.BundlerParams;
 import com.dynamo.bob.pipeline.ExtenderUtil;
 import com.dynamo.bob.pipeline.IShaderCompiler;
+import com.dynamo.bob.pipeline.LuaJITCompiler;
+import com.dynamo.bob.pipeline.ProtoUtil;
+import com.dynamo.bob.pipeline.shader.ShaderCompileTools;
 import com.dynamo.bob.pipeline.ShaderCompilers;
 import com.dynamo.bob.pipeline.TextureGenerator;
 import com.dynamo.bob.plugin.IPlugin;
+import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.DecodedImageCache;
 import com.dynamo.bob.util.LibraryUtil;
+import com.dynamo.bob.util.ParallelUtil;
 import com.dynamo.bob.util.ReportGenerator;
 import com.dynamo.bob.util.HttpUtil;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.bob.util.StringUtil;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
 
+import com.dynamo.bob.cache.LocalResourceCache;
 import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.cache.ResourceCacheKey;
 
@@ -136,8 +161,55 @@ public class Project {
     private List<Class<? extends Builder<?>>> ignoreTaskAutoCreation = new ArrayList<Class<? extends Builder<?>>>();
     private List<String> inputs = new ArrayList<String>();
     private HashMap<String, EnumSet<OutputFlags>> outputs = new HashMap<String, EnumSet<OutputFlags>>();
-    private HashMap<String, Task<?>> tasks;
+    // created concurrently by the task worker threads, see getTaskToBuild()
+    private Map<String, Task<?>> tasks;
     private State state;
+
+    /**
+     * How a task was created, recorded to be able to restore the task from the
+     * task graph in the next build, see {@link TaskGraphState}
+     */
+    private static class TaskCreation {
+        final String key;
+        final String inputPath;
+        final Class<? extends Builder<?>> builderClass;
+        final boolean restored;
+        // input path and builder class of the tasks created while creating the task
+        final List<String[]> children = new ArrayList<>();
+        // paths of the resources got from the project while creating the task, e.g.
+        // optional files only added as inputs if they exist
+        final Set<String> probed = new LinkedHashSet<>();
+        boolean restorable;
+
+        TaskCreation(String key, String inputPath, Class<? extends Builder<?>> builderClass, boolean restored, boolean restorable) {
+            this.key = key;
+            this.inputPath = inputPath;
+            this.builderClass = builderClass;
+            this.restored = restored;
+            this.restorable = restorable;
+        }
+    }
+
+    private static final Pattern GENERATED_RESOURCE_PATTERN = Pattern.compile("_generated_([0-9a-f]+)\\.(.+)");
+
+    private TaskGraphState taskGraphState;
+    private byte[] taskGraphFingerprint;
+    // all tasks created in the build, unlike tasks which only holds the tasks not yet run
+    private Map<String, Task<?>> graphTasks = new ConcurrentHashMap<>();
+    private Map<Task<?>, TaskCreation> taskCreations = new ConcurrentHashMap<>();
+    private ThreadLocal<TaskCreation> currentTaskCreation = new ThreadLocal<>();
+    private ThreadLocal<Boolean> creatingRestoredTask = ThreadLocal.withInitial(() -> false);
+    private AtomicInteger restoredTaskCount = new AtomicInteger();
+    private AtomicInteger createdRestoredTaskCount = new AtomicInteger();
+
+    // max number of parsed messages kept between the builds of a resident project
+    private static final int MAX_RESIDENT_MESSAGE_CACHE_SIZE = 100000;
+    // hulls are small, this is many thousands of sprite images
+    private static final long HULL_CACHE_MAX_SIZE = 64 * 1024 * 1024;
+
+    private boolean resident = false;
+    private Consumer<TaskResult> taskResultListener;
+    private AtomicLong signatureTime = new AtomicLong();
     private String rootDirectory = ".";
     private String buildDirectory = "build";
     private Map<String, String> options = new HashMap<String, String>();
@@ -149,7 +221,8 @@ public class Project {
 
     private BobProjectProperties projectProperties;
     private Publisher publisher;
-    private Map<String, Map<Long, IResource>> hashToResource = new HashMap<>();
+    // generated resources are also created by the task worker threads, see getTaskToBuild()
+    private Map<String, Map<Long, IResource>> hashToResource = new ConcurrentHashMap<>();
 
     private TextureProfiles textureProfiles;
     private List<Class<? extends IBundler>> bundlerClasses = new ArrayList<>();
@@ -187,6 +260,43 @@ public class Project {
 
     public void dispose() {
         this.fileSystem.close();
+        if (resident) {
+            LuaJITCompiler.shutdown();
+        }
+    }
+
+    /**
+     * Keep caches (e.g. parsed messages) and helper processes between builds,
+     * e.g. when the project is kept by a {@link BuildDaemon}. The helper processes
+     * are stopped when the project is disposed.
+     * @param resident true if the project is resident
+     */
+    public void setResident(boolean resident) {
+        this.resident = resident;
+    }
+
+    public boolean isResident() {
+        return resident;
+    }
+
+    /**
+     * Set a listener that is called with the result of each task as soon as
+     * the task has been built. Called from the thread running the build.
+     * @param listener the listener, or null to remove the listener
+     */
+    public void setTaskResultListener(Consumer<TaskResult> listener) {
+        this.taskResultListener = listener;
+    }
+
+    // the parsed messages are keyed on the content they were parsed from, so a
+    // resident project can keep them between builds
+    private void releaseMessageCache() {
+        ProtoUtil.clearBuiltMessages();
+        if (resident && ProtoUtil.getCacheSize() <= MAX_RESIDENT_MESSAGE_CACHE_SIZE) {
+            ProtoUtil.resetStatistics();
+        } else {
+            ProtoUtil.clearCache();
+        }
     }
 
     public String getRootDirectory() {
@@ -225,6 +335,51 @@ public class Project {
         return option("resource-cache-local", null);
     }
 
+    /**
+     * Get the max size of the local resource cache
+     * @return max size in bytes, 0 for no limit
+     */
+    public long getLocalResourceCacheMaxSize() {
+        String maxSizeOpt = option("resource-cache-local-max-size", null);
+        if (maxSizeOpt == null) {
+            return 0;
+        }
+        return Long.parseLong(maxSizeOpt) * 1024 * 1024;
+    }
+
+    /**
+     * Get the max size of the cache of compressed archive resources
+     * @return max size in bytes, 0 for no limit
+     */
+    public long getArchiveCacheMaxSize() {
+        return Long.parseLong(option("archive-cache-max-size", "512")) * 1024 * 1024;
+    }
+
+    /**
+     * Get the directory of the cache of compiled shaders. The cache is content
+     * addressed and may be shared between projects.
+     * @return path to the shader cache
+     */
+    public String getShaderCacheDirectory() {
+        return option("shader-cache", FilenameUtils.concat(getBuildCachePath(), "shaders"));
+    }
+
+    /**
+     * Get the max size of the cache of compiled shaders
+     * @return max size in bytes, 0 for no limit
+     */
+    public long getShaderCacheMaxSize() {
+        return Long.parseLong(option("shader-cache-max-size", "256")) * 1024 * 1024;
+    }
+
+    /**
+     * Get the max size of the cache of decoded images, kept in memory during a build
+     * @return max size in bytes, 0 to not cache decoded images
+     */
+    public long getImageCacheMaxSize() {
+        return Long.parseLong(option("image-cache-max-size", "256")) * 1024 * 1024;
+    }
+
     public String getRemoteResourceCacheDirectory() {
         return option("resource-cache-remote", null);
     }
@@ -268,6 +423,7 @@ public class Project {
 
     private ClassLoaderScanner createClassLoaderScanner() throws IOException {
         scanner = new ClassLoaderScanner(getClassLoader());
+        scanner.setIndexCacheDirectory(new File(getBuildCachePath(), "classindex"));
         return scanner;
     }
 
@@ -295,8 +451,7 @@ public class Project {
      * @param pkg package name to be scanned
      */
     public void scan(IClassScanner scanner, String pkg) {
-        Set<String> classNames = scanner.scan(pkg);
-        doScan(scanner, classNames);
+        doScan(scanner, scanner.scanIndex(pkg));
     }
 
     private static String getManifestInfo(String attribute) {
@@ -327,10 +482,18 @@ public class Project {
     }
 
     @SuppressWarnings("unchecked")
-    private void doScan(IClassScanner scanner, Set<String> classNames) {
+    private void doScan(IClassScanner scanner, Collection<ClassIndex.Entry> entries) {
         boolean is_bob_light = getManifestInfo("is-bob-light") != null;
 
-        for (String className : classNames) {
+        for (ClassIndex.Entry entry : entries) {
+            // Only load and initialize the classes we're interested in
+            if (!entry.isBuilder() &&
+                !entry.isSubtypeOf(IBundler.class) &&
+                !entry.isSubtypeOf(IShaderCompiler.class) &&
+                !entry.isSubtypeOf(IPlugin.class)) {
+                continue;
+            }
+            String className = entry.getClassName();
             // Ignore TexcLibrary to avoid it being loaded and initialized
             // We're also skipping some of the bundler classes, since we're only building content,
             // not doing bundling when using bob-light
@@ -481,7 +644,18 @@ public class Project {
      */
     public Task<?> createTask(IResource inputResource, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         // It's possible to build the same resource using different builders
-        String key = inputResource.getPath()+" "+builderClass;
+        String key = getTaskKey(inputResource.getPath(), builderClass);
+        TaskCreation parent = currentTaskCreation.get();
+        if (parent != null) {
+            parent.children.add(new String[] { inputResource.getPath(), builderClass.getName() });
+        }
+        if (creatingRestoredTask.get()) {
+            // the tasks created by the builder of a restored task are already part of the build
+            Task<?> task = graphTasks.get(key);
+            if (task != null) {
+                return task;
+            }
+        }
         Task<?> task = tasks.get(key);
         if (task != null) {
             return task;
@@ -490,13 +664,31 @@ public class Project {
         TimeProfiler.addData("type", "createTask");
         Builder<?> builder;
         try {
-            builder = builderClass.newInstance();
-            builder.setProject(this);
-            task = builder.create(inputResource);
+            task = restoreTask(key, inputResource, builderClass);
+            if (task != null) {
+                TimeProfiler.addData("restored", true);
+            } else {
+                builder = builderClass.newInstance();
+                builder.setProject(this);
+                TaskCreation creation = new TaskCreation(key, inputResource.getPath(), builderClass, false, isRestorable(builderClass));
+                currentTaskCreation.set(creation);
+                try {
+                    task = builder.create(inputResource);
+                } finally {
+                    currentTaskCreation.set(parent);
+                }
+                if (task != null && graphTasks.putIfAbsent(key, task) == null) {
+                    taskCreations.put(task, creation);
+                }
+            }
             if (task != null) {
+                // the same task may have been created by another thread in the meantime
+                Task<?> existing = tasks.putIfAbsent(key, task);
+                if (existing != null) {
+                    return existing;
+                }
                 TimeProfiler.addData("output", StringUtil.truncate(task.getOutputsString(), 1000));
                 TimeProfiler.addData("name", task.getName());
-                tasks.put(key, task);
             }
             return task;
         } catch (CompileExceptionError e) {
@@ -509,6 +701,243 @@ public class Project {
         }
     }
 
+    private static String getTaskKey(String inputPath, Class<? extends Builder<?>> builderClass) {
+        return inputPath + " " + builderClass;
+    }
+
+    private static boolean isRestorable(Class<? extends Builder<?>> builderClass) {
+        BuilderParams params = builderClass.getAnnotation(BuilderParams.class);
+        return params != null && params.restorable();
+    }
+
+    /**
+     * Mark the task currently being created as not restorable, since it depends
+     * on more than its inputs
+     */
+    private void disableTaskRestore() {
+        TaskCreation creation = currentTaskCreation.get();
+        if (creation != null) {
+            creation.restorable = false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<? extends Builder<?>> getBuilderClass(String className) {
+        for (Class<? extends Builder<?>> builderClass : extToBuilder.values()) {
+            if (builderClass.getName().equals(className)) {
+                return builderClass;
+            }
+        }
+        ClassLoader loader = scanner != null ? scanner.getClassLoader() : getClassLoader();
+        try {
+            Class<?> klass = Class.forName(className, true, loader);
+            if (Builder.class.isAssignableFrom(klass)) {
+                return (Class<? extends Builder<?>>) klass;
+            }
+        } catch (ClassNotFoundException e) {
+        }
+        return null;
+    }
+
+    /**
+     * Register a generated resource (see {@link #createGeneratedResource(long, String)})
+     * that is the output of a restored task, so that the same generated resource
+     * is used by tasks created by their builders. A generated resource that doesn't
+     * exist isn't registered, so that it's written again when the restored task
+     * is created by its builder.
+     */
+    private void registerGeneratedResource(IResource resource) {
+        String name = FilenameUtils.getName(resource.getPath());
+        Matcher m = GENERATED_RESOURCE_PATTERN.matcher(name);
+        if (m.matches() && fileSystem.get(name).output().getPath().equals(resource.getPath()) && resource.exists()) {
+            long hash = Long.parseUnsignedLong(m.group(1), 16);
+            hashToResource.computeIfAbsent(m.group(2), k -> new ConcurrentHashMap<>()).putIfAbsent(hash, resource);
+        }
+    }
+
+    /**
+     * Restore a task from the task graph of the previous build. The tasks created
+     * by the builder when the task was created are created (or restored) again.
+     * @return the restored task or null if the task has to be created by its builder
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private Task<?> restoreTask(String key, IResource inputResource, Class<? extends Builder<?>> builderClass) throws CompileExceptionError, ReflectiveOperationException {
+        if (taskGraphState == null || !isRestorable(builderClass)) {
+            return null;
+        }
+        TaskGraphState.TaskRecord record = taskGraphState.get(key);
+        if (record == null || !record.builderClass.equals(builderClass.getName()) || !TaskGraphState.isUpToDate(record, fileSystem)) {
+            return null;
+        }
+        List<Class<? extends Builder<?>>> childClasses = new ArrayList<>(record.children.size());
+        for (String[] child : record.children) {
+            Class<? extends Builder<?>> childClass = getBuilderClass(child[1]);
+            if (childClass == null) {
+                return null;
+            }
+            childClasses.add(childClass);
+        }
+
+        TaskCreation parent = currentTaskCreation.get();
+        TaskCreation creation = new TaskCreation(key, inputResource.getPath(), builderClass, true, true);
+        creation.probed.addAll(record.probed);
+        List<Task<?>> children = new ArrayList<>();
+        currentTaskCreation.set(creation);
+        try {
+            for (int i = 0; i < childClasses.size(); ++i) {
+                children.add(createTask(fileSystem.get(record.children.get(i)[0]), childClasses.get(i)));
+            }
+        } finally {
+            currentTaskCreation.set(parent);
+        }
+
+        Builder<?> builder = builderClass.newInstance();
+        builder.setProject(this);
+        Task.TaskBuilder taskBuilder = Task.newBuilder(builder).setName(record.name);
+        if (!record.cacheable) {
+            taskBuilder.disableCache();
+        }
+        for (String input : record.inputs) {
+            taskBuilder.addInput(fileSystem.get(input));
+        }
+        for (int i = 0; i < record.outputs.size(); ++i) {
+            IResource output = fileSystem.get(record.outputs.get(i));
+            if (!record.outputCacheable.get(i)) {
+                output.disableCache();
+            }
+            registerGeneratedResource(output);
+            taskBuilder.addOutput(output);
+        }
+        for (String extraCacheKey : record.extraCacheKeys) {
+            taskBuilder.addExtraCacheKey(extraCacheKey);
+        }
+        Task<?> task = taskBuilder.build();
+        for (Task<?> child : children) {
+            TaskCreation childCreation = child != null ? taskCreations.get(child) : null;
+            if (childCreation != null) {
+                TaskGraphState.TaskRecord childRecord = taskGraphState.get(childCreation.key);
+                if (childRecord != null && key.equals(childRecord.productOf)) {
+                    child.setProductOf(task);
+                }
+            }
+        }
+        graphTasks.put(key, task);
+        taskCreations.put(task, creation);
+        restoredTaskCount.incrementAndGet();
+        return task;
+    }
+
+    /**
+     * Get the task to build. A task restored from the task graph of the previous build
+     * is created by its builder before it is built, since the builder may keep data
+     * from {@link Builder#create(IResource)} in the task or in the builder itself.
+     * Called concurrently from the task worker threads.
+     * @param task the task to build
+     * @return the task created by the builder, or the same task if it wasn't restored
+     * @throws CompileExceptionError
+     * @throws IOException
+     */
+    private Task<?> getTaskToBuild(Task<?> task) throws CompileExceptionError, IOException {
+        TaskCreation creation = taskCreations.get(task);
+        if (creation == null || !creation.restored) {
+            return task;
+        }
+        TaskCreation parent = currentTaskCreation.get();
+        currentTaskCreation.set(null);
+        creatingRestoredTask.set(true);
+        try {
+            Builder<?> builder = creation.builderClass.newInstance();
+            builder.setProject(this);
+            Task<?> createdTask = builder.create(fileSystem.get(creation.inputPath));
+            if (createdTask == null) {
+                throw new CompileExceptionError(task.input(0), 0, String.format("Failed to create build task for '%s'", creation.inputPath));
+            }
+            createdTask.setProductOf(task.getProductOf());
+            createdRestoredTaskCount.incrementAndGet();
+            return createdTask;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        } finally {
+            creatingRestoredTask.set(false);
+            currentTaskCreation.set(parent);
+        }
+    }
+
+    private IResource getTaskGraphResource() {
+        return fileSystem.get(FilenameUtils.concat(buildDirectory, "_BobTaskGraph_"));
+    }
+
+    private static String getCodeSourceSignature(Class<?> klass) {
+        CodeSource codeSource = klass.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return "";
+        }
+        try {
+            File file = new File(codeSource.getLocation().toURI());
+            return String.format("%s %d %d", file.getPath(), file.length(), file.lastModified());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return codeSource.getLocation().toString();
+        }
+    }
+
+    /**
+     * Calculate the fingerprint of everything besides the task inputs that tasks
+     * may depend on when they are created, i.e. the options, project properties
+     * and the builders, including the jar files they are loaded from.
+     * @return task graph fingerprint
+     */
+    private byte[] calculateTaskGraphFingerprint() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(EngineVersion.sha1.getBytes());
+        digest.update(new TreeMap<>(options).toString().getBytes());
+        digest.update(projectProperties.serialize().getBytes());
+        Set<String> codeSources = new TreeSet<>();
+        codeSources.add(getCodeSourceSignature(Project.class));
+        for (Map.Entry<String, Class<? extends Builder<?>>> entry : new TreeMap<>(extToBuilder).entrySet()) {
+            digest.update((entry.getKey() + " " + entry.getValue().getName()).getBytes());
+            codeSources.add(getCodeSourceSignature(entry.getValue()));
+        }
+        for (String codeSource : codeSources) {
+            digest.update(codeSource.getBytes());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Save the graph of all tasks created in the build, except the tasks that
+     * can't be restored, to be able to restore the tasks in the next build
+     * @throws IOException
+     */
+    private void saveTaskGraph() throws IOException {
+        TimeProfiler.start("Save task graph");
+        Set<IResource> allOutputs = new HashSet<>();
+        for (Task<?> task : taskCreations.keySet()) {
+            allOutputs.addAll(task.getOutputs());
+        }
+        TaskGraphState graph = TaskGraphState.create();
+        for (Map.Entry<Task<?>, TaskCreation> entry : taskCreations.entrySet()) {
+            Task<?> task = entry.getKey();
+            TaskCreation creation = entry.getValue();
+            if (!creation.restorable) {
+                continue;
+            }
+            TaskCreation productOf = task.getProductOf() != null ? taskCreations.get(task.getProductOf()) : null;
+            try {
+                graph.put(TaskGraphState.createRecord(creation.key, creation.inputPath, task, productOf != null ? productOf.key : null, creation.children, creation.probed, fileSystem, allOutputs));
+            } catch (IOException | IllegalArgumentException e) {
+                // an input is missing, the task is created by its builder in the next build
+            }
+        }
+        TimeProfiler.addData("count", graph.size());
+        graph.save(getTaskGraphResource(), taskGraphFingerprint);
+        TimeProfiler.stop();
+    }
+
     private List<String> sortInputs() {
         ArrayList<String> sortedInputs = new ArrayList<String>(inputs);
         Collections.sort(sortedInputs, new Comparator<String>() {
@@ -560,7 +989,13 @@ public class Project {
     }
 
     private void createTasks() throws CompileExceptionError {
-        tasks = new HashMap<String, Task<?>>();
+        tasks = new ConcurrentHashMap<String, Task<?>>();
+        graphTasks = new ConcurrentHashMap<>();
+        taskCreations = new ConcurrentHashMap<>();
+        restoredTaskCount.set(0);
+        createdRestoredTaskCount.set(0);
+        taskGraphFingerprint = calculateTaskGraphFingerprint();
+        taskGraphState = TaskGraphState.load(getTaskGraphResource(), taskGraphFingerprint);
         List<String> sortedInputs = sortInputs(); // from findSources
 
         // To currently know the output resources, we need to parse the main.collectionc
@@ -779,7 +1214,7 @@ public class Project {
             File file = libFiles.get(url);
 
             if (file != null && file.exists()) {
-                this.fileSystem.addMountPoint(new ZipMountPoint(this.fileSystem, file.getAbsolutePath()));
+                this.fileSystem.addMountPoint(new ZipMountPoint(this.fileSystem, file.getAbsolutePath(), true, true));
             } else {
                 missingFiles = true;
             }
@@ -1446,14 +1881,17 @@ public class Project {
                             sourceDir = new File(rootDirectory);
                         } else {
                             sourceDir = Files.createTempDirectory("tr-" + transpiler.getClass().getSimpleName()).toFile();
-                            buildFileResource.getContent();
                             File buildFile = new File(sourceDir, buildFileResource.getPath());
                             Path buildFilePath = buildFile.toPath();
-                            Files.write(buildFilePath, buildFileResource.getContent());
+                            try (InputStream is = buildFileResource.openInputStream()) {
+                                Files.copy(is, buildFilePath, StandardCopyOption.REPLACE_EXISTING);
+                            }
                             Files.setLastModifiedTime(buildFilePath, FileTime.fromMillis(buildFileResource.getLastModified()));
                             for (IResource source : sources) {
                                 Path sourcePath = new File(sourceDir, source.getPath()).toPath();
-                                Files.write(sourcePath, source.getContent());
+                                try (InputStream is = source.openInputStream()) {
+                                    Files.copy(is, sourcePath, StandardCopyOption.REPLACE_EXISTING);
+                                }
                                 Files.setLastModifiedTime(sourcePath, FileTime.fromMillis(source.getLastModified()));
                             }
                         }
@@ -1551,6 +1989,7 @@ public class Project {
         createTasks();
         validateBuildResourceMapping();
         TimeProfiler.addData("TasksCount", tasks.size());
+        TimeProfiler.addData("RestoredTasksCount", restoredTaskCount.get());
         TimeProfiler.stop();
         mrep.done();
 
@@ -1563,6 +2002,7 @@ public class Project {
         List<TaskResult> result = runTasks(m);
         BundleHelper.throwIfCanceled(monitor);
         m.done();
+        saveTaskGraph();
 
         TimeProfiler.stop();
 
@@ -1626,328 +2066,543 @@ public class Project {
 
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws Throwable, IOException, CompileExceptionError, MultipleCompileException {
         TimeProfiler.start("Prepare cache");
+        resourceCache.setLocalCacheMaxSize(getLocalResourceCacheMaxSize());
         resourceCache.init(getLocalResourceCacheDirectory(), getRemoteResourceCacheDirectory());
         resourceCache.setRemoteAuthentication(getRemoteResourceCacheUser(), getRemoteResourceCachePass());
         fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "_BobBuildState_"));
         state = State.load(stateResource);
+        releaseMessageCache();
+        // the resource graph reads the built messages when bundling
+        ProtoUtil.setKeepBuiltMessages(option("archive", "false").equals("true"));
+        ShaderCompileTools.setPersistentCache(new LocalResourceCache(new File(getShaderCacheDirectory()), getShaderCacheMaxSize()));
+        DecodedImageCache.setMaxSize(getImageCacheMaxSize());
+        ParallelUtil.setMaxThreads(getMaxCpuThreads());
+        TextureSetGenerator.setPersistentHullCache(new LocalResourceCache(new File(getBuildCachePath(), "hulls"), HULL_CACHE_MAX_SIZE));
         TimeProfiler.stop();
-        List<TaskResult> result = new ArrayList<TaskResult>();
-
-        BundleHelper.throwIfCanceled(monitor);
+        try {
+            List<TaskResult> result = new ArrayList<TaskResult>();
 
-        monitor.beginTask("Working...", 100);
+            BundleHelper.throwIfCanceled(monitor);
 
-        {
-            IProgress mrep = monitor.subProgress(1);
-            mrep.beginTask("Reading classes...", 1);
-            scanJavaClasses();
-            mrep.done();
-        }
+            monitor.beginTask("Working...", 100);
 
-        List<IPlugin> plugins = new ArrayList<>();
-        for (Class<? extends IPlugin> klass : pluginClasses) {
-            IPlugin plugin = klass.getConstructor().newInstance();
-            plugin.init(this);
-            plugins.add(plugin);
-        }
+            {
+                IProgress mrep = monitor.subProgress(1);
+                mrep.beginTask("Reading classes...", 1);
+                scanJavaClasses();
+                mrep.done();
+            }
 
-        loop:
-        for (String command : commands) {
-            BundleHelper.throwIfCanceled(monitor);
-            TimeProfiler.start(command);
-            switch (command) {
-                case "build": {
-                    ExtenderUtil.checkProjectForDuplicates(this); // Throws if there are duplicate files in the project (i.e. library and local files conflict)
-                    loadIgnoredFilesAndFolders(); // load once before building to be able to use it in a few places
-                    final String[] platforms = getPlatformStrings();
-                    Future<Void> remoteBuildFuture = null;
-                    // Get or build engine binary
-                    boolean shouldBuildRemoteEngine = ExtenderUtil.hasNativeExtensions(this);
-                    boolean shouldBuildProject = shouldBuildEngine() && BundleHelper.isArchiveIncluded(this);
-
-                    if (shouldBuildProject) {
-                        // do this before buildRemoteEngine to prevent concurrent modification exception, since
-                        // lua transpilation adds new mounts with compiled Lua that buildRemoteEngine iterates over
-                        // when sending to extender
-                        transpileLua(monitor);
-                    }
+            List<IPlugin> plugins = new ArrayList<>();
+            for (Class<? extends IPlugin> klass : pluginClasses) {
+                IPlugin plugin = klass.getConstructor().newInstance();
+                plugin.init(this);
+                plugins.add(plugin);
+            }
 
-                    if (shouldBuildRemoteEngine) {
-                        remoteBuildFuture = buildRemoteEngine(monitor, executor);
-                    }
-                    else {
-                        // Remove the remote built executables in the build folder, they're still in the cache
-                        cleanEngines(monitor, platforms);
-                        if (hasOption("with-symbols")) {
-                            IProgress progress = monitor.subProgress(1);
-                            downloadSymbols(progress);
-                            progress.done();
+            loop:
+            for (String command : commands) {
+                BundleHelper.throwIfCanceled(monitor);
+                TimeProfiler.start(command);
+                switch (command) {
+                    case "build": {
+                        ExtenderUtil.checkProjectForDuplicates(this); // Throws if there are duplicate files in the project (i.e. library and local files conflict)
+                        loadIgnoredFilesAndFolders(); // load once before building to be able to use it in a few places
+                        final String[] platforms = getPlatformStrings();
+                        Future<Void> remoteBuildFuture = null;
+                        // Get or build engine binary
+                        boolean shouldBuildRemoteEngine = ExtenderUtil.hasNativeExtensions(this);
+                        boolean shouldBuildProject = shouldBuildEngine() && BundleHelper.isArchiveIncluded(this);
+
+                        if (shouldBuildProject) {
+                            // do this before buildRemoteEngine to prevent concurrent modification exception, since
+                            // lua transpilation adds new mounts with compiled Lua that buildRemoteEngine iterates over
+                            // when sending to extender
+                            transpileLua(monitor);
                         }
-                    }
 
-                    if (shouldBuildProject) {
-                        result = createAndRunTasks(monitor);
-                    }
+                        if (shouldBuildRemoteEngine) {
+                            remoteBuildFuture = buildRemoteEngine(monitor, executor);
+                        }
+                        else {
+                            // Remove the remote built executables in the build folder, they're still in the cache
+                            cleanEngines(monitor, platforms);
+                            if (hasOption("with-symbols")) {
+                                IProgress progress = monitor.subProgress(1);
+                                downloadSymbols(progress);
+                                progress.done();
+                            }
+                        }
 
-                    if (remoteBuildFuture != null) {
-                        // get the result from the remote build and catch
-                        // if an exception was thrown in buildRemoteEngine() the
-                        // original exception is included in the ExecutionException
-                        try {
-                            remoteBuildFuture.get();
+                        if (shouldBuildProject) {
+                            result = createAndRunTasks(monitor);
                         }
-                        catch (ExecutionException|InterruptedException e) {
-                            Throwable cause = e.getCause();
-                            if ((cause instanceof MultipleCompileException) ||
-                                (cause instanceof CompileExceptionError)) {
-                                throw cause;
+
+                        if (remoteBuildFuture != null) {
+                            // get the result from the remote build and catch
+                            // if an exception was thrown in buildRemoteEngine() the
+                            // original exception is included in the ExecutionException
+                            try {
+                                remoteBuildFuture.get();
                             }
-                            else {
-                                throw new CompileExceptionError(cause);
+                            catch (ExecutionException|InterruptedException e) {
+                                Throwable cause = e.getCause();
+                                if ((cause instanceof MultipleCompileException) ||
+                                    (cause instanceof CompileExceptionError)) {
+                                    throw cause;
+                                }
+                                else {
+                                    throw new CompileExceptionError(cause);
+                                }
                             }
                         }
-                    }
 
-                    if (anyFailing(result)) {
-                        break loop;
+                        if (anyFailing(result)) {
+                            break loop;
+                        }
+                        break;
                     }
-                    break;
-                }
-                case "clean": {
-                    clean(monitor, state);
-                    break;
-                }
-                case "distclean": {
-                    distClean(monitor);
-                    break;
-                }
-                case "bundle": {
-                    bundle(monitor);
-                    break;
+                    case "clean": {
+                        clean(monitor, state);
+                        getTaskGraphResource().remove();
+                        break;
+                    }
+                    case "distclean": {
+                        distClean(monitor);
+                        break;
+                    }
+                    case "bundle": {
+                        bundle(monitor);
+                        break;
+                    }
+                    default: break;
                 }
-                default: break;
+                TimeProfiler.stop();
             }
+
+            for (IPlugin plugin : plugins) {
+                plugin.exit(this);
+            }
+            plugins.clear();
+
+            monitor.done();
+            TimeProfiler.start("Save cache");
+            state.save(stateResource);
+            fileSystem.saveCache();
             TimeProfiler.stop();
+            return result;
+        } finally {
+            // also when the build fails, since the caches are static and outlive the build
+            releaseBuildCaches();
+        }
+    }
+
+    private void releaseBuildCaches() {
+        resourceCache.flush();
+        TimeProfiler.addData("localCacheHits", resourceCache.getLocalHits());
+        TimeProfiler.addData("localCacheMisses", resourceCache.getLocalMisses());
+        TimeProfiler.addData("localCacheBytesRead", String.valueOf(resourceCache.getLocalBytesRead()));
+        TimeProfiler.addData("localCacheBytesWritten", String.valueOf(resourceCache.getLocalBytesWritten()));
+        TimeProfiler.addData("localCacheEvicted", resourceCache.getLocalEvictedCount());
+        TimeProfiler.addData("localCacheEvictedBytes", String.valueOf(resourceCache.getLocalEvictedBytes()));
+        TimeProfiler.addData("remoteCacheHits", resourceCache.getRemoteHits());
+        TimeProfiler.addData("remoteCacheMisses", resourceCache.getRemoteMisses());
+        TimeProfiler.addData("remoteCacheUploads", resourceCache.getRemoteUploads());
+        TimeProfiler.addData("protoCacheHits", ProtoUtil.getCacheHits());
+        TimeProfiler.addData("protoCacheMisses", ProtoUtil.getCacheMisses());
+        TimeProfiler.addData("protoBuiltMessageHits", ProtoUtil.getBuiltMessageHits());
+        releaseMessageCache();
+        TimeProfiler.addData("shaderToolRuns", ShaderCompileTools.getToolRuns());
+        TimeProfiler.addData("shaderToolReusedResults", ShaderCompileTools.getReusedResults());
+        TimeProfiler.addData("shaderCacheHits", ShaderCompileTools.getPersistentCacheHits());
+        ShaderCompileTools.clearCache();
+        TimeProfiler.addData("imageCacheHits", DecodedImageCache.getHits());
+        TimeProfiler.addData("imageCacheMisses", DecodedImageCache.getMisses());
+        TimeProfiler.addData("hullCacheHits", TextureSetGenerator.getHullCacheHits());
+        DecodedImageCache.clear();
+        TextureSetGenerator.clearCache();
+        if (!resident) {
+            LuaJITCompiler.shutdown();
+        }
+    }
+
+
+
+    /**
+     * State of a task while it is being run by the task workers. A task is first
+     * checked against the build state, and only built if it isn't up to date.
+     */
+    private static class TaskRun {
+        final Task<?> task;
+        byte[] signature;
+        boolean upToDate;
+        // resource cache keys of the outputs, if the task is cacheable
+        Map<IResource, String> cacheKeys = new HashMap<IResource, String>();
+        TaskResult result;
+
+        TaskRun(Task<?> task) {
+            this.task = task;
         }
+    }
 
-        for (IPlugin plugin : plugins) {
-            plugin.exit(this);
+    /**
+     * Check if all outputs of a task already exist with the correct signature.
+     * Called concurrently from the task worker threads.
+     * @param run the task to check
+     * @return the same task run, with signature and up to date status set
+     * @throws IOException
+     */
+    private TaskRun checkTask(TaskRun run) throws IOException {
+        final Task<?> task = run.task;
+        final List<IResource> outputResources = task.getOutputs();
+
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : outputResources) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
         }
-        plugins.clear();
 
-        monitor.done();
-        TimeProfiler.start("Save cache");
-        state.save(stateResource);
-        fileSystem.saveCache();
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        TimeProfiler.start("compare signatures");
+        TimeProfiler.addData("color", "#FFC0CB");
+        TimeProfiler.addData("main input", String.valueOf(task.input(0)));
+        long signatureStart = System.nanoTime();
+        byte[] taskSignature = task.calculateSignature();
+        signatureTime.addAndGet(System.nanoTime() - signatureStart);
+        boolean allSigsEquals = true;
+        for (IResource r : outputResources) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
+        }
         TimeProfiler.stop();
-        return result;
-    }
 
+        run.signature = taskSignature;
+        run.upToDate = allOutputExists && allSigsEquals;
 
+        // start looking up the outputs in the resource cache while the task waits to be built
+        if (!run.upToDate && task.isCacheable() && resourceCache.isCacheEnabled()) {
+            for (IResource r : outputResources) {
+                run.cacheKeys.put(r, ResourceCacheKey.calculate(task, options, r));
+            }
+            resourceCache.prefetch(run.cacheKeys.values());
+        }
+        return run;
+    }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
-
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
+    private void runBuilder(Task<?> task) throws CompileExceptionError, IOException {
+        Task taskToBuild = getTaskToBuild(task);
+        taskToBuild.getBuilder().build(taskToBuild);
+    }
 
-        List<TaskResult> result = new ArrayList<>();
+    /**
+     * Build a task. The outputs are either taken from the resource cache or
+     * built using the task builder. Called concurrently from the task worker threads.
+     * @param run the task to build, previously checked with {@link #checkTask(TaskRun)}
+     * @return the same task run, with the task result set
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskRun buildTask(TaskRun run) {
+        final Task<?> task = run.task;
+        final List<IResource> outputResources = task.getOutputs();
+        final byte[] taskSignature = run.signature;
+
+        TimeProfiler.start(task.getName());
+        TimeProfiler.addData("output", task.getOutputsString());
+        TimeProfiler.addData("type", "buildTask");
+
+        TaskResult taskResult = new TaskResult(task);
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        Map<IResource, String> outputResourceToCacheKey = run.cacheKeys;
+        try {
+            if (task.isCacheable() && resourceCache.isCacheEnabled()) {
+                // check if all output resources exist in the resource cache
+                boolean allResourcesCached = true;
+                for (IResource r : outputResources) {
+                    if (!r.isCacheable()) {
+                        allResourcesCached = false;
+                    }
+                }
+                allResourcesCached = allResourcesCached && resourceCache.containsAll(outputResourceToCacheKey.values());
 
-        List<Task<?>> buildTasks = new ArrayList<>(this.getTasks());
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : this.getTasks()) {
-            allOutputs.addAll(task.getOutputs());
-        }
-        tasks.clear();
+                // all resources exist in the cache
+                // copy them to the output
+                if (allResourcesCached) {
+                    TimeProfiler.addData("takenFromCache", true);
+                    for (IResource r : outputResources) {
+                        try (InputStream is = resourceCache.getInputStream(outputResourceToCacheKey.get(r))) {
+                            r.setContent(is);
+                        }
+                    }
+                }
+                // build task and cache output
+                else {
+                    runBuilder(task);
+                    for (IResource r : outputResources) {
+                        state.putSignature(r.getAbsPath(), taskSignature);
+                        if (r.isCacheable()) {
+                            try (InputStream is = r.openInputStream()) {
+                                resourceCache.put(outputResourceToCacheKey.get(r), is);
+                            }
+                        }
+                    }
+                }
+            }
+            else {
+                runBuilder(task);
+                for (IResource r : outputResources) {
+                    state.putSignature(r.getAbsPath(), taskSignature);
+                }
+            }
 
-        TextureGenerator.maxThreads = getMaxCpuThreads();
+            for (IResource r : outputResources) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
+                    ok = false;
+                    break;
+                }
+            }
+            TimeProfiler.stop();
 
-        // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+        } catch (CompileExceptionError e) {
+            TimeProfiler.stop();
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            TimeProfiler.stop();
+            ok = false;
+            message = e.getMessage();
+            exception = e;
+
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+            // Clear sigs for all outputs when a task fails
+            for (IResource r : outputResources) {
+                state.putSignature(r.getAbsPath(), new byte[0]);
+            }
         }
+        run.result = taskResult;
+        return run;
+    }
 
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
+    /**
+     * Run all tasks in a task graph on the task worker pool. A task is checked as soon as
+     * all the tasks producing its inputs have completed, and if it isn't up to date it is
+     * built once the task throttle allows it. If a task fails, the tasks depending on it are
+     * never run. If a task fails with an unexpected exception no new tasks are started at all.
+     * Tasks that are never run because of a dependency cycle are reported as failed.
+     * @param graph the task graph to run
+     * @param taskExecutor executor to run the tasks on
+     * @param throttle limits the number of tasks built in parallel per builder
+     * @param monitor progress monitor
+     * @param result list to add the results of all executed tasks to
+     * @return true if all executed tasks succeeded
+     * @throws IOException
+     */
+    private boolean runTaskGraph(TaskGraph graph, ExecutorService taskExecutor, TaskThrottle throttle, IProgress monitor, List<TaskResult> result) throws IOException {
+        CompletionService<TaskRun> completionService = new ExecutorCompletionService<>(taskExecutor);
+        Map<Task<?>, TaskRun> runs = new HashMap<>();
+        List<Future<TaskRun>> running = new ArrayList<>();
+        List<TaskResult> graphResult = new ArrayList<>();
+        List<Task<?>> readyTasks = graph.getReadyTasks();
         boolean taskFailed = false;
-run:
-        while (completedTasks.size() < buildTasks.size()) {
-            for (Task<?> task : buildTasks) {
+        boolean abort = false;
+        try {
+            while (true) {
                 BundleHelper.throwIfCanceled(monitor);
+                if (!abort) {
+                    for (Task<?> task : readyTasks) {
+                        TaskRun run = new TaskRun(task);
+                        runs.put(task, run);
+                        running.add(completionService.submit(() -> checkTask(run)));
+                    }
+                    for (Task<?> task : throttle.poll()) {
+                        TaskRun run = runs.get(task);
+                        running.add(completionService.submit(() -> buildTask(run)));
+                    }
+                }
+                readyTasks.clear();
+                if (running.isEmpty()) {
+                    break;
+                }
 
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
+                Future<TaskRun> future = completionService.poll(100, TimeUnit.MILLISECONDS);
+                if (future == null) {
                     continue;
                 }
-
-                final List<IResource> outputResources = task.getOutputs();
-
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : outputResources) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
+                running.remove(future);
+                TaskRun run;
+                try {
+                    run = future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
                     }
+                    throw new RuntimeException(cause);
                 }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                TimeProfiler.start("compare signatures");
-                TimeProfiler.addData("color", "#FFC0CB");
-                TimeProfiler.addData("main input", String.valueOf(task.input(0)));
-                byte[] taskSignature = task.calculateSignature();
-                boolean allSigsEquals = true;
-                for (IResource r : outputResources) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    if (!Arrays.equals(s, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
+                if (run.result == null && !run.upToDate) {
+                    // checked but not built yet
+                    throttle.add(run.task);
+                    continue;
+                }
+                if (run.result != null) {
+                    throttle.release(run.task);
+                    graphResult.add(run.result);
+                    if (taskResultListener != null) {
+                        taskResultListener.accept(run.result);
                     }
                 }
-                TimeProfiler.stop();
+                runs.remove(run.task);
+                monitor.worked(1);
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
-
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(outputResources);
+                if (run.result == null || run.result.isOk()) {
+                    readyTasks.addAll(graph.complete(run.task));
+                } else {
+                    taskFailed = true;
+                    if (run.result.getException() != null) {
+                        abort = true;
                     }
+                    graph.fail(run.task);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (Future<TaskRun> future : running) {
+                future.cancel(true);
+            }
+            throttle.clear();
+        }
 
-                    monitor.worked(1);
-                    continue;
+        if (!taskFailed && graph.getRemainingCount() > 0) {
+            // the remaining tasks are part of, or depend on, a dependency cycle
+            List<String> cycle = new ArrayList<>();
+            for (Task<?> task : graph.getCycle()) {
+                cycle.add(task.getName() + " " + task.getInputsString());
+            }
+            if (!cycle.isEmpty()) {
+                cycle.add(cycle.get(0));
+            }
+            String message = "Cyclic dependency between tasks: " + String.join(" -> ", cycle);
+            for (Task<?> task : graph.getRemainingTasks()) {
+                TaskResult taskResult = new TaskResult(task);
+                taskResult.setOk(false);
+                taskResult.setMessage(message);
+                graphResult.add(taskResult);
+                if (taskResultListener != null) {
+                    taskResultListener.accept(taskResult);
                 }
+            }
+            taskFailed = true;
+        }
 
-                TimeProfiler.start(task.getName());
-                TimeProfiler.addData("output", task.getOutputsString());
-                TimeProfiler.addData("type", "buildTask");
+        graph.sortResults(graphResult);
+        result.addAll(graphResult);
+        return !taskFailed;
+    }
 
-                completedTasks.add(task);
+    /**
+     * Calculate the sha1 of all task inputs on disk that aren't produced by another task,
+     * using all build threads. The digests end up in the file system digest cache, so the
+     * task signatures can be calculated without waiting for the input files to be hashed.
+     * @param buildTasks tasks to get the inputs from
+     * @param allOutputs outputs of all tasks
+     * @param taskExecutor executor to run the hashing on
+     */
+    private void warmDigestCache(List<Task<?>> buildTasks, Set<IResource> allOutputs, ExecutorService taskExecutor) {
+        TimeProfiler.start("Warm digest cache");
+        Set<IResource> sources = new HashSet<>();
+        for (Task<?> task : buildTasks) {
+            for (IResource input : task.getInputs()) {
+                if (input instanceof DefaultResource && !allOutputs.contains(input)) {
+                    sources.add(input);
+                }
+            }
+        }
+        TimeProfiler.addData("count", sources.size());
 
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                Map<IResource, String> outputResourceToCacheKey = new HashMap<IResource, String>();
+        List<Future<?>> futures = new ArrayList<>(sources.size());
+        for (IResource source : sources) {
+            futures.add(taskExecutor.submit(() -> {
                 try {
-                    if (task.isCacheable() && resourceCache.isCacheEnabled()) {
-                        // check if all output resources exist in the resource cache
-                        boolean allResourcesCached = true;
-                        for (IResource r : outputResources) {
-                            final String key = ResourceCacheKey.calculate(task, options, r);
-                            outputResourceToCacheKey.put(r, key);
-                            if (!r.isCacheable()) {
-                                allResourcesCached = false;
-                            }
-                            else if (!resourceCache.contains(key)) {
-                                allResourcesCached = false;
-                            }
-                        }
+                    source.sha1();
+                } catch (Exception e) {
+                    // missing or unreadable inputs are reported by the task using them
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        TimeProfiler.stop();
+    }
 
-                        // all resources exist in the cache
-                        // copy them to the output
-                        if (allResourcesCached) {
-                            TimeProfiler.addData("takenFromCache", true);
-                            for (IResource r : outputResources) {
-                                r.setContent(resourceCache.get(outputResourceToCacheKey.get(r)));
-                            }
-                        }
-                        // build task and cache output
-                        else {
-                            builder.build(task);
-                            for (IResource r : outputResources) {
-                                state.putSignature(r.getAbsPath(), taskSignature);
-                                if (r.isCacheable()) {
-                                    resourceCache.put(outputResourceToCacheKey.get(r), r.getContent());
-                                }
-                            }
-                        }
-                    }
-                    else {
-                        builder.build(task);
-                        for (IResource r : outputResources) {
-                            state.putSignature(r.getAbsPath(), taskSignature);
-                        }
-                    }
-                    monitor.worked(1);
+    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+        List<TaskResult> result = new ArrayList<>();
+        signatureTime.set(0);
 
-                    for (IResource r : outputResources) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
-                        }
-                    }
-                    completedOutputs.addAll(outputResources);
-                    TimeProfiler.stop();
+        List<Task<?>> buildTasks = new ArrayList<>(this.getTasks());
+        // set of *all* possible output files
+        Set<IResource> allOutputs = new HashSet<>();
+        for (Task<?> task : buildTasks) {
+            allOutputs.addAll(task.getOutputs());
+        }
+        tasks.clear();
 
-                } catch (CompileExceptionError e) {
-                    TimeProfiler.stop();
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    TimeProfiler.stop();
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
+        // Tasks of heavy native builders (e.g. texture compression) use several threads
+        // each, so only a fraction of the build threads are used to run them
+        int maxThreads = getMaxCpuThreads();
+        int maxHeavyNativeTasks = Math.max(1, maxThreads / 4);
+        TextureGenerator.maxThreads = Math.max(1, maxThreads / maxHeavyNativeTasks);
+        TaskThrottle throttle = new TaskThrottle(maxHeavyNativeTasks);
 
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
-                }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
-                    for (IResource r : outputResources) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
-                    }
-                    if (abort) {
-                        break run;
-                    }
+        // Keep track of the paths for all outputs
+        outputs = new HashMap<>(allOutputs.size());
+        for (IResource res : allOutputs) {
+            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+        }
+
+        ExecutorService taskExecutor = Executors.newFixedThreadPool(maxThreads);
+        try {
+            warmDigestCache(buildTasks, allOutputs, taskExecutor);
+            while (!buildTasks.isEmpty()) {
+                if (!runTaskGraph(new TaskGraph(buildTasks), taskExecutor, throttle, monitor, result)) {
+                    break;
                 }
+                // Run any tasks created while building
+                buildTasks = new ArrayList<>(this.getTasks());
+                tasks.clear();
             }
-            if (taskFailed) {
-                break;
-            }
-            // set of *all* possible output files
-            // TODO: do we really need this?
-            // It seems like we never create new tasks during building process
-            for (Task<?> task : this.getTasks()) {
-                allOutputs.addAll(task.getOutputs());
-            }
-            buildTasks.addAll(this.getTasks());
-            tasks.clear();
+        } finally {
+            taskExecutor.shutdownNow();
         }
+        // total time spent calculating task signatures, over all build threads
+        TimeProfiler.addData("signatureTimeMs", (float) (signatureTime.get() / 1000000.0));
+        TimeProfiler.addData("createdRestoredTasks", createdRestoredTaskCount.get());
         return result;
     }
 
@@ -1959,11 +2614,19 @@ run:
         this.inputs = new ArrayList<String>(inputs);
     }
 
+    /**
+     * Get files to compile, e.g. as found by {@link #findSources(String, Set)}
+     * @return list of input files
+     */
+    public List<String> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
     public HashMap<String, EnumSet<OutputFlags>> getOutputs() {
         return outputs;
     }
 
-    public EnumSet<OutputFlags> getOutputFlags(String resourcePath) {
+    public synchronized EnumSet<OutputFlags> getOutputFlags(String resourcePath) {
         return outputs.get(resourcePath);
     }
 
@@ -1972,7 +2635,7 @@ run:
      * @param resourcePath output resource absolute path
      * @param flag OutputFlag to add
      */
-    public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
+    public synchronized boolean addOutputFlags(String resourcePath, OutputFlags flag) {
         EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
         if(currentFlags == null) {
             return false;
@@ -1991,11 +2654,29 @@ run:
         this.libUrls = libUrls;
     }
 
+    // max number of libraries downloaded at the same time
+    private static final int MAX_LIB_DOWNLOAD_THREADS = 8;
+    // number of bytes of the libraries that didn't have to be downloaded again, since
+    // an interrupted download was resumed
+    private AtomicLong libResumedBytes = new AtomicLong();
+
+    /**
+     * Get the number of bytes of interrupted library downloads that were resumed
+     * by the last call to {@link #resolveLibUrls(IProgress)}
+     * @return number of bytes
+     */
+    public long getLibResumedBytes() {
+        return libResumedBytes.get();
+    }
+
     /**
      * Resolve (i.e. download from server) the stored lib URLs.
+     * The libraries are downloaded in parallel, using conditional requests
+     * so that libraries that haven't changed aren't downloaded again.
      * @throws IOException
      */
     public void resolveLibUrls(IProgress progress) throws IOException, LibraryException {
+        libResumedBytes.set(0);
         try {
             String libPath = getLibPath();
             File libDir = new File(libPath);
@@ -2008,137 +2689,283 @@ run:
             IProgress subProgress = progress.subProgress(count);
             subProgress.beginTask("Download archive(s)", count);
             logInfo("Downloading %d archive(s)", count);
-            for (int i = 0; i < count; ++i) {
-                TimeProfiler.startF("Lib %2d", i);
-                BundleHelper.throwIfCanceled(progress);
-                URL url = libUrls.get(i);
-                File f = libFiles.get(url.toString());
-
-                logInfo("%2d: Downloading %s", i, url);
-                TimeProfiler.addData("url", url.toString());
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                // GitLab will respond with a 406 Not Acceptable if the request
-                // is made without an Accept header
-                connection.setRequestProperty("Accept", "application/zip");
-
-                String etag = null;
-                if (f != null) {
-                    String etagB64 = LibraryUtil.getETagFromName(LibraryUtil.getHashedUrl(url), f.getName());
-                    if (etagB64 != null) {
-                        etag = new String(new Base64().decode(etagB64.getBytes())).replace("\"", ""); // actually includes the quotation marks
-                        etag = String.format("\"%s\"", etag); // fixing broken etag
-                        connection.addRequestProperty("If-None-Match", etag);
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(count, MAX_LIB_DOWNLOAD_THREADS)), r -> {
+                Thread thread = new Thread(r, "library-download");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Void>> downloads = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    final int index = i;
+                    final URL url = libUrls.get(i);
+                    final File f = libFiles.get(url.toString());
+                    downloads.add(executor.submit(() -> {
+                        BundleHelper.throwIfCanceled(progress);
+                        resolveLibUrl(index, url, f, libPath);
+                        return null;
+                    }));
+                }
+                // Wait for the downloads in order, so that the reported error
+                // is the same regardless of which download finishes first
+                for (Future<Void> download : downloads) {
+                    try {
+                        download.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof LibraryException) {
+                            throw (LibraryException) cause;
+                        } else if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        throw new LibraryException(cause.getMessage(), cause);
                     }
+                    subProgress.worked(1);
+                    BundleHelper.throwIfCanceled(subProgress);
                 }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        catch(IOException ioe) {
+            throw ioe;
+        }
+        catch(LibraryException le) {
+            throw le;
+        }
+        catch(Exception e) {
+            throw new LibraryException(e.getMessage(), e);
+        }
+   }
 
-                // Check if URL contains basic auth credentials
-                String basicAuthData = null;
-                try {
-                    URI uri = new URI(url.toString());
-                    basicAuthData = uri.getUserInfo();
-                } catch (URISyntaxException e1) {
-                    // Ignored, could not get URI and basic auth data from URL.
+    private static float millisSince(long startTime) {
+        return (float) ((System.nanoTime() - startTime) / 1000000.0);
+    }
+
+    private static String decodeETag(String etagB64) {
+        String etag = new String(new Base64().decode(etagB64.getBytes())).replace("\"", ""); // actually includes the quotation marks
+        return String.format("\"%s\"", etag); // fixing broken etag
+    }
+
+    // Check that the first bytes of a download are the signature of a zip file:
+    // a local file header, the end of central directory of an empty zip or a spanned archive marker
+    private static boolean isZipSignature(byte[] header) {
+        return header.length == 4 && header[0] == 'P' && header[1] == 'K' &&
+            ((header[2] == 3 && header[3] == 4) || (header[2] == 5 && header[3] == 6) || (header[2] == 7 && header[3] == 8));
+    }
+
+    /**
+     * Download a library to a partial file. The content is checked to be a zip
+     * file as soon as the first bytes arrive, so that e.g. an html login page
+     * is rejected without downloading it completely.
+     * @return number of bytes downloaded
+     */
+    private long downloadLibrary(InputStream input, File partialFile, boolean append, URL url) throws IOException, LibraryException {
+        long bytes = 0;
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(partialFile, append))) {
+            if (!append) {
+                byte[] header = input.readNBytes(4);
+                if (!isZipSignature(header)) {
+                    throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), new ZipException("Invalid zip signature"));
                 }
+                output.write(header);
+                bytes += header.length;
+            }
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                output.write(buffer, 0, n);
+                bytes += n;
+            }
+        }
+        return bytes;
+    }
 
-                // Check if basic auth password is a token that should be replaced with
-                // an environment variable.
-                // The token should start and end with __ and exist as an environment
-                // variable.
-                if (basicAuthData != null) {
-                    String[] parts = basicAuthData.split(":");
-                    String username = parts[0];
-                    String password = parts.length > 1 ? parts[1] : "";
-                    if (password.startsWith("__") && password.endsWith("__")) {
-                        String envKey = password.substring(2, password.length() - 2);
-                        String envValue = getSystemEnv(envKey);
-                        if (envValue != null) {
-                            basicAuthData = username + ":" + envValue;
-                        }
-                    }
+    private void resolveLibUrl(int i, URL url, File f, String libPath) throws IOException, LibraryException {
+        TimeProfiler.startF("Lib %2d", i);
+        try {
+            logInfo("%2d: Downloading %s", i, url);
+            TimeProfiler.addData("url", url.toString());
+            long startTime = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            // GitLab will respond with a 406 Not Acceptable if the request
+            // is made without an Accept header
+            connection.setRequestProperty("Accept", "application/zip");
+
+            String etag = null;
+            if (f != null) {
+                String etagB64 = LibraryUtil.getETagFromName(LibraryUtil.getHashedUrl(url), f.getName());
+                if (etagB64 != null) {
+                    etag = decodeETag(etagB64);
+                    connection.addRequestProperty("If-None-Match", etag);
                 }
+            }
 
-                // Pass correct headers along to server depending on auth alternative.
-                final String email = this.options.get("email");
-                final String auth = this.options.get("auth");
-                if (basicAuthData != null) {
-                    String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
-                    connection.setRequestProperty("Authorization", basicAuth);
-                } else if (email != null && auth != null) {
-                    connection.addRequestProperty("X-Email", email);
-                    connection.addRequestProperty("X-Auth", auth);
+            // Resume a previously interrupted download, if the library is still
+            // the same on the server
+            File partialFile = LibraryUtil.findPartialFile(libPath, url);
+            long resumeOffset = 0;
+            if (partialFile != null) {
+                String name = partialFile.getName();
+                String partialETagB64 = LibraryUtil.getETagFromName(LibraryUtil.getHashedUrl(url), name.substring(0, name.length() - LibraryUtil.PARTIAL_SUFFIX.length()));
+                if (partialETagB64 != null && !partialETagB64.isEmpty() && partialFile.length() > 0) {
+                    resumeOffset = partialFile.length();
+                    connection.addRequestProperty("Range", String.format("bytes=%d-", resumeOffset));
+                    connection.addRequestProperty("If-Range", decodeETag(partialETagB64));
+                } else {
+                    partialFile.delete();
+                    partialFile = null;
                 }
+            }
 
-                InputStream input = null;
-                try {
-                    connection.connect();
-                    int code = connection.getResponseCode();
-
-                    TimeProfiler.addData("status code", code);
-                    if (code == 304) {
-                        logInfo("%2d: Status %d: Already cached", i, code);
-                    } else if (code >= 400) {
-                        logWarning("%2d: Status %d: Failed to download %s", i, code, url);
-                        throw new LibraryException(String.format("Status %d: Failed to download %s", code, url), new Exception());
-                    } else {
+            // Check if URL contains basic auth credentials
+            String basicAuthData = null;
+            try {
+                URI uri = new URI(url.toString());
+                basicAuthData = uri.getUserInfo();
+            } catch (URISyntaxException e1) {
+                // Ignored, could not get URI and basic auth data from URL.
+            }
 
-                        String serverETag = connection.getHeaderField("ETag");
-                        if (serverETag == null) {
-                            serverETag = connection.getHeaderField("Etag");
-                        }
+            // Check if basic auth password is a token that should be replaced with
+            // an environment variable.
+            // The token should start and end with __ and exist as an environment
+            // variable.
+            if (basicAuthData != null) {
+                String[] parts = basicAuthData.split(":");
+                String username = parts[0];
+                String password = parts.length > 1 ? parts[1] : "";
+                if (password.startsWith("__") && password.endsWith("__")) {
+                    String envKey = password.substring(2, password.length() - 2);
+                    String envValue = getSystemEnv(envKey);
+                    if (envValue != null) {
+                        basicAuthData = username + ":" + envValue;
+                    }
+                }
+            }
 
-                        if (serverETag == null) {
-                            logWarning(String.format("The URL %s didn't provide an ETag", url));
-                            serverETag = "";
-                        }
+            // Pass correct headers along to server depending on auth alternative.
+            final String email = this.options.get("email");
+            final String auth = this.options.get("auth");
+            if (basicAuthData != null) {
+                String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
+                connection.setRequestProperty("Authorization", basicAuth);
+            } else if (email != null && auth != null) {
+                connection.addRequestProperty("X-Email", email);
+                connection.addRequestProperty("X-Auth", auth);
+            }
 
-                        if (etag != null && !etag.equals(serverETag)) {
-                            logInfo("%2d: Status %d: ETag mismatch %s != %s. Deleting old file %s", i, code, etag!=null?etag:"", serverETag!=null?serverETag:"", f);
-                            f.delete();
-                            f = null;
-                        }
+            InputStream input = null;
+            try {
+                connection.connect();
+                int code = connection.getResponseCode();
+
+                TimeProfiler.addData("status code", code);
+                TimeProfiler.addData("responseMs", millisSince(startTime));
+                if (code == 304) {
+                    logInfo("%2d: Status %d: Already cached", i, code);
+                    if (partialFile != null) {
+                        partialFile.delete();
+                    }
+                } else if (code == 416 && partialFile != null) {
+                    // the partial file doesn't match the library on the server, start over
+                    logInfo("%2d: Status %d: Restarting download of %s", i, code, url);
+                    connection.disconnect();
+                    partialFile.delete();
+                    resolveLibUrl(i, url, f, libPath);
+                    return;
+                } else if (code >= 400) {
+                    logWarning("%2d: Status %d: Failed to download %s", i, code, url);
+                    throw new LibraryException(String.format("Status %d: Failed to download %s", code, url), new Exception());
+                } else {
 
-                        input = new BufferedInputStream(connection.getInputStream());
+                    String serverETag = connection.getHeaderField("ETag");
+                    if (serverETag == null) {
+                        serverETag = connection.getHeaderField("Etag");
+                    }
 
-                        if (f == null) {
-                            f = new File(libPath, LibraryUtil.getFileName(url, serverETag));
-                        }
-                        FileUtils.copyInputStreamToFile(input, f);
+                    if (serverETag == null) {
+                        logWarning(String.format("The URL %s didn't provide an ETag", url));
+                        serverETag = "";
+                    }
 
-                        try {
-                            ZipFile zip = new ZipFile(f);
-                            zip.close();
-                        } catch (ZipException e) {
-                            f.delete();
-                            throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
+                    // the old file is kept until the new one has been downloaded and checked
+                    File oldFile = null;
+                    if (etag != null && !etag.equals(serverETag)) {
+                        logInfo("%2d: Status %d: ETag mismatch %s != %s. Replacing old file %s", i, code, etag!=null?etag:"", serverETag!=null?serverETag:"", f);
+                        oldFile = f;
+                        f = null;
+                    }
+
+                    // The server only sends the remaining part if the library didn't change
+                    File newPartialFile = new File(libPath, LibraryUtil.getPartialFileName(url, serverETag));
+                    String contentRange = connection.getHeaderField("Content-Range");
+                    boolean resume = code == 206 && partialFile != null && partialFile.equals(newPartialFile)
+                            && contentRange != null && contentRange.startsWith(String.format("bytes %d-", resumeOffset));
+                    if (partialFile != null && !resume) {
+                        partialFile.delete();
+                    }
+                    if (code == 206 && !resume) {
+                        throw new LibraryException(String.format("Status %d: Unexpected partial content from %s", code, url), new Exception());
+                    }
+                    TimeProfiler.addData("resumedBytes", (float) (resume ? resumeOffset : 0));
+                    if (resume) {
+                        libResumedBytes.addAndGet(resumeOffset);
+                    }
+
+                    input = new BufferedInputStream(connection.getInputStream());
+
+                    long downloadStartTime = System.nanoTime();
+                    try {
+                        long bytes = downloadLibrary(input, newPartialFile, resume, url);
+                        TimeProfiler.addData("downloadedBytes", (float) bytes);
+                    } catch (IOException e) {
+                        // keep what was downloaded so far, unless it can't be resumed
+                        if (serverETag.isEmpty()) {
+                            newPartialFile.delete();
                         }
-                        logInfo("%2d: Status %d: Stored %s", i, code, f);
+                        throw e;
+                    } catch (LibraryException e) {
+                        newPartialFile.delete();
+                        throw e;
                     }
-                    connection.disconnect();
-                } catch (ConnectException e) {
-                    throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
-                } catch (FileNotFoundException e) {
-                    throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
-                } finally {
-                    if(input != null) {
-                        IOUtils.closeQuietly(input);
+                    TimeProfiler.addData("downloadMs", millisSince(downloadStartTime));
+
+                    long validateStartTime = System.nanoTime();
+                    try {
+                        ZipFile zip = new ZipFile(newPartialFile);
+                        zip.close();
+                    } catch (ZipException e) {
+                        newPartialFile.delete();
+                        throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
                     }
-                    subProgress.worked(1);
-                }
+                    TimeProfiler.addData("validateMs", millisSince(validateStartTime));
 
-                BundleHelper.throwIfCanceled(subProgress);
-                TimeProfiler.stop();
+                    if (f == null) {
+                        f = new File(libPath, LibraryUtil.getFileName(url, serverETag));
+                    }
+                    Files.move(newPartialFile.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    if (oldFile != null && !oldFile.equals(f)) {
+                        oldFile.delete();
+                        ZipMountPoint.getIndexFile(oldFile).delete();
+                    }
+                    logInfo("%2d: Status %d: Stored %s", i, code, f);
+                }
+                connection.disconnect();
+            } catch (ConnectException e) {
+                throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
+            } catch (FileNotFoundException e) {
+                throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
+            } finally {
+                if(input != null) {
+                    IOUtils.closeQuietly(input);
+                }
             }
+        } finally {
+            TimeProfiler.stop();
         }
-        catch(IOException ioe) {
-            throw ioe;
-        }
-        catch(LibraryException le) {
-            throw le;
-        }
-        catch(Exception e) {
-            throw new LibraryException(e.getMessage(), e);
-        }
-   }
+    }
 
     /**
      * Set option
@@ -2265,7 +3092,12 @@ run:
     }
 
     public IResource getResource(String path) {
-        return fileSystem.get(FilenameUtils.normalize(path, true));
+        IResource resource = fileSystem.get(FilenameUtils.normalize(path, true));
+        TaskCreation creation = currentTaskCreation.get();
+        if (creation != null && !creation.restored) {
+            creation.probed.add(resource.getPath());
+        }
+        return resource;
     }
 
     public IResource getResource(String category, String key, boolean mustExist) throws IOException {
@@ -2301,15 +3133,8 @@ run:
     }
 
     public IResource createGeneratedResource(long hash, String suffix) {
-        Map<Long, IResource> submap = hashToResource.get(suffix);
-        if (submap == null) {
-            submap = new HashMap<>();
-            hashToResource.put(suffix, submap);
-        }
-
-        IResource genResource = fileSystem.get(String.format("_generated_%x.%s", hash, suffix)).output();
-        submap.put(hash, genResource);
-        return genResource;
+        Map<Long, IResource> submap = hashToResource.computeIfAbsent(suffix, k -> new ConcurrentHashMap<>());
+        return submap.computeIfAbsent(hash, k -> fileSystem.get(String.format("_generated_%x.%s", hash, suffix)).output());
     }
 
     public static String stripLeadingSlash(String path) {
@@ -2332,6 +3157,7 @@ run:
     }
 
     public void findResourcePaths(String _path, Collection<String> result) {
+        disableTaskRestore();
         final String path = Project.stripLeadingSlash(_path);
         fileSystem.walk(path, new FileSystemWalker() {
             public void handleFile(String path, Collection<String> results) {
@@ -2353,6 +3179,7 @@ run:
 
     // Finds the first level of directories in a path
     public void findResourceDirs(String _path, Collection<String> result) {
+        disableTaskRestore();
         // Make sure the path has Unix separators, since this is how
         // paths are specified game project relative internally.
         final String path = Project.stripLeadingSlash(FilenameUtils.separatorsToUnix(_path));
@@ -2370,6 +3197,8 @@ run:
     }
 
     public List<Task<?>> getTasks() {
+        // a task created from the other tasks depends on more than its inputs
+        disableTaskRestore();
         return Collections.unmodifiableList(new ArrayList(this.tasks.values()));
     }
 
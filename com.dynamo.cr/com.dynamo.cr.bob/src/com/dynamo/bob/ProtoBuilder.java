@@ -96,6 +96,7 @@ public abstract class ProtoBuilder<B extends GeneratedMessageV3.Builder<B>> exte
         msg.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        ProtoUtil.putBuiltMessage(task.output(0), msg, out.size());
     }
 
 }
@@ -15,27 +15,43 @@
 package com.dynamo.bob;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.file.Files;
 import java.util.Map;
 import java.util.List;
-import java.util.ArrayList;
 
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.SignatureStore;
 
 /**
  * Bob state abstraction for persistent sha1-checksums
+ * The signatures may be accessed concurrently from the task worker threads.
+ *
+ * The signatures are kept in a {@link SignatureStore}. State saved by older versions
+ * using Java serialization is migrated when loaded.
  * @author Christian Murray
  *
  */
 public class State implements Serializable {
 
     private static final long serialVersionUID = -275410118302470802L + 1;
-    private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+    // max size of a signature (sha1)
+    private static final int SIGNATURE_SIZE = 20;
+
+    // only set when deserializing state saved by older versions
+    private Map<String, byte[]> signatures;
+
+    private transient SignatureStore store;
+
+    private State(SignatureStore store) {
+        this.store = store;
+    }
 
     /**
      * Get signature for path
@@ -43,7 +59,7 @@ public class State implements Serializable {
      * @return signature or null of no mapping exists
      */
     public byte[] getSignature(String path) {
-        return signatures.get(path);
+        return store.get(path);
     }
 
     /**
@@ -52,7 +68,7 @@ public class State implements Serializable {
      * @param signature signature to set
      */
     public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+        store.put(path, signature);
     }
 
     /**
@@ -60,7 +76,7 @@ public class State implements Serializable {
      * @param path path to set sha1 for
      */
     public void removeSignature(String path) {
-        signatures.remove(path);
+        store.remove(path);
     }
 
     /**
@@ -68,7 +84,25 @@ public class State implements Serializable {
      * @return list of all registered paths
      */
     public List<String> getPaths() {
-        return new ArrayList<>(signatures.keySet());
+        return store.getPaths();
+    }
+
+    private static boolean isLegacyState(byte[] header) {
+        // java serialization stream magic
+        return header != null && header.length >= 2 && (header[0] & 0xff) == 0xac && (header[1] & 0xff) == 0xed;
+    }
+
+    private static void migrateLegacyState(byte[] content, SignatureStore store) {
+        try {
+            ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
+            State legacyState = (State) is.readObject();
+            for (Map.Entry<String, byte[]> entry : legacyState.signatures.entrySet()) {
+                store.put(entry.getKey(), entry.getValue());
+            }
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -78,20 +112,31 @@ public class State implements Serializable {
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
-                return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
+        if (resource instanceof DefaultResource) {
+            // the state is memory mapped and only changes are written back
+            File file = new File(resource.getAbsPath());
+            byte[] legacyContent = null;
+            if (file.isFile()) {
+                try (InputStream is = new FileInputStream(file)) {
+                    if (isLegacyState(is.readNBytes(2))) {
+                        legacyContent = Files.readAllBytes(file.toPath());
+                    }
+                }
             }
+            SignatureStore store = SignatureStore.open(file, SIGNATURE_SIZE);
+            if (legacyContent != null) {
+                migrateLegacyState(legacyContent, store);
+            }
+            return new State(store);
         }
+
+        byte[] content = resource.getContent();
+        if (isLegacyState(content)) {
+            SignatureStore store = new SignatureStore(SIGNATURE_SIZE);
+            migrateLegacyState(content, store);
+            return new State(store);
+        }
+        return new State(SignatureStore.fromBytes(content, SIGNATURE_SIZE));
     }
 
     /**
@@ -100,11 +145,11 @@ public class State implements Serializable {
      * @throws IOException
      */
     public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+        if (resource instanceof DefaultResource) {
+            store.save();
+        } else {
+            resource.setContent(store.toByteArray());
+        }
     }
 
 }
@@ -43,6 +43,8 @@ public class Task<T> {
     public T data;
     private Builder<T> builder;
     private byte[] signature;
+    // digest state after adding inputs, extra cache keys and builder signature
+    private MessageDigest signatureDigest;
     private boolean cacheable = true;
 
     /**
@@ -147,6 +149,10 @@ public class Task<T> {
         return outputs.size() > i ? outputs.get(i) : null;
     }
 
+    public List<String> getExtraCacheKeys() {
+        return Collections.unmodifiableList(extraCacheKeys);
+    }
+
     public boolean isCacheable() {
         return cacheable;
     }
@@ -189,25 +195,47 @@ public class Task<T> {
         }
     }
 
-    public MessageDigest calculateSignatureDigest() throws IOException {
-        // TODO: Checksum of builder-class byte-code. Seems to be rather difficult though..
-        MessageDigest digest;
+    /**
+     * Get a digest updated with the inputs, extra cache keys and builder signature of the task.
+     * The digest is calculated once and a copy is returned, so the inputs must not change
+     * after the first call, i.e. it must not be called before the tasks producing the inputs
+     * have been built.
+     * @return a copy of the signature digest, that the caller may update further
+     * @throws IOException
+     */
+    public synchronized MessageDigest calculateSignatureDigest() throws IOException {
+        if (signatureDigest == null) {
+            // TODO: Checksum of builder-class byte-code. Seems to be rather difficult though..
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+
+            updateDigestWithResources(digest, inputs);
+            updateDigestWithExtraCacheKeys(digest, extraCacheKeys);
+
+            builder.signature(digest);
+            signatureDigest = digest;
+        }
         try {
-            digest = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
+            return (MessageDigest) signatureDigest.clone();
+        } catch (CloneNotSupportedException e) {
             throw new RuntimeException(e);
         }
-
-        updateDigestWithResources(digest, inputs);
-        updateDigestWithExtraCacheKeys(digest, extraCacheKeys);
-
-        builder.signature(digest);
-        return digest;
     }
 
-    public byte[] calculateSignature() throws IOException {
-        MessageDigest digest = calculateSignatureDigest();
-        signature = digest.digest();
+    /**
+     * Get the signature of the task. The signature is calculated once, see
+     * {@link #calculateSignatureDigest()}.
+     * @return the task signature
+     * @throws IOException
+     */
+    public synchronized byte[] calculateSignature() throws IOException {
+        if (signature == null) {
+            signature = calculateSignatureDigest().digest();
+        }
         return signature;
     }
 
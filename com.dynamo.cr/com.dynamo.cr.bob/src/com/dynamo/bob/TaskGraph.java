@@ -0,0 +1,253 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Dependency graph of build tasks. A task depends on every task that
+ * produces one of its inputs. The graph is created once per set of tasks
+ * and is used to find the tasks that are ready to run as other tasks finish.
+ *
+ * The graph itself is not thread safe and is expected to be updated from
+ * a single (scheduling) thread.
+ */
+class TaskGraph {
+
+    private static class Node {
+        Task<?> task;
+        // index in the list of tasks the graph was created from
+        int index;
+        // length of the longest dependency chain leading to this task
+        int level;
+        int pendingDependencies;
+        boolean done;
+        List<Node> dependents = new ArrayList<>();
+    }
+
+    private List<Node> nodes = new ArrayList<>();
+    private Map<Task<?>, Node> taskToNode = new HashMap<>();
+    private int remaining;
+
+    /**
+     * Create the dependency graph
+     * @param tasks tasks to create the graph from. Inputs produced by tasks not in this list are considered available.
+     */
+    TaskGraph(List<Task<?>> tasks) {
+        Map<IResource, List<Node>> producers = new HashMap<>();
+        for (Task<?> task : tasks) {
+            Node node = new Node();
+            node.task = task;
+            node.index = nodes.size();
+            nodes.add(node);
+            taskToNode.put(task, node);
+            for (IResource output : task.getOutputs()) {
+                producers.computeIfAbsent(output, k -> new ArrayList<>()).add(node);
+            }
+        }
+
+        for (Node node : nodes) {
+            Set<Node> dependencies = new HashSet<>();
+            for (IResource input : node.task.getInputs()) {
+                List<Node> inputProducers = producers.get(input);
+                if (inputProducers == null) {
+                    continue;
+                }
+                for (Node producer : inputProducers) {
+                    if (producer != node && dependencies.add(producer)) {
+                        producer.dependents.add(node);
+                        node.pendingDependencies++;
+                    }
+                }
+            }
+        }
+        remaining = nodes.size();
+
+        // Assign levels in topological order. The levels are only used to get a
+        // deterministic ordering of the tasks, independent of the order they happen
+        // to finish in.
+        Map<Node, Integer> pending = new HashMap<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        for (Node node : nodes) {
+            pending.put(node, node.pendingDependencies);
+            if (node.pendingDependencies == 0) {
+                queue.add(node);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Node dependent : node.dependents) {
+                dependent.level = Math.max(dependent.level, node.level + 1);
+                int count = pending.get(dependent) - 1;
+                pending.put(dependent, count);
+                if (count == 0) {
+                    queue.add(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the tasks without any dependencies
+     * @return list of tasks that can run immediately
+     */
+    List<Task<?>> getReadyTasks() {
+        List<Task<?>> ready = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.pendingDependencies == 0) {
+                ready.add(node.task);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Mark a task as successfully completed
+     * @param task the completed task
+     * @return list of tasks that have all their dependencies completed as a result
+     */
+    List<Task<?>> complete(Task<?> task) {
+        Node node = taskToNode.get(task);
+        node.done = true;
+        remaining--;
+        List<Task<?>> ready = new ArrayList<>();
+        for (Node dependent : node.dependents) {
+            if (--dependent.pendingDependencies == 0) {
+                ready.add(dependent.task);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Mark a task as failed. All tasks depending on the task, directly or
+     * indirectly, will never become ready.
+     * @param task the failed task
+     * @return list of dependent tasks that will not run
+     */
+    List<Task<?>> fail(Task<?> task) {
+        Node node = taskToNode.get(task);
+        node.done = true;
+        remaining--;
+        List<Task<?>> skipped = new ArrayList<>();
+        Deque<Node> queue = new ArrayDeque<>(node.dependents);
+        while (!queue.isEmpty()) {
+            Node dependent = queue.poll();
+            if (dependent.done) {
+                continue;
+            }
+            dependent.done = true;
+            remaining--;
+            skipped.add(dependent.task);
+            queue.addAll(dependent.dependents);
+        }
+        return skipped;
+    }
+
+    /**
+     * Get the number of tasks that are neither completed, failed nor skipped
+     * @return number of remaining tasks
+     */
+    int getRemainingCount() {
+        return remaining;
+    }
+
+    /**
+     * Get the tasks that are neither completed, failed nor skipped.
+     * After all ready tasks have been run these are the tasks that are part of
+     * a dependency cycle.
+     * @return list of remaining tasks
+     */
+    List<Task<?>> getRemainingTasks() {
+        List<Task<?>> result = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!node.done) {
+                result.add(node.task);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find a dependency cycle among the remaining tasks. Every remaining task waits
+     * for at least one other remaining task, so following those dependencies from
+     * any remaining task eventually leads to a task already seen.
+     * @return the tasks of a cycle, each task depending on the task before it, or an empty list
+     */
+    List<Task<?>> getCycle() {
+        Map<Node, Node> remainingDependency = new HashMap<>();
+        for (Node node : nodes) {
+            if (node.done) {
+                continue;
+            }
+            for (Node dependent : node.dependents) {
+                if (!dependent.done) {
+                    remainingDependency.putIfAbsent(dependent, node);
+                }
+            }
+        }
+        List<Task<?>> cycle = new ArrayList<>();
+        Node start = null;
+        for (Node node : nodes) {
+            if (!node.done) {
+                start = node;
+                break;
+            }
+        }
+        List<Node> path = new ArrayList<>();
+        Set<Node> seen = new HashSet<>();
+        for (Node node = start; node != null; node = remainingDependency.get(node)) {
+            if (!seen.add(node)) {
+                List<Node> loop = path.subList(path.indexOf(node), path.size());
+                for (int i = loop.size() - 1; i >= 0; --i) {
+                    cycle.add(loop.get(i).task);
+                }
+                break;
+            }
+            path.add(node);
+        }
+        return cycle;
+    }
+
+    /**
+     * Sort task results in a deterministic order. Results are ordered by dependency
+     * level first, and then by the order of the tasks the graph was created from.
+     * @param results task results to sort
+     */
+    void sortResults(List<TaskResult> results) {
+        Collections.sort(results, new Comparator<TaskResult>() {
+            @Override
+            public int compare(TaskResult r1, TaskResult r2) {
+                Node n1 = taskToNode.get(r1.getTask());
+                Node n2 = taskToNode.get(r2.getTask());
+                if (n1.level != n2.level) {
+                    return Integer.compare(n1.level, n2.level);
+                }
+                return Integer.compare(n1.index, n2.index);
+            }
+        });
+    }
+}
@@ -0,0 +1,320 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dynamo.bob.fs.IFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * The task graph of the previous build, i.e. the inputs, outputs, extra cache keys
+ * and builder of every task together with the tasks created while creating it.
+ *
+ * A task may be restored from the graph instead of being created by its builder as
+ * long as the content of all task inputs not produced by another task, and of the
+ * other resources the builder got from the project when creating the task, is the
+ * same as when the task was created. Resources that didn't exist must still not
+ * exist, e.g. an optional file that is only added as an input if it exists. The graph is discarded as a whole if the fingerprint
+ * of the build (options, project properties, builders etc) has changed.
+ */
+class TaskGraphState {
+
+    private static final int MAGIC = 0x42544753; // "BTGS"
+    private static final int VERSION = 2;
+
+    static class TaskRecord {
+        String key;
+        String builderClass;
+        // the resource passed to Builder#create()
+        String inputPath;
+        String name;
+        boolean cacheable;
+        List<String> inputs = new ArrayList<>();
+        List<String> outputs = new ArrayList<>();
+        List<Boolean> outputCacheable = new ArrayList<>();
+        List<String> extraCacheKeys = new ArrayList<>();
+        // key of the task this task is a product of, or null
+        String productOf;
+        // input path and builder class of the tasks created while creating this task
+        List<String[]> children = new ArrayList<>();
+        // resources got from the project when creating the task, that are not inputs
+        List<String> probed = new ArrayList<>();
+        // sha1 of the inputs and probed resources not produced by another task,
+        // empty for resources that don't exist
+        Map<String, byte[]> sources = new LinkedHashMap<>();
+    }
+
+    private Map<String, TaskRecord> records = new HashMap<>();
+
+    private TaskGraphState() {
+    }
+
+    /**
+     * Create a record of a task
+     * @param key unique key of the task, see {@link Project#createTask(IResource, Class)}
+     * @param inputPath path of the resource the task was created from
+     * @param task the task
+     * @param productOf key of the task the task is a product of, or null
+     * @param children input path and builder class of the tasks created while creating the task
+     * @param probed paths of the resources got from the project while creating the task
+     * @param fileSystem file system to get the probed resources from
+     * @param allOutputs outputs of all tasks in the build
+     * @return the task record
+     * @throws IOException
+     */
+    static TaskRecord createRecord(String key, String inputPath, Task<?> task, String productOf, List<String[]> children, Collection<String> probed, IFileSystem fileSystem, Set<IResource> allOutputs) throws IOException {
+        TaskRecord record = new TaskRecord();
+        record.key = key;
+        record.builderClass = task.getBuilder().getClass().getName();
+        record.inputPath = inputPath;
+        record.name = task.getName();
+        record.cacheable = task.isCacheable();
+        for (IResource input : task.getInputs()) {
+            record.inputs.add(input.getPath());
+            if (!allOutputs.contains(input)) {
+                record.sources.put(input.getPath(), input.sha1());
+            }
+        }
+        for (String path : probed) {
+            IResource resource = fileSystem.get(path);
+            if (record.inputs.contains(path) || allOutputs.contains(resource)) {
+                continue;
+            }
+            record.probed.add(path);
+            if (!resource.exists()) {
+                record.sources.put(path, new byte[0]);
+            } else if (resource.isFile()) {
+                record.sources.put(path, resource.sha1());
+            }
+        }
+        for (IResource output : task.getOutputs()) {
+            record.outputs.add(output.getPath());
+            record.outputCacheable.add(output.isCacheable());
+        }
+        record.extraCacheKeys.addAll(task.getExtraCacheKeys());
+        record.productOf = productOf;
+        record.children.addAll(children);
+        return record;
+    }
+
+    /**
+     * Get the record of a task
+     * @param key unique key of the task
+     * @return the task record or null if the task isn't part of the graph
+     */
+    TaskRecord get(String key) {
+        return records.get(key);
+    }
+
+    void put(TaskRecord record) {
+        records.put(record.key, record);
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * Check if a task may be restored from its record, i.e. that the content of the
+     * inputs and probed resources not produced by another task is the same as when
+     * the task was created, and that the probed resources that didn't exist still
+     * don't exist
+     * @param record the task record
+     * @param fileSystem file system to get the inputs from
+     * @return true if the task may be restored
+     */
+    static boolean isUpToDate(TaskRecord record, IFileSystem fileSystem) {
+        try {
+            for (Map.Entry<String, byte[]> source : record.sources.entrySet()) {
+                IResource resource = fileSystem.get(source.getKey());
+                if (source.getValue().length == 0) {
+                    if (resource.exists()) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (!resource.exists() || !Arrays.equals(resource.sha1(), source.getValue())) {
+                    return false;
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeString(DataOutputStream os, String s) throws IOException {
+        if (s == null) {
+            os.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    private static String readString(DataInputStream is) throws IOException {
+        int length = is.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        is.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream os, List<String> strings) throws IOException {
+        os.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(os, s);
+        }
+    }
+
+    private static void readStrings(DataInputStream is, List<String> strings) throws IOException {
+        int count = is.readInt();
+        for (int i = 0; i < count; ++i) {
+            strings.add(readString(is));
+        }
+    }
+
+    /**
+     * Create an empty task graph
+     * @return the task graph
+     */
+    static TaskGraphState create() {
+        return new TaskGraphState();
+    }
+
+    /**
+     * Load the task graph of the previous build
+     * @param resource resource the task graph was saved to
+     * @param fingerprint fingerprint of the current build
+     * @return the task graph, empty if there is no task graph or if it was saved
+     * with a different fingerprint
+     */
+    static TaskGraphState load(IResource resource, byte[] fingerprint) {
+        TaskGraphState state = new TaskGraphState();
+        try (InputStream in = resource.openInputStream()) {
+            if (in == null) {
+                return state;
+            }
+            DataInputStream is = new DataInputStream(new BufferedInputStream(in));
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                return state;
+            }
+            byte[] savedFingerprint = new byte[is.readInt()];
+            is.readFully(savedFingerprint);
+            if (!Arrays.equals(savedFingerprint, fingerprint)) {
+                return state;
+            }
+            int count = is.readInt();
+            Map<String, TaskRecord> records = new HashMap<>(count * 2);
+            for (int i = 0; i < count; ++i) {
+                TaskRecord record = new TaskRecord();
+                record.key = readString(is);
+                record.builderClass = readString(is);
+                record.inputPath = readString(is);
+                record.name = readString(is);
+                record.cacheable = is.readBoolean();
+                readStrings(is, record.inputs);
+                int outputCount = is.readInt();
+                for (int j = 0; j < outputCount; ++j) {
+                    record.outputs.add(readString(is));
+                    record.outputCacheable.add(is.readBoolean());
+                }
+                readStrings(is, record.extraCacheKeys);
+                record.productOf = readString(is);
+                int childCount = is.readInt();
+                for (int j = 0; j < childCount; ++j) {
+                    record.children.add(new String[] { readString(is), readString(is) });
+                }
+                readStrings(is, record.probed);
+                int sourceCount = is.readInt();
+                for (int j = 0; j < sourceCount; ++j) {
+                    String path = readString(is);
+                    byte[] sha1 = new byte[is.readInt()];
+                    is.readFully(sha1);
+                    record.sources.put(path, sha1);
+                }
+                records.put(record.key, record);
+            }
+            state.records = records;
+        } catch (IOException | RuntimeException e) {
+            // a damaged task graph is ignored and replaced when saved
+        }
+        return state;
+    }
+
+    /**
+     * Save the task graph
+     * @param resource resource to save the task graph to
+     * @param fingerprint fingerprint of the current build
+     * @throws IOException
+     */
+    void save(IResource resource, byte[] fingerprint) throws IOException {
+        try (OutputStream out = resource.openOutputStream()) {
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(out));
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeInt(fingerprint.length);
+            os.write(fingerprint);
+            os.writeInt(records.size());
+            for (TaskRecord record : records.values()) {
+                writeString(os, record.key);
+                writeString(os, record.builderClass);
+                writeString(os, record.inputPath);
+                writeString(os, record.name);
+                os.writeBoolean(record.cacheable);
+                writeStrings(os, record.inputs);
+                os.writeInt(record.outputs.size());
+                for (int i = 0; i < record.outputs.size(); ++i) {
+                    writeString(os, record.outputs.get(i));
+                    os.writeBoolean(record.outputCacheable.get(i));
+                }
+                writeStrings(os, record.extraCacheKeys);
+                writeString(os, record.productOf);
+                os.writeInt(record.children.size());
+                for (String[] child : record.children) {
+                    writeString(os, child[0]);
+                    writeString(os, child[1]);
+                }
+                writeStrings(os, record.probed);
+                os.writeInt(record.sources.size());
+                for (Map.Entry<String, byte[]> source : record.sources.entrySet()) {
+                    writeString(os, source.getKey());
+                    os.writeInt(source.getValue().length);
+                    os.write(source.getValue());
+                }
+            }
+            os.flush();
+        }
+    }
+}
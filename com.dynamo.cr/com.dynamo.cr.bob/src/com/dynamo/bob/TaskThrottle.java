@@ -0,0 +1,125 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits the number of tasks being built at the same time, based on the
+ * {@link BuilderParams#concurrency()} and {@link BuilderParams#maxParallel()}
+ * of the task builders. Tasks that can't start yet are kept in a queue per
+ * builder, in the order they were added.
+ *
+ * Not thread safe. Expected to be used from the scheduling thread only.
+ */
+class TaskThrottle {
+
+    private int maxHeavyNative;
+    private int runningHeavyNative = 0;
+    private Map<Class<?>, Integer> runningPerBuilder = new HashMap<>();
+    // waiting tasks per builder class, in the order the builders were first seen
+    private Map<Class<?>, ArrayDeque<Task<?>>> waiting = new LinkedHashMap<>();
+
+    /**
+     * Create a throttle
+     * @param maxHeavyNative max number of {@link BuilderParams.Concurrency#HEAVY_NATIVE} tasks running at the same time
+     */
+    TaskThrottle(int maxHeavyNative) {
+        this.maxHeavyNative = Math.max(1, maxHeavyNative);
+    }
+
+    private static BuilderParams.Concurrency getConcurrency(Task<?> task) {
+        BuilderParams params = task.getBuilder().getParams();
+        return params != null ? params.concurrency() : BuilderParams.Concurrency.THREAD_SAFE;
+    }
+
+    private static int getMaxParallel(Task<?> task) {
+        BuilderParams params = task.getBuilder().getParams();
+        if (params == null) {
+            return Integer.MAX_VALUE;
+        }
+        if (params.concurrency() == BuilderParams.Concurrency.SERIAL) {
+            return 1;
+        }
+        return params.maxParallel() > 0 ? params.maxParallel() : Integer.MAX_VALUE;
+    }
+
+    private boolean tryAcquire(Task<?> task) {
+        boolean heavy = getConcurrency(task) == BuilderParams.Concurrency.HEAVY_NATIVE;
+        if (heavy && runningHeavyNative >= maxHeavyNative) {
+            return false;
+        }
+        Class<?> builderClass = task.getBuilder().getClass();
+        int running = runningPerBuilder.getOrDefault(builderClass, 0);
+        if (running >= getMaxParallel(task)) {
+            return false;
+        }
+        runningPerBuilder.put(builderClass, running + 1);
+        if (heavy) {
+            runningHeavyNative++;
+        }
+        return true;
+    }
+
+    /**
+     * Add a task that should be built
+     * @param task task to add
+     */
+    void add(Task<?> task) {
+        waiting.computeIfAbsent(task.getBuilder().getClass(), k -> new ArrayDeque<>()).add(task);
+    }
+
+    /**
+     * Get the waiting tasks that may start now. The returned tasks are
+     * considered running until {@link #release(Task)} is called.
+     * @return list of tasks to start
+     */
+    List<Task<?>> poll() {
+        List<Task<?>> result = new ArrayList<>();
+        for (ArrayDeque<Task<?>> queue : waiting.values()) {
+            // all tasks in a queue share builder and thus limits
+            while (!queue.isEmpty() && tryAcquire(queue.peek())) {
+                result.add(queue.poll());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mark a task returned from {@link #poll()} as finished
+     * @param task the finished task
+     */
+    void release(Task<?> task) {
+        Class<?> builderClass = task.getBuilder().getClass();
+        runningPerBuilder.put(builderClass, runningPerBuilder.get(builderClass) - 1);
+        if (getConcurrency(task) == BuilderParams.Concurrency.HEAVY_NATIVE) {
+            runningHeavyNative--;
+        }
+    }
+
+    /**
+     * Remove all waiting tasks and forget about the running ones
+     */
+    void clear() {
+        waiting.clear();
+        runningPerBuilder.clear();
+        runningHeavyNative = 0;
+    }
+}
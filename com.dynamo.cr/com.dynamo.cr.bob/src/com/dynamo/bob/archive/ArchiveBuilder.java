@@ -17,14 +17,20 @@
 
 package com.dynamo.bob.archive;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -33,6 +39,11 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -41,6 +52,7 @@ import org.apache.commons.io.IOUtils;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.cache.LocalResourceCache;
 import com.dynamo.bob.pipeline.graph.ResourceNode;
 import com.dynamo.bob.pipeline.graph.ResourceGraph;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
@@ -61,6 +73,27 @@ public class ArchiveBuilder {
     public static final int HASH_LENGTH = 20;
     public static final int MD5_HASH_DIGEST_BYTE_LENGTH = 16; // 128 bits
 
+    // LZ4 high compression level used for all resources
+    private static final int COMPRESSION_LEVEL = 9;
+
+    // Max size of the resources being loaded and processed, but not yet written, at any one time
+    private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    // Resources larger than this that are neither compressed nor encrypted are copied
+    // from the file to the archive, without loading them into memory
+    private static final long STREAM_THRESHOLD = 4 * 1024 * 1024;
+
+    // Resource data ready to be written to the archive
+    private static class ProcessedEntry {
+        ArchiveEntry entry;
+        long size;
+        // the buffer is null for streamed resources
+        boolean streamed;
+        Future<byte[]> buffer;
+        byte[] hashDigest;
+        int flags;
+    }
+
     private List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
     private List<ArchiveEntry> excludedEntries = new ArrayList<ArchiveEntry>();
     private Set<String> lookup = new HashSet<String>(); // To see if a resource has already been added
@@ -71,11 +104,14 @@ public class ArchiveBuilder {
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
     private int resourcePadding = 4;
     private boolean forceCompression = false; // for building unit tests to create test content
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
+    private LocalResourceCache compressionCache = null;
+    private AtomicInteger compressionCacheHits = new AtomicInteger();
 
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder, int resourcePadding) {
         this.root = new File(root).getAbsolutePath();
         this.manifestBuilder = manifestBuilder;
-        this.lz4Compressor = LZ4Factory.fastestInstance().highCompressor();
+        this.lz4Compressor = LZ4Factory.fastestInstance().highCompressor(COMPRESSION_LEVEL);
         this.resourcePadding = resourcePadding;
     }
 
@@ -122,6 +158,36 @@ public class ArchiveBuilder {
         return forceCompression;
     }
 
+    /**
+     * Set the number of threads used to compress, encrypt and hash the resources
+     * when writing the archive
+     * @param maxThreads number of threads
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    /**
+     * Set a cache of compressed resources to reuse between builds. The
+     * compressed data is stored keyed on the hash of the uncompressed data.
+     * @param compressionCache the cache to use, or null to compress all resources
+     */
+    public void setCompressionCache(LocalResourceCache compressionCache) {
+        this.compressionCache = compressionCache;
+        if (compressionCache != null) {
+            compressionCache.startEviction();
+        }
+    }
+
+    /**
+     * Get the number of resources that were not compressed since they were
+     * found in the compression cache
+     * @return number of reused resources
+     */
+    public int getCompressionCacheHits() {
+        return compressionCacheHits.get();
+    }
+
     public boolean shouldUseCompressedResourceData(byte[] original, byte[] compressed) {
         if (this.getForceCompression())
             return true;
@@ -134,18 +200,46 @@ public class ArchiveBuilder {
         return ResourceEncryption.encrypt(buffer);
     }
 
+    // Write a resource pack entry with the content copied from the resource file
+    private void writeResourcePack(ArchiveEntry entry, String directory) throws IOException {
+        File fhandle = new File(directory, entry.getHexDigest());
+        if (!fhandle.exists()) {
+            try (FileOutputStream outputStream = new FileOutputStream(fhandle)) {
+                writeResourcePackHeader(entry, outputStream);
+                Files.copy(new File(entry.getFilename()).toPath(), outputStream);
+            }
+        }
+    }
+
+    private static void writeResourcePackHeader(ArchiveEntry entry, FileOutputStream outputStream) throws IOException {
+        byte[] padding = new byte[11];
+        byte[] size_bytes = ByteBuffer.allocate(4).putInt(entry.getSize()).array();
+        Arrays.fill(padding, (byte)0xED);
+        outputStream.write(size_bytes); // 4 bytes
+        outputStream.write((byte)entry.getFlags()); // 1 byte
+        outputStream.write(padding); // 11 bytes
+    }
+
+    // Append the content of a resource file to the archive data, at the current file pointer
+    private static void copyToArchive(ArchiveEntry entry, RandomAccessFile archiveData) throws IOException {
+        // the channel shares the file pointer with archiveData
+        FileChannel out = archiveData.getChannel();
+        try (FileChannel in = FileChannel.open(new File(entry.getFilename()).toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
     public void writeResourcePack(ArchiveEntry entry, String directory, byte[] buffer) throws IOException {
         FileOutputStream outputStream = null;
         try {
             File fhandle = new File(directory, entry.getHexDigest());
             if (!fhandle.exists()) {
-                byte[] padding = new byte[11];
-                byte[] size_bytes = ByteBuffer.allocate(4).putInt(entry.getSize()).array();
-                Arrays.fill(padding, (byte)0xED);
                 outputStream = new FileOutputStream(fhandle);
-                outputStream.write(size_bytes); // 4 bytes
-                outputStream.write((byte)entry.getFlags()); // 1 byte
-                outputStream.write(padding); // 11 bytes
+                writeResourcePackHeader(entry, outputStream);
                 outputStream.write(buffer);
 
             }
@@ -174,75 +268,89 @@ public class ArchiveBuilder {
 
         Collections.sort(entries); // Since it has no hash, it sorts on path
 
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            TimeProfiler.start("Write file");
-            ArchiveEntry entry = entries.get(i);
-            TimeProfiler.addData("res", entry.getFilename());
-
-            byte[] buffer = this.loadResourceData(entry.getFilename());
-
-            int resourceEntryFlags = 0;
-
-            if (entry.isCompressed()) {
-                TimeProfiler.start("Compresss");
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    // Note, when forced, the compressed size may be larger than the original size (For unit tests)
-                    buffer = compressed;
-                    entry.setCompressedSize(compressed.length);
-                    entry.setFlag(ArchiveEntry.FLAG_COMPRESSED);
-                    resourceEntryFlags |= ResourceEntryFlag.COMPRESSED.getNumber();
+        // Loading, compressing, encrypting and hashing the resources is done in parallel,
+        // a limited number of resources ahead of the one being written. The resources
+        // are still written in order, so that the output is the same on every build.
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads, r -> {
+            Thread thread = new Thread(r, "archive-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<ProcessedEntry> pending = new ArrayDeque<>();
+        try {
+            int next = entries.size() - 1;
+            long pendingBytes = 0;
+            for (int i = entries.size() - 1; i >= 0; --i) {
+                while (next >= 0 && pending.size() < maxThreads * 2) {
+                    ArchiveEntry nextEntry = entries.get(next);
+                    long size = new File(nextEntry.getFilename()).length();
+                    boolean streamed = size > STREAM_THRESHOLD && !nextEntry.isCompressed() && !nextEntry.isEncrypted();
+                    if (streamed) {
+                        // never held in memory
+                        size = 0;
+                    }
+                    if (!pending.isEmpty() && pendingBytes + size > MAX_PENDING_BYTES) {
+                        break;
+                    }
+                    ProcessedEntry processed = new ProcessedEntry();
+                    processed.entry = nextEntry;
+                    processed.streamed = streamed;
+                    processed.size = size;
+                    processed.buffer = executor.submit(() -> processResource(processed));
+                    pending.add(processed);
+                    pendingBytes += processed.size;
+                    --next;
+                }
+
+                ProcessedEntry processed = pending.poll();
+                pendingBytes -= processed.size;
+
+                TimeProfiler.start("Write file");
+                ArchiveEntry entry = processed.entry;
+                TimeProfiler.addData("res", entry.getFilename());
+
+                byte[] buffer = getProcessedResource(processed);
+                int resourceEntryFlags = processed.flags;
+
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.getRelativeFilename());
+                hexDigestCache.put(entry.getRelativeFilename(), entry.getHexDigest());
+
+                TimeProfiler.start("Write");
+                // Write resource to resource pack or data archive
+                if (excludedResources.contains(normalisedPath)) {
+                    if (processed.streamed) {
+                        this.writeResourcePack(entry, resourcePackDirectory.toString());
+                    } else {
+                        this.writeResourcePack(entry, resourcePackDirectory.toString(), buffer);
+                    }
+                    entries.remove(i);
+                    excludedEntries.add(entry);
+                    resourceEntryFlags |= ResourceEntryFlag.EXCLUDED.getNumber();
                 } else {
-                    entry.setCompressedSize(ArchiveEntry.FLAG_UNCOMPRESSED);
+                    alignBuffer(archiveData, this.resourcePadding);
+                    entry.setResourceOffset((int) archiveData.getFilePointer());
+                    if (processed.streamed) {
+                        copyToArchive(entry, archiveData);
+                    } else {
+                        archiveData.write(buffer, 0, buffer.length);
+                    }
+                    resourceEntryFlags |= ResourceEntryFlag.BUNDLED.getNumber();
                 }
                 TimeProfiler.stop();
-            }
 
-            // we need to do this last or the compression won't work as well
-            if (entry.isEncrypted()) {
-                TimeProfiler.start("Encrypt");
-                buffer = this.encryptResourceData(buffer);
-                resourceEntryFlags |= ResourceEntryFlag.ENCRYPTED.getNumber();
+                // the resource was hashed using the manifest hash algorithm when processed
+                manifestBuilder.addResourceEntryWithHash(normalisedPath, processed.hashDigest, entry.getSize(), entry.getCompressedSize(), resourceEntryFlags);
                 TimeProfiler.stop();
             }
-
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.getRelativeFilename());
-
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                TimeProfiler.start("Hex");
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.setHash(new byte[HASH_MAX_LENGTH]);
-                System.arraycopy(hashDigest, 0, entry.getHash(), 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-                TimeProfiler.stop();
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        } finally {
+            for (ProcessedEntry processed : pending) {
+                processed.buffer.cancel(true);
             }
-
-            entry.setHexDigest(hexDigest);
-            hexDigestCache.put(entry.getRelativeFilename(), hexDigest);
-
-            TimeProfiler.start("Write");
-            // Write resource to resource pack or data archive
-            if (excludedResources.contains(normalisedPath)) {
-                this.writeResourcePack(entry, resourcePackDirectory.toString(), buffer);
-                entries.remove(i);
-                excludedEntries.add(entry);
-                resourceEntryFlags |= ResourceEntryFlag.EXCLUDED.getNumber();
-            } else {
-                alignBuffer(archiveData, this.resourcePadding);
-                entry.setResourceOffset((int) archiveData.getFilePointer());
-                archiveData.write(buffer, 0, buffer.length);
-                resourceEntryFlags |= ResourceEntryFlag.BUNDLED.getNumber();
+            executor.shutdownNow();
+            if (compressionCache != null) {
+                compressionCache.flush();
             }
-            TimeProfiler.stop();
-
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, entry.getSize(), entry.getCompressedSize(), resourceEntryFlags);
-            TimeProfiler.stop();
         }
 
         Collections.sort(entries); // Since it has a hash, it sorts on hash
@@ -291,6 +399,129 @@ public class ArchiveBuilder {
         archiveIndex.write(archiveIndexMD5);
     }
 
+    // Load, compress, encrypt and hash a resource. Called from the worker threads.
+    private byte[] processResource(ProcessedEntry processed) throws IOException, CompileExceptionError {
+        ArchiveEntry entry = processed.entry;
+        TimeProfiler.start("Process file");
+        TimeProfiler.addData("res", entry.getFilename());
+
+        if (processed.streamed) {
+            // stored as is, only the hash is needed
+            try (InputStream is = new BufferedInputStream(new FileInputStream(entry.getFilename()))) {
+                TimeProfiler.start("Hex");
+                setHash(processed, ManifestBuilder.CryptographicOperations.hash(is, manifestBuilder.getResourceHashAlgorithm()));
+                TimeProfiler.stop();
+            } catch (NoSuchAlgorithmException exception) {
+                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+            }
+            processed.flags = 0;
+            TimeProfiler.stop();
+            return null;
+        }
+
+        byte[] buffer = this.loadResourceData(entry.getFilename());
+
+        int resourceEntryFlags = 0;
+
+        if (entry.isCompressed()) {
+            TimeProfiler.start("Compresss");
+            // Compress data
+            byte[] compressed = this.compressResourceDataCached(buffer);
+            if (compressed != null && this.shouldUseCompressedResourceData(buffer, compressed)) {
+                // Note, when forced, the compressed size may be larger than the original size (For unit tests)
+                buffer = compressed;
+                entry.setCompressedSize(compressed.length);
+                entry.setFlag(ArchiveEntry.FLAG_COMPRESSED);
+                resourceEntryFlags |= ResourceEntryFlag.COMPRESSED.getNumber();
+            } else {
+                entry.setCompressedSize(ArchiveEntry.FLAG_UNCOMPRESSED);
+            }
+            TimeProfiler.stop();
+        }
+
+        // we need to do this last or the compression won't work as well
+        if (entry.isEncrypted()) {
+            TimeProfiler.start("Encrypt");
+            buffer = this.encryptResourceData(buffer);
+            resourceEntryFlags |= ResourceEntryFlag.ENCRYPTED.getNumber();
+            TimeProfiler.stop();
+        }
+
+        // Calculate hash digest values for resource
+        try {
+            TimeProfiler.start("Hex");
+            setHash(processed, ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm()));
+            TimeProfiler.stop();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+
+        processed.flags = resourceEntryFlags;
+        TimeProfiler.stop();
+        return buffer;
+    }
+
+    private static void setHash(ProcessedEntry processed, byte[] hashDigest) {
+        ArchiveEntry entry = processed.entry;
+        entry.setHash(new byte[HASH_MAX_LENGTH]);
+        System.arraycopy(hashDigest, 0, entry.getHash(), 0, hashDigest.length);
+        entry.setHexDigest(ManifestBuilder.CryptographicOperations.hexdigest(hashDigest));
+        processed.hashDigest = hashDigest;
+    }
+
+    // Get the compressed data from the compression cache, or compress and add it to the cache.
+    // Returns null if the data was found to not be worth compressing.
+    private byte[] compressResourceDataCached(byte[] buffer) throws IOException {
+        if (compressionCache == null) {
+            return this.compressResourceData(buffer);
+        }
+        String key;
+        try {
+            key = ManifestBuilder.CryptographicOperations.hexdigest(ManifestBuilder.CryptographicOperations.hash(buffer, HashAlgorithm.HASH_SHA1));
+        } catch (NoSuchAlgorithmException exception) {
+            return this.compressResourceData(buffer);
+        }
+        key += "-" + COMPRESSION_LEVEL + (forceCompression ? "f" : "");
+
+        // the first byte tells if the compressed data should be used
+        byte[] cached = compressionCache.get(key);
+        if (cached != null && cached.length > 0) {
+            compressionCacheHits.incrementAndGet();
+            return cached[0] != 0 ? Arrays.copyOfRange(cached, 1, cached.length) : null;
+        }
+
+        byte[] compressed = this.compressResourceData(buffer);
+        boolean useCompressed = this.shouldUseCompressedResourceData(buffer, compressed);
+        byte[] value = new byte[useCompressed ? compressed.length + 1 : 1];
+        value[0] = (byte) (useCompressed ? 1 : 0);
+        if (useCompressed) {
+            System.arraycopy(compressed, 0, value, 1, compressed.length);
+        }
+        compressionCache.put(key, value);
+        return useCompressed ? compressed : null;
+    }
+
+    // Wait for a resource to be processed and rethrow any error from the worker thread
+    private static byte[] getProcessedResource(ProcessedEntry processed) throws IOException, CompileExceptionError {
+        try {
+            return processed.buffer.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while writing the archive", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Unable to process resource " + processed.entry.getFilename(), cause);
+        }
+    }
+
     private void alignBuffer(RandomAccessFile outFile, int align) throws IOException {
         int pos = (int) outFile.getFilePointer();
         int newPos = (int) (outFile.getFilePointer() + (align - 1));
@@ -16,23 +16,46 @@ package com.dynamo.bob.archive;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Reads the entries of an archive (.arci/.arcd).
+ *
+ * The index is read into memory as a whole, and the hashes are kept sorted as
+ * in the file, so that {@link #findEntry(byte[])} can do a binary search. In
+ * memory mapped mode the archive data is mapped as well and the entry data is
+ * returned as slices of the mapping, without any copying. Since mapped files
+ * can't be replaced or deleted on Windows until the mapping is garbage
+ * collected, memory mapped mode is meant for tools inspecting existing archives
+ * rather than for reading the output of a build.
+ */
 public class ArchiveReader {
     public static final int VERSION = 5;
     public static final int HASH_BUFFER_BYTESIZE = 64; // 512 bits
 
+    private static final int ENTRY_BYTESIZE = 4 * 4;
+
     private ArrayList<ArchiveEntry> entries = null;
 
     private int entryCount = 0;
@@ -43,22 +66,46 @@ public class ArchiveReader {
     private final String archiveIndexFilepath;
     private final String archiveDataFilepath;
     private final String manifestFilepath;
-    private RandomAccessFile archiveIndexFile = null;
-    private RandomAccessFile archiveDataFile = null;
+    private final boolean memoryMapped;
+    private ByteBuffer archiveIndex = null;
+    private ByteBuffer archiveData = null;
+    private FileChannel archiveDataChannel = null;
     private ManifestFile manifestFile = null;
 
+    private static LZ4FastDecompressor lz4Decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
     public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath) {
+        this(archiveIndexFilepath, archiveDataFilepath, manifestFilepath, false);
+    }
+
+    /**
+     * Create an archive reader
+     * @param archiveIndexFilepath path to the archive index (.arci)
+     * @param archiveDataFilepath path to the archive data (.arcd)
+     * @param manifestFilepath path to the manifest used to get the entry filenames, or null
+     * @param memoryMapped true to memory map the archive instead of reading the data on demand
+     */
+    public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath, boolean memoryMapped) {
         this.archiveIndexFilepath = archiveIndexFilepath;
         this.archiveDataFilepath = archiveDataFilepath;
         this.manifestFilepath = manifestFilepath;
+        this.memoryMapped = memoryMapped;
     }
 
     public void read() throws IOException {
-        this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
-        this.archiveDataFile = new RandomAccessFile(this.archiveDataFilepath, "r");
+        try (FileChannel indexChannel = FileChannel.open(Paths.get(this.archiveIndexFilepath), StandardOpenOption.READ)) {
+            if (this.memoryMapped) {
+                this.archiveIndex = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            } else {
+                this.archiveIndex = ByteBuffer.wrap(Files.readAllBytes(Paths.get(this.archiveIndexFilepath)));
+            }
+        }
 
-        this.archiveIndexFile.seek(0);
-        this.archiveDataFile.seek(0);
+        this.archiveDataChannel = FileChannel.open(Paths.get(this.archiveDataFilepath), StandardOpenOption.READ);
+        if (this.memoryMapped) {
+            // resource offsets are 32 bit, so the data is never larger than what fits in a single mapping
+            this.archiveData = this.archiveDataChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(this.archiveDataChannel.size(), Integer.MAX_VALUE));
+        }
 
         if (this.manifestFilepath != null) {
             InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
@@ -67,7 +114,7 @@ public class ArchiveReader {
         }
 
         // Version
-        int indexVersion = this.archiveIndexFile.readInt();
+        int indexVersion = this.archiveIndex.getInt(0);
         if (indexVersion == ArchiveReader.VERSION) {
             readArchiveData();
         } else {
@@ -77,12 +124,17 @@ public class ArchiveReader {
 
     private void readArchiveData() throws IOException {
         // INDEX
-        archiveIndexFile.readInt(); // Pad
-        archiveIndexFile.readLong(); // UserData, should be 0
-        entryCount = archiveIndexFile.readInt();
-        entryOffset = archiveIndexFile.readInt();
-        hashOffset = archiveIndexFile.readInt();
-        hashLength = archiveIndexFile.readInt();
+        // 4 bytes version, 4 bytes pad and 8 bytes UserData (should be 0)
+        entryCount = archiveIndex.getInt(16);
+        entryOffset = archiveIndex.getInt(20);
+        hashOffset = archiveIndex.getInt(24);
+        hashLength = archiveIndex.getInt(28);
+
+        if (hashOffset + (long) entryCount * HASH_BUFFER_BYTESIZE > archiveIndex.limit()
+            || entryOffset + (long) entryCount * ENTRY_BYTESIZE > archiveIndex.limit()
+            || hashLength > HASH_BUFFER_BYTESIZE) {
+            throw new IOException("Archive index is truncated or damaged: " + archiveIndexFilepath);
+        }
 
         entries = new ArrayList<ArchiveEntry>(entryCount);
 
@@ -99,12 +151,10 @@ public class ArchiveReader {
         }
 
         // Read entry hashes
-        archiveIndexFile.seek(hashOffset);
         for (int i = 0; i < entryCount; ++i) {
-            archiveIndexFile.seek(hashOffset + i * HASH_BUFFER_BYTESIZE);
             ArchiveEntry e = new ArchiveEntry("");
             byte[] hash = new byte[HASH_BUFFER_BYTESIZE];
-            archiveIndexFile.read(hash, 0, hashLength);
+            archiveIndex.get(hashOffset + i * HASH_BUFFER_BYTESIZE, hash, 0, hashLength);
             e.setHash(hash);
             ResourceEntry resource = hashToResourceLookup.get(ByteBuffer.wrap(hash, 0, hashLength));
             if (resource != null) {
@@ -115,14 +165,14 @@ public class ArchiveReader {
         }
 
         // Read entries
-        archiveIndexFile.seek(entryOffset);
         for (int i=0; i<entryCount; ++i) {
             ArchiveEntry e = entries.get(i);
+            int offset = entryOffset + i * ENTRY_BYTESIZE;
 
-            e.setResourceOffset(archiveIndexFile.readInt());
-            e.setSize(archiveIndexFile.readInt());
-            e.setCompressedSize(archiveIndexFile.readInt());
-            e.setFlags(archiveIndexFile.readInt());
+            e.setResourceOffset(archiveIndex.getInt(offset));
+            e.setSize(archiveIndex.getInt(offset + 4));
+            e.setCompressedSize(archiveIndex.getInt(offset + 8));
+            e.setFlags(archiveIndex.getInt(offset + 12));
         }
     }
 
@@ -130,47 +180,148 @@ public class ArchiveReader {
         return entries;
     }
 
-    public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
-        byte[] buf = new byte[entry.getSize()];
-        archiveDataFile.seek(entry.getResourceOffset());
-        archiveDataFile.read(buf, 0, entry.getSize());
+    /**
+     * Find an entry by its hash, using a binary search over the sorted hashes
+     * of the archive index
+     * @param hash the hash of the entry data. Only the first hash length bytes are used.
+     * @return the entry or null if there is no entry with the hash
+     */
+    public ArchiveEntry findEntry(byte[] hash) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareHash(hashOffset + mid * HASH_BUFFER_BYTESIZE, hash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entries.get(mid);
+            }
+        }
+        return null;
+    }
+
+    // Compare the hash in the index at an offset with a hash, as unsigned bytes
+    private int compareHash(int offset, byte[] hash) {
+        for (int i = 0; i < hashLength; ++i) {
+            int a = archiveIndex.get(offset + i) & 0xff;
+            int b = i < hash.length ? hash[i] & 0xff : 0;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
 
+    private static int getStoredSize(ArchiveEntry entry) {
+        return entry.isCompressed() ? entry.getCompressedSize() : entry.getSize();
+    }
+
+    /**
+     * Get the data of an entry as it is stored in the archive, i.e. compressed
+     * and/or encrypted. In memory mapped mode the returned buffer is a read-only
+     * slice of the mapped archive data.
+     * @param entry the entry
+     * @return buffer with the entry data
+     * @throws IOException
+     */
+    public ByteBuffer getEntryData(ArchiveEntry entry) throws IOException {
+        int size = getStoredSize(entry);
+        if (archiveData != null) {
+            return archiveData.slice(entry.getResourceOffset(), size).asReadOnlyBuffer();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        long position = entry.getResourceOffset();
+        // positional reads, so that entries can be read from several threads
+        while (buffer.hasRemaining()) {
+            int read = archiveDataChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of archive data: " + archiveDataFilepath);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the content of an entry. Compressed entries are decompressed, unless
+     * they are also encrypted in which case the data is returned as stored.
+     * @param entry the entry
+     * @return the entry content
+     * @throws IOException
+     */
+    public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
+        ByteBuffer data = getEntryData(entry);
+        if (entry.isCompressed() && !entry.isEncrypted()) {
+            byte[] buf = new byte[entry.getSize()];
+            lz4Decompressor.decompress(data, data.position(), ByteBuffer.wrap(buf), 0, buf.length);
+            return buf;
+        }
+        byte[] buf = new byte[data.remaining()];
+        data.get(buf);
         return buf;
     }
 
+    // Entries not found in the manifest are named after their hash
+    private String getEntryName(ArchiveEntry entry) {
+        if (entry.getFilename() == null || entry.getFilename().isEmpty()) {
+            return "/" + ManifestBuilder.CryptographicOperations.hexdigest(Arrays.copyOf(entry.getHash(), hashLength));
+        }
+        return entry.getFilename();
+    }
+
     public void extractAll(String path) throws IOException {
+        extractAll(path, 1);
+    }
+
+    /**
+     * Extract the content of all entries
+     * @param path directory to extract to
+     * @param maxThreads number of threads used to read, decompress and write the entries
+     * @throws IOException
+     */
+    public void extractAll(String path, int maxThreads) throws IOException {
 
         int entryCount = entries.size();
 
         System.out.println("Extracting entries to " + path + ": ");
-        for (int i = 0; i < entryCount; i++) {
-            ArchiveEntry entry = entries.get(i);
-            String outdir = path + entry.getFilename();
-            System.out.println("> " + entry.getFilename());
-            int readSize = entry.getCompressedSize();
-
-            // extract
-            byte[] buf = new byte[entry.getSize()];
-            archiveDataFile.seek(entry.getResourceOffset());
-            archiveDataFile.read(buf, 0, readSize);
-
-            File fo = new File(outdir);
-            fo.getParentFile().mkdirs();
-            FileOutputStream os = new FileOutputStream(fo);
-            os.write(buf);
-            os.close();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, maxThreads));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                ArchiveEntry entry = entries.get(i);
+                System.out.println("> " + getEntryName(entry));
+                futures.add(executor.submit(() -> {
+                    File fo = new File(path + getEntryName(entry));
+                    fo.getParentFile().mkdirs();
+                    Files.write(fo.toPath(), getEntryContent(entry));
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while extracting entries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to extract entries", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
     }
 
     public void close() throws IOException {
-        if (archiveIndexFile != null) {
-            archiveIndexFile.close();
-            archiveIndexFile = null;
-        }
+        archiveIndex = null;
+        archiveData = null;
 
-        if (archiveDataFile != null) {
-            archiveDataFile.close();
-            archiveDataFile = null;
+        if (archiveDataChannel != null) {
+            archiveDataChannel.close();
+            archiveDataChannel = null;
         }
     }
 }
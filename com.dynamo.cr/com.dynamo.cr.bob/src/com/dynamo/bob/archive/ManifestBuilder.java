@@ -16,6 +16,7 @@ package com.dynamo.bob.archive;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -68,24 +69,42 @@ public class ManifestBuilder {
 
         }
 
-        public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
-            MessageDigest messageDigest = null;
+        private static MessageDigest createMessageDigest(HashAlgorithm algorithm) throws NoSuchAlgorithmException {
             if (algorithm.equals(HashAlgorithm.HASH_MD5)) {
-                messageDigest = MessageDigest.getInstance("MD5");
+                return MessageDigest.getInstance("MD5");
             } else if (algorithm.equals(HashAlgorithm.HASH_SHA1)) {
-                messageDigest = MessageDigest.getInstance("SHA-1");
+                return MessageDigest.getInstance("SHA-1");
             } else if (algorithm.equals(HashAlgorithm.HASH_SHA256)) {
-                messageDigest = MessageDigest.getInstance("SHA-256");
+                return MessageDigest.getInstance("SHA-256");
             } else if (algorithm.equals(HashAlgorithm.HASH_SHA512)) {
-                messageDigest = MessageDigest.getInstance("SHA-512");
+                return MessageDigest.getInstance("SHA-512");
             } else {
                 throw new NoSuchAlgorithmException("The algorithm specified is not supported!");
             }
+        }
 
+        public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
+            MessageDigest messageDigest = createMessageDigest(algorithm);
             messageDigest.update(data);
             return messageDigest.digest();
         }
 
+        /**
+         * Hash the content of a stream, without reading all of it into memory
+         * @param data stream to read, not closed
+         * @param algorithm hash algorithm
+         * @return the hash digest
+         */
+        public static byte[] hash(InputStream data, HashAlgorithm algorithm) throws NoSuchAlgorithmException, IOException {
+            MessageDigest messageDigest = createMessageDigest(algorithm);
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = data.read(buffer)) > 0) {
+                messageDigest.update(buffer, 0, n);
+            }
+            return messageDigest.digest();
+        }
+
         public static String hexdigest(byte[] bytes) {
             char[] hexArray = "0123456789abcdef".toCharArray();
             char[] hexChars = new char[bytes.length * 2];
@@ -400,20 +419,32 @@ public class ManifestBuilder {
 
     public void addResourceEntry(String url, byte[] data, int size, int compressed_size, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
-            HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            builder.setSize(size);
-            builder.setCompressedSize(compressed_size);
-            this.resourceEntries.add(builder.buildPartial());
+            byte[] hashDigest = CryptographicOperations.hash(data, this.resourceHashAlgorithm);
+            addResourceEntryWithHash(url, hashDigest, size, compressed_size, flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
+    /**
+     * Add a resource entry using an already calculated hash of the resource data
+     * @param url the resource url
+     * @param hashDigest hash of the resource data, using the resource hash algorithm
+     * @param size uncompressed size
+     * @param compressed_size compressed size
+     * @param flags resource entry flags
+     */
+    public void addResourceEntryWithHash(String url, byte[] hashDigest, int size, int compressed_size, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        builder.setHash(HashDigest.newBuilder().setData(ByteString.copyFrom(hashDigest)));
+        builder.setFlags(flags);
+        builder.setSize(size);
+        builder.setCompressedSize(compressed_size);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
     public HashSet<ResourceNode> getAllDependants(ResourceNode node) throws IOException {
         /* Once a candidate has been found the children, the children, and so
            on are added to the list of dependants. If a CollectionProxy is
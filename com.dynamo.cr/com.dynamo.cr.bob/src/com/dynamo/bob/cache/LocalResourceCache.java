@@ -0,0 +1,436 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.dynamo.bob.logging.Logger;
+import com.dynamo.bob.util.SignatureStore;
+
+/**
+ * Local part of the resource cache.
+ *
+ * Resources are stored in a sharded directory layout, using the first two pairs
+ * of hex characters of the key as directories (e.g. ab/cd/abcdef...). Resources
+ * are written to a temporary file which is then renamed, so a resource is never
+ * seen partially written.
+ *
+ * The size and last access time of each resource is kept in an index in the cache
+ * directory. The index is updated at the end of each build, under a file lock since
+ * the cache may be shared between processes. A file lock is held by the JVM, not
+ * the thread, so instances on the same directory within a process also share a
+ * lock object that is taken before the file lock. If the cache has a max size, the least
+ * recently used resources are evicted in the background while the build runs.
+ *
+ * Besides being the local part of {@link ResourceCache} it is also used for other
+ * content-addressed data kept between builds, e.g. compressed archive resources.
+ */
+public class LocalResourceCache {
+
+	private static Logger logger = Logger.getLogger(LocalResourceCache.class.getName());
+
+	private static final String INDEX_NAME = "index";
+	private static final String LOCK_NAME = "index.lock";
+	private static final String TMP_SUFFIX = ".tmp";
+	// the total size of all resources is kept in the index under a key that is never a resource key
+	private static final String TOTAL_SIZE_KEY = "#total";
+	// last access time and size
+	private static final int INDEX_VALUE_SIZE = 16;
+	// resources are evicted until the cache is below this fraction of the max size
+	private static final double EVICTION_TARGET = 0.9;
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final File dir;
+	private final File indexFile;
+	private final File lockFile;
+	private final long maxSize;
+	private final Object directoryLock;
+
+	// canonical cache directory -> lock shared by all instances using the directory
+	private static final ConcurrentHashMap<String, Object> directoryLocks = new ConcurrentHashMap<>();
+
+	// resources accessed or added during the build, key -> size
+	private final Map<String, Long> accessed = new HashMap<>();
+	private Thread evictionThread;
+
+	private AtomicInteger hits = new AtomicInteger();
+	private AtomicInteger misses = new AtomicInteger();
+	private AtomicLong bytesRead = new AtomicLong();
+	private AtomicLong bytesWritten = new AtomicLong();
+	private AtomicInteger evictedCount = new AtomicInteger();
+	private AtomicLong evictedBytes = new AtomicLong();
+
+	/**
+	 * Create a local cache
+	 * @param dir the cache directory
+	 * @param maxSize max size of the cache in bytes, 0 for no limit
+	 */
+	public LocalResourceCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.indexFile = new File(dir, INDEX_NAME);
+		this.lockFile = new File(dir, LOCK_NAME);
+		this.maxSize = maxSize;
+		dir.mkdirs();
+		this.directoryLock = getDirectoryLock(dir);
+	}
+
+	private static Object getDirectoryLock(File dir) {
+		String path;
+		try {
+			path = dir.getCanonicalPath();
+		} catch (IOException e) {
+			path = dir.getAbsolutePath();
+		}
+		return directoryLocks.computeIfAbsent(path, k -> new Object());
+	}
+
+	public File fileFromKey(String key) {
+		if (key.length() < 4) {
+			return new File(dir, key);
+		}
+		return new File(dir, key.substring(0, 2) + File.separator + key.substring(2, 4) + File.separator + key);
+	}
+
+	private void markAccessed(String key, long size) {
+		synchronized (accessed) {
+			accessed.put(key, size);
+		}
+	}
+
+	/**
+	 * Check if a resource exists in the local cache
+	 * @param key the resource key
+	 * @return true if the resource exists
+	 */
+	public boolean contains(String key) {
+		File file = fileFromKey(key);
+		// mark before checking, so that a concurrent eviction leaves the resource alone
+		markAccessed(key, 0);
+		if (file.isFile()) {
+			markAccessed(key, file.length());
+			hits.incrementAndGet();
+			return true;
+		}
+		synchronized (accessed) {
+			accessed.remove(key);
+		}
+		misses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Get a resource from the local cache
+	 * @param key the resource key
+	 * @return the resource data or null if the resource doesn't exist
+	 * @throws IOException
+	 */
+	public byte[] get(String key) throws IOException {
+		File file = fileFromKey(key);
+		try {
+			byte[] data = Files.readAllBytes(file.toPath());
+			markAccessed(key, data.length);
+			bytesRead.addAndGet(data.length);
+			logger.fine("Resource '%s' loaded from the local cache", file);
+			return data;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Open a stream to read a resource from the local cache
+	 * @param key the resource key
+	 * @return stream with the resource data or null if the resource doesn't exist
+	 * @throws IOException
+	 */
+	public InputStream getInputStream(String key) throws IOException {
+		File file = fileFromKey(key);
+		try {
+			InputStream is = new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE);
+			long size = file.length();
+			markAccessed(key, size);
+			bytesRead.addAndGet(size);
+			logger.fine("Resource '%s' loaded from the local cache", file);
+			return is;
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static void moveInPlace(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Put a resource in the local cache
+	 * @param key the resource key
+	 * @param data the resource data
+	 * @throws IOException
+	 */
+	public void put(String key, byte[] data) throws IOException {
+		File file = fileFromKey(key);
+		file.getParentFile().mkdirs();
+		Path tmpPath = new File(file.getPath() + "." + UUID.randomUUID() + TMP_SUFFIX).toPath();
+		try {
+			Files.write(tmpPath, data);
+			moveInPlace(tmpPath, file.toPath());
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+		markAccessed(key, data.length);
+		bytesWritten.addAndGet(data.length);
+		logger.fine("Resource '%s' saved to the local cache", file);
+	}
+
+	/**
+	 * Put a resource in the local cache, without reading all of it into memory
+	 * @param key the resource key
+	 * @param data stream with the resource data, not closed
+	 * @throws IOException
+	 */
+	public void put(String key, InputStream data) throws IOException {
+		File file = fileFromKey(key);
+		file.getParentFile().mkdirs();
+		Path tmpPath = new File(file.getPath() + "." + UUID.randomUUID() + TMP_SUFFIX).toPath();
+		long size;
+		try {
+			size = Files.copy(data, tmpPath);
+			moveInPlace(tmpPath, file.toPath());
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+		markAccessed(key, size);
+		bytesWritten.addAndGet(size);
+		logger.fine("Resource '%s' saved to the local cache", file);
+	}
+
+	/**
+	 * Register a resource written directly to {@link #fileFromKey(String)}, e.g.
+	 * when downloaded from the remote cache
+	 * @param key the resource key
+	 */
+	public void added(String key) {
+		long size = fileFromKey(key).length();
+		markAccessed(key, size);
+		bytesWritten.addAndGet(size);
+	}
+
+	private interface IndexUpdate {
+		void update(SignatureStore index) throws IOException;
+	}
+
+	private static byte[] createIndexValue(long lastAccess, long size) {
+		return ByteBuffer.allocate(INDEX_VALUE_SIZE).putLong(lastAccess).putLong(size).array();
+	}
+
+	private static long getLastAccess(byte[] value) {
+		return value != null && value.length == INDEX_VALUE_SIZE ? ByteBuffer.wrap(value).getLong(0) : 0;
+	}
+
+	private static long getSize(byte[] value) {
+		return value != null && value.length == INDEX_VALUE_SIZE ? ByteBuffer.wrap(value).getLong(8) : 0;
+	}
+
+	private void updateIndex(IndexUpdate update) throws IOException {
+		// channel.lock() throws OverlappingFileLockException if the file is already locked within the JVM
+		synchronized (directoryLock) {
+			try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				 FileLock lock = channel.lock()) {
+				SignatureStore index = SignatureStore.open(indexFile, INDEX_VALUE_SIZE);
+				update.update(index);
+				index.save();
+			}
+		}
+	}
+
+	// Add all resources in the cache directory to the index and calculate the total size,
+	// e.g. when eviction runs for the first time or the cache was written by an older version
+	private void seedIndex(SignatureStore index) throws IOException {
+		long totalSize = 0;
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			for (Path path : (Iterable<Path>) paths::iterator) {
+				String name = path.getFileName().toString();
+				if (name.endsWith(TMP_SUFFIX) || name.startsWith(INDEX_NAME)) {
+					continue;
+				}
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				if (attributes.isRegularFile()) {
+					// keep the access time of resources already in the index
+					byte[] value = index.get(name);
+					long lastAccess = value != null ? getLastAccess(value) : attributes.lastModifiedTime().toMillis();
+					index.put(name, createIndexValue(lastAccess, attributes.size()));
+					totalSize += attributes.size();
+				}
+			}
+		}
+		index.put(TOTAL_SIZE_KEY, createIndexValue(0, totalSize));
+	}
+
+	private void deleteResource(String key) throws IOException {
+		Files.deleteIfExists(fileFromKey(key).toPath());
+		// resources written before the cache was sharded
+		Files.deleteIfExists(new File(dir, key).toPath());
+	}
+
+	private void evict(SignatureStore index) throws IOException {
+		if (index.get(TOTAL_SIZE_KEY) == null) {
+			seedIndex(index);
+		}
+		long totalSize = getSize(index.get(TOTAL_SIZE_KEY));
+		if (totalSize <= maxSize) {
+			return;
+		}
+
+		List<String> keys = index.getPaths();
+		keys.remove(TOTAL_SIZE_KEY);
+		Map<String, byte[]> values = new HashMap<>(keys.size());
+		for (String key : keys) {
+			values.put(key, index.get(key));
+		}
+		keys.sort((k1, k2) -> Long.compare(getLastAccess(values.get(k1)), getLastAccess(values.get(k2))));
+
+		long targetSize = (long) (maxSize * EVICTION_TARGET);
+		for (String key : keys) {
+			if (totalSize <= targetSize) {
+				break;
+			}
+			synchronized (accessed) {
+				// resources used by the running build are kept
+				if (accessed.containsKey(key)) {
+					continue;
+				}
+				deleteResource(key);
+			}
+			long size = getSize(values.get(key));
+			index.remove(key);
+			totalSize -= size;
+			evictedCount.incrementAndGet();
+			evictedBytes.addAndGet(size);
+		}
+		index.put(TOTAL_SIZE_KEY, createIndexValue(0, totalSize));
+		logger.fine("Evicted %d resources (%d bytes) from the local cache", evictedCount.get(), evictedBytes.get());
+	}
+
+	/**
+	 * Start evicting least recently used resources in the background, if the
+	 * cache is larger than the max size
+	 */
+	public void startEviction() {
+		if (maxSize <= 0) {
+			return;
+		}
+		evictionThread = new Thread(() -> {
+			try {
+				updateIndex(index -> evict(index));
+			} catch (Exception e) {
+				logger.warning("Failed to evict resources from the local cache: %s", e.getMessage());
+			}
+		}, "resource-cache-eviction");
+		evictionThread.setDaemon(true);
+		evictionThread.start();
+	}
+
+	/**
+	 * Wait for the eviction to finish and write the resources accessed during the
+	 * build to the index
+	 */
+	public void flush() {
+		if (evictionThread != null) {
+			try {
+				evictionThread.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			evictionThread = null;
+		}
+		final Map<String, Long> updates;
+		synchronized (accessed) {
+			updates = new HashMap<>(accessed);
+			accessed.clear();
+		}
+		if (updates.isEmpty()) {
+			return;
+		}
+		try {
+			updateIndex(index -> {
+				long now = System.currentTimeMillis();
+				long totalSize = getSize(index.get(TOTAL_SIZE_KEY));
+				boolean hasTotalSize = index.get(TOTAL_SIZE_KEY) != null;
+				for (Map.Entry<String, Long> entry : updates.entrySet()) {
+					String key = entry.getKey();
+					totalSize += entry.getValue() - getSize(index.get(key));
+					index.put(key, createIndexValue(now, entry.getValue()));
+				}
+				// without a total size the index is seeded from the files on the next eviction
+				if (hasTotalSize) {
+					index.put(TOTAL_SIZE_KEY, createIndexValue(0, totalSize));
+				}
+			});
+		} catch (IOException e) {
+			logger.warning("Failed to update the local cache index: %s", e.getMessage());
+		}
+	}
+
+	public int getHits() {
+		return hits.get();
+	}
+
+	public int getMisses() {
+		return misses.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public int getEvictedCount() {
+		return evictedCount.get();
+	}
+
+	public long getEvictedBytes() {
+		return evictedBytes.get();
+	}
+}
@@ -16,90 +16,169 @@ package com.dynamo.bob.cache;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.net.MalformedURLException;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.dynamo.bob.util.HttpUtil;
 import com.dynamo.bob.logging.Logger;
 
+/**
+ * Resource cache with a local cache directory and an optional remote cache.
+ * See {@link LocalResourceCache} for the layout and eviction of the local cache.
+ *
+ * Requests to the remote cache run concurrently on a small pool of threads:
+ * <ul>
+ * <li>A remote lookup downloads the resource straight to the local cache, so a
+ * lookup followed by a get is a single request. The result of each lookup is kept
+ * for the duration of the build, which also serves as a negative cache.</li>
+ * <li>Lookups can be started ahead of time using {@link #prefetch(Collection)}, and
+ * several keys can be checked at once using {@link #containsAll(Collection)}.</li>
+ * <li>Uploads are asynchronous and don't block the caller. Call {@link #flush()} to
+ * wait for all pending uploads at the end of the build.</li>
+ * </ul>
+ */
 public class ResourceCache {
 
 	private static Logger logger = Logger.getLogger(ResourceCache.class.getName());
 
+	private static final int REMOTE_CACHE_THREADS = 8;
+
 	private String localCacheDir;
 
+	private long localCacheMaxSize = 0;
+
+	private LocalResourceCache localCache;
+
 	private String remoteCacheUrl;
 
 	private HttpUtil http = new HttpUtil();
 
 	private boolean enabled = false;
 
+	private ExecutorService remoteExecutor;
+
+	// result of the remote lookups made during the build, true if the resource
+	// was downloaded to the local cache and false if it doesn't exist remotely
+	private Map<String, Future<Boolean>> remoteLookups = new ConcurrentHashMap<>();
+
+	private List<Future<?>> uploads = new ArrayList<>();
+
+	private AtomicInteger remoteHits = new AtomicInteger();
+	private AtomicInteger remoteMisses = new AtomicInteger();
+	private AtomicInteger remoteUploads = new AtomicInteger();
+
 	public ResourceCache() {}
 
 	public void init(String localCacheDir, String remoteCacheUrl) {
 		logger.fine("Initialising resource cache with local cache dir '%s' and remote '%s'", localCacheDir, remoteCacheUrl);
+		flush();
 		this.localCacheDir = localCacheDir;
 		this.remoteCacheUrl = remoteCacheUrl;
 		this.enabled = localCacheDir != null;
+		this.localCache = null;
 		if (localCacheDir != null) {
-			File f = new File(localCacheDir);
-			if (!f.exists()) {
-				f.mkdirs();
-			}
+			localCache = new LocalResourceCache(new File(localCacheDir), localCacheMaxSize);
+			localCache.startEviction();
+		}
+		remoteLookups.clear();
+		remoteHits.set(0);
+		remoteMisses.set(0);
+		remoteUploads.set(0);
+		if (enabled && remoteCacheUrl != null) {
+			remoteExecutor = Executors.newFixedThreadPool(REMOTE_CACHE_THREADS, r -> {
+				Thread thread = new Thread(r, "resource-cache");
+				thread.setDaemon(true);
+				return thread;
+			});
 		}
 	}
 
 	private File fileFromKey(String key) {
-		return new File(localCacheDir, key);
+		return localCache.fileFromKey(key);
 	}
 
 	private URL urlFromFile(File file) throws MalformedURLException {
 		return new URL(remoteCacheUrl + "/" + file.getName());
 	}
 
-	private void saveToLocalCache(File file, byte[] data) throws IOException {
-		logger.fine("Resource '%s' saved to the local cache", file);
-		Files.write(file.toPath(), data);
-	}
-
-	private byte[] loadFromLocalCache(File file) throws IOException {
-		if (file.exists()) {
-			logger.fine("Resource '%s' loaded from the local cache", file);
-			return Files.readAllBytes(file.toPath());
+	private static <T> T waitFor(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
 		}
-		return null;
 	}
 
-	private void uploadToRemoteCache(File file) throws MalformedURLException {
-		if (remoteCacheUrl == null) {
-			return;
-		}
-		if (!file.exists()) {
-			return;
-		}
+	private void uploadToRemoteCache(String key, File file) throws MalformedURLException {
 		URL url = urlFromFile(file);
-		if (!http.exists(url)) {
+		// no need to check the remote cache if a lookup already found the resource missing
+		Future<Boolean> lookup = remoteLookups.get(key);
+		boolean knownMissing = false;
+		if (lookup != null && lookup.isDone()) {
+			try {
+				knownMissing = !lookup.get();
+			} catch (Exception e) {
+				// a failed lookup tells nothing
+			}
+		}
+		if (knownMissing || !http.exists(url)) {
 			http.uploadFile(url, file);
+			remoteUploads.incrementAndGet();
 			logger.fine("Resource '%s' uploaded to the remote cache", file);
 		}
 		else {
 			logger.fine("Resource '%s' already exists in the remote cache", file);
 		}
+		remoteLookups.put(key, CompletableFuture.completedFuture(true));
 	}
 
-	private void downloadFromRemoteCache(File file) throws MalformedURLException {
-		if (remoteCacheUrl == null) {
-			return;
-		}
+	private boolean downloadFromRemoteCache(String key, File file) throws MalformedURLException {
 		URL url = urlFromFile(file);
-		if (http.exists(url)) {
-			http.downloadToFile(url, file);
+		if (http.downloadToFileIfExists(url, file)) {
+			localCache.added(key);
+			remoteHits.incrementAndGet();
 			logger.fine("Resource '%s' downloaded from the remote cache", file);
+			return true;
 		}
-		else {
-			logger.fine("Resource '%s' does not exist in the remote cache", file);
-		}
+		remoteMisses.incrementAndGet();
+		logger.fine("Resource '%s' does not exist in the remote cache", file);
+		return false;
+	}
+
+	/**
+	 * Start a lookup of a resource in the remote cache, or get the lookup
+	 * already made during this build
+	 */
+	private Future<Boolean> lookupRemote(String key) {
+		return remoteLookups.computeIfAbsent(key, k -> {
+			File file = fileFromKey(k);
+			return remoteExecutor.submit(() -> downloadFromRemoteCache(k, file));
+		});
+	}
+
+	private boolean hasRemoteCache() {
+		return enabled && remoteExecutor != null;
 	}
 
 	/**
@@ -111,6 +190,15 @@ public class ResourceCache {
 		return localCacheDir != null;
 	}
 
+	/**
+	 * Set the max size of the local cache. Least recently used resources are
+	 * evicted when the cache grows larger. Takes effect on the next {@link #init(String, String)}.
+	 * @param maxSize max size in bytes, 0 for no limit
+	 */
+	public void setLocalCacheMaxSize(long maxSize) {
+		this.localCacheMaxSize = maxSize;
+	}
+
 	/**
 	 * Set authentication information to use when communicating with the
 	 * remote cache.
@@ -125,6 +213,8 @@ public class ResourceCache {
 
 	/**
 	 * Put data in the resource cache
+	 * The data is stored in the local cache immediately and uploaded to the
+	 * remote cache in the background
 	 * @param key Key to associate data with
 	 * @param data The data to store
 	 */
@@ -139,8 +229,41 @@ public class ResourceCache {
 		}
 
 		logger.fine("Caching resource '%s'", file);
-		saveToLocalCache(file, data);
-		uploadToRemoteCache(file);
+		localCache.put(key, data);
+		upload(key, file);
+	}
+
+	/**
+	 * Put data in the resource cache, without reading all of it into memory.
+	 * See {@link #put(String, byte[])}
+	 * @param key Key to associate data with
+	 * @param data Stream with the data to store. The caller closes the stream.
+	 */
+	public void put(String key, InputStream data) throws IOException {
+		if (!enabled) {
+			return;
+		}
+		File file = fileFromKey(key);
+		if (file.exists()) {
+			// file is already in the local cache
+			return;
+		}
+
+		logger.fine("Caching resource '%s'", file);
+		localCache.put(key, data);
+		upload(key, file);
+	}
+
+	private void upload(String key, File file) {
+		if (hasRemoteCache()) {
+			Future<?> upload = remoteExecutor.submit(() -> {
+				uploadToRemoteCache(key, file);
+				return null;
+			});
+			synchronized (uploads) {
+				uploads.add(upload);
+			}
+		}
 	}
 
 	/**
@@ -153,15 +276,34 @@ public class ResourceCache {
 			return null;
 		}
 		File file = fileFromKey(key);
-		if (!file.exists()) {
-			downloadFromRemoteCache(file);
+		if (!file.exists() && hasRemoteCache()) {
+			waitFor(lookupRemote(key));
+		}
+
+		return localCache.get(key);
+	}
+
+	/**
+	 * Open a stream to read data from the resource cache, without reading
+	 * all of it into memory. See {@link #get(String)}
+	 * @param key Key associated with the data to get
+	 * @return Stream with the data or null if the data doesn't exist. The caller closes the stream.
+	 */
+	public InputStream getInputStream(String key) throws IOException {
+		if (!enabled) {
+			return null;
+		}
+		File file = fileFromKey(key);
+		if (!file.exists() && hasRemoteCache()) {
+			waitFor(lookupRemote(key));
 		}
 
-		return loadFromLocalCache(file);
+		return localCache.getInputStream(key);
 	}
 
 	/**
 	 * Check if the cache contains a resource
+	 * A resource found in the remote cache is downloaded to the local cache
 	 * @param key The key to check for in the cache
 	 * @return true if a resource with the specified key exists
 	 */
@@ -169,7 +311,108 @@ public class ResourceCache {
 		if (!enabled) {
 			return false;
 		}
-		File f = fileFromKey(key);
-		return f.exists() || (remoteCacheUrl != null && http.exists(urlFromFile(f)));
+		if (localCache.contains(key)) {
+			return true;
+		}
+		return hasRemoteCache() && waitFor(lookupRemote(key));
+	}
+
+	/**
+	 * Check if the cache contains all of a number of resources. The resources
+	 * are looked up in the remote cache concurrently.
+	 * @param keys The keys to check for in the cache
+	 * @return true if resources with all the specified keys exist
+	 */
+	public boolean containsAll(Collection<String> keys) throws IOException {
+		if (!enabled) {
+			return false;
+		}
+		prefetch(keys);
+		for (String key : keys) {
+			if (!contains(key)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Start looking up resources in the remote cache without waiting for the
+	 * result. Resources found are downloaded to the local cache.
+	 * @param keys The keys to look up
+	 */
+	public void prefetch(Collection<String> keys) {
+		if (!hasRemoteCache()) {
+			return;
+		}
+		for (String key : keys) {
+			if (!fileFromKey(key).exists()) {
+				lookupRemote(key);
+			}
+		}
+	}
+
+	/**
+	 * Wait for all pending uploads to the remote cache and update the index
+	 * of the local cache. A failed upload is logged but does not affect the build.
+	 */
+	public void flush() {
+		if (localCache != null) {
+			localCache.flush();
+		}
+		if (remoteExecutor == null) {
+			return;
+		}
+		List<Future<?>> pending;
+		synchronized (uploads) {
+			pending = new ArrayList<>(uploads);
+			uploads.clear();
+		}
+		for (Future<?> upload : pending) {
+			try {
+				waitFor(upload);
+			} catch (Exception e) {
+				logger.warning("Failed to upload resource to the remote cache: %s", e.getMessage());
+			}
+		}
+		logger.fine("Remote cache hits: %d, misses: %d, uploads: %d", remoteHits.get(), remoteMisses.get(), remoteUploads.get());
+		remoteExecutor.shutdown();
+		remoteExecutor = null;
+	}
+
+	public int getLocalHits() {
+		return localCache != null ? localCache.getHits() : 0;
+	}
+
+	public int getLocalMisses() {
+		return localCache != null ? localCache.getMisses() : 0;
+	}
+
+	public long getLocalBytesRead() {
+		return localCache != null ? localCache.getBytesRead() : 0;
+	}
+
+	public long getLocalBytesWritten() {
+		return localCache != null ? localCache.getBytesWritten() : 0;
+	}
+
+	public int getLocalEvictedCount() {
+		return localCache != null ? localCache.getEvictedCount() : 0;
+	}
+
+	public long getLocalEvictedBytes() {
+		return localCache != null ? localCache.getEvictedBytes() : 0;
+	}
+
+	public int getRemoteHits() {
+		return remoteHits.get();
+	}
+
+	public int getRemoteMisses() {
+		return remoteMisses.get();
+	}
+
+	public int getRemoteUploads() {
+		return remoteUploads.get();
 	}
 }
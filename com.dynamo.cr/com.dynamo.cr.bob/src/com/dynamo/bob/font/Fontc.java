@@ -65,6 +65,7 @@ import com.dynamo.bob.TexcLibrary;
 import com.dynamo.bob.pipeline.BuilderUtil;
 import com.dynamo.bob.pipeline.TextureGeneratorException;
 
+import com.dynamo.bob.util.ArgbImage;
 import com.dynamo.bob.util.StringUtil;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
@@ -391,38 +392,33 @@ public class Fontc {
         return sdfLimitValue * (1.0f - sdf_edge) + sdf_edge;
     }
 
-    private ByteBuffer toByteArray(BufferedImage image, int width, int height, int bpp, int targetBpp) throws IOException {
-        int dataSize = width * height * bpp;
-        ByteBuffer buffer = ByteBuffer.allocateDirect(dataSize);
-
-        int[] rasterData = new int[width * height * 4];
-        image.getRaster().getPixels(0, 0, width, height, rasterData);
-
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                // BGRA to RGBA
-                int i = y*width*bpp + x*bpp;
-                int green = 0;
-                int red = 0;
-                int alpha = 0;
-                int blue = rasterData[i + 0];
-                if (bpp > 1)
-                    green = rasterData[i + 1];
-                if (bpp > 2)
-                    red = rasterData[i + 2];
-                if (bpp > 3)
-                    alpha = rasterData[i + 3];
-
-                buffer.put((byte)(red & 0xFF));
-                if (targetBpp > 1)
-                    buffer.put((byte)(green & 0xFF));
-                if (targetBpp > 2)
-                    buffer.put((byte)(blue & 0xFF));
-                if (targetBpp > 3)
-                    buffer.put((byte)(alpha & 0xFF));
+    // Premultiplied RGBA pixels of the glyph, with channelCount bytes per pixel, surrounded by a cleared border
+    private static ByteBuffer createPaddedGlyphBuffer(ArgbImage glyph, int cellPadding, int channelCount) {
+        int glyphWidth = glyph.getWidth();
+        int glyphHeight = glyph.getHeight();
+        int width = glyphWidth + cellPadding * 2;
+        int height = glyphHeight + cellPadding * 2;
+        // A direct buffer is zeroed, so only the glyph pixels are written
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * channelCount);
+        int[] pixels = glyph.getPixels();
+        for (int y = 0; y < glyphHeight; ++y) {
+            buffer.position(((y + cellPadding) * width + cellPadding) * channelCount);
+            for (int x = 0; x < glyphWidth; ++x) {
+                int color = pixels[x + y * glyphWidth];
+                int alpha = (color >>> 24) & 0xff;
+                int red   = (((color >> 16) & 0xff) * alpha) / 255;
+                int green = (((color >> 8) & 0xff) * alpha) / 255;
+                int blue  = ((color & 0xff) * alpha) / 255;
+                buffer.put((byte)red);
+                if (channelCount > 1)
+                    buffer.put((byte)green);
+                if (channelCount > 2)
+                    buffer.put((byte)blue);
+                if (channelCount > 3)
+                    buffer.put((byte)alpha);
             }
         }
-        buffer.flip(); // limit is set to current position, and position is set to zero
+        buffer.rewind();
         return buffer;
     }
 
@@ -630,55 +626,10 @@ public class Fontc {
                 glyph.image = glyphImage;
 
             } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                }
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
-                    }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                }
-
                 Pointer compressedTexture = null;
                 try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
+                    // Get raster data from rendered glyph and store in glyph data bank
+                    ByteBuffer paddedBuffer = createPaddedGlyphBuffer(ArgbImage.fromBufferedImage(glyphImage), cell_padding, channelCount);
 
                     compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
                     int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
@@ -16,7 +16,12 @@ package com.dynamo.bob.fs;
 
 import static org.apache.commons.io.FilenameUtils.concat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -24,6 +29,8 @@ import org.apache.commons.io.FilenameUtils;
 
 
 public abstract class AbstractResource<F extends IFileSystem> implements IResource {
+    protected static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     protected F fileSystem;
     protected String path;
     private boolean cacheable = true;
@@ -48,20 +55,64 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
 
     @Override
     public byte[] sha1() throws IOException {
-        byte[] content = getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
-        }
         MessageDigest sha1;
         try {
             sha1 = MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        try (InputStream is = openInputStream()) {
+            if (is == null) {
+                throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
+            }
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                sha1.update(buffer, 0, n);
+            }
+        }
         return sha1.digest();
     }
 
+    /**
+     * Open a stream to read the content. The default implementation reads the
+     * whole content, resources that can be read in parts should override it.
+     */
+    @Override
+    public InputStream openInputStream() throws IOException {
+        byte[] content = getContent();
+        return content != null ? new ByteArrayInputStream(content) : null;
+    }
+
+    /**
+     * Get the content as a buffer. The default implementation wraps the
+     * content, resources with a better representation should override it.
+     */
+    @Override
+    public ByteBuffer getByteBuffer() throws IOException {
+        byte[] content = getContent();
+        return content != null ? ByteBuffer.wrap(content).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * Open a stream to write the content. The default implementation collects
+     * the content and sets it when the stream is closed.
+     */
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+        return new ByteArrayOutputStream() {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    setContent(toByteArray());
+                }
+            }
+        };
+    }
+
     @Override
     public String getAbsPath() {
         return concat(fileSystem.getRootDirectory(), path);
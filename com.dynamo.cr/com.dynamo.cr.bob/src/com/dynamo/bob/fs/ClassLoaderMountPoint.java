@@ -14,6 +14,7 @@
 
 package com.dynamo.bob.fs;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -46,6 +47,12 @@ public class ClassLoaderMountPoint implements IMountPoint {
             }
         }
 
+        @Override
+        public InputStream openInputStream() throws IOException {
+            InputStream is = ClassLoaderMountPoint.this.resourceScanner.openInputStream(path);
+            return is != null ? new BufferedInputStream(is, STREAM_BUFFER_SIZE) : null;
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             throw new IOException("Zip resources can't be written to.");
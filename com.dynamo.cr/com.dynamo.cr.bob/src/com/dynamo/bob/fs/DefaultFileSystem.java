@@ -14,33 +14,48 @@
 
 package com.dynamo.bob.fs;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
+
+import com.dynamo.bob.util.MurmurHash;
+import com.dynamo.bob.util.SignatureStore;
 
 
 public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
-    static class CacheEntry implements Serializable {
-        private static final long serialVersionUID = 1L;
-        long mTime;
-        byte[] sha1;
-    }
+    // The cached sha1 of a file is valid as long as the size, modification time and
+    // file key (inode) of the file are the same. The cache value is the three keys
+    // followed by the sha1 of the content.
+    private static final int CACHE_KEY_SIZE = 8 + 8 + 8;
+    private static final int CACHE_VALUE_SIZE = CACHE_KEY_SIZE + 20;
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private SignatureStore cache = new SignatureStore(CACHE_VALUE_SIZE);
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    private static byte[] createCacheKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        // the file key is null on file systems without inodes (e.g. on Windows)
+        long fileKeyHash = fileKey != null ? MurmurHash.hash64(fileKey.toString()) : 0;
+        return ByteBuffer.allocate(CACHE_KEY_SIZE)
+            .putLong(attributes.size())
+            .putLong(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+            .putLong(fileKeyHash)
+            .array();
+    }
 
     @Override
     public IResource get(String path) {
@@ -54,63 +69,67 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
         return new DefaultResource(this, path);
     }
 
-    private byte[] calcSha1(DefaultResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
-        }
+    private static byte[] calcSha1(Path path) throws IOException {
         MessageDigest sha1;
         try {
             sha1 = MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        }
         return sha1.digest();
     }
 
     byte[] sha1(DefaultResource resource) throws IOException {
-        String absPath = resource.getAbsPath();
-        File file = new File(absPath);
-        CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
-            return e.sha1;
-        } else {
-            e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
-            cache.put(resource.getPath(), e);
-            return e.sha1;
+        Path path = new File(resource.getAbsPath()).toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
+        }
+        if (!attributes.isRegularFile()) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
         }
+
+        byte[] key = createCacheKey(attributes);
+        byte[] value = cache.get(resource.getPath());
+        if (value != null && value.length == CACHE_VALUE_SIZE && Arrays.equals(value, 0, CACHE_KEY_SIZE, key, 0, CACHE_KEY_SIZE)) {
+            return Arrays.copyOfRange(value, CACHE_KEY_SIZE, CACHE_VALUE_SIZE);
+        }
+        byte[] sha1 = calcSha1(path);
+        value = Arrays.copyOf(key, CACHE_VALUE_SIZE);
+        System.arraycopy(sha1, 0, value, CACHE_KEY_SIZE, sha1.length);
+        cache.put(resource.getPath(), value);
+        return sha1;
+    }
+
+    private String getCacheFileName() {
+        return FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectInputStream is = null;
+        cache = new SignatureStore(CACHE_VALUE_SIZE);
         try {
-            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
-            is.close();
+            // a cache written by an older version is discarded and replaced on save
+            cache = SignatureStore.open(new File(getCacheFileName()), CACHE_VALUE_SIZE);
         } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
-        } finally {
-            IOUtils.closeQuietly(is);
         }
     }
 
     @Override
     public void saveCache() {
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectOutputStream os = null;
         try {
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
-            os.writeObject(cache);
+            cache.save();
         } catch (IOException e) {
-        } finally {
-            IOUtils.closeQuietly(os);
         }
     }
 
@@ -21,6 +21,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -48,7 +52,38 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
     }
 
     @Override
-    public void setContent(byte[] content) throws IOException {
+    public InputStream openInputStream() throws IOException {
+        File f = new File(getAbsPath());
+        if (!f.exists())
+            return null;
+
+        return new BufferedInputStream(new FileInputStream(f), STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Get the content as a heap buffer. The file isn't memory mapped, since a
+     * mapped file can't be written to or removed on Windows until the mapping
+     * is garbage collected.
+     */
+    @Override
+    public ByteBuffer getByteBuffer() throws IOException {
+        File f = new File(getAbsPath());
+        if (!f.exists())
+            return null;
+
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    private File createParentDirectories() {
         File f = new File(getAbsPath());
         if (!f.exists()) {
             String dir = FilenameUtils.getFullPath(getAbsPath());
@@ -57,6 +92,18 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
                 dirFile.mkdirs();
             }
         }
+        return f;
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+        File f = createParentDirectories();
+        return new BufferedOutputStream(new FileOutputStream(f), STREAM_BUFFER_SIZE);
+    }
+
+    @Override
+    public void setContent(byte[] content) throws IOException {
+        File f = createParentDirectories();
 
         BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(f));
         try {
@@ -68,14 +115,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
     @Override
     public void setContent(InputStream stream) throws IOException {
-        File f = new File(getAbsPath());
-        if (!f.exists()) {
-            String dir = FilenameUtils.getFullPath(getAbsPath());
-            File dirFile = new File(dir);
-            if (!dirFile.exists()) {
-                dirFile.mkdirs();
-            }
-        }
+        File f = createParentDirectories();
 
         try {
             FileUtils.copyInputStreamToFile(stream, f);
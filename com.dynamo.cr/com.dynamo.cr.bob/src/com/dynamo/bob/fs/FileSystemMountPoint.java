@@ -18,6 +18,8 @@ import org.apache.commons.io.FilenameUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 public class FileSystemMountPoint implements IMountPoint {
@@ -75,11 +77,26 @@ public class FileSystemMountPoint implements IMountPoint {
             return resource.getContent();
         }
 
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return resource.openInputStream();
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() throws IOException {
+            return resource.getByteBuffer();
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             resource.setContent(content);
         }
 
+        @Override
+        public OutputStream openOutputStream() throws IOException {
+            return resource.openOutputStream();
+        }
+
         @Override
         public byte[] sha1() throws IOException {
             return resource.sha1();
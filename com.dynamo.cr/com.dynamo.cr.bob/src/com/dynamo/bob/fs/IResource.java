@@ -16,6 +16,8 @@ package com.dynamo.bob.fs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -40,6 +42,23 @@ public interface IResource {
      */
     byte[] getContent() throws IOException;
 
+    /**
+     * Open a stream to read the content of the resource, without reading
+     * the whole content into memory. The caller must close the stream.
+     * @return stream. <code>null</code> if the resource doesn't exists
+     * @throws IOException
+     */
+    InputStream openInputStream() throws IOException;
+
+    /**
+     * Get content for resource as a read-only buffer. The buffer may be a view
+     * of the underlying storage (e.g. a memory mapped zip file) and is only
+     * valid until the resource is changed or its file system is closed.
+     * @return content. <code>null</code> if the resource doesn't exists
+     * @throws IOException
+     */
+    ByteBuffer getByteBuffer() throws IOException;
+
     /**
      * Set content for resource. #
      * @note only valid operation for output-resources, see {@link IResource#output()}
@@ -110,6 +129,15 @@ public interface IResource {
      */
     void setContent(InputStream stream) throws IOException;
 
+    /**
+     * Open a stream to write the content of the resource. The content is set
+     * when the stream is closed.
+     * @note only valid operation for output-resources, see {@link IResource#output()}
+     * @return stream
+     * @throws IOException
+     */
+    OutputStream openOutputStream() throws IOException;
+
     /**
      * Get the time when the resource was modified
      * @return long representing Unix time when the resource was modified
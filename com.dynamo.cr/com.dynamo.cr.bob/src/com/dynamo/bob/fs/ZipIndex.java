@@ -0,0 +1,324 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import com.dynamo.bob.util.LibraryUtil;
+
+/**
+ * Index of the entries in a zip file, read from the central directory of the
+ * zip. Besides what is needed to read the entries directly from the zip file
+ * (offset of the data, sizes and compression method) the index holds the
+ * last modified time and sha1 of each entry and the include dirs of the
+ * library, so that none of it has to be read or calculated again.
+ *
+ * The index is saved next to the zip file and is used as long as the size and
+ * modification time of the zip file matches.
+ */
+class ZipIndex {
+
+    static final String INDEX_SUFFIX = ".index";
+
+    private static final int MAGIC = 0x5a494458; // "ZIDX"
+    private static final int VERSION = 1;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final long ZIP64_MARKER = 0xffffffffL;
+
+    static class Entry {
+        String name;
+        boolean directory;
+        int method;
+        long crc;
+        long compressedSize;
+        long size;
+        // offset of the entry data in the zip file, after the local header
+        long dataOffset;
+        long lastModified;
+        byte[] sha1;
+    }
+
+    long zipLength;
+    long zipLastModified;
+    String includeBaseDir = "";
+    // null if the zip isn't a project
+    Set<String> includeDirs = null;
+    List<Entry> entries = new ArrayList<>();
+    Map<String, Entry> entriesByName = new HashMap<>();
+
+    private ZipIndex() {
+    }
+
+    static File getIndexFile(File zipFile) {
+        return new File(zipFile.getPath() + INDEX_SUFFIX);
+    }
+
+    private void addEntry(Entry entry) {
+        entries.add(entry);
+        entriesByName.put(entry.name, entry);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer zip) throws ZipException {
+        // the end of central directory record is followed by a comment of at most 64k
+        int minOffset = Math.max(0, zip.limit() - EOCD_SIZE - 0xffff);
+        for (int offset = zip.limit() - EOCD_SIZE; offset >= minOffset; --offset) {
+            if (zip.getInt(offset) == EOCD_SIGNATURE) {
+                return offset;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /**
+     * Read the position of the entry data from the central directory.
+     * Zip64 archives aren't supported.
+     */
+    private static Map<String, Entry> readCentralDirectory(ByteBuffer zip) throws ZipException {
+        zip = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = findEndOfCentralDirectory(zip);
+        int count = Short.toUnsignedInt(zip.getShort(eocd + 10));
+        long cdOffset = Integer.toUnsignedLong(zip.getInt(eocd + 16));
+        if (count == 0xffff || cdOffset == ZIP64_MARKER) {
+            throw new ZipException("Zip64 archives are not supported");
+        }
+
+        Map<String, Entry> result = new HashMap<>(count);
+        int offset = (int) cdOffset;
+        for (int i = 0; i < count; ++i) {
+            if (zip.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+            Entry entry = new Entry();
+            entry.method = Short.toUnsignedInt(zip.getShort(offset + 10));
+            entry.crc = Integer.toUnsignedLong(zip.getInt(offset + 16));
+            entry.compressedSize = Integer.toUnsignedLong(zip.getInt(offset + 20));
+            entry.size = Integer.toUnsignedLong(zip.getInt(offset + 24));
+            int nameLength = Short.toUnsignedInt(zip.getShort(offset + 28));
+            int extraLength = Short.toUnsignedInt(zip.getShort(offset + 30));
+            int commentLength = Short.toUnsignedInt(zip.getShort(offset + 32));
+            long localOffset = Integer.toUnsignedLong(zip.getInt(offset + 42));
+            if (entry.compressedSize == ZIP64_MARKER || entry.size == ZIP64_MARKER || localOffset == ZIP64_MARKER) {
+                throw new ZipException("Zip64 archives are not supported");
+            }
+            byte[] name = new byte[nameLength];
+            zip.get(offset + CENTRAL_HEADER_SIZE, name);
+            // same charset as used by ZipFile by default
+            entry.name = new String(name, StandardCharsets.UTF_8);
+
+            // the extra field of the local header may differ from the one in the central directory
+            int local = (int) localOffset;
+            if (zip.getInt(local) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header for " + entry.name);
+            }
+            int localNameLength = Short.toUnsignedInt(zip.getShort(local + 26));
+            int localExtraLength = Short.toUnsignedInt(zip.getShort(local + 28));
+            entry.dataOffset = localOffset + LOCAL_HEADER_SIZE + localNameLength + localExtraLength;
+
+            result.put(entry.name, entry);
+            offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private static byte[] calculateSha1(InputStream is) throws IOException {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            sha1.update(buffer, 0, n);
+        }
+        return sha1.digest();
+    }
+
+    /**
+     * Create the index of a zip file
+     * @param zipFile the zip file
+     * @param zip the content of the zip file
+     * @param isProject true if the include dirs of the library should be read
+     * @return the index
+     */
+    static ZipIndex create(File zipFile, ByteBuffer zip, boolean isProject) throws IOException, ParseException {
+        ZipIndex index = new ZipIndex();
+        index.zipLength = zipFile.length();
+        index.zipLastModified = zipFile.lastModified();
+
+        Map<String, Entry> centralDirectory = readCentralDirectory(zip);
+        try (ZipFile file = new ZipFile(zipFile)) {
+            if (isProject) {
+                index.includeBaseDir = LibraryUtil.findIncludeBaseDir(file);
+                index.includeDirs = LibraryUtil.readIncludeDirsFromArchive(index.includeBaseDir, file);
+            }
+            // Use ZipFile for the modification time (which may come from an extra field)
+            // and the sha1, so that the values are the same as without the index
+            Enumeration<? extends ZipEntry> zipEntries = file.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                Entry entry = centralDirectory.get(zipEntry.getName());
+                if (entry == null) {
+                    throw new ZipException("Entry missing from central directory: " + zipEntry.getName());
+                }
+                entry.directory = zipEntry.isDirectory();
+                entry.lastModified = zipEntry.getLastModifiedTime().toMillis();
+                if (entry.directory) {
+                    entry.sha1 = new byte[0];
+                } else {
+                    try (InputStream is = file.getInputStream(zipEntry)) {
+                        entry.sha1 = calculateSha1(is);
+                    }
+                }
+                index.addEntry(entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Load the index of a zip file
+     * @param zipFile the zip file
+     * @param isProject true if the index should contain the include dirs of the library
+     * @return the index, or null if there is no index or it doesn't match the zip file
+     */
+    static ZipIndex load(File zipFile, boolean isProject) {
+        File indexFile = getIndexFile(zipFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                return null;
+            }
+            ZipIndex index = new ZipIndex();
+            index.zipLength = is.readLong();
+            index.zipLastModified = is.readLong();
+            if (index.zipLength != zipFile.length() || index.zipLastModified != zipFile.lastModified()) {
+                return null;
+            }
+            index.includeBaseDir = is.readUTF();
+            int includeDirCount = is.readInt();
+            if (includeDirCount >= 0) {
+                index.includeDirs = new HashSet<>();
+                for (int i = 0; i < includeDirCount; ++i) {
+                    index.includeDirs.add(is.readUTF());
+                }
+            }
+            if (isProject != (index.includeDirs != null)) {
+                return null;
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                Entry entry = new Entry();
+                entry.name = is.readUTF();
+                entry.directory = is.readBoolean();
+                entry.method = is.readUnsignedShort();
+                entry.crc = is.readLong();
+                entry.compressedSize = is.readLong();
+                entry.size = is.readLong();
+                entry.dataOffset = is.readLong();
+                entry.lastModified = is.readLong();
+                entry.sha1 = new byte[is.readUnsignedByte()];
+                is.readFully(entry.sha1);
+                index.addEntry(entry);
+            }
+            return index;
+        } catch (IOException e) {
+            // a damaged index is created again
+            return null;
+        }
+    }
+
+    /**
+     * Save the index next to the zip file
+     * @param zipFile the zip file
+     */
+    void save(File zipFile) throws IOException {
+        File indexFile = getIndexFile(zipFile);
+        File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        try {
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeLong(zipLength);
+                os.writeLong(zipLastModified);
+                os.writeUTF(includeBaseDir);
+                if (includeDirs != null) {
+                    os.writeInt(includeDirs.size());
+                    for (String dir : includeDirs) {
+                        os.writeUTF(dir);
+                    }
+                } else {
+                    os.writeInt(-1);
+                }
+                os.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    os.writeUTF(entry.name);
+                    os.writeBoolean(entry.directory);
+                    os.writeShort(entry.method);
+                    os.writeLong(entry.crc);
+                    os.writeLong(entry.compressedSize);
+                    os.writeLong(entry.size);
+                    os.writeLong(entry.dataOffset);
+                    os.writeLong(entry.lastModified);
+                    os.writeByte(entry.sha1.length);
+                    os.write(entry.sha1);
+                }
+            }
+            try {
+                Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmpFile.delete();
+        }
+    }
+}
@@ -14,14 +14,27 @@
 
 package com.dynamo.bob.fs;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipException;
@@ -29,17 +42,45 @@ import java.util.zip.ZipException;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.Platform;
 import com.dynamo.bob.fs.IFileSystem.IWalker;
+import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.util.LibraryUtil;
 
+/**
+ * Mount point for a zip file.
+ *
+ * In indexed mode the zip file is memory mapped and the entries are read
+ * directly from it, using a {@link ZipIndex} saved next to the zip file.
+ * On Windows the zip file is read into memory instead, since a mapped file
+ * can't be replaced or deleted, e.g. when a library is updated, until the
+ * mapping is garbage collected.
+ * The index also holds the last modified time and sha1 of each entry, so
+ * that the entries don't have to be read to calculate the signatures.
+ * Small deflated entries are kept inflated in memory once read.
+ */
 public class ZipMountPoint implements IMountPoint {
 
+    private static Logger logger = Logger.getLogger(ZipMountPoint.class.getName());
+
+    // Only deflated entries up to this size are kept inflated
+    private static final int MAX_CACHED_ENTRY_SIZE = 64 * 1024;
+    private static final long MAX_CACHED_SIZE = 8 * 1024 * 1024;
+
     IFileSystem fileSystem;
     String archivePath;
     ZipFile file;
     Set<String> includeDirs = null;
     String includeBaseDir = "";
     private boolean isProject = true; // is it a Defold project?
+    private boolean indexed = false;
+
+    // indexed mode
+    private ZipIndex index;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long cachedSize = 0;
+    private Map<String, byte[]> cachedEntries = new LinkedHashMap<>(16, 0.75f, true);
 
     private class ZipResource extends AbstractResource<IFileSystem> {
         ZipEntry entry;
@@ -62,6 +103,11 @@ public class ZipMountPoint implements IMountPoint {
             }
         }
 
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return new BufferedInputStream(file.getInputStream(this.entry), STREAM_BUFFER_SIZE);
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             throw new IOException("Zip resources can't be written to.");
@@ -94,6 +140,142 @@ public class ZipMountPoint implements IMountPoint {
         }
     }
 
+    private class IndexedZipResource extends AbstractResource<IFileSystem> {
+        ZipIndex.Entry entry;
+
+        public IndexedZipResource(IFileSystem fileSystem, String path, ZipIndex.Entry entry) {
+            super(fileSystem, path);
+            this.entry = entry;
+        }
+
+        @Override
+        public byte[] getContent() throws IOException {
+            return readEntry(this.entry);
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            if (this.entry.method == ZipEntry.DEFLATED && this.entry.size <= MAX_CACHED_ENTRY_SIZE) {
+                return new ByteArrayInputStream(readEntry(this.entry));
+            }
+            return new EntryInputStream(this.entry, getEntryData(this.entry));
+        }
+
+        /**
+         * Stored entries are returned as a view of the memory mapped zip file,
+         * without copying the content.
+         */
+        @Override
+        public ByteBuffer getByteBuffer() throws IOException {
+            if (this.entry.method == ZipEntry.STORED) {
+                return getEntryData(this.entry).asReadOnlyBuffer();
+            }
+            return ByteBuffer.wrap(readEntry(this.entry)).asReadOnlyBuffer();
+        }
+
+        @Override
+        public byte[] sha1() throws IOException {
+            return entry.sha1.clone();
+        }
+
+        @Override
+        public void setContent(byte[] content) throws IOException {
+            throw new IOException("Zip resources can't be written to.");
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public void remove() {
+            throw new RuntimeException("Zip resources can't be removed.");
+        }
+
+        @Override
+        public void setContent(InputStream stream) throws IOException {
+            throw new IOException("Zip resources can't be removed.");
+        }
+
+        @Override
+        public long getLastModified() {
+            return entry.lastModified;
+        }
+
+        @Override
+        public boolean isFile() {
+            return !entry.directory;
+        }
+    }
+
+    // Reads a stored or deflated entry from the memory mapped zip file
+    private class EntryInputStream extends InputStream {
+        private ZipIndex.Entry entry;
+        private ByteBuffer data;
+        private Inflater inflater;
+        private CRC32 crc = new CRC32();
+        private long remaining;
+
+        EntryInputStream(ZipIndex.Entry entry, ByteBuffer data) throws IOException {
+            this.entry = entry;
+            this.data = data;
+            this.remaining = entry.directory ? 0 : entry.size;
+            if (entry.method == ZipEntry.DEFLATED) {
+                this.inflater = new Inflater(true);
+                this.inflater.setInput(data);
+            } else if (entry.method != ZipEntry.STORED) {
+                throw new IOException(String.format("Unsupported compression method %d for '%s' in '%s'", entry.method, entry.name, archivePath));
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? (b[0] & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            len = (int) Math.min(len, remaining);
+            int n;
+            if (inflater == null) {
+                data.get(b, off, len);
+                n = len;
+            } else {
+                try {
+                    n = inflater.inflate(b, off, len);
+                } catch (DataFormatException e) {
+                    throw new IOException(String.format("Failed to inflate '%s' in '%s': %s", entry.name, archivePath, e.getMessage()));
+                }
+                if (n == 0) {
+                    throw new EOFException(String.format("Unexpected end of '%s' in '%s'", entry.name, archivePath));
+                }
+                crc.update(b, off, n);
+            }
+            remaining -= n;
+            if (remaining == 0 && inflater != null && crc.getValue() != entry.crc) {
+                throw new IOException(String.format("Invalid CRC for '%s' in '%s'", entry.name, archivePath));
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            remaining = 0;
+        }
+    }
+
     public ZipMountPoint(IFileSystem fileSystem, String archivePath) {
         this.fileSystem = fileSystem;
         this.archivePath = archivePath;
@@ -105,8 +287,119 @@ public class ZipMountPoint implements IMountPoint {
         this.isProject = projectZip;
     }
 
+    /**
+     * Create a zip mount point
+     * @param fileSystem the file system
+     * @param archivePath path to the zip file
+     * @param projectZip true if the zip is a Defold project (library)
+     * @param indexed true if the zip should be mounted in indexed mode, where an index is saved next to the zip file
+     */
+    public ZipMountPoint(IFileSystem fileSystem, String archivePath, boolean projectZip, boolean indexed) {
+        this(fileSystem, archivePath, projectZip);
+        this.indexed = indexed;
+    }
+
+    /**
+     * Get the index file saved next to a zip file mounted in indexed mode
+     * @param archive the zip file
+     * @return the index file
+     */
+    public static File getIndexFile(File archive) {
+        return ZipIndex.getIndexFile(archive);
+    }
+
+    private byte[] getCachedEntry(String name) {
+        synchronized (cachedEntries) {
+            byte[] content = cachedEntries.get(name);
+            return content != null ? content.clone() : null;
+        }
+    }
+
+    private void putCachedEntry(String name, byte[] content) {
+        synchronized (cachedEntries) {
+            if (cachedEntries.put(name, content) == null) {
+                cachedSize += content.length;
+            }
+            Iterator<byte[]> it = cachedEntries.values().iterator();
+            while (cachedSize > MAX_CACHED_SIZE && it.hasNext()) {
+                cachedSize -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    private ByteBuffer getEntryData(ZipIndex.Entry entry) throws IOException {
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            throw new IOException(String.format("Zip file '%s' is not mounted", this.archivePath));
+        }
+        if (entry.directory) {
+            return ByteBuffer.allocate(0);
+        }
+        return buffer.slice((int) entry.dataOffset, (int) entry.compressedSize);
+    }
+
+    private byte[] readEntry(ZipIndex.Entry entry) throws IOException {
+        ByteBuffer data = getEntryData(entry);
+        if (entry.directory) {
+            return new byte[0];
+        }
+        if (entry.method == ZipEntry.STORED) {
+            byte[] content = new byte[(int) entry.size];
+            data.get(content);
+            return content;
+        }
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new IOException(String.format("Unsupported compression method %d for '%s' in '%s'", entry.method, entry.name, this.archivePath));
+        }
+
+        boolean cache = entry.size <= MAX_CACHED_ENTRY_SIZE;
+        if (cache) {
+            byte[] content = getCachedEntry(entry.name);
+            if (content != null) {
+                return content;
+            }
+        }
+        byte[] content = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            int offset = 0;
+            while (offset < content.length && !inflater.finished()) {
+                int n = inflater.inflate(content, offset, content.length - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != content.length) {
+                throw new IOException(String.format("Failed to inflate '%s' in '%s'", entry.name, this.archivePath));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(String.format("Failed to inflate '%s' in '%s': %s", entry.name, this.archivePath, e.getMessage()));
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (crc.getValue() != entry.crc) {
+            throw new IOException(String.format("Invalid CRC for '%s' in '%s'", entry.name, this.archivePath));
+        }
+        if (cache) {
+            putCachedEntry(entry.name, content.clone());
+        }
+        return content;
+    }
+
     @Override
     public IResource get(String path) {
+        if (this.index != null) {
+            ZipIndex.Entry entry = null;
+            if (!this.isProject || includes(path)) {
+                entry = this.index.entriesByName.get(this.includeBaseDir + path);
+            }
+            return entry != null ? new IndexedZipResource(this.fileSystem, path, entry) : null;
+        }
         ZipEntry entry = null;
         if (this.isProject) {
             if (this.file != null && includes(path)) {
@@ -123,6 +416,9 @@ public class ZipMountPoint implements IMountPoint {
 
     @Override
     public void mount() throws IOException {
+        if (this.indexed && mountIndexed()) {
+            return;
+        }
         try {
             this.file = new ZipFile(this.archivePath);
 
@@ -137,8 +433,64 @@ public class ZipMountPoint implements IMountPoint {
         }
     }
 
+    // Returns false if the zip file can't be memory mapped or indexed, e.g. zip64 archives
+    private boolean mountIndexed() throws IOException {
+        File archive = new File(this.archivePath);
+        if (archive.length() > Integer.MAX_VALUE) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer;
+            if (Platform.getHostPlatform().getOs().equals("win32")) {
+                buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+                channel.close();
+            } else {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ZipIndex index = ZipIndex.load(archive, this.isProject);
+            if (index == null) {
+                index = ZipIndex.create(archive, buffer, this.isProject);
+                try {
+                    index.save(archive);
+                } catch (IOException e) {
+                    logger.warning("Failed to save zip index for '%s': %s", this.archivePath, e.getMessage());
+                }
+            }
+            this.channel = channel;
+            this.buffer = buffer;
+            this.index = index;
+            this.includeBaseDir = index.includeBaseDir;
+            this.includeDirs = index.includeDirs;
+            return true;
+        } catch (ZipException e) {
+            channel.close();
+            logger.fine("Zip file '%s' can't be indexed: %s", this.archivePath, e.getMessage());
+            return false;
+        } catch (ParseException e) {
+            channel.close();
+            throw new IOException(e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
     @Override
     public void unmount() {
+        if (this.index != null) {
+            IOUtils.closeQuietly(this.channel);
+            this.channel = null;
+            this.buffer = null;
+            this.index = null;
+            synchronized (cachedEntries) {
+                cachedEntries.clear();
+                cachedSize = 0;
+            }
+        }
         // Zip files are not quietly closeable on their own
         IOUtils.closeQuietly(new Closeable() {
             @Override
@@ -154,30 +506,37 @@ public class ZipMountPoint implements IMountPoint {
     @Override
     public void walk(String path, IWalker walker, Collection<String> results) {
         path = FilenameUtils.normalizeNoEndSeparator(path, true);
-        if (this.file != null) {
+        if (this.index != null) {
+            for (ZipIndex.Entry entry : this.index.entries) {
+                walkEntry(entry.name, entry.directory, path, walker, results);
+            }
+        } else if (this.file != null) {
             Enumeration<? extends ZipEntry> entries = this.file.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
-                String entryPath = entry.getName();
-                if (this.isProject) {
-                    if (entryPath.startsWith(this.includeBaseDir)) {
-                        entryPath = entryPath.substring(this.includeBaseDir.length());
-                        if (includes(entryPath) && entryPath.startsWith(path)) {
-                            if (entry.isDirectory()) {
-                                walker.handleDirectory(entryPath, results);
-                            } else {
-                                walker.handleFile(entryPath, results);
-                            }
-                        }
-                    }
-                } else {
-                    if (entry.isDirectory()) {
+                walkEntry(entry.getName(), entry.isDirectory(), path, walker, results);
+            }
+        }
+    }
+
+    private void walkEntry(String entryPath, boolean isDirectory, String path, IWalker walker, Collection<String> results) {
+        if (this.isProject) {
+            if (entryPath.startsWith(this.includeBaseDir)) {
+                entryPath = entryPath.substring(this.includeBaseDir.length());
+                if (includes(entryPath) && entryPath.startsWith(path)) {
+                    if (isDirectory) {
                         walker.handleDirectory(entryPath, results);
                     } else {
                         walker.handleFile(entryPath, results);
                     }
                 }
             }
+        } else {
+            if (isDirectory) {
+                walker.handleDirectory(entryPath, results);
+            } else {
+                walker.handleFile(entryPath, results);
+            }
         }
     }
 
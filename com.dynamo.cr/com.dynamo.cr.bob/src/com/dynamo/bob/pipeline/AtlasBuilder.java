@@ -44,7 +44,7 @@ import com.dynamo.gamesys.proto.AtlasProto.AtlasImage;
 
 import com.google.protobuf.TextFormat;
 
-@BuilderParams(name = "Atlas", inExts = {".atlas"}, outExt = ".a.texturesetc")
+@BuilderParams(name = "Atlas", inExts = {".atlas"}, outExt = ".a.texturesetc", concurrency = BuilderParams.Concurrency.HEAVY_NATIVE)
 public class AtlasBuilder extends Builder<TextureImage.Type>  {
 
     private static Logger logger = Logger.getLogger(AtlasBuilder.class.getName());
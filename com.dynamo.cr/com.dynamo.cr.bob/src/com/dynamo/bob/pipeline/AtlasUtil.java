@@ -26,10 +26,12 @@ import java.util.HashSet;
 
 import javax.imageio.ImageIO;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FilenameUtils;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.ParallelUtil;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.textureset.TextureSetGenerator;
@@ -323,6 +325,10 @@ public class AtlasUtil {
         }
         List<IResource> imageResources = toResources(atlasResource, imageResourcePaths);
         List<BufferedImage> images = TextureUtil.loadImages(imageResources);
+        List<String> imageKeys = new ArrayList<String>(imageResources.size());
+        for (IResource imageResource : imageResources) {
+            imageKeys.add(Hex.encodeHexString(imageResource.sha1()));
+        }
 
         List<String> imageNames = new ArrayList<String>();
         int imageCount = imageResourcePaths.size();
@@ -335,7 +341,7 @@ public class AtlasUtil {
         List<MappedAnimDesc> animDescs = createAnimDescs(atlas, transformer);
         MappedAnimIterator iterator = new MappedAnimIterator(animDescs, imageResourcePaths);
         try {
-            TextureSetResult result = TextureSetGenerator.generate(images, imageTrimModes, imageNames, iterator,
+            TextureSetResult result = TextureSetGenerator.generate(images, imageKeys, imageTrimModes, imageNames, iterator,
                 Math.max(0, atlas.getMargin()),
                 Math.max(0, atlas.getInnerPadding()),
                 Math.max(0, atlas.getExtrudeBorders()),
@@ -353,18 +359,18 @@ public class AtlasUtil {
 
     // For AtlasBuilder,java:main()
     private static List<BufferedImage> loadImagesFromPaths(List<String> resourcePaths) throws IOException, CompileExceptionError {
-        List<BufferedImage> images = new ArrayList<BufferedImage>(resourcePaths.size());
-
-        for (String path : resourcePaths) {
-
-            BufferedImage image = ImageIO.read(new FileInputStream(path));
+        return ParallelUtil.map(resourcePaths.size(), i -> {
+            String path = resourcePaths.get(i);
+            BufferedImage image;
+            try (FileInputStream is = new FileInputStream(path)) {
+                image = ImageIO.read(is);
+            }
 
             if (image == null) {
                 throw new CompileExceptionError("Unable to load image from path: " + path);
             }
-            images.add(image);
-        }
-        return images;
+            return image;
+        });
     }
 
     // For AtlasBuilder.java:main()
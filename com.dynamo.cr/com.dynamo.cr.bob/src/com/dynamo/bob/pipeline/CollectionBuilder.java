@@ -34,6 +34,7 @@ import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.bob.util.PropertiesUtil;
 import com.dynamo.bob.util.ComponentsCounter;
 import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.CollectionDescOrBuilder;
 import com.dynamo.gameobject.proto.GameObject.CollectionInstanceDesc;
 import com.dynamo.gameobject.proto.GameObject.ComponentPropertyDesc;
 import com.dynamo.gameobject.proto.GameObject.EmbeddedInstanceDesc;
@@ -47,17 +48,15 @@ import com.dynamo.properties.proto.PropertiesProto.PropertyDeclarations;
 public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
     private Map<IResource, Integer> compCounterInputsCount = new HashMap<>();
 
-    private void collectSubCollections(CollectionDesc.Builder collection, Map<IResource, Integer> subCollections) throws CompileExceptionError, IOException {
+    private void collectSubCollections(CollectionDescOrBuilder collection, Map<IResource, Integer> subCollections) throws CompileExceptionError, IOException {
         for (CollectionInstanceDesc sub : collection.getCollectionInstancesList()) {
             IResource subResource = project.getResource(sub.getCollection());
             subCollections.put(subResource, subCollections.getOrDefault(subResource, 0) + 1);
-            CollectionDesc.Builder builder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(subResource, builder);
-            collectSubCollections(builder, subCollections);
+            collectSubCollections(ProtoUtil.parse(subResource, CollectionDesc.getDefaultInstance()), subCollections);
         }
     }
 
-    private void createGeneratedResources(Project project, CollectionDesc.Builder builder,
+    private void createGeneratedResources(Project project, CollectionDescOrBuilder builder,
         Map<Long, IResource> uniqueResources, Map<Long, IResource> allResources) throws IOException, CompileExceptionError {
 
         for (EmbeddedInstanceDesc desc : builder.getEmbeddedInstancesList()) {
@@ -79,10 +78,9 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
 
         for (CollectionInstanceDesc c : builder.getCollectionInstancesList()) {
             IResource collectionResource = this.project.getResource(c.getCollection());
-            CollectionDesc.Builder subCollectionBuilder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(collectionResource, subCollectionBuilder);
+            CollectionDesc subCollection = ProtoUtil.parse(collectionResource, CollectionDesc.getDefaultInstance());
 
-            createGeneratedResources(project, subCollectionBuilder, uniqueResources, allResources);
+            createGeneratedResources(project, subCollection, uniqueResources, allResources);
         }
     }
 
@@ -204,8 +202,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
         Map<String, List<ComponentPropertyDesc>> properties = new HashMap<String, List<ComponentPropertyDesc>>();
         for (CollectionInstanceDesc collInst : collectionBuilder.getCollectionInstancesList()) {
             IResource collResource = this.project.getResource(collInst.getCollection());
-            CollectionDesc.Builder subCollBuilder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(collResource, subCollBuilder);
+            CollectionDesc.Builder subCollBuilder = ProtoUtil.parse(collResource, CollectionDesc.getDefaultInstance()).toBuilder();
             mergeSubCollections(owner, subCollBuilder);
             // Collect child ids
             childIds.clear();
@@ -24,7 +24,7 @@ import com.dynamo.bob.fs.DefaultFileSystem;
 
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 
-@BuilderParams(name = "ComputeProgram", inExts = ".cp", outExt = ".cpc")
+@BuilderParams(name = "ComputeProgram", inExts = ".cp", outExt = ".cpc", concurrency = BuilderParams.Concurrency.HEAVY_NATIVE)
 public class ComputeProgramBuilder extends ShaderProgramBuilder {
     private static final ShaderDesc.ShaderType SHADER_TYPE = ShaderDesc.ShaderType.SHADER_TYPE_COMPUTE;
 
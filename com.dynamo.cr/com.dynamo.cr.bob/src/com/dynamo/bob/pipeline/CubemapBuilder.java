@@ -34,7 +34,7 @@ import com.dynamo.graphics.proto.Graphics.TextureImage.Image;
 import com.dynamo.graphics.proto.Graphics.TextureImage.Type;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
 
-@BuilderParams(name = "Cubemap", inExts = {".cubemap"}, outExt = ".texturec", ignoreTaskAutoCreation = true)
+@BuilderParams(name = "Cubemap", inExts = {".cubemap"}, outExt = ".texturec", ignoreTaskAutoCreation = true, concurrency = BuilderParams.Concurrency.HEAVY_NATIVE)
 public class CubemapBuilder extends Builder<Void> {
 
     private static Logger logger = Logger.getLogger(CubemapBuilder.class.getName());
@@ -23,10 +23,14 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -178,6 +182,26 @@ public class ExtenderUtil {
             this.content = content;
 		}
 
+		@Override
+		public InputStream openInputStream() throws IOException {
+			return new ByteArrayInputStream(content);
+		}
+
+		@Override
+		public ByteBuffer getByteBuffer() throws IOException {
+			return ByteBuffer.wrap(content).asReadOnlyBuffer();
+		}
+
+		@Override
+		public OutputStream openOutputStream() throws IOException {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					DynamicResource.this.content = toByteArray();
+				}
+			};
+		}
+
 		@Override
 		public byte[] sha1() throws IOException {
             byte[] content = getContent();
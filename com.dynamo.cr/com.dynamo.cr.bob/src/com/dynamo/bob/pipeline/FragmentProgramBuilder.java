@@ -24,7 +24,7 @@ import com.dynamo.bob.fs.DefaultFileSystem;
 
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 
-@BuilderParams(name = "FragmentProgram", inExts = ".fp", outExt = ".fpc")
+@BuilderParams(name = "FragmentProgram", inExts = ".fp", outExt = ".fpc", concurrency = BuilderParams.Concurrency.HEAVY_NATIVE)
 public class FragmentProgramBuilder extends ShaderProgramBuilder {
     private static final ShaderDesc.ShaderType SHADER_TYPE = ShaderDesc.ShaderType.SHADER_TYPE_FRAGMENT;
 
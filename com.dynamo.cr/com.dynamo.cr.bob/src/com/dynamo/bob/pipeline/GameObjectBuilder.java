@@ -16,7 +16,6 @@ package com.dynamo.bob.pipeline;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -262,9 +261,7 @@ public class GameObjectBuilder extends Builder<Void> {
                     if (!labelResource.exists()) {
                         labelResource = labelResource.output();
                     }
-                    FileReader reader = new FileReader(labelResource.getAbsPath());
-                    LabelDesc.Builder lb = LabelDesc.newBuilder();
-                    TextFormat.merge(reader, lb);
+                    LabelDesc lb = ProtoUtil.parse(labelResource, LabelDesc.getDefaultInstance());
                     if (lb.hasScale()) {
                         Vector4One labelScaleV4 = lb.getScale();
                         Vector3One labelScaleV3 = Vector3One.newBuilder().setX(labelScaleV4.getX()).setY(labelScaleV4.getY()).setZ(labelScaleV4.getZ()).build();
@@ -52,6 +52,7 @@ import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.archive.publisher.Publisher;
 import com.dynamo.bob.bundle.BundleHelper;
+import com.dynamo.bob.cache.LocalResourceCache;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.FileUtil;
 import com.dynamo.bob.logging.Logger;
@@ -77,7 +78,7 @@ import com.dynamo.rig.proto.Rig.Skeleton;
 import com.dynamo.rig.proto.Rig.RigScene;
 import com.dynamo.rig.proto.Rig.AnimationSet;
 
-@BuilderParams(name = "GameProjectBuilder", inExts = ".project", outExt = "", createOrder = 1000)
+@BuilderParams(name = "GameProjectBuilder", inExts = ".project", outExt = "", createOrder = 1000, restorable = false)
 public class GameProjectBuilder extends Builder<Void> {
 
     private static Logger logger = Logger.getLogger(GameProjectBuilder.class.getName());
@@ -233,6 +234,7 @@ public class GameProjectBuilder extends Builder<Void> {
         archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
         archiveIndex.close();
         archiveData.close();
+        TimeProfiler.addData("compressionCacheHits", archiveBuilder.getCompressionCacheHits());
         TimeProfiler.stop();
 
         // Populate publisher with the resource pack
@@ -270,13 +272,14 @@ public class GameProjectBuilder extends Builder<Void> {
 
         if (project.option("keep-unused", "false").equals("true")) {
             // All outputs of the project should be considered resources
+            List<IResource> resources = new ArrayList<>();
             for (String path : project.getOutputs().keySet()) {
                 // the paths are absolute and include the root directory
                 // we need a path relative to the project root
                 String relativePath = project.getPathRelativeToRootDirectory(path);
-                IResource resource = project.getResource(relativePath);
-                graph.add(resource);
+                resources.add(project.getResource(relativePath));
             }
+            graph.add(resources);
             return graph;
         }
 
@@ -288,19 +291,19 @@ public class GameProjectBuilder extends Builder<Void> {
             {"input", "game_binding", "/input/game.input_bindingc"},
             {"input", "gamepads", "/builtins/input/default.gamepadsc"},
             {"display", "display_profiles", "/builtins/render/default.display_profilesc"}};
+        List<IResource> roots = new ArrayList<>();
         for (String[] tuples : ROOT_NODES) {
             String path = project.getProjectProperties().getStringValue(tuples[0], tuples[1], tuples[2]);
             if (path != null) {
-                IResource resource = project.getResource(path);
-                graph.add(resource);
+                roots.add(project.getResource(path));
             }
         }
 
         // Editor debugger scripts
         if (project.option("variant", Bob.VARIANT_RELEASE).equals(Bob.VARIANT_DEBUG)) {
-            IResource resource = project.getResource("/builtins/scripts/debugger.luac");
-            graph.add(resource);
+            roots.add(project.getResource("/builtins/scripts/debugger.luac"));
         }
+        graph.add(roots);
         return graph;
     }
 
@@ -459,6 +462,8 @@ public class GameProjectBuilder extends Builder<Void> {
                 // create the archive and manifest
                 ManifestBuilder manifestBuilder = createManifestBuilder(resourceGraph);
                 ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder, getResourcePadding());
+                archiveBuilder.setMaxThreads(project.getMaxCpuThreads());
+                archiveBuilder.setCompressionCache(new LocalResourceCache(new File(project.getBuildCachePath(), "archive"), project.getArchiveCacheMaxSize()));
                 createArchive(archiveBuilder, resources, archiveIndex, archiveData, excludedResources, resourcePackDirectory);
                 byte[] manifestFile = manifestBuilder.buildManifest();
 
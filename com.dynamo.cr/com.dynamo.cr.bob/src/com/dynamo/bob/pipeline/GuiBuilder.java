@@ -14,9 +14,7 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -52,7 +50,6 @@ import com.dynamo.gamesys.proto.Gui.SceneDesc.MaterialDesc;
 import com.dynamo.gamesys.proto.Gui.SceneDesc.ResourceDesc;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Descriptors.FieldDescriptor;
-import com.google.protobuf.TextFormat;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -707,9 +704,11 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
             SceneDesc.Builder sceneBuilder = resourceCache.get(resourcePath);
             if(sceneBuilder == null) {
                 IResource templateSceneResource = this.project.getResource(resourcePath);
-                InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(templateSceneResource.getContent()), "ASCII");
-                sceneBuilder = SceneDesc.newBuilder();
-                TextFormat.merge(reader, sceneBuilder);
+                try {
+                    sceneBuilder = ProtoUtil.parse(templateSceneResource, SceneDesc.getDefaultInstance()).toBuilder();
+                } catch (CompileExceptionError e) {
+                    throw new IOException(e.getMessage(), e);
+                }
                 MergeOriginalValuesIntoLayouts(sceneBuilder);
                 resourceCache.put(resourcePath, sceneBuilder);
             }
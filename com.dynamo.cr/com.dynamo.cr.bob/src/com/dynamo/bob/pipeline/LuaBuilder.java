@@ -74,6 +74,29 @@ public abstract class LuaBuilder extends Builder<Void> {
 
     private Map<String, LuaScanner> luaScanners = new HashMap();
 
+    // Builders run in parallel so the plugins are created under a lock
+    private static synchronized List<ILuaPreprocessor> getLuaPreprocessors() {
+        if (luaPreprocessors == null) {
+            luaPreprocessors = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaPreprocessor.class);
+
+            if (luaPreprocessors == null) {
+                luaPreprocessors = new ArrayList<ILuaPreprocessor>(0);
+            }
+        }
+        return luaPreprocessors;
+    }
+
+    private static synchronized List<ILuaObfuscator> getLuaObfuscators() {
+        if (luaObfuscators == null) {
+            luaObfuscators = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaObfuscator.class);
+
+            if (luaObfuscators == null) {
+                luaObfuscators = new ArrayList<ILuaObfuscator>(0);
+            }
+        }
+        return luaObfuscators;
+    }
+
     /**
      * Get a LuaScanner instance for a resource
      * This will cache the LuaScanner instance per resource to avoid parsing the
@@ -90,15 +113,7 @@ public abstract class LuaBuilder extends Builder<Void> {
             String script = new String(scriptBytes, "UTF-8");
 
             // Create and run preprocessors if some exists.
-            if (luaPreprocessors == null) {
-                luaPreprocessors = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaPreprocessor.class);
-
-                if (luaPreprocessors == null) {
-                    luaPreprocessors = new ArrayList<ILuaPreprocessor>(0);
-                }
-            }
-
-            for (ILuaPreprocessor luaPreprocessor : luaPreprocessors) {
+            for (ILuaPreprocessor luaPreprocessor : getLuaPreprocessors()) {
                 try {
                     script = luaPreprocessor.preprocess(script, path, variant);
                 }
@@ -148,6 +163,32 @@ public abstract class LuaBuilder extends Builder<Void> {
         return taskBuilder.build();
     }
 
+    // Create a compile error from the output of luajit/luac, pointing at the line of the error if possible
+    CompileExceptionError createCompileError(Task<Void> task, String cmdOutput) {
+        // first delimiter is the executable name "luajit:" or "luac:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    return new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        else {
+            System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit/luac said.
+        return new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
     public byte[] constructBytecode(Task<Void> task, String source, File inputFile, File outputFile, List<String> options, Map<String, String> env) throws IOException, CompileExceptionError {
         FileOutputStream fo = null;
         RandomAccessFile rdr = null;
@@ -178,29 +219,8 @@ public abstract class LuaBuilder extends Builder<Void> {
 
                 String cmdOutput = new String(buf);
                 if (ret != 0) {
-                    // first delimiter is the executable name "luajit:" or "luac:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    else {
-                        System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit/luac said.
                     inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+                    throw createCompileError(task, cmdOutput);
                 }
             } catch (InterruptedException e) {
                 logger.severe("Unexpected interruption", e);
@@ -327,6 +347,34 @@ public abstract class LuaBuilder extends Builder<Void> {
         return constructBytecode(task, source, inputFile, outputFile, options, env);
     }
 
+    /**
+     * Generate 32 and/or 64 bit bytecode for a script. The bytecode is generated
+     * by a persistent luajit worker process (see {@link LuaJITCompiler}) instead
+     * of starting luajit once per script and bit width. If the worker can't be
+     * used the luajit executable is run directly.
+     * @return list with the 32 bit bytecode first, if requested, followed by the 64 bit bytecode, if requested
+     */
+    List<byte[]> compileLuaJITBytecode(Task<Void> task, String luajitExe, String source, boolean needs32bit, boolean needs64bit) throws IOException, CompileExceptionError {
+        if (!needs32bit && !needs64bit) {
+            return new ArrayList<byte[]>();
+        }
+        boolean[] gen32bit = needs32bit && needs64bit ? new boolean[] { true, false } : new boolean[] { needs32bit };
+        try {
+            LuaJITCompiler.Result result = LuaJITCompiler.compile(luajitExe, getChunkName(task), source.getBytes(), gen32bit);
+            if (result.error != null) {
+                throw createCompileError(task, result.error);
+            }
+            return result.bytecode;
+        } catch (IOException e) {
+            logger.warning("Failed to compile '%s' using the LuaJIT compiler worker, running luajit instead: %s", task.input(0).getPath(), e.getMessage());
+        }
+        List<byte[]> bytecode = new ArrayList<byte[]>();
+        for (boolean is32bit : gen32bit) {
+            bytecode.add(constructLuaJITBytecode(task, luajitExe, source, is32bit));
+        }
+        return bytecode;
+    }
+
     public byte[] constructBytecodeDelta(byte[] bytecode64, byte[] bytecode32) throws CompileExceptionError
     {
         // expect same length on 32 and 64 bit bytecode if storing a delta
@@ -426,19 +474,11 @@ public abstract class LuaBuilder extends Builder<Void> {
         builder.addAllPropertyResources(propertyResources);
 
         // Create and run obfuscators if some exists.
-        if (luaObfuscators == null) {
-            luaObfuscators = PluginScanner.getOrCreatePlugins("com.defold.extension.pipeline", ILuaObfuscator.class);
-
-            if (luaObfuscators == null) {
-                luaObfuscators = new ArrayList<ILuaObfuscator>(0);
-            }
-        }
-
         final IResource sourceResource = task.input(0);
         final String sourcePath = sourceResource.getAbsPath();
         final String variant = project.option("variant", Bob.VARIANT_RELEASE);
 
-        for (ILuaObfuscator luaObfuscator : luaObfuscators) {
+        for (ILuaObfuscator luaObfuscator : getLuaObfuscators()) {
             try {
                 script = luaObfuscator.obfuscate(script, sourcePath, variant);
             }
@@ -498,10 +538,11 @@ public abstract class LuaBuilder extends Builder<Void> {
             final String luajitExe = Platform.getHostPlatform().is64bit() ? "luajit-64" : "luajit-32";
             byte[] bytecode32 = new byte[0];
             byte[] bytecode64 = new byte[0];
+            List<byte[]> bytecode = compileLuaJITBytecode(task, luajitExe, script, needs32bit, needs64bit);
             if (needs32bit)
-                bytecode32 = constructLuaJITBytecode(task, luajitExe, script, true);
+                bytecode32 = bytecode.get(0);
             if (needs64bit)
-                bytecode64 = constructLuaJITBytecode(task, luajitExe, script, false);
+                bytecode64 = bytecode.get(bytecode.size() - 1);
 
             if ( needs32bit ^ needs64bit ) { // if only one of them is set
                 if (needs64bit) {
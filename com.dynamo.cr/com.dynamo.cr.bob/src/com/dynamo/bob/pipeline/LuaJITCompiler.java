@@ -0,0 +1,221 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
+import com.dynamo.bob.logging.Logger;
+
+/**
+ * Compiles Lua source to LuaJIT bytecode using persistent luajit processes
+ * running luajit_worker.lua. Each worker compiles one script at a time, reading
+ * the source from stdin and writing the bytecode to stdout, for one or both bit
+ * widths. The output is the same as from "luajit -b -d -g -W|-X -F <path>".
+ *
+ * Workers are started when needed and are reused until {@link #shutdown()} is
+ * called at the end of the build.
+ */
+public class LuaJITCompiler {
+
+    private static Logger logger = Logger.getLogger(LuaJITCompiler.class.getName());
+
+    private static final String WORKER_SCRIPT = "luajit_worker.lua";
+
+    /**
+     * Result of compiling a script
+     */
+    public static class Result {
+        // bytecode for each of the requested modes, or null if the script didn't compile
+        public List<byte[]> bytecode;
+        // compiler output in the same format as from the luajit executable, e.g. "luajit: main/a.lua:2: <message>"
+        public String error;
+    }
+
+    private static class Worker {
+        Process process;
+        OutputStream out;
+        InputStream in;
+    }
+
+    private static final Deque<Worker> idleWorkers = new ArrayDeque<>();
+    private static File workerScript = null;
+    private static boolean shutdownHookAdded = false;
+
+    private static synchronized File getWorkerScript() throws IOException {
+        if (workerScript == null) {
+            Bob.initLua();
+            File file = new File(Bob.getRootFolder(), "share/" + WORKER_SCRIPT);
+            FileUtils.copyInputStreamToFile(LuaJITCompiler.class.getResourceAsStream(WORKER_SCRIPT), file);
+            workerScript = file;
+        }
+        return workerScript;
+    }
+
+    // used in tests, null restores the default worker script
+    static void setWorkerScript(File file) {
+        shutdown();
+        synchronized (LuaJITCompiler.class) {
+            workerScript = file;
+        }
+    }
+
+    private static Worker startWorker(String luajitExe) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(Bob.getExe(Platform.getHostPlatform(), luajitExe));
+        command.add(getWorkerScript().getAbsolutePath());
+        ProcessBuilder pb = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        Worker worker = new Worker();
+        worker.process = pb.start();
+        worker.out = new BufferedOutputStream(worker.process.getOutputStream());
+        worker.in = new BufferedInputStream(worker.process.getInputStream());
+        synchronized (LuaJITCompiler.class) {
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown()));
+                shutdownHookAdded = true;
+            }
+        }
+        logger.fine("Started LuaJIT compiler worker");
+        return worker;
+    }
+
+    private static void stopWorker(Worker worker) {
+        try {
+            // the worker exits when there are no more requests
+            worker.out.close();
+        } catch (IOException e) {
+            // the process is destroyed below
+        }
+        worker.process.destroy();
+    }
+
+    private static Worker acquireWorker(String luajitExe) throws IOException {
+        synchronized (idleWorkers) {
+            Worker worker = idleWorkers.poll();
+            if (worker != null) {
+                return worker;
+            }
+        }
+        return startWorker(luajitExe);
+    }
+
+    private static void releaseWorker(Worker worker) {
+        synchronized (idleWorkers) {
+            idleWorkers.add(worker);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("LuaJIT compiler worker exited unexpectedly");
+            }
+            line.write(c);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] readResponse(InputStream in, String[] status) throws IOException {
+        String[] header = readLine(in).split(" ");
+        if (header.length != 2) {
+            throw new IOException("Invalid response from LuaJIT compiler worker: " + String.join(" ", header));
+        }
+        status[0] = header[0];
+        byte[] data = new byte[Integer.parseInt(header[1])];
+        int offset = 0;
+        while (offset < data.length) {
+            int read = in.read(data, offset, data.length - offset);
+            if (read < 0) {
+                throw new IOException("LuaJIT compiler worker exited unexpectedly");
+            }
+            offset += read;
+        }
+        return data;
+    }
+
+    /**
+     * Compile a Lua script
+     * @param luajitExe name of the luajit executable, e.g. "luajit-64"
+     * @param chunkName chunk name of the script, e.g. "@main/main.script"
+     * @param source the Lua source
+     * @param gen32bit list of bit widths to generate bytecode for, true for 32 bit (non-GC64) bytecode
+     * @return the bytecode for each bit width, in the same order, or the compiler error
+     * @throws IOException if the worker failed, e.g. since the luajit executable could not be started
+     */
+    public static Result compile(String luajitExe, String chunkName, byte[] source, boolean... gen32bit) throws IOException {
+        StringBuilder modes = new StringBuilder();
+        for (boolean is32bit : gen32bit) {
+            modes.append(is32bit ? 'W' : 'X');
+        }
+        byte[] chunkNameBytes = chunkName.getBytes();
+
+        Worker worker = acquireWorker(luajitExe);
+        try {
+            String header = String.format("compile %s %d %d\n", modes, chunkNameBytes.length, source.length);
+            worker.out.write(header.getBytes(StandardCharsets.US_ASCII));
+            worker.out.write(chunkNameBytes);
+            worker.out.write(source);
+            worker.out.flush();
+
+            Result result = new Result();
+            result.bytecode = new ArrayList<byte[]>(gen32bit.length);
+            String[] status = new String[1];
+            for (int i = 0; i < gen32bit.length; ++i) {
+                byte[] data = readResponse(worker.in, status);
+                if (status[0].equals("error")) {
+                    result.bytecode = null;
+                    result.error = new String(data);
+                    break;
+                }
+                result.bytecode.add(data);
+            }
+            releaseWorker(worker);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // the worker is in an unknown state
+            stopWorker(worker);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop all idle workers
+     */
+    public static void shutdown() {
+        synchronized (idleWorkers) {
+            for (Worker worker : idleWorkers) {
+                stopWorker(worker);
+            }
+            idleWorkers.clear();
+        }
+    }
+}
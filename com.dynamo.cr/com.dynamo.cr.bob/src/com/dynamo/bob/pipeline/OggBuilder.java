@@ -15,10 +15,11 @@
 package com.dynamo.bob.pipeline;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.io.File;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.BuilderParams;
@@ -41,11 +42,8 @@ public class OggBuilder extends CopyBuilder{
         File tmpOggFile = null;
         try {
             tmpOggFile = File.createTempFile("ogg_tmp", null, Bob.getRootFolder());
-            BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(tmpOggFile));
-            try {
-                os.write(input.getContent());
-            } finally {
-                os.close();
+            try (InputStream is = input.openInputStream()) {
+                Files.copy(is, tmpOggFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
             }
         } catch (IOException exc) {
             throw new CompileExceptionError(input, 0, 
@@ -15,17 +15,40 @@
 package com.dynamo.bob.pipeline;
 
 import java.io.IOException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.fs.IResource;
+import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.TextFormat;
 
 public class ProtoUtil {
 
-    public static void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
+    // Parsed messages keyed on message type and the sha1 of the text they were parsed from.
+    // The same files (e.g. sub collections, game objects and gui templates) are read many
+    // times during a build, by the builders of every file referring to them. The messages
+    // are immutable and shared, and only live until the end of the build (or longer for
+    // a resident project, see Project#setResident()).
+    private static Map<String, Message> messageCache = new ConcurrentHashMap<>();
+    private static AtomicInteger messageCacheHits = new AtomicInteger();
+    private static AtomicInteger messageCacheMisses = new AtomicInteger();
+
+    // Messages written by the builders in the current build, keyed on the path of
+    // the output they were written to, so that the outputs don't have to be read and
+    // parsed again when the resource graph is created. Only kept when bundling, and
+    // only for small messages, since e.g. meshes and textures are cheaper to keep as files.
+    private static final int MAX_BUILT_MESSAGE_SIZE = 64 * 1024;
+    private static Map<String, Message> builtMessages = new ConcurrentHashMap<>();
+    private static volatile boolean keepBuiltMessages = false;
+    private static AtomicInteger builtMessageHits = new AtomicInteger();
+
+    private static byte[] getContent(IResource input) throws IOException, CompileExceptionError {
         byte[] content = input.getContent();
         if (content == null) {
             if (!input.exists()) {
@@ -35,8 +58,21 @@ public class ProtoUtil {
                 throw new CompileExceptionError(input, 0, "Resource is empty");
             }
         }
+        return content;
+    }
+
+    private static String getCacheKey(Message defaultInstance, IResource input) throws IOException, CompileExceptionError {
+        if (!input.exists()) {
+            throw new CompileExceptionError(input, 0, "Resource does not exist");
+        }
+        // the sha1 is usually known already (e.g. from the task signature), so
+        // the content is only read when the message isn't cached
+        return defaultInstance.getDescriptorForType().getFullName() + ":" + HexFormat.of().formatHex(input.sha1());
+    }
+
+    private static void merge(IResource input, String text, Builder builder) throws CompileExceptionError {
         try {
-            TextFormat.merge(new String(input.getContent()), builder);
+            TextFormat.merge(text, builder);
         } catch (TextFormat.ParseException e) {
             // 1:7: String missing ending quote.
             Pattern pattern = Pattern.compile("(\\d+):(\\d+): (.*)");
@@ -48,4 +84,110 @@ public class ProtoUtil {
             }
         }
     }
+
+    /**
+     * Get the message parsed from the text format content of a resource. The
+     * message is shared with other callers and is immutable, use toBuilder()
+     * to get a modifiable copy.
+     * @param input the resource to parse
+     * @param defaultInstance default instance of the message type, e.g. CollectionDesc.getDefaultInstance()
+     * @return the parsed message
+     */
+    @SuppressWarnings("unchecked")
+    public static <M extends Message> M parse(IResource input, M defaultInstance) throws IOException, CompileExceptionError {
+        String key = getCacheKey(defaultInstance, input);
+        Message message = messageCache.get(key);
+        if (message != null) {
+            messageCacheHits.incrementAndGet();
+            return (M) message;
+        }
+        messageCacheMisses.incrementAndGet();
+        byte[] content = getContent(input);
+        Builder builder = defaultInstance.newBuilderForType();
+        merge(input, new String(content), builder);
+        // partial, since the text may leave out required fields that the builders fill in later
+        message = builder.buildPartial();
+        Message existing = messageCache.putIfAbsent(key, message);
+        return (M) (existing != null ? existing : message);
+    }
+
+    public static void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
+        builder.mergeFrom(parse(input, builder.getDefaultInstanceForType()));
+    }
+
+    /**
+     * Set if the messages written by the builders should be kept until the end of
+     * the build, see {@link #putBuiltMessage(IResource, Message, int)}
+     */
+    public static void setKeepBuiltMessages(boolean keep) {
+        keepBuiltMessages = keep;
+    }
+
+    /**
+     * Keep a message that a builder has written to an output
+     * @param output the output resource
+     * @param message the message
+     * @param size the serialized size of the message
+     */
+    public static void putBuiltMessage(IResource output, Message message, int size) {
+        if (keepBuiltMessages && size <= MAX_BUILT_MESSAGE_SIZE) {
+            builtMessages.put(output.getPath(), message);
+        }
+    }
+
+    /**
+     * Get the message written to an output in the current build
+     * @param output the output resource
+     * @return the message or null if the output wasn't built in this build or wasn't kept
+     */
+    public static Message getBuiltMessage(IResource output) {
+        Message message = builtMessages.get(output.getPath());
+        if (message != null) {
+            builtMessageHits.incrementAndGet();
+        }
+        return message;
+    }
+
+    /**
+     * Remove the messages written by the builders. Unlike the parsed messages, they
+     * are keyed on the output path and are never kept between builds.
+     */
+    public static void clearBuiltMessages() {
+        builtMessages.clear();
+        builtMessageHits.set(0);
+    }
+
+    public static int getBuiltMessageHits() {
+        return builtMessageHits.get();
+    }
+
+    /**
+     * Remove all parsed messages, e.g. at the end of a build, and reset the statistics
+     */
+    public static void clearCache() {
+        messageCache.clear();
+        resetStatistics();
+    }
+
+    /**
+     * Reset the statistics but keep the parsed messages, e.g. between the builds of
+     * a resident project. Messages parsed from content that has changed are never
+     * used again, but are kept until the cache is cleared.
+     */
+    public static void resetStatistics() {
+        messageCacheHits.set(0);
+        messageCacheMisses.set(0);
+    }
+
+    public static int getCacheSize() {
+        return messageCache.size();
+    }
+
+    public static int getCacheHits() {
+        return messageCacheHits.get();
+    }
+
+    public static int getCacheMisses() {
+        return messageCacheMisses.get();
+    }
 }
@@ -29,7 +29,7 @@ import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
 
-@BuilderParams(name = "Texture", inExts = {".png", ".jpg"}, outExt = ".texturec", ignoreTaskAutoCreation = true)
+@BuilderParams(name = "Texture", inExts = {".png", ".jpg"}, outExt = ".texturec", ignoreTaskAutoCreation = true, concurrency = BuilderParams.Concurrency.HEAVY_NATIVE)
 public class TextureBuilder extends Builder<Void> {
 
     private static Logger logger = Logger.getLogger(TextureBuilder.class.getName());
@@ -24,7 +24,7 @@ import com.dynamo.bob.fs.DefaultFileSystem;
 
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 
-@BuilderParams(name = "VertexProgram", inExts = ".vp", outExt = ".vpc")
+@BuilderParams(name = "VertexProgram", inExts = ".vp", outExt = ".vpc", concurrency = BuilderParams.Concurrency.HEAVY_NATIVE)
 public class VertexProgramBuilder extends ShaderProgramBuilder {
     private static final ShaderDesc.ShaderType SHADER_TYPE = ShaderDesc.ShaderType.SHADER_TYPE_VERTEX;
 
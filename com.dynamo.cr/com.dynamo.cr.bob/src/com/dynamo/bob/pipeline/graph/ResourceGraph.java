@@ -42,6 +42,7 @@ import com.dynamo.bob.pipeline.graph.ResourceWalker;
 import com.dynamo.bob.pipeline.graph.ResourceWalker.IResourceVisitor;
 import com.dynamo.gamesys.proto.GameSystem.CollectionProxyDesc;
 
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Message;
 
 public class ResourceGraph implements IResourceVisitor {
@@ -113,6 +114,12 @@ public class ResourceGraph implements IResourceVisitor {
         }
     }
 
+    @Override
+    public boolean shouldVisitMessage(Descriptor descriptor) {
+        // only collection proxies affect the graph
+        return descriptor == CollectionProxyDesc.getDescriptor();
+    }
+
     @Override
     public void leave(IResource resource, IResource parentResource) throws CompileExceptionError {
         // do nothing
@@ -127,6 +134,15 @@ public class ResourceGraph implements IResourceVisitor {
         ResourceWalker.walk(project, rootResource, this);
     }
 
+    /**
+     * Add several resources to the graph, in order. This is the same as adding
+     * them one by one, but the resources they share are only read once.
+     * @param rootResources The resources to create graph from.
+     */
+    public void add(List<IResource> rootResources) throws CompileExceptionError {
+        ResourceWalker.walk(project, rootResources, this);
+    }
+
     private void addNodeToParent(ResourceNode parentNode, ResourceNode childNode) {
         if (parentNode.checkType(ResourceNode.Type.ExcludedCollectionProxy)) {
             childNode.setType(ResourceNode.Type.ExcludedCollection);
@@ -14,20 +14,39 @@
 
 package com.dynamo.bob.pipeline.graph;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.dynamo.bob.Project;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.pipeline.ProtoUtil;
+import com.dynamo.bob.util.ParallelUtil;
 import com.dynamo.proto.DdfExtensions;
 import com.dynamo.bob.ProtoBuilder;
 
 import com.google.protobuf.GeneratedMessageV3;
-import com.google.protobuf.DescriptorProtos.FieldOptions;
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.Message;
 
 
+/**
+ * Walks the resources referenced from a root resource, depth first, and reports
+ * them to a visitor.
+ *
+ * The outputs of the resources are read and parsed in parallel, a level of the
+ * resource tree at a time, before the visitor is called. The visitor is then called
+ * on the calling thread in the same depth first order as if the resources were read
+ * one by one, since visitors such as the {@link ResourceGraph} depend on the order.
+ */
 public class ResourceWalker {
 
     public interface IResourceVisitor {
@@ -35,62 +54,202 @@ public class ResourceWalker {
         public void visitMessage(Message message, IResource resource, IResource parentResource) throws CompileExceptionError;
         public void leave(IResource resource, IResource parentResource) throws CompileExceptionError;
         public boolean shouldVisit(IResource resource, IResource parentResource);
+
+        /**
+         * Check if {@link #visitMessage(Message, IResource, IResource)} should be
+         * called for messages of a type. The messages of other types are not kept
+         * while walking the resources.
+         * @param descriptor the message type
+         * @return true if messages of the type should be visited
+         */
+        public default boolean shouldVisitMessage(Descriptor descriptor) {
+            return true;
+        }
+    }
+
+    // A field that is a resource, or a message that contains resources
+    private static class ResourceField {
+        final FieldDescriptor descriptor;
+        final boolean isResource;
+
+        ResourceField(FieldDescriptor descriptor, boolean isResource) {
+            this.descriptor = descriptor;
+            this.isResource = isResource;
+        }
     }
 
-    private static void visitMessage(Project project, IResource currentResource, Message node, IResourceVisitor visitor) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
+    // The fields to follow per message type, in field order
+    private static Map<Descriptor, List<ResourceField>> resourceFieldsCache = new ConcurrentHashMap<>();
+    // If a message type contains resources, directly or through any of its sub messages
+    private static Map<Descriptor, Boolean> containsResourcesCache = new ConcurrentHashMap<>();
+
+    private static boolean isResourceField(FieldDescriptor fieldDescriptor) {
+        return (Boolean) fieldDescriptor.getOptions().getField(DdfExtensions.resource.getDescriptor());
+    }
+
+    private static boolean containsResources(Descriptor descriptor) {
+        Boolean result = containsResourcesCache.get(descriptor);
+        if (result != null) {
+            return result;
+        }
+        // the message types may be recursive, so search all reachable types
+        List<Descriptor> pending = new ArrayList<>();
+        Set<Descriptor> visited = new HashSet<>();
+        pending.add(descriptor);
+        visited.add(descriptor);
+        result = false;
+        while (!pending.isEmpty() && !result) {
+            Descriptor current = pending.remove(pending.size() - 1);
+            for (FieldDescriptor fieldDescriptor : current.getFields()) {
+                if (isResourceField(fieldDescriptor)) {
+                    result = true;
+                    break;
+                }
+                if (fieldDescriptor.getJavaType() == JavaType.MESSAGE && visited.add(fieldDescriptor.getMessageType())) {
+                    pending.add(fieldDescriptor.getMessageType());
+                }
+            }
+        }
+        containsResourcesCache.put(descriptor, result);
+        return result;
+    }
+
+    private static List<ResourceField> getResourceFields(Descriptor descriptor) {
+        List<ResourceField> fields = resourceFieldsCache.get(descriptor);
+        if (fields != null) {
+            return fields;
+        }
+        fields = new ArrayList<>();
+        for (FieldDescriptor fieldDescriptor : descriptor.getFields()) {
+            if (isResourceField(fieldDescriptor)) {
+                fields.add(new ResourceField(fieldDescriptor, true));
+            } else if (fieldDescriptor.getJavaType() == JavaType.MESSAGE && containsResources(fieldDescriptor.getMessageType())) {
+                fields.add(new ResourceField(fieldDescriptor, false));
+            }
+        }
+        fields = Collections.unmodifiableList(fields);
+        resourceFieldsCache.put(descriptor, fields);
+        return fields;
+    }
+
+    private static void collectResources(Project project, Message node, List<IResource> resources) {
+        for (ResourceField field : getResourceFields(node.getDescriptorForType())) {
+            Object value = node.getField(field.descriptor);
             if (value instanceof Message) {
-                visitMessage(project, currentResource, (Message) value, visitor);
+                collectResources(project, (Message) value, resources);
             } else if (value instanceof List) {
                 @SuppressWarnings("unchecked")
                 List<Object> list = (List<Object>) value;
                 for (Object v : list) {
                     if (v instanceof Message) {
-                        visitMessage(project, currentResource, (Message) v, visitor);
-                    } else if (isResource && v instanceof String) {
-                        visitResource(project, currentResource, project.getResource((String) v), visitor);
+                        collectResources(project, (Message) v, resources);
+                    } else if (field.isResource && v instanceof String) {
+                        resources.add(project.getResource((String) v));
                     }
                 }
-            } else if (isResource && value instanceof String) {
-                visitResource(project, currentResource, project.getResource((String) value), visitor);
+            } else if (field.isResource && value instanceof String) {
+                resources.add(project.getResource((String) value));
             }
         }
     }
 
-    private static void visitResource(Project project, IResource parentResource, IResource resource, IResourceVisitor visitor) throws CompileExceptionError {
-        if (resource.getPath().equals("") || !visitor.shouldVisit(resource, parentResource)) {
-            return;
-        }
-
-        visitor.visit(resource, parentResource);
+    // The result of reading the output of a resource
+    private static class ResourceEntry {
+        // resources referenced from the resource, in field order
+        List<IResource> children = Collections.emptyList();
+        // the message, if the visitor should visit it
+        Message message;
+        // set if the resource is a message
+        boolean isMessage;
+        Exception error;
+    }
 
+    private static ResourceEntry readResource(Project project, IResource resource, IResourceVisitor visitor) {
+        ResourceEntry entry = new ResourceEntry();
         int i = resource.getPath().lastIndexOf(".");
         if (i == -1) {
-            visitor.leave(resource, parentResource);
-            return;
+            return entry;
         }
-
         String ext = resource.getPath().substring(i);
         if (!ProtoBuilder.supportsType(ext)) {
+            return entry;
+        }
+        entry.isMessage = true;
+
+        try {
+            GeneratedMessageV3.Builder<?> builder = ProtoBuilder.newBuilder(ext);
+            IResource output = resource.output();
+            // reuse the message if the output was built in this build
+            Message message = ProtoUtil.getBuiltMessage(output);
+            if (message == null || message.getDescriptorForType() != builder.getDescriptorForType()) {
+                final byte[] content = output.getContent();
+                if (content == null) {
+                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
+                }
+                builder.mergeFrom(content);
+                message = (Message) builder.build();
+            }
+            if (visitor.shouldVisitMessage(message.getDescriptorForType())) {
+                entry.message = message;
+            }
+            entry.children = new ArrayList<>();
+            collectResources(project, message, entry.children);
+        } catch (Exception e) {
+            entry.error = e;
+        }
+        return entry;
+    }
+
+    // Read all resources reachable from the roots, a level at a time
+    private static Map<IResource, ResourceEntry> readResources(Project project, List<IResource> roots, IResourceVisitor visitor) {
+        Map<IResource, ResourceEntry> entries = new HashMap<>();
+        Set<IResource> found = new HashSet<>();
+        List<IResource> level = new ArrayList<>();
+        for (IResource root : roots) {
+            if (!root.getPath().equals("") && found.add(root)) {
+                level.add(root);
+            }
+        }
+        while (!level.isEmpty()) {
+            final List<IResource> current = level;
+            List<ResourceEntry> results = ParallelUtil.mapUnchecked(current.size(), i -> readResource(project, current.get(i), visitor));
+            level = new ArrayList<>();
+            for (int i = 0; i < current.size(); ++i) {
+                ResourceEntry entry = results.get(i);
+                entries.put(current.get(i), entry);
+                for (IResource child : entry.children) {
+                    if (!child.getPath().equals("") && found.add(child)) {
+                        level.add(child);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void visitResource(Map<IResource, ResourceEntry> entries, IResource parentResource, IResource resource, IResourceVisitor visitor) throws CompileExceptionError {
+        if (resource.getPath().equals("") || !visitor.shouldVisit(resource, parentResource)) {
+            return;
+        }
+
+        visitor.visit(resource, parentResource);
+
+        ResourceEntry entry = entries.get(resource);
+        if (!entry.isMessage) {
             visitor.leave(resource, parentResource);
             return;
         }
 
-        GeneratedMessageV3.Builder<?> builder = ProtoBuilder.newBuilder(ext);
         try {
-            final byte[] content = resource.output().getContent();
-            if(content == null) {
-                throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
+            if (entry.error != null) {
+                throw entry.error;
+            }
+            if (entry.message != null) {
+                visitor.visitMessage(entry.message, resource, parentResource);
+            }
+            for (IResource child : entry.children) {
+                visitResource(entries, resource, child, visitor);
             }
-            builder.mergeFrom(content);
-            Message message = (Message)builder.build();
-            visitor.visitMessage(message, resource, parentResource);
-            visitMessage(project, resource, message, visitor);
         } catch(CompileExceptionError e) {
             throw e;
         } catch(Exception e) {
@@ -100,7 +259,21 @@ public class ResourceWalker {
     }
 
     public static void walk(Project project, IResource rootResource, IResourceVisitor visitor) throws CompileExceptionError {
-        visitResource(project, null, rootResource, visitor);
+        walk(project, Collections.singletonList(rootResource), visitor);
+    }
+
+    /**
+     * Walk the resources referenced from several roots. The resources shared
+     * between the roots are only read once.
+     * @param project the project
+     * @param rootResources the roots, visited in order
+     * @param visitor the visitor
+     */
+    public static void walk(Project project, List<IResource> rootResources, IResourceVisitor visitor) throws CompileExceptionError {
+        Map<IResource, ResourceEntry> entries = readResources(project, rootResources, visitor);
+        for (IResource rootResource : rootResources) {
+            visitResource(entries, null, rootResource, visitor);
+        }
     }
 
-}
\ No newline at end of file
+}
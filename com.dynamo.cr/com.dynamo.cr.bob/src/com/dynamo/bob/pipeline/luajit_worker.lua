@@ -0,0 +1,86 @@
+-- Copyright 2020-2024 The Defold Foundation
+-- Copyright 2014-2020 King
+-- Copyright 2009-2014 Ragnar Svensson, Christian Murray
+-- Licensed under the Defold License version 1.0 (the "License"); you may not use
+-- this file except in compliance with the License.
+--
+-- You may obtain a copy of the License, together with FAQs at
+-- https://www.defold.com/license
+--
+-- Unless required by applicable law or agreed to in writing, software distributed
+-- under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+-- CONDITIONS OF ANY KIND, either express or implied. See the License for the
+-- specific language governing permissions and limitations under the License.
+
+-- Persistent LuaJIT bytecode compiler used by bob, see LuaJITCompiler.java
+--
+-- Compiles Lua source read from stdin the same way as
+-- "luajit -b -d -g -W|-X -F <chunkname> <input> <output>", but without a new
+-- process and temporary files for each script.
+--
+-- Request:  "compile <modes> <chunkname length> <source length>\n" <chunkname> <source>
+--           where <modes> is one or more of W (32 bit bytecode) and X (64 bit bytecode)
+-- Response: "ok <length>\n" <bytecode> for each mode, in order
+--           or "error <length>\n" <message> if the source doesn't compile
+
+if jit.os == "Windows" then
+    local ffi = require("ffi")
+    ffi.cdef[[int _setmode(int fd, int mode);]]
+    ffi.C._setmode(0, 0x8000)
+    ffi.C._setmode(1, 0x8000)
+end
+
+local stdin = io.stdin
+local stdout = io.stdout
+
+local function read(length)
+    if length == 0 then
+        return ""
+    end
+    local data = stdin:read(length)
+    if data == nil or #data ~= length then
+        os.exit(1)
+    end
+    return data
+end
+
+local function write(status, data)
+    stdout:write(status, " ", #data, "\n", data)
+end
+
+while true do
+    local header = stdin:read("*l")
+    if header == nil then
+        break
+    end
+    local modes, chunkname_length, source_length = header:match("^compile (%u+) (%d+) (%d+)$")
+    if modes == nil then
+        io.stderr:write("luajit: invalid request: ", header, "\n")
+        os.exit(1)
+    end
+    local chunkname = read(tonumber(chunkname_length))
+    local source = read(tonumber(source_length))
+
+    local results = {}
+    local err = nil
+    for gc64 in modes:gmatch(".") do
+        -- b and t = binary and text chunks, d = deterministic, no s = keep debug info
+        local mode = "btd" .. gc64
+        local f, e = load(source, chunkname, mode)
+        if f == nil then
+            err = e
+            break
+        end
+        results[#results + 1] = string.dump(f, mode)
+    end
+
+    if err ~= nil then
+        -- same output as luajit, including the newline
+        write("error", "luajit: " .. err .. "\n")
+    else
+        for _, bytecode in ipairs(results) do
+            write("ok", bytecode)
+        end
+    end
+    stdout:flush()
+end
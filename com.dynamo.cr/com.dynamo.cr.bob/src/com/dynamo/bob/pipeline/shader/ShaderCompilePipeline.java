@@ -15,27 +15,19 @@
 package com.dynamo.bob.pipeline.shader;
 
 import java.nio.charset.StandardCharsets;
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
-import com.dynamo.bob.Bob;
-import com.dynamo.bob.Platform;
 import com.dynamo.bob.CompileExceptionError;
-import com.dynamo.bob.util.Exec;
-import com.dynamo.bob.util.FileUtil;
-import com.dynamo.bob.util.Exec.Result;
 
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 
-import org.apache.commons.io.FileUtils;
-
 public class ShaderCompilePipeline {
 
     protected static class ShaderModule {
         public String                source;
         public ShaderDesc.ShaderType type;
-        public File                  spirvFile;
+        public byte[]                spirv;
 
         public ShaderModule(String source, ShaderDesc.ShaderType type) {
             this.source = source;
@@ -44,7 +36,7 @@ public class ShaderCompilePipeline {
     }
 
     protected String pipelineName;
-    protected File spirvFileOut                     = null;
+    protected byte[] spirvOut                       = null;
     protected SPIRVReflector spirvReflector         = null;
     protected ArrayList<ShaderModule> shaderModules = new ArrayList<>();
 
@@ -53,7 +45,7 @@ public class ShaderCompilePipeline {
     }
 
     protected void reset() {
-        spirvFileOut = null;
+        spirvOut = null;
         spirvReflector = null;
         shaderModules.clear();
     }
@@ -87,9 +79,9 @@ public class ShaderCompilePipeline {
                shaderLanguage == ShaderDesc.Language.LANGUAGE_GLSL_SM430;
     }
 
-    private static void checkResult(Result result) throws CompileExceptionError {
-        if (result.ret != 0) {
-            String[] tokenizedResult = new String(result.stdOutErr).split(":", 2);
+    private static void checkResult(ShaderCompileTools.ToolResult result) throws CompileExceptionError {
+        if (result.failed()) {
+            String[] tokenizedResult = result.log.split(":", 2);
             String message = tokenizedResult[0];
             if(tokenizedResult.length != 1) {
                 message = tokenizedResult[1];
@@ -99,46 +91,36 @@ public class ShaderCompilePipeline {
         }
     }
 
-    private void generateSPIRv(ShaderDesc.ShaderType shaderType, String pathFileInGLSL, String pathFileOutSpv) throws IOException, CompileExceptionError {
-        Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslang"),
+    private byte[] generateSPIRv(ShaderDesc.ShaderType shaderType, String source) throws IOException, CompileExceptionError {
+        ShaderCompileTools.ToolResult result = ShaderCompileTools.glslang(source, shaderTypeToSpirvStage(shaderType),
             "-w",
             "--auto-map-bindings",
             "--auto-map-locations",
             "-Os",
             "--resource-set-binding", "frag", "1",
-            "-S", shaderTypeToSpirvStage(shaderType),
-            "-o", pathFileOutSpv,
-            "-V",
-            pathFileInGLSL);
+            "-V");
         checkResult(result);
+        return result.output;
     }
 
-    private void generateSPIRvOptimized(String pathFileInSpv, String pathFileOutSpvOpt) throws IOException, CompileExceptionError{
+    private byte[] generateSPIRvOptimized(byte[] spirv) throws IOException, CompileExceptionError{
         // Run optimization pass on the result
-        Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-opt"),
-            "-O",
-            pathFileInSpv,
-            "-o", pathFileOutSpvOpt);
+        ShaderCompileTools.ToolResult result = ShaderCompileTools.spirvOpt(spirv, "-O");
         checkResult(result);
+        return result.output;
     }
 
-    private void generateSPIRvReflection(String pathFileInSpv, String pathFileOutSpvReflection) throws IOException, CompileExceptionError{
-        Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
-            pathFileInSpv,
-            "--output", pathFileOutSpvReflection,
-            "--reflect");
+    private String generateSPIRvReflection(byte[] spirv) throws IOException, CompileExceptionError{
+        ShaderCompileTools.ToolResult result = ShaderCompileTools.spirvCross(spirv, "--reflect");
         checkResult(result);
+        return new String(result.output, StandardCharsets.UTF_8);
     }
 
-    private void generateCrossCompiledShader(ShaderDesc.ShaderType shaderType, ShaderDesc.Language shaderLanguage, String pathFileInSpv, String pathFileOut, int versionOut) throws IOException, CompileExceptionError{
+    private byte[] generateCrossCompiledShader(ShaderDesc.ShaderType shaderType, ShaderDesc.Language shaderLanguage, byte[] spirv, int versionOut) throws IOException, CompileExceptionError{
 
         ArrayList<String> args = new ArrayList<>();
-        args.add(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"));
-        args.add(pathFileInSpv);
         args.add("--version");
         args.add(String.valueOf(versionOut));
-        args.add("--output");
-        args.add(pathFileOut);
         args.add("--stage");
         args.add(shaderTypeToSpirvStage(shaderType));
         args.add("--remove-unused-variables");
@@ -152,8 +134,9 @@ public class ShaderCompilePipeline {
             args.add("--es");
         }
 
-        Result result = Exec.execResult(args.toArray(new String[0]));
+        ShaderCompileTools.ToolResult result = ShaderCompileTools.spirvCross(spirv, args.toArray(new String[0]));
         checkResult(result);
+        return result.output;
     }
 
     protected void addShaderModule(String source, ShaderDesc.ShaderType type) {
@@ -167,37 +150,21 @@ public class ShaderCompilePipeline {
 
         // 1. Generate SPIR-V for each module that can be linked afterwards
         for (ShaderModule module : this.shaderModules) {
-            String baseName = this.pipelineName + "." + shaderTypeToSpirvStage(module.type);
-
-            File fileInGLSL = File.createTempFile(baseName, ".glsl");
-            FileUtil.deleteOnExit(fileInGLSL);
-            FileUtils.writeByteArrayToFile(fileInGLSL, module.source.getBytes());
-
-            File fileOutSpv = File.createTempFile(baseName, ".spv");
-            FileUtil.deleteOnExit(fileOutSpv);
-
-            generateSPIRv(module.type, fileInGLSL.getAbsolutePath(), fileOutSpv.getAbsolutePath());
-
-            module.spirvFile = fileOutSpv;
+            module.spirv = generateSPIRv(module.type, module.source);
         }
 
         // 2. TODO: link all the shader modules together. For now we only need to support single modules
-        File fileOutSpvLinked = this.shaderModules.get(0).spirvFile;
+        byte[] spirvLinked = this.shaderModules.get(0).spirv;
 
-        // 3. Generate an optimized version of the final .spv file
-        File fileOutSpvOpt = File.createTempFile(this.pipelineName, ".optimized.spv");
-        FileUtil.deleteOnExit(fileOutSpvOpt);
-        generateSPIRvOptimized(fileOutSpvLinked.getAbsolutePath(), fileOutSpvOpt.getAbsolutePath());
+        // 3. Generate an optimized version of the final SPIR-V
+        byte[] spirvOpt = generateSPIRvOptimized(spirvLinked);
 
-        // 4. Generate the reflection data from the final .spv file
-        File fileOutSpvReflection = File.createTempFile(this.pipelineName, ".reflection.json");
-        FileUtil.deleteOnExit(fileOutSpvReflection);
-
-        generateSPIRvReflection(fileOutSpvOpt.getAbsolutePath(), fileOutSpvReflection.getAbsolutePath());
+        // 4. Generate the reflection data from the final SPIR-V
+        String spirvReflection = generateSPIRvReflection(spirvOpt);
 
         // 4. Finalize output
-        this.spirvReflector = new SPIRVReflector(FileUtils.readFileToString(fileOutSpvReflection, StandardCharsets.UTF_8));
-        this.spirvFileOut = fileOutSpvOpt;
+        this.spirvReflector = new SPIRVReflector(spirvReflection);
+        this.spirvOut = spirvOpt;
     }
 
     //////////////////////////
@@ -205,18 +172,10 @@ public class ShaderCompilePipeline {
     //////////////////////////
     public byte[] crossCompile(ShaderDesc.ShaderType shaderType, ShaderDesc.Language shaderLanguage) throws IOException, CompileExceptionError {
         if (shaderLanguage == ShaderDesc.Language.LANGUAGE_SPIRV) {
-            return FileUtils.readFileToByteArray(this.spirvFileOut);
+            return this.spirvOut;
         } else if (canBeCrossCompiled(shaderLanguage)) {
-            int version          = shaderLanguageToVersion(shaderLanguage);
-            String shaderTypeStr = shaderTypeToSpirvStage(shaderType);
-            String versionStr    = "v" + version;
-
-            File fileCrossCompiled = File.createTempFile(this.pipelineName, "." + versionStr + "." + shaderTypeStr);
-            FileUtil.deleteOnExit(fileCrossCompiled);
-
-            generateCrossCompiledShader(shaderType, shaderLanguage, this.spirvFileOut.getAbsolutePath(), fileCrossCompiled.getAbsolutePath(), version);
-
-            return FileUtils.readFileToByteArray(fileCrossCompiled);
+            int version = shaderLanguageToVersion(shaderLanguage);
+            return generateCrossCompiledShader(shaderType, shaderLanguage, this.spirvOut, version);
         }
 
         throw new CompileExceptionError("Cannot crosscompile to shader language: " + shaderLanguage);
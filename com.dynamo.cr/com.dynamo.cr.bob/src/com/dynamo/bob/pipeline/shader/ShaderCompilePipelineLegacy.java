@@ -14,21 +14,14 @@
 
 package com.dynamo.bob.pipeline.shader;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
-import com.dynamo.bob.Bob;
 import com.dynamo.bob.CompileExceptionError;
-import com.dynamo.bob.Platform;
 import com.dynamo.bob.fs.IResource;
-import com.dynamo.bob.util.Exec;
-import com.dynamo.bob.util.FileUtil;
 import com.dynamo.bob.pipeline.ShaderUtil;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 
 public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
 
@@ -60,10 +53,10 @@ public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
         }
     }
 
-    static private String getResultString(Exec.Result r)
+    static private String getResultString(ShaderCompileTools.ToolResult r)
     {
-        if (r.ret != 0 ) {
-            String[] tokenizedResult = new String(r.stdOutErr).split(":", 2);
+        if (r.failed()) {
+            String[] tokenizedResult = r.log.split(":", 2);
             String message = tokenizedResult[0];
             if(tokenizedResult.length != 1) {
                 message = tokenizedResult[1];
@@ -76,8 +69,7 @@ public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
     static private SPIRVCompileResult compileGLSLToSPIRV(String shaderSource, ShaderDesc.ShaderType shaderType, String resourceOutput, String targetProfile, boolean isDebug, boolean soft_fail)  throws IOException, CompileExceptionError {
         SPIRVCompileResult res = new SPIRVCompileResult();
 
-        Exec.Result result;
-        File file_out_spv;
+        ShaderCompileTools.ToolResult result;
 
         if (shaderType == ShaderDesc.ShaderType.SHADER_TYPE_COMPUTE) {
 
@@ -85,22 +77,12 @@ public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
 
             ShaderUtil.ES2ToES3Converter.Result es3Result = ShaderUtil.ES2ToES3Converter.transform(shaderSource, shaderType, targetProfile, version, true);
 
-            File file_in_compute = File.createTempFile(FilenameUtils.getName(resourceOutput), ".cp");
-            FileUtil.deleteOnExit(file_in_compute);
-            FileUtils.writeByteArrayToFile(file_in_compute, es3Result.output.getBytes());
-
-            file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-            FileUtil.deleteOnExit(file_out_spv);
-
-            result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslang"),
+            result = ShaderCompileTools.glslang(es3Result.output, "comp",
                     "-w",
                     "-V",
                     "--auto-map-bindings",
                     "--auto-map-locations",
-                    "-Os",
-                    "-S", "comp",
-                    "-o", file_out_spv.getAbsolutePath(),
-                    file_in_compute.getAbsolutePath());
+                    "-Os");
         } else {
             int version = 140;
             if(targetProfile.equals("es")) {
@@ -126,24 +108,14 @@ public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
             }
 
             // compile GLSL (ES3 or Desktop 140) to SPIR-V
-            File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
-            FileUtil.deleteOnExit(file_in_glsl);
-            FileUtils.writeByteArrayToFile(file_in_glsl, shaderSource.getBytes());
-
-            file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-            FileUtil.deleteOnExit(file_out_spv);
-
             String spirvShaderStage = (shaderType == ShaderDesc.ShaderType.SHADER_TYPE_VERTEX ? "vert" : "frag");
-            result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslang"),
+            result = ShaderCompileTools.glslang(shaderSource, spirvShaderStage,
                     "-w",
                     "-V",
                     "--auto-map-bindings",
                     "--auto-map-locations",
                     "--resource-set-binding", "frag", "1",
-                    "-Os",
-                    "-S", spirvShaderStage,
-                    "-o", file_out_spv.getAbsolutePath(),
-                    file_in_glsl.getAbsolutePath());
+                    "-Os");
         }
 
         String resultString = getResultString(result);
@@ -153,15 +125,10 @@ public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
         } else {
             checkResult(resultString, null, resourceOutput);
         }
-
-        File file_out_spv_opt = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-        FileUtil.deleteOnExit(file_out_spv_opt);
+        byte[] spirv = result.output;
 
         // Run optimization pass
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-opt"),
-                "-O",
-                file_out_spv.getAbsolutePath(),
-                "-o", file_out_spv_opt.getAbsolutePath());
+        result = ShaderCompileTools.spirvOpt(spirv, "-O");
 
         resultString = getResultString(result);
         if (soft_fail && resultString != null) {
@@ -172,13 +139,7 @@ public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
         }
 
         // Generate reflection data
-        File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
-        FileUtil.deleteOnExit(file_out_refl);
-
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
-                file_out_spv_opt.getAbsolutePath(),
-                "--output",file_out_refl.getAbsolutePath(),
-                "--reflect");
+        result = ShaderCompileTools.spirvCross(result.output, "--reflect");
 
         resultString = getResultString(result);
         if (soft_fail && resultString != null) {
@@ -188,10 +149,10 @@ public class ShaderCompilePipelineLegacy extends ShaderCompilePipeline {
             checkResult(resultString, null, resourceOutput);
         }
 
-        String result_json = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
+        String result_json = new String(result.output, StandardCharsets.UTF_8);
 
         res.reflector = new SPIRVReflector(result_json);
-        res.source = FileUtils.readFileToByteArray(file_out_spv);
+        res.source = spirv;
 
         return res;
     }
@@ -0,0 +1,350 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline.shader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
+import com.dynamo.bob.cache.LocalResourceCache;
+import com.dynamo.bob.logging.Logger;
+import com.dynamo.bob.util.Exec;
+
+/**
+ * Runs the shader tools (glslang, spirv-opt and spirv-cross) used by the shader
+ * compile pipelines.
+ *
+ * Sources and SPIR-V are passed to the tools on stdin, and output is read from
+ * stdout where the tool supports it (glslang can only write SPIR-V to a file).
+ * The tools are deterministic, so the result of running a tool is kept for the
+ * duration of the build and identical invocations, e.g. for a shader shared by
+ * many materials, only run the tool once. Concurrent identical invocations wait
+ * for the one already running.
+ *
+ * Successful results can also be kept between builds in a persistent cache, see
+ * {@link #setPersistentCache(LocalResourceCache)}. The cache is content addressed,
+ * using a hash of the tool executable, the arguments (stage, target language and
+ * version) and the input, and may be shared between projects.
+ */
+public class ShaderCompileTools {
+
+    private static Logger logger = Logger.getLogger(ShaderCompileTools.class.getName());
+
+    public static class ToolResult {
+        public int ret;
+        // the output of the tool, e.g. SPIR-V or cross compiled source
+        public byte[] output;
+        // warnings and errors reported by the tool
+        public String log;
+
+        public boolean failed() {
+            return ret != 0;
+        }
+    }
+
+    // the results are dropped when there are more than this number of entries,
+    // to not grow forever when used from a long running process
+    private static final int MAX_RESULTS = 8192;
+
+    private static final ConcurrentHashMap<String, CompletableFuture<ToolResult>> results = new ConcurrentHashMap<>();
+    private static final AtomicInteger toolRuns = new AtomicInteger();
+    private static final AtomicInteger reusedResults = new AtomicInteger();
+    private static final AtomicInteger persistentCacheHits = new AtomicInteger();
+
+    // sha1 of the tool executables, identifying the tool versions
+    private static final ConcurrentHashMap<String, String> toolHashes = new ConcurrentHashMap<>();
+    private static LocalResourceCache persistentCache = null;
+
+    private interface ToolRunner {
+        ToolResult run() throws IOException;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String getToolHash(String tool) throws IOException {
+        String hash = toolHashes.get(tool);
+        if (hash == null) {
+            MessageDigest md = createDigest();
+            md.update(FileUtils.readFileToByteArray(new File(Bob.getExe(Platform.getHostPlatform(), tool))));
+            hash = Hex.encodeHexString(md.digest());
+            toolHashes.put(tool, hash);
+        }
+        return hash;
+    }
+
+    private static String createKey(String tool, List<String> args, byte[] input) throws IOException {
+        MessageDigest md = createDigest();
+        md.update(tool.getBytes(StandardCharsets.UTF_8));
+        md.update(getToolHash(tool).getBytes(StandardCharsets.UTF_8));
+        for (String arg : args) {
+            md.update((byte) 0);
+            md.update(arg.getBytes(StandardCharsets.UTF_8));
+        }
+        md.update((byte) 0);
+        md.update(input);
+        return Hex.encodeHexString(md.digest());
+    }
+
+    // [output size][output][log]
+    private static byte[] serializeResult(ToolResult result) {
+        byte[] log = result.log.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + result.output.length + log.length)
+                .putInt(result.output.length)
+                .put(result.output)
+                .put(log)
+                .array();
+    }
+
+    private static ToolResult deserializeResult(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int outputSize = buffer.getInt();
+        if (outputSize < 0 || outputSize > buffer.remaining()) {
+            return null;
+        }
+        ToolResult result = new ToolResult();
+        result.ret = 0;
+        result.output = new byte[outputSize];
+        buffer.get(result.output);
+        result.log = new String(data, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        return result;
+    }
+
+    private static ToolResult getCachedResult(String key) {
+        LocalResourceCache cache = persistentCache;
+        if (cache == null) {
+            return null;
+        }
+        try {
+            byte[] data = cache.get(key);
+            ToolResult result = data != null ? deserializeResult(data) : null;
+            if (result != null) {
+                persistentCacheHits.incrementAndGet();
+            }
+            return result;
+        } catch (IOException e) {
+            logger.warning("Failed to read shader from the cache: %s", e.getMessage());
+            return null;
+        }
+    }
+
+    private static void putCachedResult(String key, ToolResult result) {
+        LocalResourceCache cache = persistentCache;
+        // only successful results are cached, errors are reported again on the next build
+        if (cache == null || result.failed()) {
+            return;
+        }
+        try {
+            cache.put(key, serializeResult(result));
+        } catch (IOException e) {
+            logger.warning("Failed to write shader to the cache: %s", e.getMessage());
+        }
+    }
+
+    private static ToolResult runOnce(String tool, List<String> args, byte[] input, ToolRunner runner) throws IOException {
+        String key = createKey(tool, args, input);
+        CompletableFuture<ToolResult> future = new CompletableFuture<>();
+        if (results.size() > MAX_RESULTS) {
+            results.clear();
+        }
+        CompletableFuture<ToolResult> existing = results.putIfAbsent(key, future);
+        if (existing != null) {
+            reusedResults.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                // the tool couldn't be started, e.g. missing executable
+                throw new IOException(e.getCause());
+            }
+        }
+
+        try {
+            ToolResult result = getCachedResult(key);
+            if (result == null) {
+                toolRuns.incrementAndGet();
+                result = runner.run();
+                putCachedResult(key, result);
+            }
+            future.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // don't keep the failure, the next invocation tries again
+            results.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static String[] createCommand(String tool, List<String> args) throws IOException {
+        List<String> command = new ArrayList<>(args.size() + 1);
+        command.add(Bob.getExe(Platform.getHostPlatform(), tool));
+        command.addAll(args);
+        return command.toArray(new String[0]);
+    }
+
+    private static String createLog(byte[]... outputs) {
+        StringBuilder log = new StringBuilder();
+        for (byte[] output : outputs) {
+            log.append(new String(output));
+        }
+        return log.toString();
+    }
+
+    /**
+     * Compile GLSL source to SPIR-V using glslang
+     * @param source the GLSL source
+     * @param stage the shader stage, e.g. "vert", "frag" or "comp"
+     * @param options glslang options
+     * @return the result, with the SPIR-V as output
+     * @throws IOException
+     */
+    public static ToolResult glslang(String source, String stage, String... options) throws IOException {
+        byte[] input = source.getBytes();
+        List<String> args = new ArrayList<>(Arrays.asList(options));
+        // --stdin must come before the stage
+        args.add("--stdin");
+        args.add("-S");
+        args.add(stage);
+        return runOnce("glslang", args, input, () -> {
+            File fileOutSpv = File.createTempFile("shader." + stage, ".spv");
+            try {
+                List<String> argsWithOutput = new ArrayList<>(args);
+                argsWithOutput.add("-o");
+                argsWithOutput.add(fileOutSpv.getAbsolutePath());
+                Exec.Result execResult = Exec.execResultWithInput(input, createCommand("glslang", argsWithOutput));
+
+                ToolResult result = new ToolResult();
+                result.ret = execResult.ret;
+                // glslang writes errors to stdout
+                result.log = createLog(execResult.stdOutErr, execResult.stdErr);
+                result.output = execResult.ret == 0 ? FileUtils.readFileToByteArray(fileOutSpv) : new byte[0];
+                return result;
+            } finally {
+                fileOutSpv.delete();
+            }
+        });
+    }
+
+    private static ToolResult runWithStdout(String tool, List<String> args, byte[] input) throws IOException {
+        return runOnce(tool, args, input, () -> {
+            Exec.Result execResult = Exec.execResultWithInput(input, createCommand(tool, args));
+            ToolResult result = new ToolResult();
+            result.ret = execResult.ret;
+            result.output = execResult.stdOutErr;
+            result.log = createLog(execResult.stdErr);
+            return result;
+        });
+    }
+
+    /**
+     * Optimize SPIR-V using spirv-opt
+     * @param spirv the SPIR-V to optimize
+     * @param options spirv-opt options
+     * @return the result, with the optimized SPIR-V as output
+     * @throws IOException
+     */
+    public static ToolResult spirvOpt(byte[] spirv, String... options) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList(options));
+        args.add("-");
+        args.add("-o");
+        args.add("-");
+        return runWithStdout("spirv-opt", args, spirv);
+    }
+
+    /**
+     * Cross compile or reflect SPIR-V using spirv-cross
+     * @param spirv the SPIR-V to cross compile
+     * @param options spirv-cross options
+     * @return the result, with the cross compiled source or reflection as output
+     * @throws IOException
+     */
+    public static ToolResult spirvCross(byte[] spirv, String... options) throws IOException {
+        List<String> args = new ArrayList<>(options.length + 1);
+        args.add("-");
+        args.addAll(Arrays.asList(options));
+        return runWithStdout("spirv-cross", args, spirv);
+    }
+
+    /**
+     * Set the cache used to keep results between builds
+     * @param cache the cache, or null to not keep results between builds
+     */
+    public static void setPersistentCache(LocalResourceCache cache) {
+        persistentCache = cache;
+        if (cache != null) {
+            cache.startEviction();
+        }
+    }
+
+    /**
+     * Drop all results and write the persistent cache index, if any. Called
+     * at the end of each build.
+     */
+    public static void clearCache() {
+        results.clear();
+        toolRuns.set(0);
+        reusedResults.set(0);
+        persistentCacheHits.set(0);
+        if (persistentCache != null) {
+            persistentCache.flush();
+        }
+    }
+
+    /**
+     * Get the number of times a tool was started since the last clear
+     * @return number of tool runs
+     */
+    public static int getToolRuns() {
+        return toolRuns.get();
+    }
+
+    /**
+     * Get the number of tool invocations that reused the result of an identical invocation
+     * @return number of reused results
+     */
+    public static int getReusedResults() {
+        return reusedResults.get();
+    }
+
+    /**
+     * Get the number of results read from the persistent cache
+     * @return number of persistent cache hits
+     */
+    public static int getPersistentCacheHits() {
+        return persistentCacheHits.get();
+    }
+}
@@ -16,10 +16,10 @@ package com.dynamo.bob.plugin;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 import java.util.HashMap;
 import java.lang.reflect.Modifier;
 
+import com.dynamo.bob.ClassIndex;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.IClassScanner;
 import com.dynamo.bob.CompileExceptionError;
@@ -75,7 +75,7 @@ public class PluginScanner {
 	 * @param pluginBaseClass
 	 * @return List with class instances or null if no class was found
 	 */
-	public static <T> List<T> getOrCreatePlugins(String packageName, Class<T> pluginBaseClass) throws CompileExceptionError {
+	public static synchronized <T> List<T> getOrCreatePlugins(String packageName, Class<T> pluginBaseClass) throws CompileExceptionError {
 
 		// check if we've already searched for and cached a plugin for this package path and base class
 		// and if that is the case return the cached instance
@@ -100,17 +100,20 @@ public class PluginScanner {
 		logger.fine("PluginScanner searching %s for base class %s", packageName, pluginBaseClass);
 		
 		List<T> plugins = new ArrayList<>();
-		Set<String> classNames = scanner.scan(packageName);
-		for (String className : classNames) {
+		for (ClassIndex.Entry entry : scanner.scanIndex(packageName)) {
+			// check that the class extends or is of type pluginBaseClass and that it is not abstract
+			// using the class index, to only load the matching classes
+			boolean isAbstract = Modifier.isAbstract(entry.getModifiers());
+			boolean isPrivate = Modifier.isPrivate(entry.getModifiers());
+			boolean isBaseClass = entry.getClassName().equals(pluginBaseClass.getName());
+			if (!(isBaseClass || entry.isSubtypeOf(pluginBaseClass)) || isAbstract || isPrivate) {
+				continue;
+			}
+			String className = entry.getClassName();
 			try {
 				Class<?> klass = Class.forName(className, true, scanner.getClassLoader());
-				// check that the class extends or is of type pluginBaseClass and that it is not abstract
-				boolean isAbstract = Modifier.isAbstract(klass.getModifiers());
-				boolean isPrivate = Modifier.isPrivate(klass.getModifiers());
-				if (pluginBaseClass.isAssignableFrom(klass) && !isAbstract && !isPrivate) {
-					logger.fine("Found plugin " + className);
-					plugins.add((T)klass.newInstance());
-				}
+				logger.fine("Found plugin " + className);
+				plugins.add((T)klass.newInstance());
 			}
 			catch(InstantiationException | IllegalAccessException e) {
 				throw new CompileExceptionError("Unable to create plugin " + className, e);
@@ -15,14 +15,22 @@
 package com.dynamo.bob.textureset;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.bob.util.ParallelUtil;
 
 /**
  * MaxRectsLayoutStrategy - derived from libgdx implementation:
  * https://github.com/libgdx/libgdx/blob/master/extensions/gdx-tools/src/com/badlogic/gdx/tools/texturepacker/MaxRectsPacker.java
+ *
+ * The heuristics and the candidate page sizes of the size search are packed in
+ * parallel. The results are always compared in the same order as a serial search,
+ * so the layout doesn't depend on the number of threads.
  * @author peterhodges
  *
  */
@@ -37,10 +45,14 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         public int paddingY;
         public boolean rotation;
         public boolean square;
+        // Stop the page size search at the first page size where all rects fit with
+        // at least this occupancy (0-1). The default 0 always searches all sizes.
+        public float targetOccupancy;
     }
 
+    private static final Comparator<RectNode> FREE_LIST_ORDER = Comparator.comparingInt(node -> node.order);
+
     private Settings settings;
-    private MaxRects maxRects = new MaxRects();
     private FreeRectChoiceHeuristic[] methods = FreeRectChoiceHeuristic.values();
 
     public MaxRectsLayoutStrategy(Settings settings) {
@@ -118,10 +130,18 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             int minSize = Math.max(minWidth, minHeight);
             int maxSize = Math.min(settings.maxPageWidth, settings.maxPageHeight);
             BinarySearch sizeSearch = new BinarySearch(minSize, maxSize);
+            PageSizeResults results = new PageSizeResults(inputRects);
             int size = sizeSearch.reset();
             while (size != -1) {
-                Page result = packAtSize(true, size - settings.paddingX, size - settings.paddingY, inputRects);
+                // Pack both sizes the search may continue with, while packing this size
+                int fitSize = sizeSearch.peek(false);
+                int noFitSize = sizeSearch.peek(true);
+                results.pack(new int[] {size, size, fitSize, fitSize, noFitSize, noFitSize});
+                Page result = results.get(size - settings.paddingX, size - settings.paddingY);
                 bestResult = getBest(bestResult, result);
+                if (isTargetReached(result)) {
+                    break;
+                }
                 size = sizeSearch.next(result == null);
             }
 
@@ -135,16 +155,27 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         } else {
             BinarySearch widthSearch = new BinarySearch(minWidth, settings.maxPageWidth);
             BinarySearch heightSearch = new BinarySearch(minHeight, settings.maxPageHeight);
+            PageSizeResults results = new PageSizeResults(inputRects);
             int width = widthSearch.reset();
             int height = heightSearch.reset();
+            boolean targetReached = false;
             while (true) {
                 Page bestWidthResult = null;
                 while (width != -1) {
-                    Page result = packAtSize(true, width - settings.paddingX, height - settings.paddingY, inputRects);
+                    // Pack both widths the search may continue with, while packing this width
+                    results.pack(new int[] {width, height, widthSearch.peek(false), height, widthSearch.peek(true), height});
+                    Page result = results.get(width - settings.paddingX, height - settings.paddingY);
                     bestWidthResult = getBest(bestWidthResult, result);
+                    if (isTargetReached(result)) {
+                        targetReached = true;
+                        break;
+                    }
                     width = widthSearch.next(result == null);
                 }
                 bestResult = getBest(bestResult, bestWidthResult);
+                if (targetReached) {
+                    break;
+                }
                 height = heightSearch.next(bestWidthResult == null);
                 if (height == -1) {
                     break;
@@ -159,27 +190,37 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         return bestResult;
     }
 
-    /** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not all
-     *           rects may be packed.
-     **/
-    private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects) {
-        Page bestResult = null;
-        for (int i = 0, n = methods.length; i < n; i++) {
-            maxRects.init(width, height);
-            Page result;
-
-            ArrayList<RectNode> remaining = new ArrayList<RectNode>();
-            for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
-                RectNode rect = inputRects.get(ii);
-                if (maxRects.insert(rect, methods[i]) == null) {
-                    while (ii < nn) {
-                        remaining.add(inputRects.get(ii++));
-                    }
+    private boolean isTargetReached(Page result) {
+        return settings.targetOccupancy > 0 && result != null && result.occupancy >= settings.targetOccupancy;
+    }
+
+    // Pack the rects with one heuristic
+    private Page packWithMethod(int width, int height, ArrayList<RectNode> inputRects, FreeRectChoiceHeuristic method) {
+        long sideSum = 0;
+        for (RectNode node : inputRects) {
+            sideSum += node.rect.getWidth() + node.rect.getHeight();
+        }
+        MaxRects maxRects = new MaxRects();
+        maxRects.init(width, height, (int) (sideSum / Math.max(1, inputRects.size() * 2)));
+
+        ArrayList<RectNode> remaining = new ArrayList<RectNode>();
+        for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
+            RectNode rect = inputRects.get(ii);
+            if (maxRects.insert(rect, method) == null) {
+                while (ii < nn) {
+                    remaining.add(inputRects.get(ii++));
                 }
             }
-            result = maxRects.getResult();
-            result.remainingRects = remaining;
+        }
+        Page result = maxRects.getResult();
+        result.remainingRects = remaining;
+        return result;
+    }
 
+    // Pick the best result of the heuristics, in the order of the heuristics
+    private Page getBestResult(boolean fully, List<Page> results) {
+        Page bestResult = null;
+        for (Page result : results) {
             if (fully && result.remainingRects.size() > 0) {
                 continue;
             }
@@ -191,6 +232,74 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         return bestResult;
     }
 
+    /** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not all
+     *           rects may be packed.
+     **/
+    private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects) {
+        List<Page> results = ParallelUtil.mapUnchecked(methods.length, i -> packWithMethod(width, height, inputRects, methods[i]));
+        return getBestResult(fully, results);
+    }
+
+    /**
+     * The best results of packing all rects at the page sizes visited by the size search
+     */
+    private class PageSizeResults {
+        private final ArrayList<RectNode> inputRects;
+        private final Map<Long, Page> results = new HashMap<>();
+        // The heuristics of one size already keep this many threads busy
+        private final boolean speculate = ParallelUtil.getMaxThreads() > methods.length;
+
+        PageSizeResults(ArrayList<RectNode> inputRects) {
+            this.inputRects = inputRects;
+        }
+
+        private long getKey(int width, int height) {
+            return ((long) width << 32) | (height & 0xffffffffL);
+        }
+
+        /**
+         * Pack the rects at several page sizes, all heuristics and sizes in parallel
+         * @param sizes pairs of page width and height, including the padding. Pairs
+         * with a -1 and sizes that are already packed are skipped. The sizes after the
+         * first pair are only packed if there are enough threads.
+         */
+        void pack(int[] sizes) {
+            List<int[]> todo = new ArrayList<>();
+            for (int i = 0; i < (speculate ? sizes.length : 2); i += 2) {
+                if (sizes[i] == -1 || sizes[i + 1] == -1) {
+                    continue;
+                }
+                int width = sizes[i] - settings.paddingX;
+                int height = sizes[i + 1] - settings.paddingY;
+                long key = getKey(width, height);
+                if (!results.containsKey(key)) {
+                    results.put(key, null);
+                    todo.add(new int[] {width, height});
+                }
+            }
+            if (todo.isEmpty()) {
+                return;
+            }
+            int n = methods.length;
+            List<Page> packed = ParallelUtil.mapUnchecked(todo.size() * n, i -> {
+                int[] size = todo.get(i / n);
+                return packWithMethod(size[0], size[1], inputRects, methods[i % n]);
+            });
+            for (int i = 0; i < todo.size(); ++i) {
+                int[] size = todo.get(i);
+                results.put(getKey(size[0], size[1]), getBestResult(true, packed.subList(i * n, (i + 1) * n)));
+            }
+        }
+
+        Page get(int width, int height) {
+            long key = getKey(width, height);
+            if (!results.containsKey(key)) {
+                results.put(key, packAtSize(true, width, height, inputRects));
+            }
+            return results.get(key);
+        }
+    }
+
     private Page getBest (Page result1, Page result2) {
         if (result1 == null) return result2;
         if (result2 == null) return result1;
@@ -220,6 +329,20 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             return 1 << current;
         }
 
+        /**
+         * Get the size that {@link #next(boolean)} would return, without moving on
+         */
+        public int peek (boolean result) {
+            if (low >= high) return -1;
+            int peekLow = low;
+            int peekHigh = high;
+            if (result)
+                peekLow = current + 1;
+            else
+                peekHigh = current - 1;
+            return 1 << ((peekLow + peekHigh) >>> 1);
+        }
+
         public int next (boolean result) {
             if (low >= high) return -1;
             if (result)
@@ -236,6 +359,10 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         Rect rect;
         int score1;
         int score2;
+        // Used by the free rectangle index
+        int order;
+        int visit;
+        boolean removed;
 
         public RectNode() {
             this.rect = null;
@@ -272,6 +399,103 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         public int width, height;
     }
 
+    /**
+     * Uniform grid over a bin, where each rect is listed in the cells it covers,
+     * to find the rects near an area without testing all rects. Removed rects are
+     * flagged and dropped from the cells lazily.
+     */
+    static class RectGrid {
+        private static final int MAX_CELLS = 64;
+        private int shift;
+        private int columns;
+        private int rows;
+        private ArrayList<RectNode>[] cells;
+        private int nextOrder;
+        private int visit;
+
+        /**
+         * @param cellSize preferred size of the cells, e.g. the average size of the rects
+         */
+        @SuppressWarnings("unchecked")
+        void init(int width, int height, int cellSize) {
+            shift = 0;
+            while ((1 << shift) < cellSize || (width >> shift) > MAX_CELLS || (height >> shift) > MAX_CELLS) {
+                ++shift;
+            }
+            columns = (Math.max(width, 1) - 1 >> shift) + 1;
+            rows = (Math.max(height, 1) - 1 >> shift) + 1;
+            cells = new ArrayList[columns * rows];
+            nextOrder = 0;
+            visit = 0;
+        }
+
+        private int column(int x) {
+            return Math.min(Math.max(x >> shift, 0), columns - 1);
+        }
+
+        private int row(int y) {
+            return Math.min(Math.max(y >> shift, 0), rows - 1);
+        }
+
+        void add(RectNode node) {
+            Rect r = node.rect;
+            node.order = nextOrder++;
+            node.removed = false;
+            int x1 = column(r.getX() + r.getWidth() - 1);
+            int y1 = row(r.getY() + r.getHeight() - 1);
+            for (int y = row(r.getY()); y <= y1; ++y) {
+                for (int x = column(r.getX()); x <= x1; ++x) {
+                    int i = x + y * columns;
+                    if (cells[i] == null) {
+                        cells[i] = new ArrayList<RectNode>();
+                    }
+                    cells[i].add(node);
+                }
+            }
+        }
+
+        void remove(RectNode node) {
+            node.removed = true;
+        }
+
+        // Get the rects in the cell of a point, without the removed ones
+        ArrayList<RectNode> getCell(int x, int y) {
+            ArrayList<RectNode> cell = cells[column(x) + row(y) * columns];
+            if (cell != null) {
+                cell.removeIf(node -> node.removed);
+            }
+            return cell;
+        }
+
+        /**
+         * Get the rects in the cells covered by an area, each rect once
+         * @param result list to replace with the rects, in no particular order
+         */
+        void query(int areaX, int areaY, int areaWidth, int areaHeight, ArrayList<RectNode> result) {
+            result.clear();
+            ++visit;
+            int x0 = column(areaX);
+            int x1 = column(areaX + areaWidth - 1);
+            int y1 = row(areaY + areaHeight - 1);
+            for (int y = row(areaY); y <= y1; ++y) {
+                for (int x = x0; x <= x1; ++x) {
+                    ArrayList<RectNode> cell = cells[x + y * columns];
+                    if (cell == null) {
+                        continue;
+                    }
+                    cell.removeIf(node -> node.removed);
+                    for (int i = 0, n = cell.size(); i < n; ++i) {
+                        RectNode node = cell.get(i);
+                        if (node.visit != visit) {
+                            node.visit = visit;
+                            result.add(node);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /** Maximal rectangles bin packing algorithm. Adapted from this C++ public domain source:
      * http://clb.demon.fi/projects/even-more-rectangle-bin-packing
      * @author Jukka Jyl�nki
@@ -283,16 +507,54 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         private final ArrayList<RectNode> usedRectangles = new ArrayList<RectNode>();
         private final ArrayList<RectNode> freeRectangles = new ArrayList<RectNode>();
         private final ArrayList<RectNode> newFreeRectangles = new ArrayList<RectNode>();
+        // The free and used rectangles are also kept in grids, to find the ones near a rectangle
+        private final RectGrid freeRectGrid = new RectGrid();
+        private final RectGrid usedRectGrid = new RectGrid();
+        private final ArrayList<RectNode> queryResult = new ArrayList<RectNode>();
 
         public void init (int width, int height) {
+            init(width, height, 1);
+        }
+
+        public void init (int width, int height, int gridCellSize) {
             binWidth = width;
             binHeight = height;
 
             usedRectangles.clear();
             freeRectangles.clear();
             newFreeRectangles.clear();
+            freeRectGrid.init(width, height, gridCellSize);
+            usedRectGrid.init(width, height, gridCellSize);
             RectNode n = new RectNode(new Rect(null, 0, 0, 0, width, height));
-            freeRectangles.add(n);
+            addFreeRectangle(n);
+        }
+
+        private void addFreeRectangle(RectNode node) {
+            freeRectangles.add(node);
+            freeRectGrid.add(node);
+        }
+
+        private void addUsedRectangle(RectNode node) {
+            usedRectangles.add(node);
+            usedRectGrid.add(node);
+        }
+
+        // Split the free rectangles that intersect the used node, in the order of the free list
+        private void splitFreeRectangles(RectNode usedNode) {
+            Rect usedRect = usedNode.rect;
+            freeRectGrid.query(usedRect.getX(), usedRect.getY(), usedRect.getWidth(), usedRect.getHeight(), queryResult);
+            queryResult.sort(FREE_LIST_ORDER);
+            boolean removed = false;
+            for (int i = 0, n = queryResult.size(); i < n; ++i) {
+                RectNode freeNode = queryResult.get(i);
+                if (splitFreeNode(freeNode, usedNode)) {
+                    freeRectGrid.remove(freeNode);
+                    removed = true;
+                }
+            }
+            if (removed) {
+                freeRectangles.removeIf(node -> node.removed);
+            }
         }
 
         /** Packs a single image. Order is defined externally. */
@@ -300,15 +562,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             RectNode newNode = scoreRect(rect, method);
             if (newNode.rect.getHeight() == 0) return null;
 
-            int numRectanglesToProcess = freeRectangles.size();
-            for (int i = 0; i < numRectanglesToProcess; ++i) {
-                if (splitFreeNode(freeRectangles.get(i), newNode)) {
-                    freeRectangles.remove(i);
-                    --i;
-                    --numRectanglesToProcess;
-                }
-            }
-
+            splitFreeRectangles(newNode);
             pruneFreeList();
 
             RectNode bestNode = new RectNode(rect);
@@ -318,7 +572,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             bestNode.rect.setId(rect.rect.getId());
             bestNode.rect.setIndex(rect.rect.getIndex());
 
-            usedRectangles.add(bestNode);
+            addUsedRectangle(bestNode);
             return bestNode;
         }
 
@@ -374,21 +628,10 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         }
 
         private void placeRect (RectNode node) {
-            int numRectanglesToProcess = freeRectangles.size();
-            for (int i = 0; i < numRectanglesToProcess;) {
-                if (splitFreeNode(freeRectangles.get(i), node)) {
-                    freeRectangles.remove(i);
-                    --numRectanglesToProcess;
-                }
-                else
-                {
-                    ++i;
-                }
-            }
-
+            splitFreeRectangles(node);
             pruneFreeList();
 
-            usedRectangles.add(node);
+            addUsedRectangle(node);
         }
 
         private RectNode scoreRect (RectNode node, FreeRectChoiceHeuristic method) {
@@ -595,8 +838,10 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             if (x == 0 || x + width == binWidth) score += height;
             if (y == 0 || y + height == binHeight) score += width;
 
-            for (int i = 0; i < usedRectangles.size(); i++) {
-                RectNode currentNode = usedRectangles.get(i);
+            // Only the used rectangles next to the area can touch it
+            usedRectGrid.query(x - 1, y - 1, width + 2, height + 2, queryResult);
+            for (int i = 0; i < queryResult.size(); i++) {
+                RectNode currentNode = queryResult.get(i);
                 if (currentNode.rect.getX() == x + width || currentNode.rect.getX() + currentNode.rect.getWidth() == x)
                     score += commonIntervalLength(currentNode.rect.getY(), currentNode.rect.getY() + currentNode.rect.getHeight(), y,
                         y + height);
@@ -711,30 +956,32 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         }
 
         private void pruneFreeList () {
-            // Test all newly introduced free rectangles against old free rectangles.
-            for(int i = 0; i < freeRectangles.size(); ++i)
-            {
-                for(int j = 0; j < newFreeRectangles.size();)
-                {
-                    if (isContainedIn(newFreeRectangles.get(j).rect, freeRectangles.get(i).rect))
-                    {
-                        newFreeRectangles.remove(j);
-                    }
-                    else
-                    {
-                        ++j;
+            // Test all newly introduced free rectangles against old free rectangles, and merge
+            // the remaining new free rectangles to the group of old free rectangles.
+            // Only the old free rectangles that cover the corner of a new free rectangle can contain it.
+            newFreeRectangles.removeIf(newFreeRect -> isContainedInFreeRectangle(newFreeRect.rect));
+            for (RectNode newFreeRect : newFreeRectangles) {
+                addFreeRectangle(newFreeRect);
+            }
+            newFreeRectangles.clear();
+        }
+
+        private boolean isContainedInFreeRectangle (Rect rect) {
+            ArrayList<RectNode> cell = freeRectGrid.getCell(rect.getX(), rect.getY());
+            if (cell != null) {
+                for (int i = 0, n = cell.size(); i < n; ++i) {
+                    if (isContainedIn(rect, cell.get(i).rect)) {
+                        return true;
                     }
                 }
             }
-
-            // Merge new and old free rectangles to the group of old free rectangles.
-            freeRectangles.addAll(newFreeRectangles);
-            newFreeRectangles.clear();
+            return false;
         }
 
         private boolean isContainedIn (Rect a, Rect b) {
             return a.getX() >= b.getX() && a.getY() >= b.getY() && a.getX() + a.getWidth() <= b.getX() + b.getWidth() && a.getY() + a.getHeight() <= b.getY() + b.getHeight();
         }
+
     }
 
     static enum FreeRectChoiceHeuristic {
@@ -14,6 +14,8 @@
 
 package com.dynamo.bob.textureset;
 
+import com.dynamo.bob.cache.LocalResourceCache;
+import com.dynamo.bob.logging.Logger;
 import com.dynamo.bob.pipeline.GraphicsUtil;
 import com.dynamo.bob.textureset.TextureSetLayout;
 import com.dynamo.bob.textureset.TextureSetLayout.Grid;
@@ -22,7 +24,9 @@ import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 
 import com.dynamo.bob.tile.ConvexHull2D;
 import com.dynamo.bob.tile.TileSetUtil;
+import com.dynamo.bob.util.ArgbImage;
 import com.dynamo.bob.util.MurmurHash;
+import com.dynamo.bob.util.ParallelUtil;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.gamesys.proto.TextureSetProto;
@@ -32,21 +36,26 @@ import com.dynamo.gamesys.proto.TextureSetProto.TextureSetAnimation;
 import com.dynamo.gamesys.proto.Tile.Playback;
 import com.dynamo.gamesys.proto.Tile.SpriteTrimmingMode;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.apache.commons.codec.digest.DigestUtils;
 
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 
 /*
@@ -58,6 +67,13 @@ import javax.imageio.ImageIO;
 
 public class TextureSetGenerator {
 
+    private static Logger logger = Logger.getLogger(TextureSetGenerator.class.getName());
+
+    // bump when buildConvexHull() generates different hulls
+    private static final int HULL_CACHE_VERSION = 1;
+    private static LocalResourceCache hullCache = null;
+    private static final AtomicInteger hullCacheHits = new AtomicInteger();
+
     private static class Pair<L, R> {
         public Pair(L left, R right) {
             this.left = left;
@@ -258,6 +274,71 @@ public class TextureSetGenerator {
         return geometryBuilder.build();
     }
 
+    /**
+     * Set the persistent cache of sprite hulls, keyed by the content hash of the
+     * image and the trim mode. Called at the start of each build.
+     * @param cache the cache or null for no cache
+     */
+    public static void setPersistentHullCache(LocalResourceCache cache) {
+        hullCache = cache;
+        if (cache != null) {
+            cache.startEviction();
+        }
+    }
+
+    /**
+     * Write the persistent hull cache index, if any. Called at the end of each build.
+     */
+    public static void clearCache() {
+        hullCacheHits.set(0);
+        if (hullCache != null) {
+            hullCache.flush();
+        }
+    }
+
+    /**
+     * Get the number of hulls read from the persistent cache since the last clear
+     * @return number of cache hits
+     */
+    public static int getHullCacheHits() {
+        return hullCacheHits.get();
+    }
+
+    /**
+     * Build the convex hull of an image, or get it from the persistent hull cache
+     * @param image the original image (no padding or extrude borders)
+     * @param trimMode the trim mode
+     * @param imageKey content hash of the image file, or null if the hull shouldn't be cached
+     * @return the hull
+     */
+    public static SpriteGeometry buildConvexHull(BufferedImage image, SpriteTrimmingMode trimMode, String imageKey) {
+        LocalResourceCache cache = hullCache;
+        // a hull without trimming is just a rect and not worth caching
+        if (cache == null || imageKey == null || trimMode == SpriteTrimmingMode.SPRITE_TRIM_MODE_OFF) {
+            return buildConvexHull(image, trimMode);
+        }
+        String key = DigestUtils.sha1Hex(String.format("hull:%d:%s:%d", HULL_CACHE_VERSION, imageKey, trimMode.getNumber()));
+        try {
+            byte[] data = cache.get(key);
+            if (data != null) {
+                SpriteGeometry geometry = SpriteGeometry.parseFrom(data);
+                hullCacheHits.incrementAndGet();
+                return geometry;
+            }
+        } catch (InvalidProtocolBufferException e) {
+            // a damaged entry is replaced below
+        } catch (IOException e) {
+            logger.warning("Failed to read hull from the cache: %s", e.getMessage());
+        }
+        SpriteGeometry geometry = buildConvexHull(image, trimMode);
+        try {
+            cache.put(key, geometry.toByteArray());
+        } catch (IOException e) {
+            logger.warning("Failed to write hull to the cache: %s", e.getMessage());
+        }
+        return geometry;
+    }
+
     private static SpriteGeometry.Builder createSpriteGeometryFromRect(Rect rect) {
         SpriteGeometry.Builder builder = SpriteGeometry.newBuilder();
 
@@ -503,27 +584,8 @@ public class TextureSetGenerator {
     }
 
     public static BufferedImage layoutImages(Layout layout, int innerPadding, int extrudeBorders, Map<String, BufferedImage> images) {
-        BufferedImage packedImage = new BufferedImage(layout.getWidth(), layout.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
-        Graphics2D g = packedImage.createGraphics();
-        for (Rect r : layout.getRectangles()) {
-            BufferedImage image = images.get(r.getId());
-
-            if (innerPadding > 0) {
-                image = TextureUtil.createPaddedImage(image, innerPadding, paddingColour);
-            }
-
-            if (extrudeBorders > 0) {
-                image = TextureUtil.extrudeBorders(image, extrudeBorders);
-            }
-
-            if (r.getRotated()) {
-                image = rotateImage(image);
-            }
-
-            g.drawImage(image, r.getX(), r.getY(), null);
-        }
-        g.dispose();
-        return packedImage;
+        List<Rect> rects = layout.getRectangles();
+        return composite(layout.getWidth(), layout.getHeight(), rects, innerPadding, extrudeBorders, i -> images.get(rects.get(i).getId()));
     }
 
     // static int debugImageCount = 0;
@@ -545,44 +607,39 @@ public class TextureSetGenerator {
     public static TextureSetResult generate(List<BufferedImage> images, List<SpriteTrimmingMode> imageTrimModes, List<String> paths, AnimIterator iterator,
             int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
             float maxPageSizeW, float maxPageSizeH) {
+        return generate(images, Collections.<String>nCopies(images.size(), null), imageTrimModes, paths, iterator,
+            margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH);
+    }
+
+    /**
+     * Generate an atlas, see {@link #generate(List, List, List, AnimIterator, int, int, int, boolean, boolean, Grid, float, float)}
+     * @param imageKeys content hashes of the image files, used to cache the image hulls. An entry may be null if
+     * the hull of the image shouldn't be cached, e.g. for a tile split from a larger image.
+     */
+    public static TextureSetResult generate(List<BufferedImage> images, List<String> imageKeys, List<SpriteTrimmingMode> imageTrimModes, List<String> paths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
+            float maxPageSizeW, float maxPageSizeH) {
 
         List<Rect> imageRects = rectanglesFromImages(images, paths);
 
         // if all sizes are 0, we still need to generate hull (or rect) data
         // since it will still be part of the new code path if there is another atlas with trimming enabled
-        List<SpriteGeometry> imageHulls = new ArrayList<SpriteGeometry>();
         int useGeometries = 0;
         for (int i = 0; i < images.size(); ++i) {
-            BufferedImage image = images.get(i);
             useGeometries |= imageTrimModes.get(i) != SpriteTrimmingMode.SPRITE_TRIM_MODE_OFF ? 1 : 0;
-            imageHulls.add(buildConvexHull(image, imageTrimModes.get(i)));
         }
+        // The hulls are independent of each other and built in parallel
+        List<SpriteGeometry> imageHulls = ParallelUtil.mapUnchecked(images.size(), i -> buildConvexHull(images.get(i), imageTrimModes.get(i), imageKeys.get(i)));
 
         // The layout step will expand the rect, and possibly rotate them
         TextureSetResult result = calculateLayout(imageRects, imageHulls, useGeometries, iterator,
             margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH);
 
         for (Layout layout : result.layoutResult.layouts) {
-            List<BufferedImage> layoutImages = new ArrayList<>();
-            List<Rect> layoutRects           = layout.getRectangles();
+            List<Rect> layoutRects = layout.getRectangles();
 
-            for (Rect rect : layoutRects) {
-                BufferedImage image = images.get(rect.getIndex());
-
-                if (innerPadding > 0) {
-                    image = TextureUtil.createPaddedImage(image, innerPadding, paddingColour);
-                }
-                if (extrudeBorders > 0) {
-                    image = TextureUtil.extrudeBorders(image, extrudeBorders);
-                }
-                if (rect.getRotated()) {
-                    image = rotateImage(image);
-                }
-
-                layoutImages.add(image);
-            }
-
-            BufferedImage imgOut = composite(layoutImages, layout.getWidth(), layout.getHeight(), layoutRects);
+            BufferedImage imgOut = composite(layout.getWidth(), layout.getHeight(), layoutRects, innerPadding, extrudeBorders,
+                i -> images.get(layoutRects.get(i).getIndex()));
             result.images.add(imgOut);
             /*
             // For debugging page generation
@@ -600,26 +657,6 @@ public class TextureSetGenerator {
         return result;
     }
 
-    private static BufferedImage rotateImage(BufferedImage src) {
-        int width = src.getWidth();
-        int height = src.getHeight();
-
-        BufferedImage rotated = new BufferedImage(height, width, BufferedImage.TYPE_INT_ARGB);
-
-        AffineTransform tx = new AffineTransform();
-        // Centre on canvas
-        tx.translate(height/2.0, width/2.0);
-        // Rotation about image centre
-        tx.rotate(Math.PI / 2.0);
-        tx.translate(-width / 2.0, -height / 2.0);
-
-        Graphics2D g = rotated.createGraphics();
-        g.drawImage(src, tx, null);
-        g.dispose();
-
-        return rotated;
-    }
-
     private static Color paddingColour = new Color(0,0,0,0);
 
     private static List<BufferedImage> createInnerPadding(List<BufferedImage> images, int amount) {
@@ -647,15 +684,16 @@ public class TextureSetGenerator {
         return rectangles;
     }
 
-    private static BufferedImage composite(List<BufferedImage> images, int width, int height, List<Rect> rects) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-        Graphics2D g = image.createGraphics();
-        int i = 0;
-        for (Rect r : rects) {
-            g.drawImage(images.get(i++), r.getX(), r.getY(), null);
-        }
-        g.dispose();
-        return image;
+    // Each image is padded, extruded and rotated, as given by the layout, straight into the pixels of the page.
+    // The rects of a page don't overlap, so the images are copied in parallel.
+    private static BufferedImage composite(int width, int height, List<Rect> rects, int innerPadding, int extrudeBorders, IntFunction<BufferedImage> images) {
+        ArgbImage page = new ArgbImage(width, height);
+        ParallelUtil.mapUnchecked(rects.size(), i -> {
+            Rect r = rects.get(i);
+            page.blit(images.apply(i), r.getX(), r.getY(), innerPadding, extrudeBorders, r.getRotated());
+            return null;
+        });
+        return page.toBufferedImage();
     }
 
     private static List<Rect> clipBorders(List<Rect> rects, int borderWidth) {
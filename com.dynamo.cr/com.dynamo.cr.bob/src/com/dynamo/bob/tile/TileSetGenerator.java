@@ -14,7 +14,6 @@
 
 package com.dynamo.bob.tile;
 
-import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,6 +25,7 @@ import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.textureset.TextureSetLayout.Grid;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 import com.dynamo.bob.tile.TileSetUtil.ConvexHulls;
+import com.dynamo.bob.util.ArgbImage;
 import com.dynamo.gamesys.proto.TextureSetProto.TextureSet;
 import com.dynamo.gamesys.proto.Tile;
 import com.dynamo.gamesys.proto.Tile.Animation;
@@ -156,17 +156,15 @@ public class TileSetGenerator {
         int count = metrics.tilesPerRow * metrics.tilesPerColumn;
         int tileWidth = tileSet.getTileWidth();
         int tileHeight = tileSet.getTileHeight();
+        // The image is converted once and each tile is copied straight from its pixels
+        ArgbImage pixels = ArgbImage.fromBufferedImage(image);
         List<BufferedImage> result = new ArrayList<BufferedImage>(count);
         for (int i = 0; i < count; ++i) {
-            BufferedImage tgt = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_4BYTE_ABGR);
-            Graphics g = tgt.getGraphics();
             int tileX = i % metrics.tilesPerRow;
             int tileY = i / metrics.tilesPerRow;
             int sx = calcTileStart(tileSet, tileWidth, tileX);
             int sy = calcTileStart(tileSet, tileHeight, tileY);
-            g.drawImage(image, 0, 0, tileWidth, tileHeight, sx, sy, sx + tileWidth, sy + tileHeight, null);
-            g.dispose();
-            result.add(tgt);
+            result.add(pixels.toBufferedImage(sx, sy, tileWidth, tileHeight));
         }
         return result;
     }
@@ -0,0 +1,240 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Image stored as a plain array of non-premultiplied ARGB pixels, one int per pixel
+ * in row order. Used when composing texture pages, tiles and glyphs, where the
+ * pixels are copied a row at a time instead of drawn through Graphics2D.
+ *
+ * Fully transparent pixels are always stored as 0, which is the same result as
+ * drawing the image onto a cleared image.
+ */
+public class ArgbImage {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    /**
+     * Create a transparent image
+     */
+    public ArgbImage(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public ArgbImage(int width, int height, int[] pixels) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException(String.format("Pixel data too small for a %dx%d image", width, height));
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the pixel data, not a copy
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return pixels[x + y * width];
+    }
+
+    public void setPixel(int x, int y, int argb) {
+        pixels[x + y * width] = argb;
+    }
+
+    public static ArgbImage fromBufferedImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ArgbImage result = new ArgbImage(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; ++y) {
+            readRow(image, y, row);
+            System.arraycopy(row, 0, result.pixels, y * width, width);
+        }
+        return result;
+    }
+
+    private static boolean hasPlainRaster(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        return raster.getParent() == null && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+    }
+
+    /**
+     * Read one row of an image as ARGB pixels. The common pixel layouts are read
+     * straight from the image data, others are converted by the color model.
+     * @param image image to read from
+     * @param y row to read
+     * @param row array of at least image width pixels to read into
+     */
+    public static void readRow(BufferedImage image, int y, int[] row) {
+        int width = image.getWidth();
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_4BYTE_ABGR && hasPlainRaster(image)) {
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            int index = y * width * 4;
+            for (int x = 0; x < width; ++x, index += 4) {
+                int a = data[index] & 0xff;
+                row[x] = a == 0 ? 0 : (a << 24) | ((data[index + 3] & 0xff) << 16) | ((data[index + 2] & 0xff) << 8) | (data[index + 1] & 0xff);
+            }
+            return;
+        }
+        if (type == BufferedImage.TYPE_INT_ARGB && hasPlainRaster(image)) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(data, y * width, row, 0, width);
+        } else {
+            image.getRGB(0, y, width, 1, row, 0, width);
+        }
+        for (int x = 0; x < width; ++x) {
+            if ((row[x] >>> 24) == 0) {
+                row[x] = 0;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowReader {
+        void read(int y, int[] row);
+    }
+
+    /**
+     * Copy an image into this image, with inner padding and extruded borders, and
+     * optionally rotated 90 degrees clockwise. The target area is expected to be
+     * transparent, since the padding isn't written.
+     * @param src image to copy
+     * @param x left of the target area
+     * @param y top of the target area
+     * @param innerPadding number of transparent pixels around the image
+     * @param extrudeBorders number of pixels to repeat the border pixels of the padded image
+     * @param rotate true to rotate the image
+     */
+    public void blit(BufferedImage src, int x, int y, int innerPadding, int extrudeBorders, boolean rotate) {
+        blit((sy, row) -> readRow(src, sy, row), src.getWidth(), src.getHeight(), x, y, innerPadding, extrudeBorders, rotate);
+    }
+
+    /**
+     * See {@link #blit(BufferedImage, int, int, int, int, boolean)}
+     */
+    public void blit(ArgbImage src, int x, int y, int innerPadding, int extrudeBorders, boolean rotate) {
+        blit((sy, row) -> System.arraycopy(src.pixels, sy * src.width, row, 0, src.width), src.width, src.height, x, y, innerPadding, extrudeBorders, rotate);
+    }
+
+    private void blit(RowReader reader, int srcWidth, int srcHeight, int x, int y, int innerPadding, int extrudeBorders, boolean rotate) {
+        int paddedWidth = srcWidth + innerPadding * 2;
+        int paddedHeight = srcHeight + innerPadding * 2;
+        int extrudedWidth = paddedWidth + extrudeBorders * 2;
+        int extrudedHeight = paddedHeight + extrudeBorders * 2;
+        int targetWidth = rotate ? extrudedHeight : extrudedWidth;
+        int targetHeight = rotate ? extrudedWidth : extrudedHeight;
+        if (x < 0 || y < 0 || x + targetWidth > width || y + targetHeight > height) {
+            throw new IllegalArgumentException(String.format("A %dx%d image at (%d, %d) is outside of the %dx%d target", targetWidth, targetHeight, x, y, width, height));
+        }
+        if (srcWidth == 0 || srcHeight == 0) {
+            return;
+        }
+
+        // Without padding, the border pixels of the image are extruded, otherwise the transparent padding is
+        int edgeWidth = innerPadding > 0 ? 0 : extrudeBorders;
+        int offset = innerPadding + extrudeBorders;
+        int[] row = new int[srcWidth];
+        for (int sy = 0; sy < srcHeight; ++sy) {
+            reader.read(sy, row);
+            // The rows of the extruded image that are copies of this row
+            int first = sy + offset;
+            int last = first;
+            if (sy == 0) {
+                first -= edgeWidth;
+            }
+            if (sy == srcHeight - 1) {
+                last += edgeWidth;
+            }
+            if (rotate) {
+                // Row ey of the extruded image becomes column extrudedHeight - 1 - ey
+                for (int ey = first; ey <= last; ++ey) {
+                    int index = x + extrudedHeight - 1 - ey + (y + offset - edgeWidth) * width;
+                    for (int i = 0; i < edgeWidth; ++i, index += width) {
+                        pixels[index] = row[0];
+                    }
+                    for (int sx = 0; sx < srcWidth; ++sx, index += width) {
+                        pixels[index] = row[sx];
+                    }
+                    for (int i = 0; i < edgeWidth; ++i, index += width) {
+                        pixels[index] = row[srcWidth - 1];
+                    }
+                }
+            } else {
+                int start = x + offset + (y + first) * width;
+                System.arraycopy(row, 0, pixels, start, srcWidth);
+                if (edgeWidth > 0) {
+                    Arrays.fill(pixels, start - edgeWidth, start, row[0]);
+                    Arrays.fill(pixels, start + srcWidth, start + srcWidth + edgeWidth, row[srcWidth - 1]);
+                }
+                for (int ey = first + 1; ey <= last; ++ey) {
+                    System.arraycopy(pixels, start - edgeWidth, pixels, start - edgeWidth + (ey - first) * width, srcWidth + edgeWidth * 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a TYPE_4BYTE_ABGR image of this image
+     */
+    public BufferedImage toBufferedImage() {
+        return toBufferedImage(0, 0, width, height);
+    }
+
+    /**
+     * Create a TYPE_4BYTE_ABGR image of an area of this image. The parts of the area
+     * outside of this image are transparent.
+     */
+    public BufferedImage toBufferedImage(int x, int y, int w, int h) {
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int x0 = Math.max(x, 0);
+        int x1 = Math.min(x + w, width);
+        int y0 = Math.max(y, 0);
+        int y1 = Math.min(y + h, height);
+        for (int sy = y0; sy < y1; ++sy) {
+            int index = ((sy - y) * w + x0 - x) * 4;
+            int srcIndex = sy * width;
+            for (int sx = x0; sx < x1; ++sx, index += 4) {
+                int argb = pixels[srcIndex + sx];
+                data[index] = (byte) (argb >>> 24);
+                data[index + 1] = (byte) argb;
+                data[index + 2] = (byte) (argb >> 8);
+                data[index + 3] = (byte) (argb >> 16);
+            }
+        }
+        return image;
+    }
+}
@@ -162,15 +162,13 @@ public class ComponentsCounter {
 
     private static Map.Entry<String, Boolean> getCounterNameAndPrototypeInfo(String type, IResource resource) throws IOException, CompileExceptionError {
         if (type.equals("factory")) {
-            FactoryDesc.Builder factoryDesc = FactoryDesc.newBuilder();
-            ProtoUtil.merge(resource, factoryDesc);
+            FactoryDesc factoryDesc = ProtoUtil.parse(resource, FactoryDesc.getDefaultInstance());
             Boolean isDynamic = factoryDesc.getDynamicPrototype();
             String counterName = BuilderUtil.replaceExt(factoryDesc.getPrototype(), ".go", EXT_GO);
             Map.Entry<String,Boolean> entry = new AbstractMap.SimpleEntry<String, Boolean>(counterName, isDynamic);
             return entry;
         } else if (type.equals("collectionfactory")) {
-            CollectionFactoryDesc.Builder factoryDesc = CollectionFactoryDesc.newBuilder();
-            ProtoUtil.merge(resource, factoryDesc);
+            CollectionFactoryDesc factoryDesc = ProtoUtil.parse(resource, CollectionFactoryDesc.getDefaultInstance());
             Boolean isDynamic = factoryDesc.getDynamicPrototype();
             String counterName = BuilderUtil.replaceExt(factoryDesc.getPrototype(), ".collection", EXT_COL);
             Map.Entry<String,Boolean> entry = new AbstractMap.SimpleEntry<String, Boolean>(counterName, isDynamic);
@@ -267,8 +265,7 @@ public class ComponentsCounter {
     }
 
     public static void countComponentsInEmbededObjects(Project project, IResource res, Storage compStorage) throws IOException, CompileExceptionError {
-        PrototypeDesc.Builder prot = PrototypeDesc.newBuilder();
-        ProtoUtil.merge(res, prot);
+        PrototypeDesc prot = ProtoUtil.parse(res, PrototypeDesc.getDefaultInstance());
 
         for (EmbeddedComponentDesc cd : prot.getEmbeddedComponentsList()) {
             String type = cd.getType();
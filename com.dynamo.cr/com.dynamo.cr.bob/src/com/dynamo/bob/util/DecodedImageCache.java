@@ -0,0 +1,246 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of decoded images within a build, keyed by the content hash of the image
+ * file, so that an image used by several atlases is only decoded once. The pixel
+ * data is kept outside of the Java heap and the least recently used images are
+ * dropped when the cache is full. Each lookup returns a new copy of the image, so
+ * the cached image can't be modified by the caller.
+ */
+public class DecodedImageCache {
+
+    private static class Entry {
+        ColorModel colorModel;
+        SampleModel sampleModel;
+        boolean alphaPremultiplied;
+        int dataType;
+        int size;
+        int[] offsets;
+        int[] bankLengths;
+        ByteBuffer[] banks;
+        long byteSize;
+    }
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long maxSize = 256 * 1024 * 1024;
+    private static long size = 0;
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Set the max size of the pixel data in the cache
+     * @param maxSize max size in bytes, 0 to disable the cache
+     */
+    public static synchronized void setMaxSize(long maxSize) {
+        DecodedImageCache.maxSize = maxSize;
+        evict();
+    }
+
+    private static void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().byteSize;
+            it.remove();
+        }
+    }
+
+    private static int getElementSize(int dataType) {
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE: return 1;
+            case DataBuffer.TYPE_USHORT: return 2;
+            case DataBuffer.TYPE_INT: return 4;
+            default: return 0;
+        }
+    }
+
+    private static Entry createEntry(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        // sub images share the data of a larger image and are not cached
+        if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        int elementSize = getElementSize(dataBuffer.getDataType());
+        if (elementSize == 0) {
+            return null;
+        }
+        Entry entry = new Entry();
+        entry.colorModel = image.getColorModel();
+        entry.sampleModel = raster.getSampleModel();
+        entry.alphaPremultiplied = image.isAlphaPremultiplied();
+        entry.dataType = dataBuffer.getDataType();
+        entry.size = dataBuffer.getSize();
+        entry.offsets = dataBuffer.getOffsets();
+        int numBanks = dataBuffer.getNumBanks();
+        entry.bankLengths = new int[numBanks];
+        entry.banks = new ByteBuffer[numBanks];
+        for (int i = 0; i < numBanks; ++i) {
+            ByteBuffer bank;
+            switch (entry.dataType) {
+                case DataBuffer.TYPE_BYTE: {
+                    byte[] data = ((DataBufferByte) dataBuffer).getData(i);
+                    bank = ByteBuffer.allocateDirect(data.length);
+                    bank.put(data);
+                    entry.bankLengths[i] = data.length;
+                    break;
+                }
+                case DataBuffer.TYPE_USHORT: {
+                    short[] data = ((DataBufferUShort) dataBuffer).getData(i);
+                    bank = ByteBuffer.allocateDirect(data.length * 2).order(ByteOrder.nativeOrder());
+                    bank.asShortBuffer().put(data);
+                    entry.bankLengths[i] = data.length;
+                    break;
+                }
+                default: {
+                    int[] data = ((DataBufferInt) dataBuffer).getData(i);
+                    bank = ByteBuffer.allocateDirect(data.length * 4).order(ByteOrder.nativeOrder());
+                    bank.asIntBuffer().put(data);
+                    entry.bankLengths[i] = data.length;
+                    break;
+                }
+            }
+            entry.banks[i] = bank;
+            entry.byteSize += bank.capacity();
+        }
+        return entry;
+    }
+
+    private static BufferedImage createImage(Entry entry) {
+        int numBanks = entry.banks.length;
+        DataBuffer dataBuffer;
+        switch (entry.dataType) {
+            case DataBuffer.TYPE_BYTE: {
+                byte[][] data = new byte[numBanks][];
+                for (int i = 0; i < numBanks; ++i) {
+                    data[i] = new byte[entry.bankLengths[i]];
+                    ByteBuffer bank = entry.banks[i].duplicate();
+                    bank.rewind();
+                    bank.get(data[i]);
+                }
+                dataBuffer = new DataBufferByte(data, entry.size, entry.offsets);
+                break;
+            }
+            case DataBuffer.TYPE_USHORT: {
+                short[][] data = new short[numBanks][];
+                for (int i = 0; i < numBanks; ++i) {
+                    data[i] = new short[entry.bankLengths[i]];
+                    ByteBuffer bank = entry.banks[i].duplicate().order(ByteOrder.nativeOrder());
+                    bank.rewind();
+                    bank.asShortBuffer().get(data[i]);
+                }
+                dataBuffer = new DataBufferUShort(data, entry.size, entry.offsets);
+                break;
+            }
+            default: {
+                int[][] data = new int[numBanks][];
+                for (int i = 0; i < numBanks; ++i) {
+                    data[i] = new int[entry.bankLengths[i]];
+                    ByteBuffer bank = entry.banks[i].duplicate().order(ByteOrder.nativeOrder());
+                    bank.rewind();
+                    bank.asIntBuffer().get(data[i]);
+                }
+                dataBuffer = new DataBufferInt(data, entry.size, entry.offsets);
+                break;
+            }
+        }
+        WritableRaster raster = Raster.createWritableRaster(entry.sampleModel, dataBuffer, new Point(0, 0));
+        return new BufferedImage(entry.colorModel, raster, entry.alphaPremultiplied, null);
+    }
+
+    /**
+     * Get a copy of a cached image
+     * @param key content hash of the image file
+     * @return the image or null if it isn't cached
+     */
+    public static BufferedImage get(String key) {
+        Entry entry;
+        synchronized (DecodedImageCache.class) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return createImage(entry);
+    }
+
+    /**
+     * Cache a decoded image. Images with unusual pixel layouts and images larger
+     * than the cache are not cached.
+     * @param key content hash of the image file
+     * @param image the decoded image
+     */
+    public static void put(String key, BufferedImage image) {
+        synchronized (DecodedImageCache.class) {
+            if (maxSize <= 0 || entries.containsKey(key)) {
+                return;
+            }
+        }
+        Entry entry = createEntry(image);
+        if (entry == null || entry.byteSize > maxSize) {
+            return;
+        }
+        synchronized (DecodedImageCache.class) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.byteSize;
+            }
+            size += entry.byteSize;
+            evict();
+        }
+    }
+
+    /**
+     * Drop all images. Called at the end of each build.
+     */
+    public static synchronized void clear() {
+        entries.clear();
+        size = 0;
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public static synchronized long getSize() {
+        return size;
+    }
+
+    public static int getHits() {
+        return hits.get();
+    }
+
+    public static int getMisses() {
+        return misses.get();
+    }
+}
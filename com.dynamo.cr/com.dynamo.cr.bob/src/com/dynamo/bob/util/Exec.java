@@ -19,6 +19,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -83,6 +84,8 @@ public class Exec {
         }
         public int ret;
         public byte[] stdOutErr;
+        // only set by execResultWithInput, stdOutErr then contains stdout only
+        public byte[] stdErr;
     }
 
     /**
@@ -116,6 +119,59 @@ public class Exec {
         return new Result(ret, out.toByteArray());
     }
 
+    /**
+     * Exec command, writing input to stdin. Stdout and stderr are read separately
+     * so that commands writing binary output to stdout can be used without
+     * temporary files.
+     * @param input data written to stdin
+     * @param args arguments
+     * @return instance with return code, stdout in stdOutErr and stderr in stdErr
+     * @throws IOException
+     */
+    public static Result execResultWithInput(byte[] input, String... args) throws IOException {
+        if (getVerbosity() >= 2) {
+            logger.info("CMD: " + String.join(" ", args));
+        }
+        ProcessBuilder pb = new ProcessBuilder(args);
+        addJavaBinPath(pb);
+        Process p = pb.start();
+
+        // stdin and stderr are handled on separate threads so that neither
+        // side blocks on a full pipe
+        ByteArrayOutputStream err = new ByteArrayOutputStream(1024);
+        Thread errReader = new Thread(() -> {
+            try (InputStream is = p.getErrorStream()) {
+                is.transferTo(err);
+            } catch (IOException e) {
+                // the process has exited
+            }
+        }, "exec-stderr");
+        errReader.start();
+        Thread inWriter = new Thread(() -> {
+            try (OutputStream os = p.getOutputStream()) {
+                os.write(input);
+            } catch (IOException e) {
+                // the process exited without reading all input
+            }
+        }, "exec-stdin");
+        inWriter.start();
+
+        int ret = 127;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(10 * 1024);
+        try (InputStream is = p.getInputStream()) {
+            is.transferTo(out);
+            ret = p.waitFor();
+            inWriter.join();
+            errReader.join();
+        } catch (InterruptedException e) {
+            logger.severe("Unexpected interruption", e);
+        }
+
+        Result result = new Result(ret, out.toByteArray());
+        result.stdErr = err.toByteArray();
+        return result;
+    }
+
     private static ProcessBuilder processBuilderWithArgs(Map<String, String> env, String[] args) {
         if (getVerbosity() >= 2) {
             logger.info("CMD: " + String.join(" ", args));
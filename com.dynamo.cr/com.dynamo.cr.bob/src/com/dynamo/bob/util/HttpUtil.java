@@ -27,6 +27,8 @@ import java.util.Base64;
 import java.net.URL;
 import java.net.HttpURLConnection;
 import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -96,6 +98,48 @@ public class HttpUtil {
 		}
 	}
 
+	/**
+	 * Download a file if it exists on the server. The file is downloaded to a
+	 * temporary file which is then moved in place, so a partially downloaded file
+	 * is never seen at the target location.
+	 * @param url the url to download
+	 * @param file the file to download to
+	 * @return true if the file was downloaded, false if it doesn't exist on the server
+	 */
+	public boolean downloadToFileIfExists(URL url, File file) {
+		File tmpFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			HttpURLConnection connection = openConnection(url, "GET");
+			connection.connect();
+			int code = connection.getResponseCode();
+
+			if (code == 404 || code == 410) {
+				connection.disconnect();
+				return false;
+			}
+			else if (code >= 400) {
+				logWarning("Status %d: Failed to download %s", code, url);
+				throw new RuntimeException(String.format("Status %d: Failed to download %s", code, url), new Exception());
+			}
+			try (InputStream input = new BufferedInputStream(connection.getInputStream())) {
+				FileUtils.copyInputStreamToFile(input, tmpFile);
+			}
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			connection.disconnect();
+			return true;
+		}
+		catch (ConnectException e) {
+			throw new RuntimeException(String.format("Connection refused by the server at %s", url.toString()), e);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(String.format("Failed to download %s: %s", url.toString(), e.toString()), e);
+		}
+		finally {
+			// left behind if the download or the move failed
+			tmpFile.delete();
+		}
+	}
+
 	public void uploadFile(URL url, File file) {
 		try {
 			HttpURLConnection connection = openConnection(url, "PUT");
@@ -38,6 +38,8 @@ import org.apache.commons.io.IOUtils;
 
 public class LibraryUtil {
 
+    public static final String PARTIAL_SUFFIX = ".part";
+
     /** Convert the supplied URL into a short string representation
      *
      * @param url Url of the library
@@ -79,6 +81,40 @@ public class LibraryUtil {
         return String.format("%s-%s.zip", getHashedUrl(url), etagB64);
     }
 
+    /** Get the filename of a partially downloaded library. The partial file is
+     * named after the ETag of the response it came from, so that the download
+     * can be resumed only if the library hasn't changed on the server.
+     *
+     * @param url Url of the library
+     * @param etag ETag of the library
+     * @return the filename of the partially downloaded library
+     */
+    public static String getPartialFileName(URL url, String etag)
+    {
+        return getFileName(url, etag) + PARTIAL_SUFFIX;
+    }
+
+    /** Find a partially downloaded library.
+     *
+     * @param libPath base path of the library files
+     * @param url Url of the library
+     * @return the partially downloaded file or null if there is none
+     */
+    public static File findPartialFile(String libPath, URL url) {
+        File currentFiles[] = new File(libPath).listFiles(File::isFile);
+        if (currentFiles == null) {
+            return null;
+        }
+        String hashedUrl = getHashedUrl(url);
+        for (File f : currentFiles) {
+            String name = f.getName();
+            if (name.endsWith(PARTIAL_SUFFIX) && matchUri(hashedUrl, name.substring(0, name.length() - PARTIAL_SUFFIX.length()))) {
+                return f;
+            }
+        }
+        return null;
+    }
+
     /** Convert a list of library URLs into a map of corresponding files on disk.
      *
      * @param libPath base path of the library files
@@ -0,0 +1,193 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
+
+/**
+ * Helpers to run independent work items, e.g. per image work, in parallel on a
+ * fork-join pool with at most {@link #setMaxThreads(int)} threads, shared by all
+ * the tasks of the build. The results are always returned in the order of the
+ * items and if several items fail, the failure of the first item is reported, so
+ * the outcome doesn't depend on the scheduling.
+ */
+public class ParallelUtil {
+
+    @FunctionalInterface
+    public interface IndexedFunction<R> {
+        R apply(int index) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface BatchConsumer<R> {
+        void accept(int index, R result) throws Exception;
+    }
+
+    private static int maxThreads = Project.getDefaultMaxCpuThreads();
+    private static ForkJoinPool pool = null;
+
+    /**
+     * Set the number of threads used to run the work items, e.g. from the
+     * max-cpu-threads option. Called at the start of each build.
+     * @param threads max number of threads
+     */
+    public static synchronized void setMaxThreads(int threads) {
+        threads = Math.max(1, threads);
+        if (threads != maxThreads) {
+            // the idle threads of the previous pool exit by themselves
+            maxThreads = threads;
+            pool = null;
+        }
+    }
+
+    public static synchronized int getMaxThreads() {
+        return maxThreads;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(maxThreads);
+        }
+        return pool;
+    }
+
+    /**
+     * Get the number of items to process in parallel per batch, when the results
+     * of a batch should be consumed before the next batch is processed to limit
+     * the memory used
+     * @return batch size
+     */
+    public static int getBatchSize() {
+        return getMaxThreads() * 2;
+    }
+
+    private static void rethrow(Throwable t) throws IOException, CompileExceptionError {
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof CompileExceptionError) {
+            throw (CompileExceptionError) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+
+    private static <R> void mapRange(int start, int end, IndexedFunction<R> function, Object[] results) throws IOException, CompileExceptionError {
+        Throwable[] errors = new Throwable[end - start];
+        List<ForkJoinTask<?>> items = new ArrayList<>(end - start);
+        for (int index = start; index < end; ++index) {
+            final int i = index;
+            items.add(ForkJoinTask.adapt(() -> {
+                try {
+                    results[i] = function.apply(i);
+                } catch (Throwable t) {
+                    errors[i - start] = t;
+                }
+            }));
+        }
+        if (items.size() == 1) {
+            items.get(0).invoke();
+        } else if (items.size() > 1) {
+            ForkJoinPool current = getPool();
+            if (ForkJoinTask.getPool() == current) {
+                // called from a work item, e.g. per page work that is split per image
+                ForkJoinTask.invokeAll(items);
+            } else {
+                current.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(items)));
+            }
+        }
+        for (Throwable t : errors) {
+            if (t != null) {
+                rethrow(t);
+            }
+        }
+    }
+
+    /**
+     * Apply a function to the indices 0 to count-1 in parallel
+     * @param count number of items
+     * @param function function to apply to each index
+     * @return list of results, in index order
+     * @throws IOException the first IOException thrown by the function, in index order
+     * @throws CompileExceptionError the first CompileExceptionError thrown by the function, in index order
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> List<R> map(int count, IndexedFunction<R> function) throws IOException, CompileExceptionError {
+        Object[] results = new Object[count];
+        mapRange(0, count, function, results);
+        return new ArrayList<R>((List<R>) Arrays.asList(results));
+    }
+
+    /**
+     * Apply a function to the indices 0 to count-1 in parallel, a batch of indices
+     * at a time, and pass the results of each batch to a consumer in index order,
+     * on the calling thread. Only the results of one batch are kept at a time.
+     * @param count number of items
+     * @param function function to apply to each index
+     * @param consumer consumer of the results
+     * @throws IOException the first IOException thrown, in index order
+     * @throws CompileExceptionError the first CompileExceptionError thrown, in index order
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> void mapBatched(int count, IndexedFunction<R> function, BatchConsumer<R> consumer) throws IOException, CompileExceptionError {
+        int batchSize = getBatchSize();
+        Object[] results = new Object[count];
+        for (int start = 0; start < count; start += batchSize) {
+            int end = Math.min(count, start + batchSize);
+            mapRange(start, end, function, results);
+            for (int i = start; i < end; ++i) {
+                try {
+                    consumer.accept(i, (R) results[i]);
+                } catch (Exception e) {
+                    rethrow(e);
+                }
+                // release the result as soon as it has been consumed
+                results[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #map(int, IndexedFunction)} for functions that don't throw checked exceptions
+     */
+    public static <R> List<R> mapUnchecked(int count, IndexedFunction<R> function) {
+        try {
+            return map(count, function);
+        } catch (IOException | CompileExceptionError e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Like {@link #mapBatched(int, IndexedFunction, BatchConsumer)} for functions that don't throw checked exceptions
+     */
+    public static <R> void mapBatchedUnchecked(int count, IndexedFunction<R> function, BatchConsumer<R> consumer) {
+        try {
+            mapBatched(count, function, consumer);
+        } catch (IOException | CompileExceptionError e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
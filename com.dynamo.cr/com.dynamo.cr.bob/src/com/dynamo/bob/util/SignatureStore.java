@@ -0,0 +1,485 @@
+// Copyright 2020-2024 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dynamo.bob.Platform;
+
+/**
+ * Compact binary store mapping paths to small values, such as sha1 signatures.
+ *
+ * On disk the store consists of a snapshot file and a journal file next to it:
+ * <ul>
+ * <li>The snapshot has a header followed by fixed-width slots sorted by path hash,
+ * and a table with the paths. It is memory mapped when opened and looked up using
+ * binary search, so opening a store doesn't depend on the number of entries.</li>
+ * <li>The journal contains the changes made since the snapshot was written. Each save
+ * appends the changes made since the last save. When the journal grows too large the
+ * store is compacted into a new snapshot.</li>
+ * </ul>
+ *
+ * A store can also be kept in a byte array using {@link #fromBytes(byte[], int)} and
+ * {@link #toByteArray()}, for resources that don't live on disk.
+ *
+ * All methods are synchronized and may be called from several threads.
+ */
+public class SignatureStore {
+
+    private static final int SNAPSHOT_MAGIC = 0x42534947; // "BSIG"
+    private static final int JOURNAL_MAGIC = 0x42534A4C; // "BSJL"
+    private static final int VERSION = 1;
+    // magic, version, max value size, number of slots
+    private static final int SNAPSHOT_HEADER_SIZE = 16;
+    // magic, version, max value size
+    private static final int JOURNAL_HEADER_SIZE = 12;
+    // path hash, path offset, path length, value length
+    private static final int SLOT_HEADER_SIZE = 17;
+    // journal entries needed before compacting, regardless of snapshot size
+    private static final int MIN_COMPACT_JOURNAL_ENTRIES = 4096;
+
+    // marks a removed path in the change maps
+    private static final byte[] REMOVED = new byte[0];
+
+    private final int maxValueSize;
+    private final int slotSize;
+
+    private final File file;
+    private final File journalFile;
+
+    private ByteBuffer snapshot;
+    private int snapshotCount;
+    private int pathTableOffset;
+
+    // all changes since the snapshot was written, including the ones in the journal
+    private Map<String, byte[]> changes = new HashMap<>();
+    // changes not yet written to the journal
+    private Map<String, byte[]> unsaved = new LinkedHashMap<>();
+    private int journalCount;
+    private boolean compactOnSave;
+
+    /**
+     * Create an empty store, not backed by a file
+     * @param maxValueSize max size of a value in bytes
+     */
+    public SignatureStore(int maxValueSize) {
+        this(null, maxValueSize);
+    }
+
+    private SignatureStore(File file, int maxValueSize) {
+        if (maxValueSize < 0 || maxValueSize > 127) {
+            throw new IllegalArgumentException("Invalid max value size " + maxValueSize);
+        }
+        this.maxValueSize = maxValueSize;
+        this.slotSize = SLOT_HEADER_SIZE + maxValueSize;
+        this.file = file;
+        this.journalFile = file != null ? new File(file.getPath() + ".journal") : null;
+    }
+
+    /**
+     * Open a store backed by a file. A missing file results in an empty store. A file in
+     * an unknown format (e.g. written by an older version) also results in an empty store,
+     * and the file is replaced with a new snapshot on the next {@link #save()}.
+     * @param file the snapshot file
+     * @param maxValueSize max size of a value in bytes
+     * @return the store
+     * @throws IOException
+     */
+    public static SignatureStore open(File file, int maxValueSize) throws IOException {
+        SignatureStore store = new SignatureStore(file, maxValueSize);
+        if (file.isFile()) {
+            ByteBuffer buffer = readFile(file);
+            if (!store.setSnapshot(buffer)) {
+                store.compactOnSave = true;
+            }
+        }
+        if (store.journalFile.isFile()) {
+            if (store.compactOnSave || !store.replayJournal(readFile(store.journalFile))) {
+                // the journal doesn't belong to the snapshot or is damaged
+                store.compactOnSave = true;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Create a store from a snapshot previously created with {@link #toByteArray()}
+     * @param content the snapshot. null or an unknown format results in an empty store.
+     * @param maxValueSize max size of a value in bytes
+     * @return the store
+     */
+    public static SignatureStore fromBytes(byte[] content, int maxValueSize) {
+        SignatureStore store = new SignatureStore(maxValueSize);
+        if (content != null) {
+            store.setSnapshot(ByteBuffer.wrap(content));
+        }
+        return store;
+    }
+
+    /**
+     * Check if some content is a snapshot created by a store
+     * @param content content to check
+     * @return true if the content starts like a snapshot
+     */
+    public static boolean isSnapshot(byte[] content) {
+        return content != null && content.length >= SNAPSHOT_HEADER_SIZE && ByteBuffer.wrap(content).getInt(0) == SNAPSHOT_MAGIC;
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Mapped files can't be replaced or deleted on Windows until the mapping is
+            // garbage collected, so the file is read instead
+            if (size == 0 || Platform.getHostPlatform().getOs().equals("win32")) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+                return buffer;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private boolean setSnapshot(ByteBuffer buffer) {
+        if (buffer.limit() < SNAPSHOT_HEADER_SIZE
+            || buffer.getInt(0) != SNAPSHOT_MAGIC
+            || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != maxValueSize) {
+            return false;
+        }
+        int count = buffer.getInt(12);
+        long tableOffset = SNAPSHOT_HEADER_SIZE + (long) count * slotSize;
+        if (count < 0 || tableOffset > buffer.limit()) {
+            return false;
+        }
+        snapshot = buffer;
+        snapshotCount = count;
+        pathTableOffset = (int) tableOffset;
+        return true;
+    }
+
+    private boolean replayJournal(ByteBuffer buffer) {
+        if (buffer.limit() < JOURNAL_HEADER_SIZE
+            || buffer.getInt(0) != JOURNAL_MAGIC
+            || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != maxValueSize) {
+            return false;
+        }
+        buffer.position(JOURNAL_HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            // a record cut short, e.g. by a crash during save, ends the journal
+            if (buffer.remaining() < 4) {
+                return false;
+            }
+            int pathLength = buffer.getInt();
+            if (pathLength < 0 || buffer.remaining() < pathLength + 1) {
+                return false;
+            }
+            byte[] pathBytes = new byte[pathLength];
+            buffer.get(pathBytes);
+            int valueLength = buffer.get();
+            if (valueLength > maxValueSize || buffer.remaining() < Math.max(valueLength, 0)) {
+                return false;
+            }
+            byte[] value = REMOVED;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                buffer.get(value);
+            }
+            changes.put(new String(pathBytes, StandardCharsets.UTF_8), value);
+            journalCount++;
+        }
+        return true;
+    }
+
+    private static long hashPath(byte[] pathBytes) {
+        return MurmurHash.hash64(pathBytes, pathBytes.length);
+    }
+
+    private int slotOffset(int index) {
+        return SNAPSHOT_HEADER_SIZE + index * slotSize;
+    }
+
+    private byte[] getSlotPath(int index) {
+        int offset = slotOffset(index);
+        byte[] pathBytes = new byte[snapshot.getInt(offset + 12)];
+        snapshot.get(pathTableOffset + snapshot.getInt(offset + 8), pathBytes);
+        return pathBytes;
+    }
+
+    private byte[] getSlotValue(int index) {
+        int offset = slotOffset(index);
+        byte[] value = new byte[snapshot.get(offset + 16)];
+        snapshot.get(offset + SLOT_HEADER_SIZE, value);
+        return value;
+    }
+
+    private byte[] getFromSnapshot(String path) {
+        if (snapshot == null || snapshotCount == 0) {
+            return null;
+        }
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        long hash = hashPath(pathBytes);
+        // find the first slot with the hash
+        int low = 0;
+        int high = snapshotCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (snapshot.getLong(slotOffset(mid)) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < snapshotCount && snapshot.getLong(slotOffset(i)) == hash; ++i) {
+            if (Arrays.equals(getSlotPath(i), pathBytes)) {
+                return getSlotValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the value for a path
+     * @param path path to get the value for
+     * @return the value or null if no mapping exists
+     */
+    public synchronized byte[] get(String path) {
+        byte[] value = changes.get(path);
+        if (value != null) {
+            return value == REMOVED ? null : value;
+        }
+        return getFromSnapshot(path);
+    }
+
+    /**
+     * Set the value for a path
+     * @param path path to set the value for
+     * @param value the value, at most the max value size of the store
+     */
+    public synchronized void put(String path, byte[] value) {
+        if (value.length > maxValueSize) {
+            throw new IllegalArgumentException(String.format("Value for '%s' is %d bytes, max is %d", path, value.length, maxValueSize));
+        }
+        byte[] current = get(path);
+        if (current != null && Arrays.equals(current, value)) {
+            return;
+        }
+        // REMOVED is compared by identity, never store it as a value
+        byte[] copy = Arrays.copyOf(value, value.length);
+        changes.put(path, copy);
+        unsaved.put(path, copy);
+    }
+
+    /**
+     * Remove the value for a path
+     * @param path path to remove the value for
+     */
+    public synchronized void remove(String path) {
+        if (get(path) == null) {
+            return;
+        }
+        changes.put(path, REMOVED);
+        unsaved.put(path, REMOVED);
+    }
+
+    /**
+     * Get all paths with a value
+     * @return list of paths
+     */
+    public synchronized List<String> getPaths() {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < snapshotCount; ++i) {
+            String path = new String(getSlotPath(i), StandardCharsets.UTF_8);
+            if (!changes.containsKey(path)) {
+                paths.add(path);
+            }
+        }
+        for (Map.Entry<String, byte[]> entry : changes.entrySet()) {
+            if (entry.getValue() != REMOVED) {
+                paths.add(entry.getKey());
+            }
+        }
+        return paths;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final byte[] path;
+        final long hash;
+        final byte[] value;
+
+        Entry(byte[] path, byte[] value) {
+            this.path = path;
+            this.hash = hashPath(path);
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(hash, other.hash);
+            return result != 0 ? result : Arrays.compare(path, other.path);
+        }
+    }
+
+    private ByteBuffer createSnapshot() {
+        List<Entry> entries = new ArrayList<>();
+        int pathTableSize = 0;
+        for (int i = 0; i < snapshotCount; ++i) {
+            byte[] pathBytes = getSlotPath(i);
+            if (!changes.containsKey(new String(pathBytes, StandardCharsets.UTF_8))) {
+                entries.add(new Entry(pathBytes, getSlotValue(i)));
+                pathTableSize += pathBytes.length;
+            }
+        }
+        for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+            if (change.getValue() != REMOVED) {
+                byte[] pathBytes = change.getKey().getBytes(StandardCharsets.UTF_8);
+                entries.add(new Entry(pathBytes, change.getValue()));
+                pathTableSize += pathBytes.length;
+            }
+        }
+        Collections.sort(entries);
+
+        int tableOffset = SNAPSHOT_HEADER_SIZE + entries.size() * slotSize;
+        ByteBuffer buffer = ByteBuffer.allocate(tableOffset + pathTableSize);
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(maxValueSize);
+        buffer.putInt(entries.size());
+        int pathOffset = 0;
+        for (Entry entry : entries) {
+            buffer.putLong(entry.hash);
+            buffer.putInt(pathOffset);
+            buffer.putInt(entry.path.length);
+            buffer.put((byte) entry.value.length);
+            buffer.put(entry.value);
+            buffer.position(buffer.position() + maxValueSize - entry.value.length);
+            pathOffset += entry.path.length;
+        }
+        for (Entry entry : entries) {
+            buffer.put(entry.path);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void resetToSnapshot(ByteBuffer buffer) {
+        setSnapshot(buffer);
+        changes = new HashMap<>();
+        unsaved = new LinkedHashMap<>();
+        journalCount = 0;
+        compactOnSave = false;
+    }
+
+    /**
+     * Get the store as a snapshot
+     * @return the snapshot
+     */
+    public synchronized byte[] toByteArray() {
+        ByteBuffer buffer = createSnapshot();
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return content;
+    }
+
+    /**
+     * Write a new snapshot with all entries and remove the journal
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        if (file == null) {
+            return;
+        }
+        ByteBuffer buffer = createSnapshot();
+        file.getParentFile().mkdirs();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(journalFile.toPath());
+        buffer.rewind();
+        resetToSnapshot(buffer);
+    }
+
+    /**
+     * Save the changes made since the last save. Changes are appended to the journal,
+     * unless the journal has grown large enough to compact the store into a new snapshot.
+     * Does nothing for stores not backed by a file.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        // if the files were removed (e.g. by a clean) appending to the journal isn't enough
+        boolean filesMissing = (snapshot != null && !file.isFile()) || (journalCount > 0 && !journalFile.isFile());
+        if (compactOnSave || filesMissing || journalCount + unsaved.size() > Math.max(MIN_COMPACT_JOURNAL_ENTRIES, snapshotCount / 2)) {
+            compact();
+            return;
+        }
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        boolean writeHeader = !journalFile.isFile() || journalFile.length() == 0;
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)))) {
+            if (writeHeader) {
+                os.writeInt(JOURNAL_MAGIC);
+                os.writeInt(VERSION);
+                os.writeInt(maxValueSize);
+            }
+            for (Map.Entry<String, byte[]> entry : unsaved.entrySet()) {
+                byte[] pathBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] value = entry.getValue();
+                os.writeInt(pathBytes.length);
+                os.write(pathBytes);
+                if (value == REMOVED) {
+                    os.writeByte(-1);
+                } else {
+                    os.writeByte(value.length);
+                    os.write(value);
+                }
+            }
+        }
+        journalCount += unsaved.size();
+        unsaved = new LinkedHashMap<>();
+    }
+}
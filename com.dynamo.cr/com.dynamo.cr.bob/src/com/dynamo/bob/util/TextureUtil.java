@@ -20,13 +20,14 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
 import javax.imageio.ImageIO;
 
+import org.apache.commons.codec.binary.Hex;
+
 import com.google.protobuf.ByteString;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.fs.IResource;
@@ -90,10 +91,7 @@ public class TextureUtil {
     public static List<BufferedImage> createPaddedImages(List<BufferedImage> srcImages, int paddingAmount, Color paddingColour) {
         List<BufferedImage> result = srcImages;
         if (0 < paddingAmount) {
-            result = new ArrayList<BufferedImage>(srcImages.size());
-            for (BufferedImage srcImage : srcImages) {
-                result.add(createPaddedImage(srcImage, paddingAmount, paddingColour));
-            }
+            result = ParallelUtil.mapUnchecked(srcImages.size(), i -> createPaddedImage(srcImages.get(i), paddingAmount, paddingColour));
         }
         return result;
     }
@@ -118,10 +116,7 @@ public class TextureUtil {
     public static List<BufferedImage> extrudeBorders(List<BufferedImage> srcImages, int extrudeBorders) {
         List<BufferedImage> result = srcImages;
         if (extrudeBorders > 0) {
-            result = new ArrayList<BufferedImage>(srcImages.size());
-            for (BufferedImage srcImage : srcImages) {
-                result.add(extrudeBorders(srcImage, extrudeBorders));
-            }
+            result = ParallelUtil.mapUnchecked(srcImages.size(), i -> extrudeBorders(srcImages.get(i), extrudeBorders));
         }
         return result;
     }
@@ -281,18 +276,37 @@ public class TextureUtil {
         return TextureUtil.createCombinedTextureImage(textureImages, textureType);
     }
 
-    // Public api
-    public static List<BufferedImage> loadImages(List<IResource> resources) throws IOException, CompileExceptionError {
-        List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
-
-        for (IResource resource : resources) {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
-            if (image == null) {
-                throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+    /**
+     * Decode an image, or get it from the cache of decoded images if the same
+     * content has already been decoded during the build
+     * @param resource the image file
+     * @return the image or null if the image format isn't supported
+     * @throws IOException
+     */
+    public static BufferedImage readImage(IResource resource) throws IOException {
+        String key = Hex.encodeHexString(resource.sha1());
+        BufferedImage image = DecodedImageCache.get(key);
+        if (image == null) {
+            image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
+            if (image != null) {
+                DecodedImageCache.put(key, image);
             }
-            images.add(image);
         }
-        return images;
+        return image;
+    }
+
+    public static BufferedImage loadImage(IResource resource) throws IOException, CompileExceptionError {
+        BufferedImage image = readImage(resource);
+        if (image == null) {
+            throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+        }
+        return image;
+    }
+
+    // Public api
+    // The images are decoded in parallel. If several images fail to load, the first one is reported.
+    public static List<BufferedImage> loadImages(List<IResource> resources) throws IOException, CompileExceptionError {
+        return ParallelUtil.map(resources.size(), i -> loadImage(resources.get(i)));
     }
 
     static HashMap<String, String> ATLAS_FILE_TYPES = new HashMap<>();
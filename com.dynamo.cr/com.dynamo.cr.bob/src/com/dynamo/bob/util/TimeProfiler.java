@@ -58,6 +58,9 @@ public class TimeProfiler {
 
         public ProfilingScope parent;
         public ArrayList<ProfilingScope> children;
+        public boolean threadLane;
+        // the profiling session the scope was started in, see init()
+        public int generation;
     }
 
     /**
@@ -75,6 +78,15 @@ public class TimeProfiler {
 
     private static ProfilingScope rootScope;
     private static ProfilingScope currentScope;
+    // Scopes started from threads other than the one that called init() (e.g. the
+    // task worker threads) are recorded in a separate lane per thread
+    private static Thread mainThread;
+    private static ThreadLocal<ProfilingScope> threadScope = new ThreadLocal<ProfilingScope>();
+    private static ArrayList<ProfilingScope> threadLanes = new ArrayList<ProfilingScope>();
+    // Incremented by init(). Threads outlive a profiling session (e.g. the common pool
+    // threads, or the threads of a build daemon), so the scopes they kept from a
+    // previous session are discarded when the generation doesn't match.
+    private static volatile int generation;
     private static List<File> reportFiles;
     private static Boolean fromEditor;
 
@@ -199,8 +211,21 @@ public class TimeProfiler {
         ProfilingScope _rootScope = rootScope;
         // Make sure that using of TimeProfiler is impossible from now on
         rootScope = null;
+        // The report may be created from the shutdown hook thread
+        mainThread = Thread.currentThread();
         long reportStartTime = time();
 
+        // Close the lanes of all worker threads
+        synchronized (threadLanes) {
+            for (ProfilingScope lane : threadLanes) {
+                lane.endTime = reportStartTime;
+                if (lane.children != null && !lane.children.isEmpty()) {
+                    lane.endTime = lane.children.get(lane.children.size() - 1).endTime;
+                }
+            }
+            threadLanes.clear();
+        }
+
         //Close all unclosed scopes
         while(currentScope != _rootScope) {
             unsafeAddData("forceFinishedScope", true);
@@ -250,9 +275,11 @@ public class TimeProfiler {
             startTime = bean.getStartTime(); //Returns the start time of the Java virtual machine in milliseconds.
         }
         buildTime = startTime;
+        generation++;
         rootScope = new ProfilingScope();
         rootScope.startTime = startTime;
         currentScope = rootScope;
+        mainThread = Thread.currentThread();
         unsafeAddData("name", "Total time");
 
         if (!fromEditor) {
@@ -274,18 +301,56 @@ public class TimeProfiler {
         }));
     }
 
+    private static ProfilingScope getCurrentScope() {
+        if (Thread.currentThread() == mainThread) {
+            return currentScope;
+        }
+        ProfilingScope scope = threadScope.get();
+        if (scope == null || scope.generation != generation) {
+            scope = new ProfilingScope();
+            scope.startTime = time();
+            scope.threadLane = true;
+            scope.generation = generation;
+            scope.additionalStringData = new HashMap<String, String>();
+            scope.additionalStringData.put("name", Thread.currentThread().getName());
+            addChild(rootScope, scope);
+            synchronized (threadLanes) {
+                threadLanes.add(scope);
+            }
+            threadScope.set(scope);
+        }
+        return scope;
+    }
+
+    private static void setCurrentScope(ProfilingScope scope) {
+        if (Thread.currentThread() == mainThread) {
+            currentScope = scope;
+        }
+        else {
+            threadScope.set(scope);
+        }
+    }
+
+    private static void addChild(ProfilingScope parent, ProfilingScope scope) {
+        // the root scope is shared between the main thread and the thread lanes
+        synchronized (parent) {
+            if (parent.children == null) {
+                parent.children = new ArrayList<ProfilingScope>();
+            }
+            scope.parent = parent;
+            parent.children.add(scope);
+        }
+    }
+
     public static void start() {
         if (rootScope == null) {
             return;
         }
-        if (currentScope.children == null) {
-            currentScope.children = new ArrayList<ProfilingScope>();
-        }
         ProfilingScope scope = new ProfilingScope();
         scope.startTime = time();
-        scope.parent = currentScope;
-        currentScope.children.add(scope);
-        currentScope = scope;
+        scope.generation = generation;
+        addChild(getCurrentScope(), scope);
+        setCurrentScope(scope);
     }
 
     public static void start(String scopeName) {
@@ -301,8 +366,13 @@ public class TimeProfiler {
     }
 
     private static void unsafeStop() {
-        currentScope.endTime = time();
-        currentScope = currentScope.parent;
+        ProfilingScope scope = getCurrentScope();
+        if (scope.threadLane) {
+            // unbalanced stop() on a worker thread
+            return;
+        }
+        scope.endTime = time();
+        setCurrentScope(scope.parent);
     }
 
     public static void stop() {
@@ -321,7 +391,9 @@ public class TimeProfiler {
         mark.shortName = shortName;
         mark.fullName = fullName;
         mark.color = color;
-        marks.add(mark);
+        synchronized (marks) {
+            marks.add(mark);
+        }
     }
 
     public static void addMark(String shortName) {
@@ -333,24 +405,27 @@ public class TimeProfiler {
     }
 
     private static void unsafeAddData(String fieldName, String data) {
-        if (currentScope.additionalStringData == null) {
-            currentScope.additionalStringData = new HashMap<String, String>();
+        ProfilingScope scope = getCurrentScope();
+        if (scope.additionalStringData == null) {
+            scope.additionalStringData = new HashMap<String, String>();
         }
-        currentScope.additionalStringData.put(fieldName, data);
+        scope.additionalStringData.put(fieldName, data);
     }
 
     private static void unsafeAddData(String fieldName, Float data) {
-        if (currentScope.additionalNumberData == null) {
-            currentScope.additionalNumberData = new HashMap<String, Float>();
+        ProfilingScope scope = getCurrentScope();
+        if (scope.additionalNumberData == null) {
+            scope.additionalNumberData = new HashMap<String, Float>();
         }
-        currentScope.additionalNumberData.put(fieldName, data);
+        scope.additionalNumberData.put(fieldName, data);
     }
 
     private static void unsafeAddData(String fieldName, Boolean data) {
-        if (currentScope.additionalBooleanData == null) {
-            currentScope.additionalBooleanData = new HashMap<String, Boolean>();
+        ProfilingScope scope = getCurrentScope();
+        if (scope.additionalBooleanData == null) {
+            scope.additionalBooleanData = new HashMap<String, Boolean>();
         }
-        currentScope.additionalBooleanData.put(fieldName, data);
+        scope.additionalBooleanData.put(fieldName, data);
     }
 
     public static void addData(String fieldName, String data) {